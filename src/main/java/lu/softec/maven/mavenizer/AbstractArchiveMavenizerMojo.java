@@ -15,6 +15,9 @@
  */
 package lu.softec.maven.mavenizer;
 
+import org.codehaus.plexus.components.io.fileselectors.FileSelector;
+import org.codehaus.plexus.components.io.fileselectors.IncludeExcludeFileSelector;
+
 /**
  * Base class for Mavenizer mojo providing paramater specific to archive and analysis operations
  */
@@ -48,6 +51,15 @@ public abstract class AbstractArchiveMavenizerMojo extends AbstractMavenizerMojo
      */
     private String[] depsExcludes;
 
+    /**
+     * When true and an archive file is used, the libraries are analysed straight from the archive file, which is no
+     * more extracted by the download goal. Only the libraries reported in the mavenizer configuration are then
+     * extracted by the analyze goal.
+     *
+     * @parameter expression="${mavenizer.inPlaceAnalysis}" default-value="false"
+     */
+    private boolean inPlaceAnalysis;
+
     /**
      * Return includes patterns for library file to mavenized.
      *
@@ -87,4 +99,58 @@ public abstract class AbstractArchiveMavenizerMojo extends AbstractMavenizerMojo
     {
         return depsExcludes;
     }
+
+    /**
+     * Return true if the libraries should be analysed straight from the archive file.
+     *
+     * @return true if an archive file is used and the libraries should be analysed straight from it.
+     */
+    public boolean isInPlaceAnalysis()
+    {
+        return inPlaceAnalysis && getArchiveFile() != null;
+    }
+
+    /**
+     * Return a FileSelector for selecting the libraries from the archive file. If no selection has been provided, null
+     * is returned.
+     *
+     * @return a FileSelector for selecting the libraries into the archive file.
+     */
+    public FileSelector getLibsSelector()
+    {
+        return getSelector(getLibsIncludes(), getLibsExcludes());
+    }
+
+    /**
+     * Return a FileSelector for selecting the additionnal libraries used only for dependency resolution from the
+     * archive file.  If no selection has been provided, null is returned.
+     *
+     * @return a FileSelector for selecting the additionnal libraries used only for dependency resolution from the
+     *         archive file.
+     */
+    public FileSelector getDepsSelector()
+    {
+        return getSelector(getDepsIncludes(), getDepsExcludes());
+    }
+
+    /**
+     * Internal helper function to build IncludeExcludeFileSelector
+     *
+     * @param includes includes patterns for the selector
+     * @param excludes excludes patterns for the selector
+     * @return a IncludeExcludeFileSelector based on the includes and excludes arguments. If both arguments are null,
+     *         null is returned.
+     */
+    protected static FileSelector getSelector(String[] includes, String[] excludes)
+    {
+        if (includes == null && excludes == null) {
+            return null;
+        }
+
+        IncludeExcludeFileSelector fs = new IncludeExcludeFileSelector();
+        fs.setIncludes(includes);
+        fs.setExcludes(excludes);
+        fs.setUseDefaultExcludes(true);
+        return fs;
+    }
 }
@@ -97,6 +97,14 @@ public abstract class AbstractMavenizerMojo extends AbstractMojo
      */
     private File buildDir;
 
+    /**
+     * Inverted index from class names to the artifacts of the local repository providing them, as built by the
+     * index-classes goal. Defaults to .mavenizer-class-index at the root of the local repository.
+     *
+     * @parameter expression="${mavenizer.classIndex}"
+     */
+    private File classIndex;
+
     /**
      * Maven project
      *
@@ -182,6 +190,19 @@ public abstract class AbstractMavenizerMojo extends AbstractMojo
         return buildDir;
     }
 
+    /**
+     * Returns the inverted index from class names to the artifacts of the local repository providing them
+     *
+     * @return the file of the class index
+     */
+    public File getClassIndex()
+    {
+        if (classIndex == null) {
+            classIndex = new File(getLocalRepository().getBasedir(), ".mavenizer-class-index");
+        }
+        return classIndex;
+    }
+
     /**
      * Returns the current maven project
      *
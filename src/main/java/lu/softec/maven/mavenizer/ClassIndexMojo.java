@@ -0,0 +1,254 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.DirectoryWalkListener;
+import org.codehaus.plexus.util.DirectoryWalker;
+
+import lu.softec.maven.mavenizer.analyzer.ForkJoinExecutor;
+import lu.softec.maven.mavenizer.analyzer.dependency.ClassArtifactIndex;
+import lu.softec.maven.mavenizer.analyzer.dependency.ClassInventoryIndex;
+
+/**
+ * Build the inverted index from class names to the artifacts of the local repository providing them. This index is
+ * used by the analyze goal to report the artifacts providing unresolved classes, and optionally to add them as
+ * dependencies.
+ *
+ * The classes of each artifact are listed once, and stored in a sidecar file next to the artifact, so that later runs
+ * only list new or updated artifacts. The index itself is only rebuilt when some artifact has been added, updated or
+ * removed since the last run. Artifacts are identified by their location in the repository, and sources and javadoc
+ * artifacts are ignored.
+ *
+ * @goal index-classes
+ */
+public class ClassIndexMojo extends AbstractMavenizerMojo
+{
+    /**
+     * Number of threads used to list the artifacts. A value lower than 1 use one thread per available processor.
+     *
+     * @parameter expression="${mavenizer.threads}" default-value="1"
+     */
+    private int threads;
+
+    /**
+     * Listener collecting the artifacts of a repository
+     */
+    private static class ArtifactListener implements DirectoryWalkListener
+    {
+        /**
+         * Root of the repository
+         */
+        private final File repository;
+
+        /**
+         * Files of the collected artifacts
+         */
+        private final List files = new ArrayList();
+
+        /**
+         * Coordinates of the collected artifacts
+         */
+        private final List coordinates = new ArrayList();
+
+        /**
+         * Latest modification time of the collected artifacts
+         */
+        private long lastModified;
+
+        ArtifactListener(File repository)
+        {
+            this.repository = repository;
+        }
+
+        public void directoryWalkStarting(File basedir)
+        {
+        }
+
+        public void directoryWalkStep(int percentage, File file)
+        {
+            String coords = getCoordinates(repository, file);
+            if (coords != null) {
+                files.add(file);
+                coordinates.add(coords);
+                lastModified = Math.max(lastModified, file.lastModified());
+            }
+        }
+
+        public void directoryWalkFinished()
+        {
+        }
+
+        public void debug(String s)
+        {
+        }
+    }
+
+    /**
+     * Task listing the classes of the collected artifacts concurrently, and collecting them in order.
+     */
+    private class ListingTask implements ForkJoinExecutor.Task
+    {
+        /**
+         * Collected artifacts
+         */
+        private final ArtifactListener artifacts;
+
+        /**
+         * Index of the classes of each artifact
+         */
+        private final ClassInventoryIndex index = new ClassInventoryIndex();
+
+        /**
+         * Coordinates of the listed artifacts
+         */
+        private final List coordinates = new ArrayList();
+
+        /**
+         * Classes of the listed artifacts, as String[]
+         */
+        private final List classes = new ArrayList();
+
+        ListingTask(ArtifactListener artifacts)
+        {
+            this.artifacts = artifacts;
+        }
+
+        /**
+         * List the classes of an artifact
+         *
+         * @param i index of the artifact
+         * @return the classes of the artifact, or the IOException raised while listing them
+         */
+        public Object fork(int i)
+        {
+            try {
+                return index.list((File) artifacts.files.get(i));
+            } catch (IOException e) {
+                return e;
+            }
+        }
+
+        /**
+         * Collect the classes of an artifact
+         *
+         * @param i index of the artifact
+         * @param result the classes of the artifact, or the IOException raised while listing them
+         */
+        public void join(int i, Object result)
+        {
+            if (result instanceof IOException) {
+                getLog().warn("Unable to list the classes of " + ((File) artifacts.files.get(i)).getAbsolutePath() +
+                    ": " + ((IOException) result).getMessage());
+                result = new String[0];
+            }
+            coordinates.add(artifacts.coordinates.get(i));
+            classes.add(result);
+        }
+    }
+
+    public void execute() throws MojoExecutionException, MojoFailureException
+    {
+        File repository = new File(getLocalRepository().getBasedir());
+        File indexFile = getClassIndex();
+
+        DirectoryWalker walker = new DirectoryWalker();
+        ArtifactListener artifacts = new ArtifactListener(repository);
+        walker.setBaseDir(repository);
+        walker.addInclude("**/*.jar");
+        walker.addExclude("**/*-sources.jar");
+        walker.addExclude("**/*-javadoc.jar");
+        walker.addDirectoryWalkListener(artifacts);
+        walker.scan();
+
+        // Up to date unless some artifact is newer than the index, or has been removed
+        if (indexFile.isFile() && artifacts.lastModified < indexFile.lastModified()) {
+            try {
+                if (ClassArtifactIndex.open(indexFile).getArtifactCount() == artifacts.files.size()) {
+                    getLog().info("Class index " + indexFile.getAbsolutePath() + " is up to date.");
+                    return;
+                }
+            } catch (IOException e) {
+                getLog().debug("Rebuilding invalid class index: " + e.getMessage());
+            }
+        }
+
+        getLog().info("Indexing the classes of " + artifacts.files.size() + " artifacts from " +
+            repository.getAbsolutePath());
+        ListingTask task = new ListingTask(artifacts);
+        new ForkJoinExecutor(threads).execute(artifacts.files.size(), task);
+
+        try {
+            ClassArtifactIndex.write(indexFile, task.coordinates, task.classes);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write class index " + indexFile.getAbsolutePath(), e);
+        }
+        getLog().info("Class index " + indexFile.getAbsolutePath() + " written.");
+    }
+
+    /**
+     * Returns the coordinates of an artifact from its location in a repository
+     *
+     * @param repository the root of the repository
+     * @param file the artifact
+     * @return the coordinates of the artifact, as groupId:artifactId:version, followed by :classifier for artifacts
+     *         having a classifier, or null if the file is not located as an artifact
+     */
+    static String getCoordinates(File repository, File file)
+    {
+        String path = file.getAbsolutePath();
+        String root = repository.getAbsolutePath() + File.separator;
+        if (!path.startsWith(root) || !path.endsWith(".jar")) {
+            return null;
+        }
+
+        String[] parts = path.substring(root.length()).replace(File.separatorChar, '/').split("/");
+        if (parts.length < 4) {
+            return null;
+        }
+        String artifactId = parts[parts.length - 3];
+        String version = parts[parts.length - 2];
+        String name = parts[parts.length - 1];
+        String prefix = artifactId + "-" + version;
+        if (!name.startsWith(prefix)) {
+            return null;
+        }
+
+        String classifier = name.substring(prefix.length(), name.length() - ".jar".length());
+        if (classifier.length() > 0 && (classifier.charAt(0) != '-' || classifier.length() == 1)) {
+            return null;
+        }
+
+        StringBuffer coordinates = new StringBuffer();
+        for (int i = 0; i < parts.length - 3; i++) {
+            if (i > 0) {
+                coordinates.append('.');
+            }
+            coordinates.append(parts[i]);
+        }
+        coordinates.append(':').append(artifactId).append(':').append(version);
+        if (classifier.length() > 0) {
+            coordinates.append(':').append(classifier.substring(1));
+        }
+        return coordinates.toString();
+    }
+}
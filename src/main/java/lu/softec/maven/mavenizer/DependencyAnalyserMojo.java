@@ -15,23 +15,48 @@
  */
 package lu.softec.maven.mavenizer;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.archiver.ArchiverException;
+import org.codehaus.plexus.archiver.UnArchiver;
+import org.codehaus.plexus.archiver.manager.ArchiverManager;
+import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
+import org.codehaus.plexus.components.io.fileselectors.FileSelector;
+import org.codehaus.plexus.components.io.fileselectors.IncludeExcludeFileSelector;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.WriterFactory;
 import org.codehaus.plexus.util.xml.pull.MXSerializer;
 import org.codehaus.plexus.util.xml.pull.XmlSerializer;
 
+import lu.softec.maven.mavenizer.analyzer.AbstractClassWalker;
+import lu.softec.maven.mavenizer.analyzer.ArchiveClassWalker;
+import lu.softec.maven.mavenizer.analyzer.ArchiveEntryFile;
 import lu.softec.maven.mavenizer.analyzer.ClassDirectoryWalker;
+import lu.softec.maven.mavenizer.analyzer.ClassTreePackager;
 import lu.softec.maven.mavenizer.analyzer.ClassWalker;
 import lu.softec.maven.mavenizer.analyzer.ClassWalkerExecutionException;
+import lu.softec.maven.mavenizer.analyzer.ClassWalkerRuntimeException;
+import lu.softec.maven.mavenizer.analyzer.ForkJoinExecutor;
+import lu.softec.maven.mavenizer.analyzer.dependency.ClassArtifactIndex;
 import lu.softec.maven.mavenizer.analyzer.dependency.ClassDependencyAnalyser;
+import lu.softec.maven.mavenizer.analyzer.dependency.ClassDependencyCache;
 import lu.softec.maven.mavenizer.analyzer.dependency.ClassDependencySet;
+import lu.softec.maven.mavenizer.analyzer.dependency.ClassInventoryIndex;
+import lu.softec.maven.mavenizer.analyzer.dependency.FileDependencySet;
 import lu.softec.maven.mavenizer.analyzer.mavenasm.ClassWalkDependencyVisitorListener;
 import lu.softec.maven.mavenizer.analyzer.mavenasm.ClassWalkInventoryVisitorListener;
 import lu.softec.maven.mavenizer.analyzer.mavenasm.MavenDependencyWalker;
@@ -68,6 +93,171 @@ public class DependencyAnalyserMojo extends AbstractArchiveMavenizerMojo
      */
     private String[] providedClasses;
 
+    /**
+     * Number of threads used to walk the libraries, the additional dependencies and the project dependencies.
+     * Libraries are walked, and project dependencies resolved, concurrently when more than one thread is used, while
+     * producing the same results as a sequential walk. A value lower than 1 use one thread per available processor.
+     *
+     * @parameter expression="${mavenizer.threads}" default-value="1"
+     */
+    private int threads;
+
+    /**
+     * Number of threads parsing the classes of the libraries and the additional dependencies. When greater than 0, the
+     * libraries are walked through a pipeline: the walking threads, as set by threads, only read the class files into
+     * a bounded buffer, consumed by the parsing threads. The throughput of both stages is reported to help tuning the
+     * number of threads of each stage. A value lower than 0 use one thread per available processor.
+     *
+     * @parameter expression="${mavenizer.parserThreads}" default-value="0"
+     */
+    private int parserThreads;
+
+    /**
+     * When true, the dependencies of the analysed libraries are extracted from the constant pool, the descriptors, the
+     * signatures and the annotations of their classes, without visiting the classes with ASM. This finds the same
+     * dependencies several times faster.
+     *
+     * @parameter expression="${mavenizer.constantPoolOnly}" default-value="false"
+     */
+    private boolean constantPoolOnly;
+
+    /**
+     * When true, the classes and the dependencies found in each analysed library are stored in the analysis cache
+     * directory, keyed by the SHA-256 digest of the library, and loaded from there when the same library is analysed
+     * again, instead of parsing its classes. Since computing the digest of each library has a cost that only pays off
+     * when libraries are analysed again, this is disabled by default.
+     *
+     * @parameter expression="${mavenizer.useAnalysisCache}" default-value="false"
+     */
+    private boolean useAnalysisCache;
+
+    /**
+     * Directory of the analysis cache. Since libraries are identified by their content, this directory could be shared
+     * between projects, for example by setting it to ${settings.localRepository}/.mavenizer-cache.
+     *
+     * @parameter expression="${mavenizer.analysisCache}" default-value="${project.build.directory}/mavenizer-cache"
+     */
+    private File analysisCache;
+
+    /**
+     * When true, dependencies between libraries already implied by other dependencies are not reported, so that the
+     * generated POMs only declare the dependencies not provided transitively.
+     *
+     * @parameter expression="${mavenizer.reduceDependencies}" default-value="false"
+     */
+    private boolean reduceDependencies;
+
+    /**
+     * Minimum number of classes of a library that should use another library for the dependency between them to be
+     * kept. Dependencies resting on fewer classes are reported and dropped, as they are often only needed by optional
+     * features. The default keeps all dependencies.
+     *
+     * @parameter expression="${mavenizer.minSourceClasses}" default-value="1"
+     */
+    private int minSourceClasses;
+
+    /**
+     * Minimum number of class dependencies from a library to another library for the dependency between them to be
+     * kept. Dependencies resting on fewer class dependencies are reported and dropped. The default keeps all
+     * dependencies.
+     *
+     * @parameter expression="${mavenizer.minClassDependencies}" default-value="1"
+     */
+    private int minClassDependencies;
+
+    /**
+     * When true, the analysis fails when several libraries define the same class with different bytecode. Otherwise,
+     * such classes are reported, and, like identical copies, provided by the library whose path comes first. Classes
+     * defined by both libraries and dependencies are provided by the libraries, then by the additional dependencies,
+     * then by the dependencies of the project, and among dependencies by the first one walked.
+     *
+     * @parameter expression="${mavenizer.failOnDivergentClasses}" default-value="false"
+     */
+    private boolean failOnDivergentClasses;
+
+    /**
+     * How cycles between libraries, which cannot be expressed by Maven dependencies, are handled. With "report", they
+     * are only reported. With "break", the dependencies closing each cycle are dropped. With "merge", the first library
+     * of each cycle depends on the others, and stands for the whole cycle in the dependencies of other libraries.
+     *
+     * @parameter expression="${mavenizer.cycles}" default-value="report"
+     */
+    private String cycles;
+
+    /**
+     * Approximate memory budget, in megabytes, of the class dependencies kept in memory during the analysis. Beyond
+     * that budget, dependencies are spilled to sorted run files in the spill directory, so that very large analyses
+     * complete in a bounded heap. When libraries are walked concurrently, the classes of each library being walked get
+     * an equal share of the budget per walking or parsing thread. Zero keeps all dependencies in memory.
+     *
+     * @parameter expression="${mavenizer.dependencyMemoryBudget}" default-value="0"
+     */
+    private int dependencyMemoryBudget;
+
+    /**
+     * Directory receiving the dependencies spilled beyond the memory budget.
+     *
+     * @parameter expression="${mavenizer.spillDirectory}" default-value="${project.build.directory}/mavenizer-spill"
+     */
+    private File spillDirectory;
+
+    /**
+     * When true, the list of the classes of each dependency of the project is stored in a sidecar file next to the
+     * artifact in the local repository, and read from there by later builds, instead of listing the artifact again.
+     * Sidecar files are ignored when their artifact changes. Since sidecar files are written into the local
+     * repository, this is disabled by default.
+     *
+     * @parameter expression="${mavenizer.useClassIndex}" default-value="false"
+     */
+    private boolean useClassIndex;
+
+    /**
+     * When true, the artifacts of the local repository that are the only ones providing some unresolved classes,
+     * according to the class index built by the index-classes goal, are added to the dependencies of the project for
+     * the analysis. Otherwise, these artifacts are only reported with the unresolved classes.
+     *
+     * @parameter expression="${mavenizer.addSuggestedDependencies}" default-value="false"
+     */
+    private boolean addSuggestedDependencies;
+
+    /**
+     * When true, the additional dependencies and the dependencies of the project are only searched for the classes
+     * left unresolved by the analysis of the libraries. Like when all their classes are listed, each unresolved class
+     * is provided by the first dependency providing it. Archive entries not named like an unresolved class are not
+     * read, and the remaining dependencies are skipped as soon as all unresolved classes have been found.
+     *
+     * @parameter expression="${mavenizer.lazyDependencies}" default-value="false"
+     */
+    private boolean lazyDependencies;
+
+    /**
+     * When true, the name of the classes found in the dependencies is derived from their entry name, instead of being
+     * read from each class. The entry names are verified by reading a sample of the classes of each directory.
+     *
+     * @parameter expression="${mavenizer.inventoryFromEntryNames}" default-value="false"
+     */
+    private boolean inventoryFromEntryNames;
+
+    /**
+     * When true, archives nested into the walked libraries, like the jars of the WEB-INF/lib folder of a .war or the
+     * modules of an .ear, are read straight from their enclosing archive and analysed as distinct libraries, without
+     * being extracted first. A nested archive is only written to disk, next to its enclosing archive, when it is
+     * identified for the mavenizer configuration.
+     *
+     * @parameter expression="${mavenizer.scanNestedArchives}" default-value="false"
+     */
+    private boolean scanNestedArchives;
+
+    /**
+     * Directory receiving the jars packaging the class trees found among the libraries, like WEB-INF/classes, so that
+     * they could be identified, installed and deployed like other libraries. Each jar is named after the path of its
+     * class tree relative to the binaries base directory, like WEB-INF-classes.jar, and this name could be used to
+     * provide its identification information.
+     *
+     * @parameter expression="${mavenizer.classTreeDirectory}" default-value="${project.build.directory}/mavenizer-class-trees"
+     */
+    private File classTreeDirectory;
+
     /**
      * Maven file factory
      *
@@ -89,6 +279,23 @@ public class DependencyAnalyserMojo extends AbstractArchiveMavenizerMojo
      */
     private MavenDependencyWalker dependencyWalker;
 
+    /**
+     * The Plexus Archiver Manager, used to extract the analysed libraries during in-place analysis.
+     *
+     * @component role="org.codehaus.plexus.archiver.manager.ArchiverManager"
+     */
+    private ArchiverManager archiveManager;
+
+    /**
+     * Listener registered to the dependency walker, null until the first dependency walk
+     */
+    private ClassWalkInventoryVisitorListener dependencyListener;
+
+    /**
+     * Classes still to be found in the dependencies when they are lazily walked, null to list all their classes
+     */
+    private Set requiredClasses;
+
     /**
      * Default pattern for the JVM provided class
      */
@@ -103,6 +310,21 @@ public class DependencyAnalyserMojo extends AbstractArchiveMavenizerMojo
         "sunw/util/*"
     };
 
+    /**
+     * Report cycles between libraries without changing the dependencies
+     */
+    private static final String CYCLES_REPORT = "report";
+
+    /**
+     * Drop the dependencies closing cycles between libraries
+     */
+    private static final String CYCLES_BREAK = "break";
+
+    /**
+     * Replace cycles between libraries by dependencies of their first library
+     */
+    private static final String CYCLES_MERGE = "merge";
+
     /**
      * @throws MojoExecutionException if the operation fails, even partially
      */
@@ -114,36 +336,85 @@ public class DependencyAnalyserMojo extends AbstractArchiveMavenizerMojo
         }
 
         // Check for changes and skip execution when uneeded
-        if (getLatestFileModification(getBinariesBaseDir()) < getMavenizerConfigFile().lastModified()) {
+        long lastModified = isInPlaceAnalysis() ? getArchiveFile().lastModified() :
+            getLatestFileModification(getBinariesBaseDir());
+        if (lastModified < getMavenizerConfigFile().lastModified()) {
             getLog().info("Binaries are not newer, skipping dependency analysis.");
             return;
         }
 
+        if (!CYCLES_REPORT.equals(cycles) && !CYCLES_BREAK.equals(cycles) && !CYCLES_MERGE.equals(cycles)) {
+            throw new MojoExecutionException("Invalid cycles handling \"" + cycles + "\", expecting one of " +
+                CYCLES_REPORT + ", " + CYCLES_BREAK + " or " + CYCLES_MERGE);
+        }
+
         // Analyse dependencies
         ClassDependencyAnalyser analyser = new ClassDependencyAnalyser();
+        if (dependencyMemoryBudget > 0) {
+            long budget = dependencyMemoryBudget * 1024L * 1024L;
+            int forks = ForkJoinExecutor.getThreadCount(threads);
+            if (parserThreads != 0) {
+                forks = Math.max(forks, ForkJoinExecutor.getThreadCount(parserThreads));
+            }
+            analyser.setMemoryBudget(budget, budget / forks, spillDirectory);
+        }
         addJvmProvidedClass(analyser);
         addProvidedClass(analyser);
 
         try {
             ClassWalker libs = getLibsWalker();
-            libs.addClassWalkListener(new ClassWalkDependencyVisitorListener(analyser, getLog()));
+            ClassWalkDependencyVisitorListener listener =
+                new ClassWalkDependencyVisitorListener(analyser, getLog(), constantPoolOnly);
+            if (useAnalysisCache) {
+                listener.setCache(new ClassDependencyCache(analysisCache));
+            }
+            libs.addClassWalkListener(listener);
             libs.scan();
+            logPipelineStatistics(libs);
+
+            if (lazyDependencies) {
+                requiredClasses = new HashSet();
+                for (Iterator it = analyser.getUnresolvedDependencies().iterator(); it.hasNext();) {
+                    requiredClasses.add(((ClassDependencySet.Pair) it.next()).getFromName());
+                }
+                getLog().info("Searching " + requiredClasses.size() + " unresolved classes in the dependencies.");
+            }
 
             if ((getLibsExcludes() != null || getLibsIncludes() != null) &&
-                (getDepsExcludes() != null || getDepsIncludes() != null))
+                (getDepsExcludes() != null || getDepsIncludes() != null) && !isRequirementSatisfied())
             {
+                analyser.startTier();
                 ClassWalker deps = getDepsWalker();
-                deps.addClassWalkListener(new ClassWalkInventoryVisitorListener(analyser, getLog()));
+                ClassWalkInventoryVisitorListener inventory =
+                    new ClassWalkInventoryVisitorListener(analyser, getLog(), inventoryFromEntryNames);
+                inventory.setRequiredClasses(requiredClasses);
+                deps.addClassWalkListener(inventory);
                 deps.scan();
+                logPipelineStatistics(deps);
             }
 
-            if (getProject().getDependencies() != null && getProject().getDependencies().size() > 0) {
-                dependencyWalker.setDependencies(getProject().getDependencies());
-                dependencyWalker.setRepository(getLocalRepository());
-                dependencyWalker.setRemoteRepositories(getProject().getRemoteArtifactRepositories());
-                dependencyWalker.addClassWalkListener(new ClassWalkInventoryVisitorListener(analyser, getLog()));
-                dependencyWalker.scan();
+            if (getProject().getDependencies() != null && getProject().getDependencies().size() > 0 &&
+                !isRequirementSatisfied())
+            {
+                walkDependencies(analyser, getProject().getDependencies());
+            }
+
+            if (addSuggestedDependencies && analyser.getUnresolvedDependencies().size() > 0) {
+                ClassArtifactIndex classIndex = openClassIndex();
+                if (classIndex != null) {
+                    List suggested = getSuggestedDependencies(analyser, classIndex);
+                    if (!suggested.isEmpty()) {
+                        walkDependencies(analyser, suggested);
+                    }
+                } else {
+                    getLog().warn("No class index found in " + getClassIndex().getAbsolutePath() +
+                        ", run the index-classes goal to add the dependencies providing unresolved classes.");
+                }
             }
+        } catch (ClassWalkerRuntimeException e) {
+            // Raised outside of walks, when spilled dependencies could not be written or read
+            throw new MojoExecutionException("Analysis failed on file " +
+                ((e.getFile() != null) ? e.getFile().getAbsolutePath() : "unknown") + ": " + e.getMessage(), e);
         } catch (ClassWalkerExecutionException e) {
             if (e.getFile() != null) {
                 throw new MojoExecutionException("Analysis failed on file " + e.getFile().getAbsolutePath(), e);
@@ -155,6 +426,15 @@ public class DependencyAnalyserMojo extends AbstractArchiveMavenizerMojo
             }
         }
 
+        reportDuplicateClasses(analyser);
+
+        // Extract the analysed libraries, needed to identify, install and deploy them
+        if (isInPlaceAnalysis()) {
+            extractLibraries(analyser.getFileDependencies());
+        }
+
+        FileDependencySet fileDeps = packageClassTrees(analyser.getFileDependencies());
+
         // Write resulting configuration
         try {
             Writer writer = null;
@@ -171,8 +451,34 @@ public class DependencyAnalyserMojo extends AbstractArchiveMavenizerMojo
                 mavenFileSerializer.setSerializer(serializer);
                 mavenFileSerializer.setBaseDir(getBinariesBaseDir());
                 mavenFileSerializer.setRepository(getLocalRepository());
-                mavenFileSerializer
-                    .SerializeMavenFileSet(mavenFileFactory.getMavenFileSet(analyser.getFileDependencies()));
+                if (minSourceClasses > 1 || minClassDependencies > 1) {
+                    fileDeps = pruneDependencies(fileDeps);
+                }
+                File[][] fileCycles = fileDeps.getCycles();
+                if (fileCycles.length > 0) {
+                    for (int i = 0; i < fileCycles.length; i++) {
+                        StringBuffer message = new StringBuffer("Cyclic dependencies between ");
+                        for (int j = 0; j < fileCycles[i].length; j++) {
+                            if (j > 0) {
+                                message.append(", ");
+                            }
+                            message.append(fileCycles[i][j].getAbsolutePath());
+                        }
+                        getLog().warn(message.toString());
+                    }
+                    if (!CYCLES_REPORT.equals(cycles)) {
+                        getLog().info((CYCLES_MERGE.equals(cycles) ? "Merging " : "Breaking ") + fileCycles.length +
+                            " dependency cycles between libraries.");
+                        fileDeps = fileDeps.getAcyclicDependencies(CYCLES_MERGE.equals(cycles));
+                    }
+                }
+                if (reduceDependencies) {
+                    FileDependencySet reduction = fileDeps.getTransitiveReduction();
+                    getLog().info("Transitive reduction removed " + (fileDeps.size() - reduction.size()) + " of " +
+                        fileDeps.size() + " dependencies between libraries.");
+                    fileDeps = reduction;
+                }
+                mavenFileSerializer.SerializeMavenFileSet(mavenFileFactory.getMavenFileSet(fileDeps), fileDeps);
 
                 serializer.endDocument();
             } finally {
@@ -190,19 +496,278 @@ public class DependencyAnalyserMojo extends AbstractArchiveMavenizerMojo
         }
 
         if (analyser.getUnresolvedDependencies().size() > 0) {
-            // Reports unresolved classes
+            // Reports unresolved classes, with the artifacts providing them when known
+            ClassArtifactIndex classIndex = openClassIndex();
             getLog().info("Unresolved classes:");
             for (Iterator it = analyser.getUnresolvedDependencies().iterator(); it.hasNext();) {
                 ClassDependencySet.Pair pair = (ClassDependencySet.Pair) it.next();
-                getLog().info(
-                    pair.getFromName().replace('/', '.') + " (referenced by " + pair.getToName().replace('/', '.') +
-                        ")");
+                StringBuffer message = new StringBuffer(pair.getFromName().replace('/', '.'));
+                message.append(" (referenced by ").append(pair.getToName().replace('/', '.')).append(')');
+                String[] providers = (classIndex != null) ? classIndex.lookup(pair.getFromName()) : new String[0];
+                for (int i = 0; i < providers.length; i++) {
+                    message.append((i == 0) ? " provided by " : ", ").append(providers[i]);
+                }
+                getLog().info(message.toString());
             }
         } else {
             getLog().info("All dependencies as been properly resolved.");
         }
     }
 
+    /**
+     * Walk dependencies from the local repository, adding their classes to the analyser. The dependencies rank below
+     * the files already walked, and in declared order between them.
+     *
+     * @param analyser the analyser to feed
+     * @param dependencies the {@link Dependency} to walk
+     * @throws ClassWalkerExecutionException if the walk fails
+     */
+    private void walkDependencies(ClassDependencyAnalyser analyser, List dependencies)
+        throws ClassWalkerExecutionException
+    {
+        analyser.startTier();
+        dependencyWalker.setDependencies(dependencies);
+        dependencyWalker.setRepository(getLocalRepository());
+        dependencyWalker.setRemoteRepositories(getProject().getRemoteArtifactRepositories());
+        dependencyWalker.setThreads(threads);
+        if (dependencyListener == null) {
+            dependencyListener = new ClassWalkInventoryVisitorListener(analyser, getLog(), inventoryFromEntryNames);
+            if (useClassIndex) {
+                dependencyListener.setIndex(new ClassInventoryIndex());
+            }
+            dependencyListener.setRequiredClasses(requiredClasses);
+            dependencyWalker.addClassWalkListener(dependencyListener);
+        }
+        dependencyWalker.scan();
+    }
+
+    /**
+     * Check if the dependencies are lazily walked, and all unresolved classes have been found.
+     *
+     * @return true if the remaining dependencies do not need to be walked
+     */
+    private boolean isRequirementSatisfied()
+    {
+        return requiredClasses != null && requiredClasses.isEmpty();
+    }
+
+    /**
+     * Open the class index built by the index-classes goal
+     *
+     * @return the class index, or null if no valid class index is available
+     */
+    private ClassArtifactIndex openClassIndex()
+    {
+        File file = getClassIndex();
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return ClassArtifactIndex.open(file);
+        } catch (IOException e) {
+            getLog().warn("Unable to read class index " + file.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Build the dependencies on the artifacts that are the only ones providing some unresolved classes.
+     *
+     * @param analyser the analyser reporting unresolved classes
+     * @param classIndex the class index
+     * @return the {@link Dependency} on the artifacts providing unresolved classes
+     */
+    private List getSuggestedDependencies(ClassDependencyAnalyser analyser, ClassArtifactIndex classIndex)
+    {
+        Set coordinates = new TreeSet();
+        for (Iterator it = analyser.getUnresolvedDependencies().iterator(); it.hasNext();) {
+            ClassDependencySet.Pair pair = (ClassDependencySet.Pair) it.next();
+            String[] providers = classIndex.lookup(pair.getFromName());
+            if (providers.length == 1) {
+                coordinates.add(providers[0]);
+            }
+        }
+
+        List dependencies = new ArrayList(coordinates.size());
+        for (Iterator it = coordinates.iterator(); it.hasNext();) {
+            String coords = (String) it.next();
+            String[] parts = coords.split(":");
+            Dependency dependency = new Dependency();
+            dependency.setGroupId(parts[0]);
+            dependency.setArtifactId(parts[1]);
+            dependency.setVersion(parts[2]);
+            if (parts.length > 3) {
+                dependency.setClassifier(parts[3]);
+            }
+            dependencies.add(dependency);
+            getLog().info("Adding dependency " + coords + " providing unresolved classes.");
+        }
+        return dependencies;
+    }
+
+    /**
+     * Report the classes defined by several libraries. Identical copies are summarized by group of libraries, while
+     * divergent copies are reported one by one.
+     *
+     * @param analyser the analyser of the libraries
+     * @throws MojoFailureException if divergent copies are found and the analysis should fail
+     */
+    private void reportDuplicateClasses(ClassDependencyAnalyser analyser) throws MojoFailureException
+    {
+        Map identical = new TreeMap();
+        int divergent = 0;
+        for (Iterator it = analyser.getDuplicateClasses().values().iterator(); it.hasNext();) {
+            ClassDependencyAnalyser.DuplicateClass duplicate = (ClassDependencyAnalyser.DuplicateClass) it.next();
+            File[] files = duplicate.getFiles();
+            StringBuffer libraries = new StringBuffer(files[0].getAbsolutePath());
+            for (int i = 1; i < files.length; i++) {
+                libraries.append(", ").append(files[i].getAbsolutePath());
+            }
+            if (duplicate.isDivergent()) {
+                getLog().warn("Class " + duplicate.getName().replace('/', '.') + " differs between " + libraries +
+                    ", using the one of " + files[0].getAbsolutePath());
+                divergent++;
+            } else {
+                int[] count = (int[]) identical.get(libraries.toString());
+                if (count == null) {
+                    count = new int[1];
+                    identical.put(libraries.toString(), count);
+                }
+                count[0]++;
+            }
+        }
+        for (Iterator it = identical.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry) it.next();
+            getLog().info(((int[]) entry.getValue())[0] + " classes are duplicated in " + entry.getKey() +
+                ", using those of the first one");
+        }
+        if (divergent > 0 && failOnDivergentClasses) {
+            throw new MojoFailureException(divergent + " classes are defined differently by several libraries");
+        }
+    }
+
+    /**
+     * Drop and report the dependencies between libraries resting on fewer classes or class dependencies than the
+     * configured thresholds.
+     *
+     * @param fileDeps the file dependencies resulting from the analysis
+     * @return the file dependencies kept
+     */
+    private FileDependencySet pruneDependencies(FileDependencySet fileDeps)
+    {
+        FileDependencySet pruned = fileDeps.getPrunedDependencies(minSourceClasses, minClassDependencies);
+        for (Iterator it = fileDeps.iterator(); it.hasNext();) {
+            FileDependencySet.FilePair pair = (FileDependencySet.FilePair) it.next();
+            if (!pruned.contains(pair)) {
+                getLog().info("Dropping dependency of " + pair.getFromName() + " on " + pair.getToName() +
+                    ", used by " + fileDeps.getSourceClassCount(pair.getFromFile(), pair.getToFile()) +
+                    " classes through " + fileDeps.getClassDependencyCount(pair.getFromFile(), pair.getToFile()) +
+                    " class dependencies.");
+            }
+        }
+        return pruned;
+    }
+
+    /**
+     * Package the class trees found among the analysed libraries into jars of the class tree directory.
+     *
+     * @param fileDeps the file dependencies resulting from the analysis
+     * @return the file dependencies where class trees are replaced by their jar
+     * @throws MojoExecutionException if a class tree could not be packaged
+     */
+    private FileDependencySet packageClassTrees(FileDependencySet fileDeps) throws MojoExecutionException
+    {
+        Map jars;
+        try {
+            jars = new ClassTreePackager(getBinariesBaseDir(), classTreeDirectory).packageClassTrees(
+                fileDeps.getFiles());
+        } catch (ClassWalkerRuntimeException e) {
+            throw new MojoExecutionException("Unable to package class tree " + e.getFile().getAbsolutePath() + ": " +
+                e.getCause().getMessage(), e.getCause());
+        }
+
+        if (jars.isEmpty()) {
+            return fileDeps;
+        }
+        for (Iterator it = jars.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry) it.next();
+            getLog().info("Packaged class tree " + ((File) entry.getKey()).getAbsolutePath() + " into " +
+                ((File) entry.getValue()).getAbsolutePath());
+        }
+        return fileDeps.getReplacedFiles(jars);
+    }
+
+    /**
+     * Extract from the archive file the libraries reported by an in-place analysis. Class trees are extracted with all
+     * their files, to be packaged afterward, while nested archives are extracted with their outermost enclosing
+     * archive. A class tree rooted at the top of the archive requires the whole archive to be extracted.
+     *
+     * @param fileDeps the file dependencies resulting from the analysis
+     * @throws MojoExecutionException if the extraction fails
+     */
+    private void extractLibraries(FileDependencySet fileDeps) throws MojoExecutionException
+    {
+        String baseDir = getBinariesBaseDir().getAbsolutePath() + File.separator;
+        Set names = new TreeSet();
+        File[] files = fileDeps.getFiles();
+        for (int i = 0; i < files.length; i++) {
+            addExtractedName(names, baseDir, files[i]);
+        }
+
+        if (names.isEmpty()) {
+            return;
+        }
+
+        IncludeExcludeFileSelector selector = new IncludeExcludeFileSelector();
+        selector.setIncludes((String[]) names.toArray(new String[names.size()]));
+
+        getLog().info(
+            "Expanding " + names.size() + " analysed libraries from project archive " +
+                getArchiveFile().getAbsolutePath());
+        getBinariesBaseDir().mkdirs();
+        try {
+            UnArchiver unarchiver = archiveManager.getUnArchiver(getArchiveFile());
+            unarchiver.setSourceFile(getArchiveFile());
+            unarchiver.setDestDirectory(getBinariesBaseDir());
+            unarchiver.setFileSelectors(new FileSelector[]{selector});
+            unarchiver.extract();
+        } catch (NoSuchArchiverException e) {
+            throw new MojoExecutionException("No unarchiver is available to handle the project archive", e);
+        } catch (ArchiverException e) {
+            throw new MojoExecutionException("Unable to expand the analysed libraries", e);
+        }
+    }
+
+    /**
+     * Add the name of the archive entry to be extracted for a library, unless it is already extracted.
+     *
+     * @param names the names of the entries to be extracted
+     * @param baseDir the path of the binaries base directory, ending with a separator
+     * @param file the library file, possibly null
+     */
+    private static void addExtractedName(Set names, String baseDir, File file)
+    {
+        File library = file;
+        while (library instanceof ArchiveEntryFile) {
+            library = ((ArchiveEntryFile) library).getArchive();
+        }
+        if (library != null && (library.getAbsolutePath() + File.separator).equals(baseDir)) {
+            // Class tree rooted at the top of the archive, which also holds the other libraries
+            names.add("**");
+            return;
+        }
+        if (library == null || library.exists() || !library.getAbsolutePath().startsWith(baseDir)) {
+            return;
+        }
+
+        String name = library.getAbsolutePath().substring(baseDir.length()).replace(File.separatorChar, '/');
+        if (name.endsWith(".jar") || name.endsWith(".war") || name.endsWith(".ear")) {
+            names.add(name);
+        } else {
+            names.add(name + "/**");
+        }
+    }
+
     /**
      * Populate mavenFileFactory with Jar information
      *
@@ -258,6 +823,18 @@ public class DependencyAnalyserMojo extends AbstractArchiveMavenizerMojo
         }
     }
 
+    /**
+     * Report the throughput of a pipelined walk.
+     *
+     * @param walker a walker that has been scanned
+     */
+    private void logPipelineStatistics(ClassWalker walker)
+    {
+        if (walker instanceof AbstractClassWalker && ((AbstractClassWalker) walker).getPipelineStatistics() != null) {
+            getLog().info(((AbstractClassWalker) walker).getPipelineStatistics());
+        }
+    }
+
     /**
      * Return a ClassWalker for libraries that are analysed for dependencies.
      *
@@ -265,10 +842,17 @@ public class DependencyAnalyserMojo extends AbstractArchiveMavenizerMojo
      */
     public ClassWalker getLibsWalker()
     {
+        if (isInPlaceAnalysis()) {
+            return getArchiveWalker(getLibsSelector());
+        }
+
         ClassDirectoryWalker walker = new ClassDirectoryWalker();
         walker.setBaseDir(getBinariesBaseDir());
         walker.addIncludes(getLibsIncludes());
         walker.addExcludes(getLibsExcludes());
+        walker.setThreads(threads);
+        walker.setParsers(parserThreads);
+        walker.setScanNestedArchives(scanNestedArchives);
         return walker;
     }
 
@@ -279,10 +863,37 @@ public class DependencyAnalyserMojo extends AbstractArchiveMavenizerMojo
      */
     public ClassWalker getDepsWalker()
     {
+        if (isInPlaceAnalysis()) {
+            return getArchiveWalker(getDepsSelector());
+        }
+
         ClassDirectoryWalker walker = new ClassDirectoryWalker();
         walker.setBaseDir(getBinariesBaseDir());
         walker.addIncludes(getDepsIncludes());
         walker.addExcludes(getDepsExcludes());
+        walker.setThreads(threads);
+        walker.setParsers(parserThreads);
+        walker.setScanNestedArchives(scanNestedArchives);
+        return walker;
+    }
+
+    /**
+     * Return a ClassWalker walking the libraries straight from the archive file, for in-place analysis.
+     *
+     * @param selector selector of the walked libraries, null to walk all files of the archive
+     * @return a ClassWalker walking the libraries straight from the archive file
+     */
+    private ClassWalker getArchiveWalker(FileSelector selector)
+    {
+        ArchiveClassWalker walker = new ArchiveClassWalker();
+        walker.setArchiveFile(getArchiveFile());
+        walker.setBaseDir(getBinariesBaseDir());
+        if (selector != null) {
+            walker.setFileSelectors(new FileSelector[]{selector});
+        }
+        walker.setThreads(threads);
+        walker.setParsers(parserThreads);
+        walker.setScanNestedArchives(scanNestedArchives);
         return walker;
     }
 }
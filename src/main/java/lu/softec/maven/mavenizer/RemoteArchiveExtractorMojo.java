@@ -26,7 +26,6 @@ import org.codehaus.plexus.archiver.UnArchiver;
 import org.codehaus.plexus.archiver.manager.ArchiverManager;
 import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
 import org.codehaus.plexus.components.io.fileselectors.FileSelector;
-import org.codehaus.plexus.components.io.fileselectors.IncludeExcludeFileSelector;
 import org.codehaus.plexus.util.FileUtils;
 
 /**
@@ -94,6 +93,12 @@ public class RemoteArchiveExtractorMojo extends AbstractArchiveMavenizerMojo
             }
         }
 
+        // Libraries are analysed straight from the archive file, and only the needed ones are extracted afterward
+        if (isInPlaceAnalysis()) {
+            getLog().info("In-place analysis requested, skipping archive expansion.");
+            return;
+        }
+
         // Extract archive file if archive is newer than extracted data
 
         if (getArchiveFile().lastModified() > getBinariesBaseDir().lastModified()) {
@@ -168,50 +173,6 @@ public class RemoteArchiveExtractorMojo extends AbstractArchiveMavenizerMojo
         this.archiveURL = archiveURL;
     }
 
-    /**
-     * Return a FileSelector for selecting the libraries from the archive file. If no selection has been provided, null
-     * is returned.
-     *
-     * @return a FileSelector for selecting the libraries into the archive file.
-     */
-    public FileSelector getLibsSelector()
-    {
-        return getSelector(getLibsIncludes(), getLibsExcludes());
-    }
-
-    /**
-     * Return a FileSelector for selecting the additionnal libraries used only for dependency resolution from the
-     * archive file.  If no selection has been provided, null is returned.
-     *
-     * @return a FileSelector for selecting the additionnal libraries used only for dependency resolution from the
-     *         archive file.
-     */
-    public FileSelector getDepsSelector()
-    {
-        return getSelector(getDepsIncludes(), getDepsExcludes());
-    }
-
-    /**
-     * Internal helper function to build IncludeExcludeFileSelector
-     *
-     * @param includes includes patterns for the selector
-     * @param excludes excludes patterns for the selector
-     * @return a IncludeExcludeFileSelector based on the includes and excludes arguments. If both arguments are null,
-     *         null is returned.
-     */
-    private static FileSelector getSelector(String[] includes, String[] excludes)
-    {
-        if (includes == null && excludes == null) {
-            return null;
-        }
-
-        IncludeExcludeFileSelector fs = new IncludeExcludeFileSelector();
-        fs.setIncludes(includes);
-        fs.setExcludes(excludes);
-        fs.setUseDefaultExcludes(true);
-        return fs;
-    }
-
     /**
      * Return the timestamp of the last modification to the remote archive file. If no URL has been provided, 0L is
      * returned. If the archive URL is not reachable or any other error occurs, Long.MAX_VALUE is returned.
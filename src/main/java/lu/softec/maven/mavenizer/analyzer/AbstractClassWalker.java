@@ -0,0 +1,711 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Abstract class providing the common functionalities of the {@link ClassWalker} implementations walking libraries.
+ *
+ * A library is either an archive, like a .jar file, or a class tree grouping the .class files found below a same root
+ * directory. Derived class collect the libraries to be walked, and implement {@link #processLibrary(int, Object,
+ * ClassWalkListener[])} to walk each of them. Libraries are walked sequentially, or concurrently when more than one
+ * thread is requested.
+ */
+public abstract class AbstractClassWalker implements ClassWalker
+{
+    /**
+     * Initial size of the buffer used to read .class files
+     */
+    protected static final int CLASS_BUFFER_SIZE = 16384;
+
+    /**
+     * Current reporting mode. When true, debug message are provided to the listeners.
+     */
+    private boolean debugMode = false;
+
+    /**
+     * Registered listeners
+     */
+    private final List listeners = new ArrayList();
+
+    /**
+     * Number of threads used to walk libraries, 1 for a sequential walk.
+     */
+    private int threads = 1;
+
+    /**
+     * Number of threads parsing the classes read by the walking threads, 0 to parse them on the walking threads.
+     */
+    private int parsers = 0;
+
+    /**
+     * Throughput report of the last pipelined walk, null if the last walk was not pipelined.
+     */
+    private String pipelineStatistics;
+
+    /**
+     * When true, archives nested into walked archives are also walked.
+     */
+    private boolean scanNestedArchives = false;
+
+    /**
+     * A class tree, grouping the classes found below a given root directory.
+     */
+    protected static class ClassTree
+    {
+        /**
+         * Root directory of the tree
+         */
+        private File root;
+
+        /**
+         * The classes of the tree, in a representation specific to the walker
+         */
+        private final List classes = new ArrayList();
+
+        /**
+         * Construct a class tree, initially rooted at the directory of its first class
+         *
+         * @param root the directory of the first class of the tree
+         */
+        public ClassTree(File root)
+        {
+            this.root = root;
+        }
+
+        /**
+         * Returns the root directory of this tree
+         *
+         * @return the root directory of this tree
+         */
+        public File getRoot()
+        {
+            return root;
+        }
+
+        /**
+         * Returns the classes of this tree
+         *
+         * @return the classes of this tree, in a representation specific to the walker
+         */
+        public List getClasses()
+        {
+            return classes;
+        }
+    }
+
+    /**
+     * Task forking the walk of each collected library into forks of the registered listeners, and joining them back.
+     */
+    private class LibraryWalkTask implements ForkJoinExecutor.Task
+    {
+        /**
+         * Collected libraries
+         */
+        private final List libraries;
+
+        /**
+         * Progress information of each collected library
+         */
+        private final List progress;
+
+        /**
+         * Registered listeners
+         */
+        private final ClassWalkListener[] targets;
+
+        LibraryWalkTask(List libraries, List progress, ClassWalkListener[] targets)
+        {
+            this.libraries = libraries;
+            this.progress = progress;
+            this.targets = targets;
+        }
+
+        /**
+         * Walk a library into forks of the registered listeners. Listeners that are not {@link
+         * ForkableClassWalkListener} receive a {@link BufferedClassWalkListener} instead.
+         *
+         * @param index index of the library
+         * @return an array of forked listeners
+         */
+        public Object fork(int index)
+        {
+            ClassWalkListener[] forks = new ClassWalkListener[targets.length];
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] instanceof ForkableClassWalkListener) {
+                    forks[i] = ((ForkableClassWalkListener) targets[i]).fork();
+                } else {
+                    forks[i] = new BufferedClassWalkListener();
+                }
+            }
+            processLibrary(((Integer) progress.get(index)).intValue(), libraries.get(index), forks);
+            return forks;
+        }
+
+        /**
+         * Join forked listeners back into the registered listeners.
+         *
+         * @param index index of the library
+         * @param result an array of forked listeners
+         */
+        public void join(int index, Object result)
+        {
+            joinForks(targets, (ClassWalkListener[]) result);
+        }
+    }
+
+    /**
+     * Task walking each collected library through a pipeline. Readers walk the library into a single buffer, and
+     * parsers replay that buffer into forks of the registered listeners that implements {@link
+     * ForkableClassWalkListener}. Other listeners receive the buffer itself, replayed when joined.
+     */
+    private class PipelineWalkTask implements PipelineExecutor.Task
+    {
+        /**
+         * Collected libraries
+         */
+        private final List libraries;
+
+        /**
+         * Progress information of each collected library
+         */
+        private final List progress;
+
+        /**
+         * Registered listeners
+         */
+        private final ClassWalkListener[] targets;
+
+        /**
+         * Number of classes read
+         */
+        private int classCount;
+
+        /**
+         * Total size of the classes read
+         */
+        private long size;
+
+        PipelineWalkTask(List libraries, List progress, ClassWalkListener[] targets)
+        {
+            this.libraries = libraries;
+            this.progress = progress;
+            this.targets = targets;
+        }
+
+        /**
+         * Walk a library into a buffer.
+         *
+         * @param index index of the library
+         * @return the {@link BufferedClassWalkListener} holding the library
+         */
+        public Object read(int index)
+        {
+            BufferedClassWalkListener buffer = new BufferedClassWalkListener();
+            processLibrary(((Integer) progress.get(index)).intValue(), libraries.get(index),
+                new ClassWalkListener[]{buffer});
+            synchronized (this) {
+                classCount += buffer.getClassCount();
+                size += buffer.getSize();
+            }
+            return buffer;
+        }
+
+        /**
+         * Replay a buffered library into forks of the registered listeners.
+         *
+         * @param index index of the library
+         * @param data the {@link BufferedClassWalkListener} holding the library
+         * @return an array of forked listeners, or of the buffer for listeners that could not be forked
+         */
+        public Object parse(int index, Object data)
+        {
+            BufferedClassWalkListener buffer = (BufferedClassWalkListener) data;
+            ClassWalkListener[] forks = new ClassWalkListener[targets.length];
+            List forked = new ArrayList(targets.length);
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] instanceof ForkableClassWalkListener) {
+                    forks[i] = ((ForkableClassWalkListener) targets[i]).fork();
+                    forked.add(forks[i]);
+                } else {
+                    forks[i] = buffer;
+                }
+            }
+            buffer.replay((ClassWalkListener[]) forked.toArray(new ClassWalkListener[forked.size()]));
+            return forks;
+        }
+
+        /**
+         * Join forked listeners back into the registered listeners.
+         *
+         * @param index index of the library
+         * @param result an array of forked listeners, or of the buffer for listeners that could not be forked
+         */
+        public void join(int index, Object result)
+        {
+            joinForks(targets, (ClassWalkListener[]) result);
+        }
+
+        /**
+         * Build a report of the throughput of each stage of the pipeline.
+         *
+         * @param executor the executor that has run this task
+         * @return a report of the throughput of each stage of the pipeline
+         */
+        synchronized String getStatistics(PipelineExecutor executor)
+        {
+            long readTime = Math.max(1, executor.getReadTime());
+            long parseTime = Math.max(1, executor.getParseTime());
+            return "Pipelined walk of " + libraries.size() + " libraries, " + classCount + " classes (" + (size / 1024) +
+                " KB) in " + executor.getElapsedTime() + " ms. Readers: " + executor.getReaders() + " threads, " +
+                readTime + " ms reading (" + (size * 1000 / 1024 / readTime) + " KB/s per thread), " +
+                executor.getReadWaitTime() + " ms waiting for parsers. Parsers: " + executor.getParsers() +
+                " threads, " + parseTime + " ms parsing (" + (classCount * 1000L / parseTime) +
+                " classes/s per thread), " + executor.getParseWaitTime() + " ms waiting for readers.";
+        }
+    }
+
+    /**
+     * Join forked listeners back into the registered listeners. Listeners that are not {@link
+     * ForkableClassWalkListener} have received a {@link BufferedClassWalkListener}, which is replayed.
+     *
+     * @param targets registered listeners
+     * @param forks forked listeners, at the same position as their registered listener
+     */
+    private static void joinForks(ClassWalkListener[] targets, ClassWalkListener[] forks)
+    {
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i] instanceof ForkableClassWalkListener) {
+                ((ForkableClassWalkListener) targets[i]).join(forks[i]);
+            } else {
+                ((BufferedClassWalkListener) forks[i]).replay(targets[i]);
+            }
+        }
+    }
+
+    public void addClassWalkListener(ClassWalkListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Set the debug mode.
+     *
+     * @param debugEnabled the debug mode. When true, debug message are provided to the listeners.
+     */
+    public void setDebugMode(boolean debugEnabled)
+    {
+        debugMode = debugEnabled;
+    }
+
+    /**
+     * Returns the number of threads used to walk libraries.
+     *
+     * @return the number of threads used to walk libraries.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Set the number of threads used to walk libraries. With more than one thread, libraries are walked concurrently
+     * into forks of the listeners implementing {@link ForkableClassWalkListener}, or into buffers replayed to other
+     * listeners. Forks are joined back in the order the libraries has been found, so that listeners receive the same
+     * results as during a sequential walk.
+     *
+     * @param threads the number of threads used to walk libraries. 1 for a sequential walk, lower than 1 to use one
+     * thread per available processor.
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = ForkJoinExecutor.getThreadCount(threads);
+    }
+
+    /**
+     * Returns the number of threads parsing the classes read by the walking threads.
+     *
+     * @return the number of parsing threads, 0 if classes are parsed by the walking threads.
+     */
+    public int getParsers()
+    {
+        return parsers;
+    }
+
+    /**
+     * Set the number of threads parsing the classes read by the walking threads. When set, libraries are walked
+     * through a pipeline: the walking threads only read the bytecode of each library into a bounded buffer, which is
+     * consumed by the parsing threads feeding forks of the listeners. As for concurrent walks, forks are joined back in
+     * the order the libraries has been found. The throughput of both stages is available from {@link
+     * #getPipelineStatistics()} after the walk.
+     *
+     * @param parsers the number of parsing threads. 0 to parse classes on the walking threads, lower than 0 to use one
+     * thread per available processor.
+     */
+    public void setParsers(int parsers)
+    {
+        this.parsers = (parsers == 0) ? 0 : ForkJoinExecutor.getThreadCount(parsers);
+    }
+
+    /**
+     * Returns a report of the throughput of the readers and the parsers during the last walk.
+     *
+     * @return a report of the throughput of the readers and the parsers, or null if the last walk was not pipelined.
+     */
+    public String getPipelineStatistics()
+    {
+        return pipelineStatistics;
+    }
+
+    /**
+     * Returns true if archives nested into walked archives are also walked.
+     *
+     * @return true if archives nested into walked archives are also walked.
+     */
+    public boolean isScanNestedArchives()
+    {
+        return scanNestedArchives;
+    }
+
+    /**
+     * Enable the walk of archives nested into walked archives, like the jars of the WEB-INF/lib folder of a .war, or
+     * the modules of an .ear. Nested archives are read straight from their enclosing archive, and each of them is
+     * walked as a distinct library, provided to the listeners as an {@link ArchiveEntryFile}. When enabled, .war and
+     * .ear files are walked like .jar files.
+     *
+     * @param scanNestedArchives true to walk archives nested into walked archives.
+     */
+    public void setScanNestedArchives(boolean scanNestedArchives)
+    {
+        this.scanNestedArchives = scanNestedArchives;
+    }
+
+    /**
+     * Returns the registered listeners
+     *
+     * @return the registered listeners
+     */
+    protected ClassWalkListener[] getListeners()
+    {
+        return (ClassWalkListener[]) listeners.toArray(new ClassWalkListener[listeners.size()]);
+    }
+
+    /**
+     * Walk the collected libraries, sequentially, concurrently or through a pipeline depending on the number of threads
+     * and parsers, between the libraryWalkStarted and libraryWalkFinished events of the registered listeners.
+     *
+     * @param baseDir the base directory provided to libraryWalkStarted
+     * @param libraries the collected libraries, processed by {@link #processLibrary(int, Object,
+     * ClassWalkListener[])}
+     * @param progress the progress information of each collected library, as {@link Integer}
+     * @throws ClassWalkerExecutionException if the walk of any library fails
+     */
+    protected void walkLibraries(File baseDir, List libraries, List progress) throws ClassWalkerExecutionException
+    {
+        ClassWalkListener[] targets = getListeners();
+
+        try {
+            for (int i = 0; i < targets.length; i++) {
+                targets[i].libraryWalkStarted(baseDir);
+            }
+
+            pipelineStatistics = null;
+            if (parsers > 0) {
+                PipelineExecutor executor = new PipelineExecutor(threads, parsers);
+                PipelineWalkTask task = new PipelineWalkTask(libraries, progress, targets);
+                executor.execute(libraries.size(), task);
+                pipelineStatistics = task.getStatistics(executor);
+            } else if (threads > 1) {
+                new ForkJoinExecutor(threads).execute(libraries.size(), new LibraryWalkTask(libraries, progress, targets));
+            } else {
+                for (int i = 0; i < libraries.size(); i++) {
+                    processLibrary(((Integer) progress.get(i)).intValue(), libraries.get(i), targets);
+                }
+            }
+
+            for (int i = 0; i < targets.length; i++) {
+                targets[i].libraryWalkFinished();
+            }
+        } catch (ClassWalkerRuntimeException e) {
+            throw new ClassWalkerExecutionException(e.getFile(), e.getCause());
+        }
+    }
+
+    /**
+     * Process a collected library, calling the libraryWalkFileOpened, libraryWalkProcessClass and
+     * libraryWalkFileClosed of the given listeners. This method could be called concurrently for distinct libraries,
+     * and should report errors by throwing a {@link ClassWalkerRuntimeException}.
+     *
+     * @param i progress information of the library
+     * @param library the library to process, as collected by the derived class
+     * @param targets listeners receiving the events
+     */
+    protected abstract void processLibrary(int i, Object library, ClassWalkListener[] targets);
+
+    /**
+     * Read the name of a class of a class tree.
+     *
+     * @param clazz a class of a class tree, in a representation specific to the walker
+     * @return the internal name of the class
+     * @throws IOException if the class could not be read
+     * @throws IllegalArgumentException if the class is not valid
+     */
+    protected abstract String readClassName(Object clazz) throws IOException;
+
+    /**
+     * Merge class trees collected per directory. The root of each tree is found by reading the name of its first class,
+     * and trees having the same root are merged into the first one found. Both lists are updated in place.
+     *
+     * @param libraries the collected libraries, where class trees are {@link ClassTree}
+     * @param progress the progress information of each collected library
+     */
+    protected void mergeClassTrees(List libraries, List progress)
+    {
+        List mergedLibraries = new ArrayList(libraries.size());
+        List mergedProgress = new ArrayList(progress.size());
+        Map roots = new HashMap();
+
+        for (int index = 0; index < libraries.size(); index++) {
+            Object library = libraries.get(index);
+            if (library instanceof ClassTree) {
+                ClassTree tree = (ClassTree) library;
+                Object clazz = tree.classes.get(0);
+                try {
+                    tree.root = ClassFileHeader.getClassRoot(tree.root, readClassName(clazz));
+                } catch (IllegalArgumentException e) {
+                    fireDebug("Invalid class file in " + tree.root.getAbsolutePath() + ": " + e.getMessage());
+                } catch (IOException e) {
+                    throw new ClassWalkerRuntimeException(tree.root, e);
+                }
+
+                ClassTree rootTree = (ClassTree) roots.get(tree.root);
+                if (rootTree != null) {
+                    rootTree.classes.addAll(tree.classes);
+                    continue;
+                }
+                roots.put(tree.root, tree);
+            }
+            mergedLibraries.add(library);
+            mergedProgress.add(progress.get(index));
+        }
+
+        libraries.clear();
+        libraries.addAll(mergedLibraries);
+        progress.clear();
+        progress.addAll(mergedProgress);
+    }
+
+    /**
+     * Check if a file should be walked as an archive
+     *
+     * @param name the name of the file
+     * @return true for .jar files, and for .war and .ear files when nested archives are walked
+     */
+    protected boolean isArchive(String name)
+    {
+        return name.endsWith(".jar") || (scanNestedArchives && (name.endsWith(".war") || name.endsWith(".ear")));
+    }
+
+    /**
+     * Process an opened archive, and the archives nested into it when requested. Each class is inflated once into a
+     * reused buffer and provided to all the given listeners. Nested archives are walked after the classes of their
+     * enclosing archive, each as a distinct library.
+     *
+     * @param i progress information of the library
+     * @param file file to process, which is an {@link ArchiveEntryFile} for nested archives
+     * @param zip the opened archive
+     * @param targets listeners receiving the events
+     * @throws IOException if the archive could not be read
+     */
+    protected void processArchive(int i, File file, MappedZipFile zip, ClassWalkListener[] targets)
+        throws IOException
+    {
+        int nbEntries = zip.size();
+        int curEntry = 0;
+
+        fireLibraryWalkFileOpened(targets, i, file);
+
+        if (!isLibraryWalkFileProcessed(targets)) {
+            for (int entry = 0; entry < nbEntries; entry++) {
+                if (zip.isClass(entry)) {
+                    fireLibraryWalkProcessClass(targets, (++curEntry * 100 / nbEntries), zip, entry);
+                }
+            }
+        }
+
+        fireLibraryWalkFileClosed(targets);
+
+        if (!scanNestedArchives) {
+            return;
+        }
+
+        for (int entry = 0; entry < nbEntries; entry++) {
+            String name = zip.getEntryName(entry);
+            if (isArchive(name)) {
+                File nestedFile = new ArchiveEntryFile(file, name);
+                MappedZipFile nested = new MappedZipFile(zip.readEntry(entry), nestedFile.getPath());
+                try {
+                    processArchive(i, nestedFile, nested, targets);
+                } finally {
+                    nested.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Fire libraryWalkFileOpened events in the given listeners.
+     *
+     * @param targets listeners receiving the events
+     * @param i progress information of the library
+     * @param file the library file
+     */
+    protected static void fireLibraryWalkFileOpened(ClassWalkListener[] targets, int i, File file)
+    {
+        for (int l = 0; l < targets.length; l++) {
+            targets[l].libraryWalkFileOpened(i, file);
+        }
+    }
+
+    /**
+     * Check if the classes of the file just opened have already been processed by all the given listeners, so that
+     * they do not need to be walked.
+     *
+     * @param targets listeners receiving the events
+     * @return true if all listeners implement {@link ClassNameWalkListener} and have already processed the file
+     */
+    public static boolean isLibraryWalkFileProcessed(ClassWalkListener[] targets)
+    {
+        for (int l = 0; l < targets.length; l++) {
+            if (!(targets[l] instanceof ClassNameWalkListener)
+                || !((ClassNameWalkListener) targets[l]).isLibraryWalkFileProcessed())
+            {
+                return false;
+            }
+        }
+        return targets.length > 0;
+    }
+
+    /**
+     * Fire libraryWalkProcessClass events in the given listeners for a class entry of an archive. The entry name is
+     * first offered to the listeners implementing {@link ClassNameWalkListener}, and the entry is only inflated when
+     * some listener needs its bytecode.
+     *
+     * @param targets listeners receiving the events
+     * @param progress progress information in the library
+     * @param zip the archive
+     * @param entry the index of the class entry in the archive
+     * @throws IOException if the entry could not be read
+     */
+    public static void fireLibraryWalkProcessClass(ClassWalkListener[] targets, int progress, MappedZipFile zip,
+        int entry) throws IOException
+    {
+        // Listeners needing the bytecode, only allocated once a listener has processed the entry name
+        ClassWalkListener[] readers = null;
+        int count = 0;
+        String name = null;
+        for (int l = 0; l < targets.length; l++) {
+            if (targets[l] instanceof ClassNameWalkListener) {
+                if (name == null) {
+                    name = zip.getEntryName(entry);
+                }
+                if (((ClassNameWalkListener) targets[l]).libraryWalkProcessClassName(progress, name)) {
+                    if (readers == null) {
+                        readers = new ClassWalkListener[targets.length];
+                        System.arraycopy(targets, 0, readers, 0, l);
+                        count = l;
+                    }
+                    continue;
+                }
+            }
+            if (readers != null) {
+                readers[count++] = targets[l];
+            }
+        }
+
+        if (readers == null) {
+            readers = targets;
+        } else if (count == 0) {
+            return;
+        } else if (count < readers.length) {
+            ClassWalkListener[] subset = new ClassWalkListener[count];
+            System.arraycopy(readers, 0, subset, 0, count);
+            readers = subset;
+        }
+
+        fireLibraryWalkProcessClass(readers, progress, zip.read(entry), zip.getSize(entry));
+    }
+
+    /**
+     * Fire libraryWalkProcessClass events in the given listeners. The same buffer is provided to all listeners
+     * implementing {@link ClassBytesWalkListener}, while other listeners read the bytecode from their own stream.
+     *
+     * @param targets listeners receiving the events
+     * @param progress progress information in the library
+     * @param bytecode buffer containing the class bytecode
+     * @param length length of the bytecode in the buffer
+     */
+    protected static void fireLibraryWalkProcessClass(ClassWalkListener[] targets, int progress, byte[] bytecode,
+        int length)
+    {
+        for (int l = 0; l < targets.length; l++) {
+            ClassBytesWalkListenerAdapter.adapt(targets[l]).libraryWalkProcessClass(progress, bytecode, 0, length);
+        }
+    }
+
+    /**
+     * Fire libraryWalkFileClosed events in the given listeners.
+     *
+     * @param targets listeners receiving the events
+     */
+    protected static void fireLibraryWalkFileClosed(ClassWalkListener[] targets)
+    {
+        for (int l = 0; l < targets.length; l++) {
+            targets[l].libraryWalkFileClosed();
+        }
+    }
+
+    /**
+     * Provide a debug message to the registered listeners in debug mode only.
+     *
+     * @param s the debug message
+     */
+    protected void fireDebug(String s)
+    {
+        debug(getListeners(), s);
+    }
+
+    /**
+     * Provide a debug message to the given listeners in debug mode only.
+     *
+     * @param targets listeners receiving the message
+     * @param s the debug message
+     */
+    protected void debug(ClassWalkListener[] targets, String s)
+    {
+        if (debugMode) {
+            for (int i = 0; i < targets.length; i++) {
+                targets[i].debug(s);
+            }
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.codehaus.plexus.archiver.tar.TarEntry;
+import org.codehaus.plexus.archiver.tar.TarInputStream;
+import org.codehaus.plexus.components.io.fileselectors.FileInfo;
+import org.codehaus.plexus.components.io.fileselectors.FileSelector;
+
+/**
+ * Utility class used to walk through classes straight from an archive file, like the downloaded distribution of a
+ * project, without extracting it.
+ *
+ * The entries of the archive are selected using the same {@link FileSelector} used to extract the archive, and are
+ * provided to the listeners as the files they would be once extracted into the base directory. Each selected .jar
+ * entry is walked as a library, while the .class entries of a same class tree are walked together as a single
+ * library, identified by the root directory of the tree.
+ *
+ * Zip archives, including .jar, .war and .ear files, are mapped in memory and their libraries are walked sequentially,
+ * or concurrently when more than one thread is requested. Tar archives, optionally gzipped, could only be read as a
+ * stream, and are always walked sequentially. Zip archives too large to be mapped are also read as a stream.
+ */
+public class ArchiveClassWalker extends AbstractClassWalker
+{
+    /**
+     * Archive file to walk
+     */
+    private File archiveFile;
+
+    /**
+     * Directory where the archive would be extracted
+     */
+    private File baseDir;
+
+    /**
+     * Selectors of the walked entries, null to walk all entries
+     */
+    private FileSelector[] fileSelectors;
+
+    /**
+     * The zip archive being walked, only used by the thread starting the walk
+     */
+    private MappedZipFile zip;
+
+    /**
+     * Selection information for an archive entry
+     */
+    private static final class EntryInfo implements FileInfo
+    {
+        private final String name;
+
+        EntryInfo(String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * The content of entries is not available to the selectors.
+         *
+         * @return never
+         * @throws IOException always
+         */
+        public InputStream getContents() throws IOException
+        {
+            throw new IOException("Content of " + name + " is not available for selection");
+        }
+
+        public boolean isFile()
+        {
+            return true;
+        }
+
+        public boolean isDirectory()
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the archive file to walk
+     *
+     * @return the archive file to walk
+     */
+    public File getArchiveFile()
+    {
+        return archiveFile;
+    }
+
+    /**
+     * Set the archive file to walk
+     *
+     * @param archiveFile the archive file to walk
+     */
+    public void setArchiveFile(File archiveFile)
+    {
+        this.archiveFile = archiveFile;
+    }
+
+    /**
+     * Returns the directory where the archive would be extracted
+     *
+     * @return the directory where the archive would be extracted
+     */
+    public File getBaseDir()
+    {
+        return baseDir;
+    }
+
+    /**
+     * Set the directory where the archive would be extracted. Libraries are provided to the listeners as files of this
+     * directory, although these files are never written.
+     *
+     * @param baseDir the directory where the archive would be extracted
+     */
+    public void setBaseDir(File baseDir)
+    {
+        this.baseDir = baseDir;
+    }
+
+    /**
+     * Set the selectors of the walked entries. An entry is walked when it is selected by all selectors.
+     *
+     * @param fileSelectors the selectors of the walked entries, null to walk all entries
+     */
+    public void setFileSelectors(FileSelector[] fileSelectors)
+    {
+        this.fileSelectors = fileSelectors;
+    }
+
+    /**
+     * Start walking the selected entries of the archive file
+     */
+    public void scan() throws ClassWalkerExecutionException
+    {
+        String name = archiveFile.getName();
+        if (name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+            scanStream(true);
+        } else if (archiveFile.length() > MappedZipFile.MAX_MAPPED_SIZE) {
+            scanStream(false);
+        } else {
+            scanZip();
+        }
+    }
+
+    /**
+     * Walk a zip archive, mapped in memory. Selected entries are collected first, and walked afterward.
+     *
+     * @throws ClassWalkerExecutionException if the walk of any library fails
+     */
+    private void scanZip() throws ClassWalkerExecutionException
+    {
+        List libraries = new ArrayList();
+        List progress = new ArrayList();
+        Map classDirectories = new HashMap();
+
+        try {
+            zip = new MappedZipFile(archiveFile);
+            int nbEntries = zip.size();
+            for (int entry = 0; entry < nbEntries; entry++) {
+                String name = zip.getEntryName(entry);
+                if (name.endsWith("/") || !isSelected(name)) {
+                    continue;
+                }
+
+                Integer i = new Integer((entry + 1) * 100 / nbEntries);
+                if (zip.isClass(entry)) {
+                    ClassTree tree = getClassTree(classDirectories, libraries, progress, name, i);
+                    tree.getClasses().add(new Integer(entry));
+                } else {
+                    libraries.add(new Integer(entry));
+                    progress.add(i);
+                }
+            }
+
+            if (!classDirectories.isEmpty()) {
+                mergeClassTrees(libraries, progress);
+            }
+
+            walkLibraries(baseDir, libraries, progress);
+        } catch (IOException e) {
+            throw new ClassWalkerExecutionException(archiveFile, e);
+        } catch (ClassWalkerRuntimeException e) {
+            throw new ClassWalkerExecutionException(e.getFile(), e.getCause());
+        } finally {
+            if (zip != null) {
+                zip.close();
+                zip = null;
+            }
+        }
+    }
+
+    /**
+     * Walk a tar archive, optionally gzipped, or a zip archive as a stream. Selected archives are walked as they are
+     * found, while classes are kept in memory to be walked per class tree at the end of the archive.
+     *
+     * @param isTar true for a tar archive, false for a zip archive
+     * @throws ClassWalkerExecutionException if the walk of any library fails
+     */
+    private void scanStream(boolean isTar) throws ClassWalkerExecutionException
+    {
+        ClassWalkListener[] targets = getListeners();
+        List trees = new ArrayList();
+        List progress = new ArrayList();
+        Map classDirectories = new HashMap();
+
+        FileInputStream fis = null;
+        File file = archiveFile;
+        try {
+            fis = new FileInputStream(archiveFile);
+            InputStream in = new BufferedInputStream(fis);
+            TarInputStream tar = null;
+            ZipInputStream zin = null;
+            if (!isTar) {
+                zin = new ZipInputStream(in);
+                in = zin;
+            } else {
+                if (!archiveFile.getName().endsWith(".tar")) {
+                    in = new GZIPInputStream(in);
+                }
+                tar = new TarInputStream(in);
+                in = tar;
+            }
+            long length = Math.max(1, archiveFile.length());
+
+            for (int l = 0; l < targets.length; l++) {
+                targets[l].libraryWalkStarted(baseDir);
+            }
+
+            while (true) {
+                String name;
+                long size;
+                if (tar != null) {
+                    TarEntry entry = tar.getNextEntry();
+                    if (entry == null) {
+                        break;
+                    }
+                    name = entry.isDirectory() ? null : entry.getName();
+                    size = entry.getSize();
+                } else {
+                    ZipEntry entry = zin.getNextEntry();
+                    if (entry == null) {
+                        break;
+                    }
+                    name = entry.isDirectory() ? null : entry.getName();
+                    size = entry.getSize();
+                }
+                if (name == null || !isSelected(name)) {
+                    continue;
+                }
+
+                int i = (int) (fis.getChannel().position() * 100 / length);
+                if (name.endsWith(".class")) {
+                    ClassTree tree = getClassTree(classDirectories, trees, progress, name, new Integer(i));
+                    tree.getClasses().add(readEntry(in, name, size));
+                } else if (isArchive(name)) {
+                    file = new File(baseDir, name);
+                    MappedZipFile archive =
+                        new MappedZipFile(ByteBuffer.wrap(readEntry(in, name, size)), file.getPath());
+                    try {
+                        processArchive(i, file, archive, targets);
+                    } finally {
+                        archive.close();
+                    }
+                    file = archiveFile;
+                } else {
+                    debug(targets, "File not processed: " + new File(baseDir, name).getAbsolutePath());
+                }
+            }
+
+            if (!classDirectories.isEmpty()) {
+                mergeClassTrees(trees, progress);
+            }
+            for (int t = 0; t < trees.size(); t++) {
+                processLibrary(((Integer) progress.get(t)).intValue(), trees.get(t), targets);
+            }
+
+            for (int l = 0; l < targets.length; l++) {
+                targets[l].libraryWalkFinished();
+            }
+        } catch (IOException e) {
+            throw new ClassWalkerExecutionException(file, e);
+        } catch (ClassWalkerRuntimeException e) {
+            throw new ClassWalkerExecutionException(e.getFile(), e.getCause());
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {  /* ignored */ }
+            }
+        }
+    }
+
+    /**
+     * Check if an entry is selected by all selectors
+     *
+     * @param name the name of the entry
+     * @return true if the entry is selected
+     * @throws IOException if a selector fails
+     */
+    private boolean isSelected(String name) throws IOException
+    {
+        if (fileSelectors != null) {
+            FileInfo info = new EntryInfo(name);
+            for (int i = 0; i < fileSelectors.length; i++) {
+                if (!fileSelectors[i].isSelected(info)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the class tree collecting the classes of the directory of a class entry, creating and collecting it as
+     * needed.
+     *
+     * @param classDirectories class trees per directory name
+     * @param libraries collected libraries
+     * @param progress progress information of the collected libraries
+     * @param name name of the class entry
+     * @param i progress information of the class entry
+     * @return the class tree for the directory of the class entry
+     */
+    private ClassTree getClassTree(Map classDirectories, List libraries, List progress, String name, Integer i)
+    {
+        String dir = name.substring(0, name.lastIndexOf('/') + 1);
+        ClassTree tree = (ClassTree) classDirectories.get(dir);
+        if (tree == null) {
+            tree = new ClassTree((dir.length() == 0) ? baseDir : new File(baseDir, dir));
+            classDirectories.put(dir, tree);
+            libraries.add(tree);
+            progress.add(i);
+        }
+        return tree;
+    }
+
+    /**
+     * Read the whole content of the current entry of an archive stream
+     *
+     * @param in the archive stream, positioned at the start of the entry
+     * @param name the name of the entry
+     * @param size the size of the entry, or -1 if unknown
+     * @return the content of the entry
+     * @throws IOException if the entry could not be read
+     */
+    private static byte[] readEntry(InputStream in, String name, long size) throws IOException
+    {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Entry " + name + " is too large");
+        }
+        if (size < 0) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int count;
+            while ((count = in.read(buf)) >= 0) {
+                out.write(buf, 0, count);
+            }
+            return out.toByteArray();
+        }
+        byte[] b = new byte[(int) size];
+        int n = 0;
+        while (n < b.length) {
+            int count = in.read(b, n, b.length - n);
+            if (count < 0) {
+                throw new IOException("Unexpected end of entry " + name);
+            }
+            n += count;
+        }
+        return b;
+    }
+
+    /**
+     * Process a library of the archive, either an archive entry or a class tree. The entries of zip archives are
+     * identified by their index, and are read using a reader dedicated to this library, since libraries may be walked
+     * concurrently. The classes of streamed archives are already read.
+     *
+     * @param i progress information of the library
+     * @param library library to process, either an {@link Integer} or a {@link AbstractClassWalker.ClassTree}
+     * @param targets listeners receiving the events
+     */
+    protected void processLibrary(int i, Object library, ClassWalkListener[] targets)
+    {
+        MappedZipFile reader = (zip != null) ? zip.duplicate() : null;
+        File file = archiveFile;
+        try {
+            if (library instanceof ClassTree) {
+                ClassTree tree = (ClassTree) library;
+                file = tree.getRoot();
+                List classes = tree.getClasses();
+                int nbClasses = classes.size();
+
+                fireLibraryWalkFileOpened(targets, i, file);
+                for (int c = 0; c < nbClasses; c++) {
+                    Object clazz = classes.get(c);
+                    int progress = ((c + 1) * 100 / nbClasses);
+                    if (clazz instanceof byte[]) {
+                        byte[] bytecode = (byte[]) clazz;
+                        fireLibraryWalkProcessClass(targets, progress, bytecode, bytecode.length);
+                    } else {
+                        int entry = ((Integer) clazz).intValue();
+                        fireLibraryWalkProcessClass(targets, progress, reader.read(entry), reader.getSize(entry));
+                    }
+                }
+                fireLibraryWalkFileClosed(targets);
+                return;
+            }
+
+            int entry = ((Integer) library).intValue();
+            String name = reader.getEntryName(entry);
+            file = new File(baseDir, name);
+            if (isArchive(name)) {
+                MappedZipFile archive = new MappedZipFile(reader.readEntry(entry), file.getPath());
+                try {
+                    processArchive(i, file, archive, targets);
+                } finally {
+                    archive.close();
+                }
+            } else {
+                debug(targets, "File not processed: " + file.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            throw new ClassWalkerRuntimeException(file, e);
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    protected String readClassName(Object clazz) throws IOException
+    {
+        if (clazz instanceof byte[]) {
+            byte[] bytecode = (byte[]) clazz;
+            return new ClassFileHeader(bytecode, 0, bytecode.length).getClassName();
+        }
+        int entry = ((Integer) clazz).intValue();
+        return new ClassFileHeader(zip.read(entry), 0, zip.getSize(entry)).getClassName();
+    }
+}
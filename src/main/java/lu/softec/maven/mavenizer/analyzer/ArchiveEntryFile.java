@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Virtual file representing an archive nested into another archive, like a jar in the WEB-INF/lib folder of a war.
+ *
+ * The path of a virtual file is the path of its enclosing archive followed by {@link #SEPARATOR} and the name of the
+ * entry, like app.war!/WEB-INF/lib/lib.jar. Since the enclosing archive may itself be a virtual file, archives could be
+ * nested at any depth. The content of a virtual file is read straight from its enclosing archive, and the virtual file
+ * only exists on disk once {@link #materialize()} has been called.
+ */
+public class ArchiveEntryFile extends File
+{
+    /**
+     * Serialization version of virtual files
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Suffix added to the path of the enclosing archive to build the path of its entries
+     */
+    public static final String SEPARATOR = "!";
+
+    /**
+     * Enclosing archive
+     */
+    private final File archive;
+
+    /**
+     * Name of the entry in the enclosing archive
+     */
+    private final String entryName;
+
+    /**
+     * Construct a virtual file for an entry of an archive
+     *
+     * @param archive the enclosing archive, which may be another virtual file
+     * @param entryName the name of the entry in the enclosing archive
+     */
+    public ArchiveEntryFile(File archive, String entryName)
+    {
+        super(archive.getPath() + SEPARATOR, entryName);
+        this.archive = archive;
+        this.entryName = entryName;
+    }
+
+    /**
+     * Returns the enclosing archive
+     *
+     * @return the enclosing archive, which may be another virtual file
+     */
+    public File getArchive()
+    {
+        return archive;
+    }
+
+    /**
+     * Returns the name of the entry in the enclosing archive
+     *
+     * @return the name of the entry in the enclosing archive
+     */
+    public String getEntryName()
+    {
+        return entryName;
+    }
+
+    /**
+     * Read the content of this entry from its enclosing archive.
+     *
+     * @return a buffer holding the content of this entry from its position to its limit
+     * @throws IOException if the enclosing archives could not be read, or does not contain this entry
+     */
+    public ByteBuffer getContent() throws IOException
+    {
+        MappedZipFile zip;
+        if (archive instanceof ArchiveEntryFile) {
+            zip = new MappedZipFile(((ArchiveEntryFile) archive).getContent(), archive.getPath());
+        } else {
+            zip = new MappedZipFile(archive);
+        }
+        try {
+            int index = zip.indexOf(entryName);
+            if (index == -1) {
+                throw new FileNotFoundException("No entry " + entryName + " in " + archive.getPath());
+            }
+            return zip.readEntry(index);
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Write the content of this entry to its own path, unless it already exists. The content is first written to a
+     * temporary file of the same directory, and renamed into place once complete, so that an interrupted write never
+     * leaves a truncated archive behind.
+     *
+     * @throws IOException if the content could not be read or written
+     */
+    public void materialize() throws IOException
+    {
+        if (isFile()) {
+            return;
+        }
+
+        ByteBuffer content = getContent();
+        byte[] b = new byte[content.remaining()];
+        content.get(b);
+
+        File dir = getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(getName(), ".tmp", dir);
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(b);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(this) && !isFile()) {
+                throw new IOException("Unable to rename " + tmp.getPath() + " to " + getPath());
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * ClassWalkListener recording the events of a library walk, including the bytecode of the walked classes, to replay
+ * them later into another listener. A library may contains nested libraries, so several files could be walked.
+ *
+ * This is used by concurrent walkers to serve listeners that does not implement {@link ForkableClassWalkListener}: the
+ * library is read concurrently into this buffer, and the events are replayed, in walk order, on the thread that has
+ * started the walk.
+ */
+public class BufferedClassWalkListener implements ClassBytesWalkListener
+{
+    /**
+     * Marker event recorded when a file is closed
+     */
+    private static final Object CLOSED = new Object();
+
+    /**
+     * The last opened file, used for error reporting
+     */
+    private File file;
+
+    /**
+     * Recorded events, either {@link String} for debug messages, {@link OpenedFile} for opened files, {@link
+     * BufferedClass} for classes or {@link #CLOSED} for closed files.
+     */
+    private final List events = new ArrayList();
+
+    /**
+     * Number of recorded classes
+     */
+    private int classCount;
+
+    /**
+     * Total size of the recorded bytecode
+     */
+    private long size;
+
+    /**
+     * Opened file with its progress information
+     */
+    private static final class OpenedFile
+    {
+        private final int progress;
+
+        private final File file;
+
+        OpenedFile(int progress, File file)
+        {
+            this.progress = progress;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Bytecode of a class with its progress information
+     */
+    private static final class BufferedClass
+    {
+        private final int progress;
+
+        private final byte[] bytecode;
+
+        BufferedClass(int progress, byte[] bytecode)
+        {
+            this.progress = progress;
+            this.bytecode = bytecode;
+        }
+    }
+
+    /**
+     * Does nothing, started and finished events are never buffered.
+     *
+     * @param file the base directory that is about to be walked
+     */
+    public void libraryWalkStarted(File file)
+    {
+        // nothing to do here
+    }
+
+    public void libraryWalkFileOpened(int progress, File file)
+    {
+        this.file = file;
+        events.add(new OpenedFile(progress, file));
+    }
+
+    /**
+     * Read and record the bytecode of the class.
+     *
+     * @param progress the approximative percentage of progress in the current walked file.
+     * @param in an input stream to read the class bytecode. This stream is never closed.
+     */
+    public void libraryWalkProcessClass(int progress, InputStream in)
+    {
+        try {
+            record(progress, IOUtil.toByteArray(in));
+        } catch (IOException e) {
+            throw new ClassWalkerRuntimeException(file, e);
+        }
+    }
+
+    /**
+     * Record a copy of the bytecode of the class.
+     *
+     * @param progress the approximative percentage of progress in the current walked file.
+     * @param bytecode buffer containing the class bytecode
+     * @param offset offset of the class bytecode in the buffer
+     * @param length length of the class bytecode in the buffer
+     */
+    public void libraryWalkProcessClass(int progress, byte[] bytecode, int offset, int length)
+    {
+        byte[] copy = new byte[length];
+        System.arraycopy(bytecode, offset, copy, 0, length);
+        record(progress, copy);
+    }
+
+    private void record(int progress, byte[] bytecode)
+    {
+        events.add(new BufferedClass(progress, bytecode));
+        classCount++;
+        size += bytecode.length;
+    }
+
+    public void libraryWalkFileClosed()
+    {
+        events.add(CLOSED);
+    }
+
+    /**
+     * Does nothing, started and finished events are never buffered.
+     */
+    public void libraryWalkFinished()
+    {
+        // nothing to do here
+    }
+
+    public void debug(String s)
+    {
+        events.add(s);
+    }
+
+    /**
+     * Returns the number of recorded classes
+     *
+     * @return the number of recorded classes
+     */
+    public int getClassCount()
+    {
+        return classCount;
+    }
+
+    /**
+     * Returns the total size of the recorded bytecode
+     *
+     * @return the total size of the recorded bytecode, in bytes
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Replay the recorded events into the given listener and release the recorded bytecode.
+     *
+     * @param listener the listener to receive the events
+     */
+    public void replay(ClassWalkListener listener)
+    {
+        replay(new ClassWalkListener[]{listener});
+        events.clear();
+    }
+
+    /**
+     * Replay the recorded events into each of the given listeners, without releasing the recorded bytecode. Each event
+     * is delivered to all listeners before the next one, and the recorded bytecode of each class is shared by all
+     * listeners implementing {@link ClassBytesWalkListener}.
+     *
+     * @param listeners the listeners to receive the events
+     */
+    public void replay(ClassWalkListener[] listeners)
+    {
+        ClassBytesWalkListener[] targets = new ClassBytesWalkListener[listeners.length];
+        for (int i = 0; i < listeners.length; i++) {
+            targets[i] = ClassBytesWalkListenerAdapter.adapt(listeners[i]);
+        }
+
+        for (Iterator it = events.iterator(); it.hasNext();) {
+            Object event = it.next();
+            for (int i = 0; i < targets.length; i++) {
+                ClassBytesWalkListener listener = targets[i];
+                if (event instanceof BufferedClass) {
+                    BufferedClass clazz = (BufferedClass) event;
+                    listener.libraryWalkProcessClass(clazz.progress, clazz.bytecode, 0, clazz.bytecode.length);
+                } else if (event instanceof OpenedFile) {
+                    OpenedFile opened = (OpenedFile) event;
+                    listener.libraryWalkFileOpened(opened.progress, opened.file);
+                } else if (event == CLOSED) {
+                    listener.libraryWalkFileClosed();
+                } else {
+                    listener.debug((String) event);
+                }
+            }
+        }
+    }
+}
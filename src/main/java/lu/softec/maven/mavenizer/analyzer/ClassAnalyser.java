@@ -16,6 +16,7 @@
 package lu.softec.maven.mavenizer.analyzer;
 
 import java.io.File;
+import java.util.Collection;
 
 /**
  * Common interface for analysing classes
@@ -31,6 +32,17 @@ public interface ClassAnalyser
      */
     boolean addClass(File file, String name);
 
+    /**
+     * A new class has been found, with a digest of its bytecode telling identical copies of a class from divergent
+     * ones
+     *
+     * @param file name of the file where the class was found
+     * @param name name of the class found
+     * @param digest digest of the bytecode of the class, or 0 if unknown
+     * @return true if the class found was unknown to the analyser
+     */
+    boolean addClass(File file, String name, long digest);
+
     /**
      * A new dependency has been found
      *
@@ -39,4 +51,13 @@ public interface ClassAnalyser
      * @return true if the dependency was unknown to the analyser
      */
     boolean addDependency(String from, String to);
+
+    /**
+     * New dependencies have been found for a class
+     *
+     * @param from name of the class that has the dependencies
+     * @param to names of the classes on which the dependencies occur
+     * @return true if any of the dependencies was unknown to the analyser
+     */
+    boolean addDependencies(String from, Collection to);
 }
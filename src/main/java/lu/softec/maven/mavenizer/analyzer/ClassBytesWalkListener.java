@@ -0,0 +1,40 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+/**
+ * Interface that could be implemented by a {@link ClassWalkListener} to receive the bytecode of each class as a byte
+ * array instead of a stream.
+ *
+ * The walker reads the bytecode of each class once, and provides the same array to every listener implementing this
+ * interface, avoiding a copy of the class for each listener. Listeners only implementing {@link ClassWalkListener}
+ * keep receiving a stream, through a {@link ClassBytesWalkListenerAdapter}.
+ */
+public interface ClassBytesWalkListener extends ClassWalkListener
+{
+    /**
+     * Called for each classe found, instead of {@link ClassWalkListener#libraryWalkProcessClass(int,
+     * java.io.InputStream)}.
+     *
+     * @param progress the approximative percentage of progress in the current walked file. For .class file, always
+     * 100%.
+     * @param bytecode buffer containing the class bytecode. This buffer is shared with other listeners and reused by
+     * the walker after this call returns, it SHOULD NEVER be modified nor kept.
+     * @param offset offset of the class bytecode in the buffer
+     * @param length length of the class bytecode in the buffer
+     */
+    void libraryWalkProcessClass(int progress, byte[] bytecode, int offset, int length);
+}
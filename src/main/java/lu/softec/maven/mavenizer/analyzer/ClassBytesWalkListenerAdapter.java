@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * Adapter providing the {@link ClassBytesWalkListener} interface for a listener only implementing the stream based
+ * {@link ClassWalkListener} interface. Each class is provided to the adapted listener as a stream reading the shared
+ * buffer.
+ */
+public class ClassBytesWalkListenerAdapter implements ClassBytesWalkListener
+{
+    /**
+     * The adapted listener
+     */
+    private final ClassWalkListener listener;
+
+    /**
+     * Construct an adapter for a stream based listener
+     *
+     * @param listener the adapted listener
+     */
+    public ClassBytesWalkListenerAdapter(ClassWalkListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns a {@link ClassBytesWalkListener} for a given listener.
+     *
+     * @param listener a listener
+     * @return the listener itself if it implements {@link ClassBytesWalkListener}, or a new adapter for the listener.
+     */
+    public static ClassBytesWalkListener adapt(ClassWalkListener listener)
+    {
+        if (listener instanceof ClassBytesWalkListener) {
+            return (ClassBytesWalkListener) listener;
+        }
+        return new ClassBytesWalkListenerAdapter(listener);
+    }
+
+    /**
+     * Returns the adapted listener
+     *
+     * @return the adapted listener
+     */
+    public ClassWalkListener getListener()
+    {
+        return listener;
+    }
+
+    public void libraryWalkStarted(File file)
+    {
+        listener.libraryWalkStarted(file);
+    }
+
+    public void libraryWalkFileOpened(int progress, File file)
+    {
+        listener.libraryWalkFileOpened(progress, file);
+    }
+
+    /**
+     * Provide the class to the adapted listener as a stream reading the given buffer.
+     *
+     * @param progress the approximative percentage of progress in the current walked file.
+     * @param bytecode buffer containing the class bytecode
+     * @param offset offset of the class bytecode in the buffer
+     * @param length length of the class bytecode in the buffer
+     */
+    public void libraryWalkProcessClass(int progress, byte[] bytecode, int offset, int length)
+    {
+        listener.libraryWalkProcessClass(progress, new ByteArrayInputStream(bytecode, offset, length));
+    }
+
+    public void libraryWalkProcessClass(int progress, InputStream in)
+    {
+        listener.libraryWalkProcessClass(progress, in);
+    }
+
+    public void libraryWalkFileClosed()
+    {
+        listener.libraryWalkFileClosed();
+    }
+
+    public void libraryWalkFinished()
+    {
+        listener.libraryWalkFinished();
+    }
+
+    public void debug(String s)
+    {
+        listener.debug(s);
+    }
+}
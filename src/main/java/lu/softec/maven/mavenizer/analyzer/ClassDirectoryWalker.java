@@ -16,12 +16,13 @@
 package lu.softec.maven.mavenizer.analyzer;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Enumeration;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.Map;
 
 import org.codehaus.plexus.util.DirectoryWalkListener;
 import org.codehaus.plexus.util.DirectoryWalker;
@@ -33,178 +34,80 @@ import org.codehaus.plexus.util.DirectoryWalker;
  * Processed files may be selected using includes and excludes patterns. SCM files are always excluded.
  *
  * This class is basically a wrapper over a {@link org.codehaus.plexus.util.DirectoryWalker} to walk over classes
- * contained in .class or .jar files walked by the underlying DirectoryWalker.
+ * contained in .class or .jar files walked by the underlying DirectoryWalker. Each .jar file is walked as a library,
+ * while the .class files of a same class tree are walked together as a single library, identified by the root
+ * directory of the tree. Libraries are walked sequentially, or concurrently when more than one thread is requested.
  */
-public class ClassDirectoryWalker implements ClassWalker
+public class ClassDirectoryWalker extends AbstractClassWalker
 {
     /**
-     * Internal DirectoryWalker wrapped for processing files
+     * Exclusion pattern for nested archives materialized on disk
      */
-    private DirectoryWalker walker;
+    private static final String NESTED_ARCHIVE_EXCLUDE = "**/*" + ArchiveEntryFile.SEPARATOR + "/**";
 
     /**
-     * Current reporting mode. When true, debug message are provided to the listeners.
+     * Internal DirectoryWalker wrapped for processing files
      */
-    private boolean debugMode = false;
+    private DirectoryWalker walker;
 
     /**
-     * Internal wrapper over a ClassWalkListener to expose a DirectoryWalkListener interface to the DirectoryWalker.
+     * Internal DirectoryWalkListener collecting the files selected by the DirectoryWalker, to walk them afterward.
+     * The .class files are collected per directory, into class trees merged once all files have been collected.
      */
-    private static class LibraryWalkListenerWrapper implements DirectoryWalkListener
+    private class LibraryCollector implements DirectoryWalkListener
     {
         /**
-         * ClassWalkListener wrapped by this wrapper
+         * Collected libraries, either a {@link File} or a {@link AbstractClassWalker.ClassTree} of .class {@link File}
          */
-        private ClassWalkListener listener;
+        private final List files = new ArrayList();
 
         /**
-         * Current reporting mode. When true, debug message are provided to the listener.
+         * Progress information computed by the DirectoryWalker for each collected library
          */
-        private boolean debugMode = false;
+        private final List progress = new ArrayList();
 
         /**
-         * Construct an instance wrapping the provided ClassWalkListener.
-         *
-         * @param listener the listener to be wrapped
-         * @param debugMode the reporting mode to use. When true, debug message are provided to the listener.
+         * Collected class directories, mapping a {@link File} to its {@link AbstractClassWalker.ClassTree}
          */
-        LibraryWalkListenerWrapper(ClassWalkListener listener, boolean debugMode)
-        {
-            this.listener = listener;
-            this.debugMode = debugMode;
-        }
+        private final Map classDirectories = new HashMap();
 
-        /**
-         * Called once by the DirectoryWalker when starting the walk, it pass over the call to the libraryWalkStarted
-         * method of the underlying ClassWalkListener listener.
-         *
-         * @param file the base directory about to be walked
-         */
         public void directoryWalkStarting(File file)
         {
-            listener.libraryWalkStarted(file);
+            // nothing to do here
         }
 
-        /**
-         * Called once by the DirectoryWalker when the walk is finished, it pass over the call to the
-         * libraryWalkFinished method of the underlying ClassWalkListener listener.
-         */
-        public void directoryWalkFinished()
+        public void directoryWalkStep(int i, File file)
         {
-            listener.libraryWalkFinished();
+            if (file.getName().endsWith(".class")) {
+                File dir = file.getParentFile();
+                ClassTree tree = (ClassTree) classDirectories.get(dir);
+                if (tree == null) {
+                    tree = new ClassTree(dir);
+                    classDirectories.put(dir, tree);
+                    files.add(tree);
+                    progress.add(new Integer(i));
+                }
+                tree.getClasses().add(file);
+            } else {
+                files.add(file);
+                progress.add(new Integer(i));
+            }
         }
 
-        /**
-         * Called when an error occurs, it pass over the call to the error method of the underlying ClassWalkListener
-         * listener.
-         *
-         * @param file file currently concerned by the error
-         * @param t throwable containing information about the error
-         */
-        public void error(File file, Throwable t)
+        public void directoryWalkFinished()
         {
-            throw new ClassWalkerRuntimeException(file, t);
+            // nothing to do here
         }
 
         /**
-         * Called when a debug message is written, it pass over the call to the debug method of the underlying
-         * ClassWalkListener listener in debug mode only.
+         * Called when a debug message is written, it pass over the call to the debug method of the registered
+         * ClassWalkListener listeners.
          *
          * @param s the debug message
          */
         public void debug(String s)
         {
-            if (debugMode) {
-                listener.debug(s);
-            }
-        }
-
-        /**
-         * Called by the DirectoryWalker for each file walked, it process .class and .jar file and ignore others. For
-         * each file, the libraryWalkFileOpened of the underlying ClassWalkListener listener is first called, passing
-         * over the recieved arguments. Then for each Class in the file, the libraryWalkProcessClass of the underlying
-         * ClassWalkListener listener is called. Finally the libraryWalkFileClosed of the underlying ClassWalkListener
-         * listener is called.
-         *
-         * @param i progress information computed by the DirectoryWalker
-         * @param file file to process
-         */
-        public void directoryWalkStep(int i, File file)
-        {
-//            if (file.getName().endsWith(".class")) {
-//                processClassFile(i, file);
-//            } else
-            if (file.getName().endsWith(".jar")) {
-                processJarFile(i, file);
-            } else {
-                debug("File not processed: " + file.getAbsolutePath());
-            }
-        }
-
-        /**
-         * Internal method to process a .class file.
-         *
-         * @param i progress information computed by the DirectoryWalker
-         * @param file file to process
-         */
-//        private void processClassFile(int i, File file)
-//        {
-//            InputStream in = null;
-//            try {
-//                in = new BufferedInputStream(new FileInputStream(file));
-//
-//                listener.libraryWalkFileOpened(i, file);
-//
-//                listener.libraryWalkProcessClass(100, in);
-//                in.close();
-//
-//                listener.libraryWalkFileClosed();
-//            } catch (IOException e) {
-//                error(file, e);
-//            } finally {
-//                if (in != null) {
-//                    try {
-//                        in.close();
-//                    } catch (IOException e) { /* ignored */ }
-//                }
-//            }
-//        }
-
-        /**
-         * Internal method to process a .jar file, extract .class file out of it.
-         *
-         * @param i progress information computed by the DirectoryWalker
-         * @param file file to process
-         */
-        private void processJarFile(int i, File file)
-        {
-            ZipFile zip = null;
-            try {
-                zip = new JarFile(file);
-                Enumeration entries = zip.entries();
-                int nbEntries = zip.size();
-                int curEntry = 0;
-
-                listener.libraryWalkFileOpened(i, file);
-
-                while (entries.hasMoreElements()) {
-                    ZipEntry entry = (ZipEntry) entries.nextElement();
-                    if (entry.getName().endsWith(".class")) {
-                        listener.libraryWalkProcessClass((++curEntry * 100 / nbEntries), zip.getInputStream(entry));
-                    }
-                }
-                zip.close();
-
-                listener.libraryWalkFileClosed();
-            } catch (IOException e) {
-                error(file, e);
-            } finally {
-                if (zip != null) {
-                    try {
-                        zip.close();
-                    } catch (IOException e) {  /* ignored */ }
-                }
-            }
+            fireDebug(s);
         }
     }
 
@@ -217,11 +120,6 @@ public class ClassDirectoryWalker implements ClassWalker
         walker.addSCMExcludes();
     }
 
-    public void addClassWalkListener(ClassWalkListener listener)
-    {
-        walker.addDirectoryWalkListener(new LibraryWalkListenerWrapper(listener, debugMode));
-    }
-
     /**
      * Set the debug mode.
      *
@@ -229,7 +127,7 @@ public class ClassDirectoryWalker implements ClassWalker
      */
     public void setDebugMode(boolean debugEnabled)
     {
-        debugMode = debugEnabled;
+        super.setDebugMode(debugEnabled);
         walker.setDebugMode(debugEnabled);
     }
 
@@ -254,15 +152,145 @@ public class ClassDirectoryWalker implements ClassWalker
     }
 
     /**
-     * Start scanning from the base directory, walking through all selected directories and files
+     * Start scanning from the base directory, walking through all selected directories and files. When nested archives
+     * are walked, previously materialized nested archives are excluded from the walk.
      */
     public void scan() throws ClassWalkerExecutionException
     {
+        LibraryCollector collector = new LibraryCollector();
+
+        walker.addDirectoryWalkListener(collector);
+        if (isScanNestedArchives() && !walker.getExcludes().contains(NESTED_ARCHIVE_EXCLUDE)) {
+            walker.addExclude(NESTED_ARCHIVE_EXCLUDE);
+        }
         try {
             walker.scan();
+        } finally {
+            walker.removeDirectoryWalkListener(collector);
+        }
+
+        try {
+            if (!collector.classDirectories.isEmpty()) {
+                mergeClassTrees(collector.files, collector.progress);
+            }
         } catch (ClassWalkerRuntimeException e) {
             throw new ClassWalkerExecutionException(e.getFile(), e.getCause());
         }
+
+        walkLibraries(getBaseDir(), collector.files, collector.progress);
+    }
+
+    /**
+     * Process a library found during the walk. For each .jar file or class tree, the libraryWalkFileOpened of the given
+     * listeners is first called, passing over the recieved arguments. Then for each Class in the library, the
+     * libraryWalkProcessClass of the given listeners is called. Finally the libraryWalkFileClosed of the given
+     * listeners is called. Other files are ignored.
+     *
+     * @param i progress information computed by the DirectoryWalker
+     * @param library library to process, either a {@link File} or a {@link AbstractClassWalker.ClassTree}
+     * @param targets listeners receiving the events
+     */
+    protected void processLibrary(int i, Object library, ClassWalkListener[] targets)
+    {
+        if (library instanceof ClassTree) {
+            processClassTree(i, (ClassTree) library, targets);
+            return;
+        }
+
+        File file = (File) library;
+        if (isArchive(file.getName())) {
+            processJarFile(i, file, targets);
+        } else {
+            debug(targets, "File not processed: " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Internal method to process a .jar file, extract .class file out of it. The jar is mapped in memory and each class
+     * is inflated once into a reused buffer and provided to all the given listeners.
+     *
+     * @param i progress information computed by the DirectoryWalker
+     * @param file file to process
+     * @param targets listeners receiving the events
+     */
+    private void processJarFile(int i, File file, ClassWalkListener[] targets)
+    {
+        MappedZipFile zip = null;
+        try {
+            zip = new MappedZipFile(file);
+            processArchive(i, file, zip, targets);
+        } catch (IOException e) {
+            throw new ClassWalkerRuntimeException(file, e);
+        } finally {
+            if (zip != null) {
+                zip.close();
+            }
+        }
+    }
+
+    /**
+     * Internal method to process a class tree, as a single library identified by its root directory. Each .class file
+     * is read at once into a buffer reused for the whole tree and provided to all the given listeners.
+     *
+     * @param i progress information computed by the DirectoryWalker
+     * @param tree class tree to process
+     * @param targets listeners receiving the events
+     */
+    private void processClassTree(int i, ClassTree tree, ClassWalkListener[] targets)
+    {
+        File file = tree.getRoot();
+        try {
+            List files = tree.getClasses();
+            int nbFiles = files.size();
+            byte[] buffer = new byte[CLASS_BUFFER_SIZE];
+
+            fireLibraryWalkFileOpened(targets, i, tree.getRoot());
+
+            for (int f = 0; f < nbFiles; f++) {
+                file = (File) files.get(f);
+                buffer = readClassFile(file, buffer);
+                fireLibraryWalkProcessClass(targets, ((f + 1) * 100 / nbFiles), buffer, (int) file.length());
+            }
+
+            fireLibraryWalkFileClosed(targets);
+        } catch (IOException e) {
+            throw new ClassWalkerRuntimeException(file, e);
+        }
+    }
+
+    protected String readClassName(Object clazz) throws IOException
+    {
+        File file = (File) clazz;
+        byte[] buffer = readClassFile(file, new byte[CLASS_BUFFER_SIZE]);
+        return new ClassFileHeader(buffer, 0, (int) file.length()).getClassName();
+    }
+
+    /**
+     * Read a whole .class file at once, without any intermediate buffering.
+     *
+     * @param file the .class file to be read
+     * @param buffer a buffer to be reused if large enough
+     * @return the given buffer or a larger one, containing the file content from offset 0 up to the file length
+     * @throws IOException if the file could not be fully read
+     */
+    private static byte[] readClassFile(File file, byte[] buffer) throws IOException
+    {
+        int length = (int) file.length();
+        byte[] b = (buffer.length < length) ? new byte[Math.max(length, buffer.length * 2)] : buffer;
+        InputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < length) {
+                int count = in.read(b, n, length - n);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of file " + file.getAbsolutePath());
+                }
+                n += count;
+            }
+        } finally {
+            in.close();
+        }
+        return b;
     }
 
     /**
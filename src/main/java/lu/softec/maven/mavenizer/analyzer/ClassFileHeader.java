@@ -0,0 +1,235 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.io.File;
+
+/**
+ * Lightweight parser of the header of a class file.
+ *
+ * Only the constant pool is scanned, to locate its entries, and the class name is decoded. This is much cheaper than a
+ * full class parsing, and is used to locate class files without analysing them. The located entries are also available
+ * to lightweight class file readers, which parse the remaining of the class file from {@link #getHeader()}.
+ */
+public class ClassFileHeader
+{
+    private static final int MAGIC = 0xCAFEBABE;
+
+    /**
+     * Buffer containing the class file
+     */
+    private final byte[] b;
+
+    /**
+     * Offsets of the constant pool entries, pointing to their tag
+     */
+    private final int[] items;
+
+    /**
+     * Offset of the access flags, just after the constant pool
+     */
+    private final int header;
+
+    /**
+     * Parse the header of a class file
+     *
+     * @param b buffer containing the class file
+     * @param off offset of the class file in the buffer
+     * @param len length of the class file
+     * @throws IllegalArgumentException if the buffer does not contain a valid class file header
+     */
+    public ClassFileHeader(byte[] b, int off, int len)
+    {
+        this.b = b;
+        int end = off + len;
+        try {
+            if (len < 10 || readInt(off) != MAGIC) {
+                throw new IllegalArgumentException("Not a class file");
+            }
+            int count = readUnsignedShort(off + 8);
+            items = new int[count];
+            int pos = off + 10;
+            for (int i = 1; i < count; i++) {
+                items[i] = pos;
+                switch (b[pos]) {
+                    case 1: // Utf8
+                        pos += 3 + readUnsignedShort(pos + 1);
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        pos += 9;
+                        i++;
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        pos += 5;
+                        break;
+                    case 15: // MethodHandle
+                        pos += 4;
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        pos += 3;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Invalid constant pool tag " + b[pos]);
+                }
+                if (pos > end) {
+                    throw new IllegalArgumentException("Truncated constant pool");
+                }
+            }
+            if (pos + 6 > end) {
+                throw new IllegalArgumentException("Truncated class file");
+            }
+            header = pos;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated class file");
+        }
+    }
+
+    /**
+     * Returns the internal name of the class, like java/lang/Object
+     *
+     * @return the internal name of the class
+     */
+    public String getClassName()
+    {
+        return getClass(readUnsignedShort(header + 2));
+    }
+
+    /**
+     * Returns the number of entries of the constant pool, including the unusable entry 0
+     *
+     * @return the constant_pool_count of the class file
+     */
+    public int getItemCount()
+    {
+        return items.length;
+    }
+
+    /**
+     * Returns the offset of a constant pool entry
+     *
+     * @param index index of the entry
+     * @return the offset of the tag of the entry in the buffer, or 0 for the unusable entries following long and
+     *         double entries
+     */
+    public int getItem(int index)
+    {
+        return items[index];
+    }
+
+    /**
+     * Returns the offset of the access flags of the class, just after the constant pool
+     *
+     * @return the offset of the access flags of the class in the buffer
+     */
+    public int getHeader()
+    {
+        return header;
+    }
+
+    /**
+     * Returns the internal name of a class referenced in the constant pool
+     *
+     * @param index index of a CONSTANT_Class entry
+     * @return the internal name of the class
+     */
+    public String getClass(int index)
+    {
+        return getUtf8(readUnsignedShort(items[index] + 1));
+    }
+
+    /**
+     * Decode a CONSTANT_Utf8 entry, using the modified UTF-8 encoding of class files
+     *
+     * @param index index of a CONSTANT_Utf8 entry
+     * @return the decoded string
+     */
+    public String getUtf8(int index)
+    {
+        int pos = items[index] + 3;
+        int end = pos + readUnsignedShort(pos - 2);
+        char[] buf = new char[end - pos];
+        int length = 0;
+        while (pos < end) {
+            int c = b[pos++] & 0xFF;
+            if (c < 0x80) {
+                buf[length++] = (char) c;
+            } else if (c < 0xE0) {
+                buf[length++] = (char) (((c & 0x1F) << 6) | (b[pos++] & 0x3F));
+            } else {
+                buf[length++] = (char) (((c & 0x0F) << 12) | ((b[pos++] & 0x3F) << 6) | (b[pos++] & 0x3F));
+            }
+        }
+        return new String(buf, 0, length);
+    }
+
+    /**
+     * Read an unsigned 16 bits value of the class file
+     *
+     * @param pos offset of the value in the buffer
+     * @return the value read
+     */
+    public int readUnsignedShort(int pos)
+    {
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+
+    /**
+     * Read a signed 32 bits value of the class file
+     *
+     * @param pos offset of the value in the buffer
+     * @return the value read
+     */
+    public int readInt(int pos)
+    {
+        return ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+    }
+
+    /**
+     * Compute the root directory of a class tree from the location of one of its class files. The package of the
+     * class should match the trailing directories of the class file location.
+     *
+     * @param directory the directory containing the class file
+     * @param className the internal name of the class
+     * @return the directory corresponding to the default package, or the given directory when the class package does
+     *         not match its location
+     */
+    public static File getClassRoot(File directory, String className)
+    {
+        File root = directory;
+        int end = className.lastIndexOf('/');
+        while (end > 0) {
+            int start = className.lastIndexOf('/', end - 1) + 1;
+            if (root == null || !root.getName().equals(className.substring(start, end))) {
+                return directory;
+            }
+            root = root.getParentFile();
+            end = start - 1;
+        }
+        return (root == null) ? directory : root;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+/**
+ * Interface that could be implemented by a {@link ClassWalkListener} able to process some classes of an archive from
+ * the name of their entry only.
+ *
+ * Before reading a class from an archive, walkers offer its entry name to the listeners implementing this interface.
+ * The class is only read when some listener needs its bytecode, so listeners that only need the name of the classes
+ * could avoid inflating them.
+ *
+ * Listeners that obtain the classes of a whole file from another source, like a cache, tell it once the file has been
+ * opened, so that walkers could skip its classes when no other listener needs them.
+ */
+public interface ClassNameWalkListener extends ClassWalkListener
+{
+    /**
+     * Called for each class found in an archive, before its bytecode is read.
+     *
+     * @param progress the approximative percentage of progress in the current walked file.
+     * @param entryName the name of the entry of the class in the archive, like org/example/Foo.class
+     * @return true if the class has been processed from its entry name, false if the listener needs its bytecode, which
+     *         is then provided by a call to libraryWalkProcessClass.
+     */
+    boolean libraryWalkProcessClassName(int progress, String entryName);
+
+    /**
+     * Called after libraryWalkFileOpened, to check if the classes of the current file have already been processed.
+     *
+     * @return true if all the classes of the current file have been processed when the file was opened, so that none
+     *         of its classes needs to be provided to this listener.
+     */
+    boolean isLibraryWalkFileProcessed();
+}
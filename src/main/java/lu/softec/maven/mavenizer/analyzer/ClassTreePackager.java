@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Package the class trees walked as libraries, like the WEB-INF/classes folder of a war, into jars.
+ *
+ * Class trees are identified by their root directory, which could neither be identified, nor installed or deployed
+ * like an archive. Each class tree is therefore packaged into a jar of a target directory, named after the path of its
+ * root relative to a base directory, like WEB-INF-classes.jar. The jar holds all files of the tree, except archives and
+ * the files of other class trees nested into it.
+ */
+public class ClassTreePackager
+{
+    /**
+     * Exclusion patterns for the archives found in class trees, which are walked as distinct libraries
+     */
+    private static final String[] ARCHIVE_EXCLUDES = {"**/*.jar", "**/*.war", "**/*.ear", "**/*.zip"};
+
+    /**
+     * Base directory of the class trees, used to name their jar
+     */
+    private final File baseDir;
+
+    /**
+     * Directory receiving the jars
+     */
+    private final File targetDir;
+
+    /**
+     * Construct a packager of class trees
+     *
+     * @param baseDir the base directory of the class trees, used to name their jar
+     * @param targetDir the directory receiving the jars
+     */
+    public ClassTreePackager(File baseDir, File targetDir)
+    {
+        this.baseDir = baseDir;
+        this.targetDir = targetDir;
+    }
+
+    /**
+     * Package the class trees found among some libraries.
+     *
+     * @param libraries the libraries, where class trees are directories
+     * @return a {@link Map} of the root {@link File} of each class tree to its jar {@link File}, ordered by path
+     * @throws ClassWalkerRuntimeException if a class tree could not be packaged
+     */
+    public Map packageClassTrees(File[] libraries)
+    {
+        List trees = new ArrayList();
+        for (int i = 0; i < libraries.length; i++) {
+            if (libraries[i] != null && libraries[i].isDirectory()) {
+                trees.add(libraries[i]);
+            }
+        }
+
+        Map jars = new TreeMap();
+        Set names = new HashSet();
+        for (int i = 0; i < trees.size(); i++) {
+            File tree = (File) trees.get(i);
+            String name = getJarName(tree);
+            String jarName = name;
+            for (int n = 2; !names.add(jarName); n++) {
+                jarName = name + "-" + n;
+            }
+            File jar = new File(targetDir, jarName + ".jar");
+            try {
+                packageClassTree(tree, trees, jar);
+            } catch (IOException e) {
+                jar.delete();
+                throw new ClassWalkerRuntimeException(tree, e);
+            }
+            jars.put(tree, jar);
+        }
+        return jars;
+    }
+
+    /**
+     * Return the name of the jar of a class tree, without extension
+     *
+     * @param tree the root of the class tree
+     * @return the path of the root relative to the base directory, where separators are replaced by dashes, or the
+     * name of the root when it is not located below the base directory
+     */
+    private String getJarName(File tree)
+    {
+        String base = baseDir.getAbsolutePath() + File.separator;
+        String path = tree.getAbsolutePath();
+        if (!path.startsWith(base)) {
+            return tree.getName();
+        }
+        return path.substring(base.length()).replace(File.separatorChar, '-');
+    }
+
+    /**
+     * Write the jar of a class tree
+     *
+     * @param tree the root of the class tree
+     * @param trees the roots of all class trees, whose files are excluded when nested into the packaged tree
+     * @param jar the jar to write
+     * @throws IOException if a file could not be read, or the jar written
+     */
+    private void packageClassTree(File tree, List trees, File jar) throws IOException
+    {
+        String root = tree.getAbsolutePath() + File.separator;
+        List excludes = new ArrayList(Arrays.asList(ARCHIVE_EXCLUDES));
+        for (int i = 0; i < trees.size(); i++) {
+            String path = ((File) trees.get(i)).getAbsolutePath();
+            if (path.startsWith(root)) {
+                excludes.add(path.substring(root.length()) + "/**");
+            }
+        }
+
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(tree);
+        scanner.setExcludes((String[]) excludes.toArray(new String[excludes.size()]));
+        scanner.addDefaultExcludes();
+        scanner.scan();
+        String[] names = scanner.getIncludedFiles();
+        Arrays.sort(names);
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        jar.getParentFile().mkdirs();
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+        try {
+            for (int i = 0; i < names.length; i++) {
+                File file = new File(tree, names[i]);
+                JarEntry entry = new JarEntry(names[i].replace(File.separatorChar, '/'));
+                entry.setTime(file.lastModified());
+                out.putNextEntry(entry);
+                InputStream in = new FileInputStream(file);
+                try {
+                    IOUtil.copy(in, out);
+                } finally {
+                    in.close();
+                }
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+/**
+ * Execute a list of indexed tasks on a bounded pool of worker threads.
+ *
+ * Each task is first forked on any of the worker threads, in any order. The results of the forks are then joined on the
+ * thread calling {@link #execute(int, ForkJoinExecutor.Task)}, strictly in index order, so that the final outcome does
+ * not depend on the scheduling of the workers. To bound memory usage, workers never fork a task that is too far ahead
+ * of the last joined one.
+ *
+ * When a fork fails, the remaining forks are abandoned and the failure is thrown from execute when its index is
+ * reached, after all previous results have been joined.
+ */
+public class ForkJoinExecutor
+{
+    /**
+     * Interface for tasks executed by a {@link ForkJoinExecutor}
+     */
+    public interface Task
+    {
+        /**
+         * Called on a worker thread to compute the result for a given index.
+         *
+         * @param index the index of the task to fork
+         * @return the result of the fork, passed back to join. May be null.
+         */
+        Object fork(int index);
+
+        /**
+         * Called on the thread executing the tasks, in index order, with the result of the fork.
+         *
+         * @param index the index of the task to join
+         * @param result the result returned by the fork
+         */
+        void join(int index, Object result);
+    }
+
+    /**
+     * Wrapper for failures occuring in forks.
+     */
+    private static final class Failure
+    {
+        private final Throwable cause;
+
+        Failure(Throwable cause)
+        {
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * Number of worker threads
+     */
+    private final int threads;
+
+    /**
+     * Maximum number of tasks forked ahead of the last joined task
+     */
+    private final int window;
+
+    /**
+     * Task currently executed
+     */
+    private Task task;
+
+    /**
+     * Number of tasks currently executed
+     */
+    private int count;
+
+    /**
+     * Results of the forked tasks not yet joined
+     */
+    private Object[] results;
+
+    /**
+     * Completion status of the forked tasks
+     */
+    private boolean[] done;
+
+    /**
+     * Index of the next task to fork
+     */
+    private int nextFork;
+
+    /**
+     * Index of the next task to join
+     */
+    private int nextJoin;
+
+    /**
+     * True when remaining forks should be abandoned
+     */
+    private boolean aborted;
+
+    /**
+     * Construct an executor using a given number of worker threads, and allowing four times that number of forks ahead
+     * of the joins.
+     *
+     * @param threads number of worker threads. When lower than 1, the number of available processors is used.
+     */
+    public ForkJoinExecutor(int threads)
+    {
+        this(threads, 0);
+    }
+
+    /**
+     * Construct an executor using a given number of worker threads and fork window.
+     *
+     * @param threads number of worker threads. When lower than 1, the number of available processors is used.
+     * @param window maximum number of tasks forked ahead of the last joined task. When lower than the number of
+     * threads, four times the number of threads is used.
+     */
+    public ForkJoinExecutor(int threads, int window)
+    {
+        this.threads = getThreadCount(threads);
+        this.window = (window < this.threads) ? this.threads * 4 : window;
+    }
+
+    /**
+     * Returns the effective number of threads for a given setting
+     *
+     * @param threads the requested number of threads. When lower than 1, the number of available processors is used.
+     * @return the effective number of threads for a given setting
+     */
+    public static int getThreadCount(int threads)
+    {
+        if (threads < 1) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return threads;
+    }
+
+    /**
+     * Returns the number of worker threads used by this executor
+     *
+     * @return the number of worker threads used by this executor
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Fork and join count tasks. When a single thread is used or a single task is executed, tasks are simply forked and
+     * joined one after the other on the calling thread.
+     *
+     * @param count number of tasks to execute
+     * @param task the task to fork and join for each index from 0 to count - 1
+     */
+    public void execute(int count, Task task)
+    {
+        if (threads <= 1 || count <= 1) {
+            for (int i = 0; i < count; i++) {
+                task.join(i, task.fork(i));
+            }
+            return;
+        }
+
+        synchronized (this) {
+            this.task = task;
+            this.count = count;
+            this.results = new Object[count];
+            this.done = new boolean[count];
+            this.nextFork = 0;
+            this.nextJoin = 0;
+            this.aborted = false;
+        }
+
+        Thread[] workers = new Thread[Math.min(threads, count)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Worker(), "mavenizer-worker-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        try {
+            for (int i = 0; i < count; i++) {
+                task.join(i, waitForResult(i));
+            }
+        } finally {
+            abort();
+            for (int i = 0; i < workers.length; i++) {
+                try {
+                    workers[i].join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                this.task = null;
+                this.results = null;
+                this.done = null;
+            }
+        }
+    }
+
+    /**
+     * Wait for a forked result to be available, and release its slot for further forks.
+     *
+     * @param index index of the task to wait for
+     * @return the result of the fork
+     */
+    private synchronized Object waitForResult(int index)
+    {
+        while (!done[index]) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ClassWalkerRuntimeException(e);
+            }
+        }
+        Object result = results[index];
+        results[index] = null;
+        nextJoin = index + 1;
+        notifyAll();
+
+        if (result instanceof Failure) {
+            Throwable cause = ((Failure) result).cause;
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+        return result;
+    }
+
+    /**
+     * Abandon any pending fork and wake up waiting workers.
+     */
+    private synchronized void abort()
+    {
+        aborted = true;
+        notifyAll();
+    }
+
+    /**
+     * Reserve the next task to be forked, waiting for the window to allow it.
+     *
+     * @return the index of the next task to be forked, or -1 if no more task should be forked.
+     */
+    private synchronized int nextTask()
+    {
+        while (!aborted && nextFork < count && nextFork >= nextJoin + window) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return -1;
+            }
+        }
+        if (aborted || nextFork >= count) {
+            return -1;
+        }
+        return nextFork++;
+    }
+
+    /**
+     * Store the result of a forked task.
+     *
+     * @param index index of the forked task
+     * @param result the result of the fork
+     */
+    private synchronized void setResult(int index, Object result)
+    {
+        if (results != null) {
+            results[index] = result;
+            done[index] = true;
+            if (result instanceof Failure) {
+                // Further forks are useless since the execution will fail at this index
+                count = Math.min(count, index + 1);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Worker runnable, forking tasks until none remains.
+     */
+    private class Worker implements Runnable
+    {
+        public void run()
+        {
+            int index;
+            while ((index = nextTask()) != -1) {
+                Object result;
+                try {
+                    result = task.fork(index);
+                } catch (RuntimeException e) {
+                    result = new Failure(e);
+                } catch (Error e) {
+                    result = new Failure(e);
+                }
+                setResult(index, result);
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+/**
+ * Interface that should be implemented by {@link ClassWalkListener} able to process libraries concurrently.
+ *
+ * A walker working concurrently request a fork of the listener for each library it walks. The fork receives the events
+ * related to that library only, possibly from any thread. Once done, the fork is joined back into the original listener
+ * on the thread that has started the walk, and in the order the libraries has been found, so that the final result
+ * does not depend on the scheduling of the walk.
+ */
+public interface ForkableClassWalkListener extends ClassWalkListener
+{
+    /**
+     * Create an independent listener that will receive events for a single library. The returned listener does not
+     * need to be thread safe, but should not share any mutable state with this listener.
+     *
+     * @return a new listener that will be joined back using {@link #join(ClassWalkListener)}
+     */
+    ClassWalkListener fork();
+
+    /**
+     * Merge the results collected by a listener previously returned by {@link #fork()} into this listener.
+     *
+     * @param fork the forked listener to be joined
+     */
+    void join(ClassWalkListener fork);
+}
@@ -0,0 +1,576 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal read-only zip file reader dedicated to class extraction.
+ *
+ * The whole file is mapped in memory and its central directory is parsed once when the instance is constructed.
+ * Entries are then accessed by their index in the central directory, which is also the order used by {@link
+ * java.util.zip.ZipFile#entries()}. The content of an entry is inflated directly into a buffer reused for all entries
+ * of this file, so no stream is involved and no JAR signature verification is ever done.
+ *
+ * Instances of this class are not thread safe, and the buffer returned by {@link #read(int)} is only valid until the
+ * next read.
+ */
+public class MappedZipFile
+{
+    /**
+     * Largest zip file that could be mapped in memory, larger zip files should be read as a stream
+     */
+    public static final long MAX_MAPPED_SIZE = Integer.MAX_VALUE;
+
+    private static final int LOCSIG = 0x04034b50;
+
+    private static final int CENSIG = 0x02014b50;
+
+    private static final int ENDSIG = 0x06054b50;
+
+    private static final int ZIP64_LOCSIG = 0x07064b50;
+
+    private static final int ZIP64_ENDSIG = 0x06064b50;
+
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private static final int LOCHDR = 30;
+
+    private static final int CENHDR = 46;
+
+    private static final int ENDHDR = 22;
+
+    private static final int ZIP64_LOCHDR = 20;
+
+    private static final int STORED = 0;
+
+    private static final int DEFLATED = 8;
+
+    private static final byte[] CLASS_SUFFIX = {'.', 'c', 'l', 'a', 's', 's'};
+
+    /**
+     * Name of this zip file, used for error reporting
+     */
+    private final String name;
+
+    /**
+     * Content of the whole zip file
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of entries in the central directory
+     */
+    private final int count;
+
+    /**
+     * Offsets of the entry names in the buffer
+     */
+    private final int[] nameOffsets;
+
+    /**
+     * Lengths of the entry names in bytes
+     */
+    private final int[] nameLengths;
+
+    /**
+     * Compression methods of the entries
+     */
+    private final int[] methods;
+
+    /**
+     * Compressed sizes of the entries
+     */
+    private final int[] compressedSizes;
+
+    /**
+     * Uncompressed sizes of the entries
+     */
+    private final int[] sizes;
+
+    /**
+     * Offsets of the local headers of the entries
+     */
+    private final int[] offsets;
+
+    /**
+     * True for the encrypted entries, which could be listed but not read
+     */
+    private final boolean[] encrypted;
+
+    /**
+     * Inflater reused for all entries, created on first use
+     */
+    private Inflater inflater;
+
+    /**
+     * Buffer reused to provide compressed data to the inflater
+     */
+    private byte[] input = new byte[0];
+
+    /**
+     * Buffer reused to provide the content of entries
+     */
+    private byte[] output = new byte[0];
+
+    /**
+     * Map the given file in memory and parse its central directory.
+     *
+     * @param file the zip file to be read
+     * @throws IOException if the file could not be read, or is not a valid zip file
+     */
+    public MappedZipFile(File file) throws IOException
+    {
+        this(map(file), file.getPath());
+    }
+
+    /**
+     * Parse the central directory of a zip file already available in memory.
+     *
+     * @param buffer the content of the zip file, from its position to its limit
+     * @param name the name of the zip file, used for error reporting
+     * @throws IOException if the content is not a valid zip file
+     */
+    public MappedZipFile(ByteBuffer buffer, String name) throws IOException
+    {
+        this.name = name;
+        this.buffer = buffer.slice();
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int end = findEndOfCentralDirectory();
+        long entries = getShort(end + 10);
+        long cenOffset = getUnsignedInt(end + 16);
+
+        if (entries == 0xFFFF || cenOffset == 0xFFFFFFFFL) {
+            int locator = end - ZIP64_LOCHDR;
+            if (locator >= 0 && this.buffer.getInt(locator) == ZIP64_LOCSIG) {
+                int end64 = checkOffset(this.buffer.getLong(locator + 8));
+                if (this.buffer.getInt(end64) != ZIP64_ENDSIG) {
+                    throw new ZipException("Invalid ZIP64 end header in " + name);
+                }
+                entries = this.buffer.getLong(end64 + 32);
+                cenOffset = this.buffer.getLong(end64 + 48);
+            }
+        }
+
+        if (entries < 0 || entries > this.buffer.limit() / CENHDR) {
+            throw new ZipException("Invalid entry count in " + name);
+        }
+        count = (int) entries;
+        nameOffsets = new int[count];
+        nameLengths = new int[count];
+        methods = new int[count];
+        compressedSizes = new int[count];
+        sizes = new int[count];
+        offsets = new int[count];
+        encrypted = new boolean[count];
+
+        int pos = checkOffset(cenOffset);
+        for (int i = 0; i < count; i++) {
+            if (pos + CENHDR > this.buffer.limit() || this.buffer.getInt(pos) != CENSIG) {
+                throw new ZipException("Invalid central directory header in " + name);
+            }
+            int nameLength = getShort(pos + 28);
+            int extraLength = getShort(pos + 30);
+            int commentLength = getShort(pos + 32);
+            long compressedSize = getUnsignedInt(pos + 20);
+            long size = getUnsignedInt(pos + 24);
+            long offset = getUnsignedInt(pos + 42);
+
+            if (size == 0xFFFFFFFFL || compressedSize == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+                int extra = pos + CENHDR + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = getShort(extra);
+                    int length = getShort(extra + 2);
+                    if (id == ZIP64_EXTRA) {
+                        int field = extra + 4;
+                        if (size == 0xFFFFFFFFL) {
+                            size = this.buffer.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == 0xFFFFFFFFL) {
+                            compressedSize = this.buffer.getLong(field);
+                            field += 8;
+                        }
+                        if (offset == 0xFFFFFFFFL) {
+                            offset = this.buffer.getLong(field);
+                        }
+                        break;
+                    }
+                    extra += 4 + length;
+                }
+            }
+
+            nameOffsets[i] = pos + CENHDR;
+            nameLengths[i] = nameLength;
+            methods[i] = getShort(pos + 10);
+            encrypted[i] = (getShort(pos + 8) & 1) != 0;
+            compressedSizes[i] = checkOffset(compressedSize);
+            sizes[i] = checkSize(size);
+            offsets[i] = checkOffset(offset);
+
+            pos += CENHDR + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * Construct an independent reader sharing the content and the parsed central directory of another reader
+     *
+     * @param zip the reader to share
+     */
+    private MappedZipFile(MappedZipFile zip)
+    {
+        name = zip.name;
+        buffer = zip.buffer.duplicate();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        count = zip.count;
+        nameOffsets = zip.nameOffsets;
+        nameLengths = zip.nameLengths;
+        methods = zip.methods;
+        compressedSizes = zip.compressedSizes;
+        sizes = zip.sizes;
+        offsets = zip.offsets;
+        encrypted = zip.encrypted;
+    }
+
+    /**
+     * Returns a new reader for this zip file, sharing its content and its parsed central directory but having its own
+     * buffers. This allows reading a same zip file from several threads, each using its own reader.
+     *
+     * @return a new reader for this zip file
+     */
+    public MappedZipFile duplicate()
+    {
+        return new MappedZipFile(this);
+    }
+
+    /**
+     * Map a whole file in memory
+     *
+     * @param file the file to be mapped
+     * @return a read-only buffer mapping the file
+     * @throws IOException if the file could not be mapped
+     */
+    private static ByteBuffer map(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > MAX_MAPPED_SIZE) {
+                throw new ZipException("Zip file too large to be mapped: " + file.getPath());
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Locate the end of central directory record, which may be followed by a comment.
+     *
+     * @return the offset of the end of central directory record
+     * @throws ZipException if no end of central directory record is found
+     */
+    private int findEndOfCentralDirectory() throws ZipException
+    {
+        int last = buffer.limit() - ENDHDR;
+        int first = Math.max(0, last - 0xFFFF);
+        for (int pos = last; pos >= first; pos--) {
+            if (buffer.getInt(pos) == ENDSIG && pos + ENDHDR + getShort(pos + 20) == buffer.limit()) {
+                return pos;
+            }
+        }
+        throw new ZipException("Not a zip file: " + name);
+    }
+
+    /**
+     * Ensure an offset read from the zip file lies within the buffer
+     *
+     * @param value an offset read from the zip file
+     * @return the value as an int
+     * @throws ZipException if the value is outside the buffer
+     */
+    private int checkOffset(long value) throws ZipException
+    {
+        if (value < 0 || value > buffer.limit()) {
+            throw new ZipException("Invalid offset in " + name);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Ensure an entry size read from the zip file could be held in a byte array
+     *
+     * @param value a size read from the zip file
+     * @return the value as an int
+     * @throws ZipException if the value could not be held in a byte array
+     */
+    private int checkSize(long value) throws ZipException
+    {
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new ZipException("Invalid entry size in " + name);
+        }
+        return (int) value;
+    }
+
+    private int getShort(int pos)
+    {
+        return buffer.getShort(pos) & 0xFFFF;
+    }
+
+    private long getUnsignedInt(int pos)
+    {
+        return buffer.getInt(pos) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Returns the name of this zip file
+     *
+     * @return the name of this zip file
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the number of entries in this zip file
+     *
+     * @return the number of entries in this zip file
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the name of an entry
+     *
+     * @param index index of the entry
+     * @return the name of the entry
+     */
+    public String getEntryName(int index)
+    {
+        byte[] bytes = new byte[nameLengths[index]];
+        buffer.position(nameOffsets[index]);
+        buffer.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Should never happen
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * Check if an entry is a class file, without decoding its name
+     *
+     * @param index index of the entry
+     * @return true if the name of the entry ends with .class
+     */
+    public boolean isClass(int index)
+    {
+        int length = nameLengths[index];
+        if (length < CLASS_SUFFIX.length) {
+            return false;
+        }
+        int pos = nameOffsets[index] + length - CLASS_SUFFIX.length;
+        for (int i = 0; i < CLASS_SUFFIX.length; i++) {
+            if (buffer.get(pos + i) != CLASS_SUFFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the uncompressed size of an entry
+     *
+     * @param index index of the entry
+     * @return the uncompressed size of an entry
+     */
+    public int getSize(int index)
+    {
+        return sizes[index];
+    }
+
+    /**
+     * Read the content of an entry into the buffer reused by this instance. The content is available from offset 0
+     * up to the size of the entry, until the next read.
+     *
+     * @param index index of the entry
+     * @return the reused buffer filled with the content of the entry
+     * @throws IOException if the entry could not be read
+     */
+    public byte[] read(int index) throws IOException
+    {
+        int data = getDataOffset(index);
+        int size = sizes[index];
+
+        if (output.length < size) {
+            output = new byte[Math.max(size, output.length * 2)];
+        }
+
+        if (methods[index] == STORED) {
+            buffer.position(data);
+            buffer.get(output, 0, size);
+        } else {
+            inflate(index, data, output);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the content of an entry in its own buffer, independent of the buffer reused by {@link #read(int)}. This
+     * is used to open nested archives: a stored entry is returned as a view of the mapped file, without any copy,
+     * while a deflated entry is inflated into a new buffer.
+     *
+     * @param index index of the entry
+     * @return a buffer holding the content of the entry from its position to its limit
+     * @throws IOException if the entry could not be read
+     */
+    public ByteBuffer readEntry(int index) throws IOException
+    {
+        int data = getDataOffset(index);
+
+        if (methods[index] == STORED) {
+            ByteBuffer entry = buffer.duplicate();
+            entry.limit(data + sizes[index]);
+            entry.position(data);
+            return entry.slice();
+        }
+
+        byte[] content = new byte[sizes[index]];
+        inflate(index, data, content);
+        return ByteBuffer.wrap(content);
+    }
+
+    /**
+     * Returns the index of an entry
+     *
+     * @param entryName the name of the entry
+     * @return the index of the entry, or -1 if no entry has this name
+     */
+    public int indexOf(String entryName)
+    {
+        for (int i = 0; i < count; i++) {
+            if (nameLengths[i] >= entryName.length() && entryName.equals(getEntryName(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Locate the data of an entry, checking its local header and its compression method. Like {@link
+     * java.util.zip.ZipFile}, an encrypted entry is only rejected when it is read.
+     *
+     * @param index index of the entry
+     * @return the offset of the entry data
+     * @throws IOException if the entry could not be read
+     */
+    private int getDataOffset(int index) throws IOException
+    {
+        if (encrypted[index]) {
+            throw new ZipException("Encrypted entry " + getEntryName(index) + " is not supported in " + name);
+        }
+        int offset = offsets[index];
+        if (offset + LOCHDR > buffer.limit() || buffer.getInt(offset) != LOCSIG) {
+            throw new ZipException("Invalid local header for " + getEntryName(index) + " in " + name);
+        }
+        int data = offset + LOCHDR + getShort(offset + 26) + getShort(offset + 28);
+        if (data + compressedSizes[index] > buffer.limit()) {
+            throw new ZipException("Truncated entry " + getEntryName(index) + " in " + name);
+        }
+        if (methods[index] != STORED && methods[index] != DEFLATED) {
+            throw new ZipException(
+                "Unsupported compression method " + methods[index] + " for " + getEntryName(index) + " in " + name);
+        }
+        if (methods[index] == STORED && compressedSizes[index] != sizes[index]) {
+            throw new ZipException("Invalid size for " + getEntryName(index) + " in " + name);
+        }
+        return data;
+    }
+
+    /**
+     * Inflate a deflated entry into a buffer
+     *
+     * @param index index of the entry
+     * @param data offset of the compressed data
+     * @param dest buffer receiving the inflated data, large enough for the entry size
+     * @throws IOException if the compressed data are invalid
+     */
+    private void inflate(int index, int data, byte[] dest) throws IOException
+    {
+        int compressedSize = compressedSizes[index];
+        int size = sizes[index];
+
+        // The inflater may need an extra dummy byte when inflating raw data
+        if (input.length < compressedSize + 1) {
+            input = new byte[Math.max(compressedSize + 1, input.length * 2)];
+        }
+        buffer.position(data);
+        buffer.get(input, 0, compressedSize);
+        input[compressedSize] = 0;
+
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        } else {
+            inflater.reset();
+        }
+        inflater.setInput(input, 0, compressedSize + 1);
+
+        int length = 0;
+        try {
+            while (length < size && !inflater.finished()) {
+                int n = inflater.inflate(dest, length, size - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid compressed data for " + getEntryName(index) + " in " + name + ": " +
+                e.getMessage());
+        }
+        if (length != size) {
+            throw new ZipException("Invalid size for " + getEntryName(index) + " in " + name);
+        }
+    }
+
+    /**
+     * Release the resources held by this instance. The mapped memory is released by the garbage collector.
+     */
+    public void close()
+    {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        input = null;
+        output = null;
+    }
+}
@@ -0,0 +1,563 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+/**
+ * Executor running indexed tasks through a two stages pipeline, and joining their results in index order on the
+ * calling thread.
+ *
+ * Reader threads execute the first stage of the tasks and put their results into a bounded ring buffer. When the
+ * buffer is full, readers wait for a slot to be released, so that readers never get too far ahead of the parsers.
+ * Parser threads take the results from the buffer, execute the second stage of the tasks, and provide the final results
+ * to be joined. The time spent by each stage, and waiting on the buffer, is accumulated to help tuning the number of
+ * readers and parsers.
+ *
+ * When a stage fails, the remaining tasks are abandoned and the failure is thrown from execute when its index is
+ * reached, after all previous results have been joined.
+ */
+public class PipelineExecutor
+{
+    /**
+     * Interface for tasks executed by a {@link PipelineExecutor}
+     */
+    public interface Task
+    {
+        /**
+         * Called on a reader thread to execute the first stage for a given index.
+         *
+         * @param index the index of the task to read
+         * @return the result of the first stage, passed to parse. May be null.
+         */
+        Object read(int index);
+
+        /**
+         * Called on a parser thread to execute the second stage for a given index.
+         *
+         * @param index the index of the task to parse
+         * @param data the result of the first stage
+         * @return the result of the second stage, passed back to join. May be null.
+         */
+        Object parse(int index, Object data);
+
+        /**
+         * Called on the thread executing the tasks, in index order, with the result of the second stage.
+         *
+         * @param index the index of the task to join
+         * @param result the result returned by parse
+         */
+        void join(int index, Object result);
+    }
+
+    /**
+     * Wrapper for failures occuring in stages.
+     */
+    private static final class Failure
+    {
+        private final Throwable cause;
+
+        Failure(Throwable cause)
+        {
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * Result of a first stage waiting in the ring buffer
+     */
+    private static final class Entry
+    {
+        private final int index;
+
+        private final Object data;
+
+        Entry(int index, Object data)
+        {
+            this.index = index;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Number of reader threads
+     */
+    private final int readers;
+
+    /**
+     * Number of parser threads
+     */
+    private final int parsers;
+
+    /**
+     * Maximum number of results held in the ring buffer between the stages
+     */
+    private final int capacity;
+
+    /**
+     * Maximum number of tasks read ahead of the last joined task
+     */
+    private final int window;
+
+    /**
+     * Task currently executed
+     */
+    private Task task;
+
+    /**
+     * Number of tasks currently executed
+     */
+    private int count;
+
+    /**
+     * Results of the tasks not yet joined
+     */
+    private Object[] results;
+
+    /**
+     * Completion status of the tasks
+     */
+    private boolean[] done;
+
+    /**
+     * Ring buffer of {@link Entry} between the stages
+     */
+    private Entry[] ring;
+
+    /**
+     * Position of the oldest entry of the ring buffer
+     */
+    private int ringHead;
+
+    /**
+     * Number of entries in the ring buffer
+     */
+    private int ringSize;
+
+    /**
+     * Number of reader threads still running
+     */
+    private int activeReaders;
+
+    /**
+     * Index of the next task to read
+     */
+    private int nextRead;
+
+    /**
+     * Index of the next task to join
+     */
+    private int nextJoin;
+
+    /**
+     * True when remaining tasks should be abandoned
+     */
+    private boolean aborted;
+
+    /**
+     * Accumulated time spent in the first stage, in milliseconds
+     */
+    private long readTime;
+
+    /**
+     * Accumulated time spent by readers waiting for a free slot in the ring buffer, in milliseconds
+     */
+    private long readWaitTime;
+
+    /**
+     * Accumulated time spent in the second stage, in milliseconds
+     */
+    private long parseTime;
+
+    /**
+     * Accumulated time spent by parsers waiting for an entry in the ring buffer, in milliseconds
+     */
+    private long parseWaitTime;
+
+    /**
+     * Elapsed time of the last execution, in milliseconds
+     */
+    private long elapsedTime;
+
+    /**
+     * Construct an executor using given numbers of reader and parser threads, and a ring buffer holding twice as many
+     * entries as there are parsers.
+     *
+     * @param readers number of reader threads. When lower than 1, the number of available processors is used.
+     * @param parsers number of parser threads. When lower than 1, the number of available processors is used.
+     */
+    public PipelineExecutor(int readers, int parsers)
+    {
+        this(readers, parsers, 0);
+    }
+
+    /**
+     * Construct an executor using given numbers of reader and parser threads and ring buffer capacity.
+     *
+     * @param readers number of reader threads. When lower than 1, the number of available processors is used.
+     * @param parsers number of parser threads. When lower than 1, the number of available processors is used.
+     * @param capacity maximum number of entries in the ring buffer. When lower than 1, twice the number of parsers is
+     * used.
+     */
+    public PipelineExecutor(int readers, int parsers, int capacity)
+    {
+        this.readers = ForkJoinExecutor.getThreadCount(readers);
+        this.parsers = ForkJoinExecutor.getThreadCount(parsers);
+        this.capacity = (capacity < 1) ? this.parsers * 2 : capacity;
+        this.window = (this.readers + this.parsers + this.capacity) * 2;
+    }
+
+    /**
+     * Returns the number of reader threads used by this executor
+     *
+     * @return the number of reader threads used by this executor
+     */
+    public int getReaders()
+    {
+        return readers;
+    }
+
+    /**
+     * Returns the number of parser threads used by this executor
+     *
+     * @return the number of parser threads used by this executor
+     */
+    public int getParsers()
+    {
+        return parsers;
+    }
+
+    /**
+     * Returns the time spent by all readers in the first stage during the last execution
+     *
+     * @return the time spent by all readers in the first stage, in milliseconds
+     */
+    public synchronized long getReadTime()
+    {
+        return readTime;
+    }
+
+    /**
+     * Returns the time spent by all readers waiting for a free slot in the ring buffer during the last execution
+     *
+     * @return the time spent by all readers waiting for the parsers, in milliseconds
+     */
+    public synchronized long getReadWaitTime()
+    {
+        return readWaitTime;
+    }
+
+    /**
+     * Returns the time spent by all parsers in the second stage during the last execution
+     *
+     * @return the time spent by all parsers in the second stage, in milliseconds
+     */
+    public synchronized long getParseTime()
+    {
+        return parseTime;
+    }
+
+    /**
+     * Returns the time spent by all parsers waiting for an entry in the ring buffer during the last execution
+     *
+     * @return the time spent by all parsers waiting for the readers, in milliseconds
+     */
+    public synchronized long getParseWaitTime()
+    {
+        return parseWaitTime;
+    }
+
+    /**
+     * Returns the elapsed time of the last execution
+     *
+     * @return the elapsed time of the last execution, in milliseconds
+     */
+    public synchronized long getElapsedTime()
+    {
+        return elapsedTime;
+    }
+
+    /**
+     * Execute count tasks through the pipeline.
+     *
+     * @param count number of tasks to execute
+     * @param task the task to read, parse and join for each index from 0 to count - 1
+     */
+    public void execute(int count, Task task)
+    {
+        long start = System.currentTimeMillis();
+        int nbReaders = Math.max(1, Math.min(readers, count));
+        int nbParsers = Math.max(1, Math.min(parsers, count));
+
+        synchronized (this) {
+            this.task = task;
+            this.count = count;
+            this.results = new Object[count];
+            this.done = new boolean[count];
+            this.ring = new Entry[capacity];
+            this.ringHead = 0;
+            this.ringSize = 0;
+            this.nextRead = 0;
+            this.nextJoin = 0;
+            this.aborted = false;
+            this.readTime = 0;
+            this.readWaitTime = 0;
+            this.parseTime = 0;
+            this.parseWaitTime = 0;
+            this.activeReaders = nbReaders;
+        }
+
+        Thread[] workers = new Thread[nbReaders + nbParsers];
+        for (int i = 0; i < workers.length; i++) {
+            if (i < nbReaders) {
+                workers[i] = new Thread(new Reader(), "mavenizer-reader-" + (i + 1));
+            } else {
+                workers[i] = new Thread(new Parser(), "mavenizer-parser-" + (i - nbReaders + 1));
+            }
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        try {
+            for (int i = 0; i < count; i++) {
+                task.join(i, waitForResult(i));
+            }
+        } finally {
+            abort();
+            for (int i = 0; i < workers.length; i++) {
+                try {
+                    workers[i].join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                this.task = null;
+                this.results = null;
+                this.done = null;
+                this.ring = null;
+                this.elapsedTime = System.currentTimeMillis() - start;
+            }
+        }
+    }
+
+    /**
+     * Wait for a final result to be available.
+     *
+     * @param index index of the task to wait for
+     * @return the result of the second stage
+     */
+    private synchronized Object waitForResult(int index)
+    {
+        while (!done[index]) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ClassWalkerRuntimeException(e);
+            }
+        }
+        Object result = results[index];
+        results[index] = null;
+        nextJoin = index + 1;
+        notifyAll();
+
+        if (result instanceof Failure) {
+            Throwable cause = ((Failure) result).cause;
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+        return result;
+    }
+
+    /**
+     * Abandon any pending task and wake up waiting threads.
+     */
+    private synchronized void abort()
+    {
+        aborted = true;
+        notifyAll();
+    }
+
+    /**
+     * Reserve the next task to be read, waiting for the window to allow it.
+     *
+     * @return the index of the next task to be read, or -1 if no more task should be read.
+     */
+    private synchronized int nextTask()
+    {
+        while (!aborted && nextRead < count && nextRead >= nextJoin + window) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return -1;
+            }
+        }
+        if (aborted || nextRead >= count) {
+            return -1;
+        }
+        return nextRead++;
+    }
+
+    /**
+     * Put the result of a first stage into the ring buffer, waiting for a free slot. Failures are stored as final
+     * results, bypassing the second stage.
+     *
+     * @param index index of the task
+     * @param data the result of the first stage
+     */
+    private synchronized void put(int index, Object data)
+    {
+        if (data instanceof Failure) {
+            setResult(index, data);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        while (!aborted && ringSize == capacity) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                aborted = true;
+            }
+        }
+        readWaitTime += System.currentTimeMillis() - start;
+
+        if (!aborted) {
+            ring[(ringHead + ringSize) % capacity] = new Entry(index, data);
+            ringSize++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Take the oldest entry of the ring buffer, waiting for one to be available.
+     *
+     * @return the oldest entry of the ring buffer, or null if no more entry will be available.
+     */
+    private synchronized Entry take()
+    {
+        long start = System.currentTimeMillis();
+        while (!aborted && ringSize == 0 && activeReaders > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                aborted = true;
+            }
+        }
+        parseWaitTime += System.currentTimeMillis() - start;
+
+        if (aborted || ringSize == 0) {
+            return null;
+        }
+        Entry entry = ring[ringHead];
+        ring[ringHead] = null;
+        ringHead = (ringHead + 1) % capacity;
+        ringSize--;
+        notifyAll();
+        return entry;
+    }
+
+    /**
+     * Notify the end of a reader thread.
+     */
+    private synchronized void readerDone()
+    {
+        activeReaders--;
+        notifyAll();
+    }
+
+    /**
+     * Store the final result of a task.
+     *
+     * @param index index of the task
+     * @param result the result of the second stage
+     */
+    private synchronized void setResult(int index, Object result)
+    {
+        if (results != null) {
+            results[index] = result;
+            done[index] = true;
+            if (result instanceof Failure) {
+                // Further tasks are useless since the execution will fail at this index
+                count = Math.min(count, index + 1);
+            }
+            notifyAll();
+        }
+    }
+
+    private synchronized void addReadTime(long time)
+    {
+        readTime += time;
+    }
+
+    private synchronized void addParseTime(long time)
+    {
+        parseTime += time;
+    }
+
+    /**
+     * Reader runnable, executing the first stage of tasks until none remains.
+     */
+    private class Reader implements Runnable
+    {
+        public void run()
+        {
+            try {
+                int index;
+                while ((index = nextTask()) != -1) {
+                    long start = System.currentTimeMillis();
+                    Object data;
+                    try {
+                        data = task.read(index);
+                    } catch (RuntimeException e) {
+                        data = new Failure(e);
+                    } catch (Error e) {
+                        data = new Failure(e);
+                    }
+                    addReadTime(System.currentTimeMillis() - start);
+                    put(index, data);
+                }
+            } finally {
+                readerDone();
+            }
+        }
+    }
+
+    /**
+     * Parser runnable, executing the second stage of tasks until the readers are done and the ring buffer is empty.
+     */
+    private class Parser implements Runnable
+    {
+        public void run()
+        {
+            Entry entry;
+            while ((entry = take()) != null) {
+                long start = System.currentTimeMillis();
+                Object result;
+                try {
+                    result = task.parse(entry.index, entry.data);
+                } catch (RuntimeException e) {
+                    result = new Failure(e);
+                } catch (Error e) {
+                    result = new Failure(e);
+                }
+                addParseTime(System.currentTimeMillis() - start);
+                setResult(entry.index, result);
+            }
+        }
+    }
+}
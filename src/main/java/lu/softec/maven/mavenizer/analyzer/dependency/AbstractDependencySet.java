@@ -15,34 +15,27 @@
  */
 package lu.softec.maven.mavenizer.analyzer.dependency;
 
+import java.lang.reflect.Array;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * Abstract class for specialized Set to store dependencies.
  *
- * This a wrapper class over a ordered set used to store dependency relations between two indentified objects This class
- * is only mutable in the current package, and is immutable in another package.
+ * This a base class for sets used to store dependency relations between two indentified objects. Subclasses provide
+ * the storage of the relations and iterate them ordered. This class is only mutable in the current package, and is
+ * immutable in another package.
  */
 public abstract class AbstractDependencySet implements Set
 {
-    /**
-     * Wrapped TreeSet
-     */
-    private final Set dependencySet = new TreeSet();
-
     /**
      * Return true if the set already contains a given dependency
      *
      * @param pair the dependency to be checked
      * @return true if the set already contains a given dependency
      */
-    public boolean contains(Pair pair)
-    {
-        return dependencySet.contains(pair);
-    }
+    public abstract boolean contains(Pair pair);
 
     /**
      * Add a new dependency
@@ -50,10 +43,7 @@ public abstract class AbstractDependencySet implements Set
      * @param pair the dependency to add
      * @return true if the set has been changed
      */
-    boolean add(Pair pair)
-    {
-        return dependencySet.add(pair);
-    }
+    abstract boolean add(Pair pair);
 
     /**
      * Remove a dependency
@@ -61,29 +51,25 @@ public abstract class AbstractDependencySet implements Set
      * @param pair the dependency to remove
      * @return true if the set has been changed
      */
-    boolean remove(Pair pair)
-    {
-        return dependencySet.remove(pair);
-    }
+    abstract boolean remove(Pair pair);
 
     /**
      * Clear the dependency Set
      */
-    void clean()
-    {
-        dependencySet.clear();
-    }
+    abstract void clean();
 
     // Set interface implementation
 
-    public int size()
-    {
-        return dependencySet.size();
-    }
+    public abstract int size();
+
+    /**
+     * @return an iterator over the dependencies, ordered as defined by {@link AbstractDependencySet.Pair#compareTo}
+     */
+    public abstract Iterator iterator();
 
     public boolean isEmpty()
     {
-        return dependencySet.isEmpty();
+        return size() == 0;
     }
 
     /**
@@ -92,22 +78,28 @@ public abstract class AbstractDependencySet implements Set
      */
     public boolean contains(Object o)
     {
-        return o instanceof Pair && dependencySet.contains(o);
-    }
-
-    public Iterator iterator()
-    {
-        return dependencySet.iterator();
+        return o instanceof Pair && contains((Pair) o);
     }
 
     public Object[] toArray()
     {
-        return dependencySet.toArray();
+        return toArray(new Object[size()]);
     }
 
     public Object[] toArray(Object[] a)
     {
-        return dependencySet.toArray(a);
+        int size = size();
+        if (a.length < size) {
+            a = (Object[]) Array.newInstance(a.getClass().getComponentType(), size);
+        }
+        int i = 0;
+        for (Iterator it = iterator(); it.hasNext();) {
+            a[i++] = it.next();
+        }
+        if (a.length > size) {
+            a[size] = null;
+        }
+        return a;
     }
 
     /**
@@ -129,11 +121,12 @@ public abstract class AbstractDependencySet implements Set
     public boolean containsAll(Collection c)
     {
         for (Iterator it = c.iterator(); it.hasNext();) {
-            if (!(it.next() instanceof Pair)) {
+            Object o = it.next();
+            if (!(o instanceof Pair) || !contains((Pair) o)) {
                 return false;
             }
         }
-        return dependencySet.containsAll(c);
+        return true;
     }
 
     /**
@@ -170,12 +163,23 @@ public abstract class AbstractDependencySet implements Set
 
     public boolean equals(Object o)
     {
-        return dependencySet.equals(o);
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof Set)) {
+            return false;
+        }
+        Collection c = (Collection) o;
+        return c.size() == size() && containsAll(c);
     }
 
     public int hashCode()
     {
-        return dependencySet.hashCode();
+        int h = 0;
+        for (Iterator it = iterator(); it.hasNext();) {
+            h += it.next().hashCode();
+        }
+        return h;
     }
 
     /**
@@ -208,16 +212,28 @@ public abstract class AbstractDependencySet implements Set
 
             Pair that = (Pair) o;
 
-            return getFromName().equals(that.getFromName()) && getToName().equals(that.getToName());
+            return equals(getFromName(), that.getFromName()) && equals(getToName(), that.getToName());
         }
 
         public int hashCode()
         {
-            int result = getFromName().hashCode();
-            result = 31 * result + getToName().hashCode();
+            int result = (getFromName() == null) ? 0 : getFromName().hashCode();
+            result = 31 * result + ((getToName() == null) ? 0 : getToName().hashCode());
             return result;
         }
 
+        /**
+         * Compare two names that may be null
+         *
+         * @param name a name, or null
+         * @param other another name, or null
+         * @return true if both names are null or equal
+         */
+        private static boolean equals(String name, String other)
+        {
+            return (name == null) ? other == null : name.equals(other);
+        }
+
         /**
          * Compare this to another dependencies. Allowing a sort per dependent class name than by their dependency.
          *
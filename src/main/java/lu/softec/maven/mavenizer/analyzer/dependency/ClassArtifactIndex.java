@@ -0,0 +1,404 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.dependency;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index from class names to the artifacts providing them, stored in a single file read through a memory
+ * mapping.
+ *
+ * Artifacts are identified by int ids into a table of coordinates. Class names are sorted and grouped into blocks of
+ * {@link #BLOCK_SIZE} names, each name being stored as the length of the prefix it shares with the previous name of
+ * its block followed by the remaining bytes, and the ids of the artifacts providing the class. Lookups binary search
+ * the first name of each block, and scan a single block, without decoding the rest of the index.
+ */
+public final class ClassArtifactIndex
+{
+    /**
+     * Magic number of index files
+     */
+    private static final int MAGIC = 0x4D565A58;
+
+    /**
+     * Version of the format of index files
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the header of index files
+     */
+    private static final int HEADER_SIZE = 28;
+
+    /**
+     * Number of class names per block
+     */
+    public static final int BLOCK_SIZE = 16;
+
+    /**
+     * Encoding of class names and coordinates
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Order of class names, by their encoded bytes
+     */
+    private static final Comparator NAME_ORDER = new Comparator()
+    {
+        public int compare(Object o1, Object o2)
+        {
+            byte[] b1 = (byte[]) o1;
+            byte[] b2 = (byte[]) o2;
+            int len = Math.min(b1.length, b2.length);
+            for (int i = 0; i < len; i++) {
+                int c = (b1[i] & 0xFF) - (b2[i] & 0xFF);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return b1.length - b2.length;
+        }
+    };
+
+    /**
+     * Mapped content of the index
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Coordinates of the indexed artifacts, by id
+     */
+    private final String[] artifacts;
+
+    /**
+     * Number of indexed classes
+     */
+    private final int classCount;
+
+    /**
+     * Number of blocks
+     */
+    private final int blockCount;
+
+    /**
+     * Position of the table of block offsets
+     */
+    private final int blocks;
+
+    /**
+     * Construct an index reading a mapped index file
+     *
+     * @param buffer mapped content of the index
+     * @throws IOException if the index is not valid
+     */
+    private ClassArtifactIndex(ByteBuffer buffer) throws IOException
+    {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Invalid class index");
+        }
+        artifacts = new String[buffer.getInt(8)];
+        classCount = buffer.getInt(12);
+        blockCount = buffer.getInt(16);
+        blocks = buffer.getInt(24);
+
+        int pos = buffer.getInt(20);
+        for (int i = 0; i < artifacts.length; i++) {
+            int len = buffer.getShort(pos) & 0xFFFF;
+            byte[] b = new byte[len];
+            for (int j = 0; j < len; j++) {
+                b[j] = buffer.get(pos + 2 + j);
+            }
+            artifacts[i] = new String(b, ENCODING);
+            pos += 2 + len;
+        }
+    }
+
+    /**
+     * Open an index file. The file is mapped in memory, and could be replaced while opened.
+     *
+     * @param file the index file
+     * @return the opened index
+     * @throws IOException if the file could not be read, or is not a valid index
+     */
+    public static ClassArtifactIndex open(File file) throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return new ClassArtifactIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write an index file. The index is written to a temporary file renamed once complete.
+     *
+     * @param file the index file
+     * @param artifacts the coordinates of the indexed artifacts
+     * @param classes the internal names of the classes of each artifact, as String[] at the same position as the
+     * artifact
+     * @throws IOException if the index could not be written
+     */
+    public static void write(File file, List artifacts, List classes) throws IOException
+    {
+        // Artifact ids of each class
+        Map ids = new HashMap();
+        for (int id = 0; id < classes.size(); id++) {
+            String[] names = (String[]) classes.get(id);
+            for (int i = 0; i < names.length; i++) {
+                List list = (List) ids.get(names[i]);
+                if (list == null) {
+                    list = new ArrayList(1);
+                    ids.put(names[i], list);
+                } else if (((Integer) list.get(list.size() - 1)).intValue() == id) {
+                    continue;
+                }
+                list.add(new Integer(id));
+            }
+        }
+
+        Object[][] entries = new Object[ids.size()][];
+        int count = 0;
+        for (Iterator it = ids.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry) it.next();
+            entries[count++] = new Object[]{encode((String) entry.getKey()), entry.getValue()};
+        }
+        Arrays.sort(entries, new Comparator()
+        {
+            public int compare(Object o1, Object o2)
+            {
+                return NAME_ORDER.compare(((Object[]) o1)[0], ((Object[]) o2)[0]);
+            }
+        });
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Unable to create directory " + parent.getAbsolutePath());
+        }
+        File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                int blockCount = (entries.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+                int pos = HEADER_SIZE;
+                byte[][] coordinates = new byte[artifacts.size()][];
+                for (int i = 0; i < coordinates.length; i++) {
+                    coordinates[i] = encode((String) artifacts.get(i));
+                    pos += 2 + coordinates[i].length;
+                }
+
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(coordinates.length);
+                out.writeInt(entries.length);
+                out.writeInt(blockCount);
+                out.writeInt(HEADER_SIZE);
+                out.writeInt(pos);
+                for (int i = 0; i < coordinates.length; i++) {
+                    out.writeShort(coordinates[i].length);
+                    out.write(coordinates[i]);
+                }
+
+                // Block offsets, followed by the blocks
+                pos += blockCount * 4;
+                for (int i = 0; i < entries.length; i++) {
+                    if (i % BLOCK_SIZE == 0) {
+                        out.writeInt(pos);
+                    }
+                    byte[] name = (byte[]) entries[i][0];
+                    int prefix = (i % BLOCK_SIZE == 0) ? 0 : getCommonPrefix((byte[]) entries[i - 1][0], name);
+                    pos += 6 + name.length - prefix + ((List) entries[i][1]).size() * 4;
+                }
+                for (int i = 0; i < entries.length; i++) {
+                    byte[] name = (byte[]) entries[i][0];
+                    int prefix = (i % BLOCK_SIZE == 0) ? 0 : getCommonPrefix((byte[]) entries[i - 1][0], name);
+                    List list = (List) entries[i][1];
+                    out.writeShort(prefix);
+                    out.writeShort(name.length - prefix);
+                    out.write(name, prefix, name.length - prefix);
+                    out.writeShort(list.size());
+                    for (Iterator it = list.iterator(); it.hasNext();) {
+                        out.writeInt(((Integer) it.next()).intValue());
+                    }
+                }
+            } finally {
+                out.close();
+            }
+
+            // Some platforms refuse to rename over an existing file, like a previous index
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Unable to write class index " + file.getAbsolutePath());
+                }
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Encode a string
+     *
+     * @param s the string to encode
+     * @return the encoded bytes
+     */
+    private static byte[] encode(String s)
+    {
+        try {
+            return s.getBytes(ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(ENCODING + " is not supported");
+        }
+    }
+
+    /**
+     * Returns the length of the common prefix of two names, limited to what could be stored
+     *
+     * @param b1 the first name
+     * @param b2 the second name
+     * @return the length of the common prefix
+     */
+    private static int getCommonPrefix(byte[] b1, byte[] b2)
+    {
+        int len = Math.min(Math.min(b1.length, b2.length), 0xFFFF);
+        int i = 0;
+        while (i < len && b1[i] == b2[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Compare the first name of a block with a name
+     *
+     * @param block index of the block
+     * @param name the encoded name
+     * @return a negative, zero or positive value if the first name of the block is lower, equal or greater than the
+     *         name
+     */
+    private int compareBlock(int block, byte[] name)
+    {
+        int pos = buffer.getInt(blocks + block * 4);
+        int len = buffer.getShort(pos + 2) & 0xFFFF;
+        int min = Math.min(len, name.length);
+        for (int i = 0; i < min; i++) {
+            int c = (buffer.get(pos + 4 + i) & 0xFF) - (name[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return len - name.length;
+    }
+
+    /**
+     * Find the artifacts providing a class.
+     *
+     * @param className the internal name of the class, like org/example/Foo
+     * @return the coordinates of the artifacts providing the class, empty if none
+     */
+    public String[] lookup(String className)
+    {
+        byte[] key = encode(className);
+
+        // Last block starting with a name lower than or equal to the key
+        int low = 0;
+        int high = blockCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compareBlock(mid, key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (high < 0) {
+            return new String[0];
+        }
+
+        // Scan the block, tracking the length of the prefix shared by the key and the previous name, which is lower
+        int pos = buffer.getInt(blocks + high * 4);
+        int end = Math.min((high + 1) * BLOCK_SIZE, classCount);
+        int matched = 0;
+        for (int i = high * BLOCK_SIZE; i < end; i++) {
+            int prefix = buffer.getShort(pos) & 0xFFFF;
+            int len = buffer.getShort(pos + 2) & 0xFFFF;
+            int count = buffer.getShort(pos + 4 + len) & 0xFFFF;
+
+            if (prefix < matched) {
+                // This name differs from the previous one where the previous one matched the key, so it is greater
+                break;
+            }
+            if (prefix == matched) {
+                int j = 0;
+                while (j < len && matched < key.length && buffer.get(pos + 4 + j) == key[matched]) {
+                    j++;
+                    matched++;
+                }
+                if (j == len && matched == key.length) {
+                    String[] result = new String[count];
+                    for (int k = 0; k < count; k++) {
+                        result[k] = artifacts[buffer.getInt(pos + 6 + len + k * 4)];
+                    }
+                    return result;
+                }
+                if (j < len && (matched == key.length || (buffer.get(pos + 4 + j) & 0xFF) > (key[matched] & 0xFF))) {
+                    break;
+                }
+            }
+            // Otherwise this name is lower than the key, like the previous one
+            pos += 6 + len + count * 4;
+        }
+        return new String[0];
+    }
+
+    /**
+     * Returns the number of indexed artifacts
+     *
+     * @return the number of indexed artifacts
+     */
+    public int getArtifactCount()
+    {
+        return artifacts.length;
+    }
+
+    /**
+     * Returns the number of indexed classes
+     *
+     * @return the number of indexed classes
+     */
+    public int getClassCount()
+    {
+        return classCount;
+    }
+}
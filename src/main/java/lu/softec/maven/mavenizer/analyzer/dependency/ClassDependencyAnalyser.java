@@ -17,13 +17,16 @@ package lu.softec.maven.mavenizer.analyzer.dependency;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-
-import org.codehaus.plexus.util.SelectorUtils;
+import java.util.Set;
+import java.util.TreeMap;
 
 import lu.softec.maven.mavenizer.analyzer.ClassAnalyser;
 
@@ -31,6 +34,16 @@ import lu.softec.maven.mavenizer.analyzer.ClassAnalyser;
  * Class dependency analyser
  *
  * Agregate and report dependencies found during class analysis.
+ *
+ * An analyser is fed by a single thread. To feed the analysis from several threads, each thread feeds its own
+ * {@link #fork()}, and forks are joined back in a deterministic order.
+ *
+ * Files are ranked by tiers, like the analysed libraries, then the additional dependencies, then the dependencies of
+ * the project, each tier being started by {@link #startTier()}. When several files define the same class, the class is
+ * attributed to the file of the first tier. Within the first tier, the file whose absolute path comes first is
+ * preferred, whatever the order in which files are walked, while within later tiers, the file walked first is
+ * preferred, like when dependencies are only searched for unresolved classes. All the copies are reported as a
+ * {@link DuplicateClass}.
  */
 public final class ClassDependencyAnalyser implements ClassAnalyser
 {
@@ -40,14 +53,80 @@ public final class ClassDependencyAnalyser implements ClassAnalyser
     private final Map classes = new HashMap();
 
     /**
-     * List of provided class patterns
+     * Order of files by absolute path
+     */
+    private static final Comparator PATH_ORDER = new Comparator()
+    {
+        public int compare(Object o1, Object o2)
+        {
+            return ((File) o1).getAbsolutePath().compareTo(((File) o2).getAbsolutePath());
+        }
+    };
+
+    /**
+     * Tier of the files seen from now on
+     */
+    private int tier;
+
+    /**
+     * Rank of the files defining classes, as a long[] holding the tier of the file and the order in which it has been
+     * seen, keyed by file
+     */
+    private final Map fileRanks = new HashMap();
+
+    /**
+     * Order of files by precedence, within tiers by absolute path for the first tier and by walk order otherwise
      */
-    private List providedClasses = new ArrayList();
+    private final Comparator fileOrder = new Comparator()
+    {
+        public int compare(Object o1, Object o2)
+        {
+            long[] rank1 = getFileRank((File) o1);
+            long[] rank2 = getFileRank((File) o2);
+            if (rank1[0] != rank2[0]) {
+                return (rank1[0] < rank2[0]) ? -1 : 1;
+            }
+            if (rank1[0] == 0) {
+                return PATH_ORDER.compare(o1, o2);
+            }
+            return (rank1[1] < rank2[1]) ? -1 : ((rank1[1] == rank2[1]) ? 0 : 1);
+        }
+    };
+
+    /**
+     * Digests of the bytecode of the classes in the map of visited classes, by symbol id, 0 if unknown
+     */
+    private long[] digests = new long[0];
+
+    /**
+     * Classes defined by more than one file, as {@link DuplicateClass} keyed by class name
+     */
+    private final Map duplicates = new TreeMap();
+
+    /**
+     * Matcher of provided class patterns
+     */
+    private ClassNameMatcher providedClasses = new ClassNameMatcher();
+
+    /**
+     * Memoized results of the provided class matcher, by class name
+     */
+    private final Map providedMatches = new HashMap();
+
+    /**
+     * Version of the provided class matcher of the memoized results
+     */
+    private int providedMatchesVersion;
+
+    /**
+     * Symbol table of the class names shared by the class dependency sets of this analyser and its forks
+     */
+    private final SymbolTable symbols;
 
     /**
      * Set of dependencies between classname
      */
-    private final ClassDependencySet classDeps = new ClassDependencySet();
+    private final ClassDependencySet classDeps;
 
     /**
      * Set of dependencies between Files
@@ -57,55 +136,350 @@ public final class ClassDependencyAnalyser implements ClassAnalyser
     /**
      * Unresolved class name dependencies
      */
-    private final ClassDependencySet unresolvedDeps = new ClassDependencySet();
+    private final ClassDependencySet unresolvedDeps;
+
+    /**
+     * True if the file and unresolved dependencies should be rebuilt from all class dependencies on next resolution.
+     * While true, no delta is recorded.
+     */
+    private boolean rebuild = true;
+
+    /**
+     * Delta log of the classes registered since the last resolution
+     */
+    private final Set addedClasses = new HashSet();
+
+    /**
+     * Delta log of the class dependencies added since the last resolution
+     */
+    private final ClassDependencySet addedDeps;
+
+    /**
+     * List of depending class names of the unresolved dependencies, by unresolved class name
+     */
+    private final Map unresolvedByClass = new HashMap();
+
+    /**
+     * List of dependency class names of the dependencies from an unregistered class, by depending class name
+     */
+    private final Map pendingByClass = new HashMap();
 
-    private boolean resolved = true;
+    /**
+     * True if the dependencies are spilled to disk beyond a memory budget. Resolution is never incremental in this
+     * mode, since the delta log and its indexes would not be bounded.
+     */
+    private boolean spilling;
+
+    /**
+     * Memory budget of each fork in bytes, when spilling
+     */
+    private long forkMemoryBudget;
+
+    /**
+     * Directory receiving the run files, when spilling
+     */
+    private File spillDirectory;
+
+    /**
+     * Construct an empty analyser
+     */
+    public ClassDependencyAnalyser()
+    {
+        this(new SymbolTable());
+    }
+
+    /**
+     * Construct an empty analyser interning class names into a given symbol table
+     *
+     * @param symbols the symbol table, possibly shared with other analysers
+     */
+    private ClassDependencyAnalyser(SymbolTable symbols)
+    {
+        this.symbols = symbols;
+        classDeps = new ClassDependencySet(symbols);
+        unresolvedDeps = new ClassDependencySet(symbols);
+        addedDeps = new ClassDependencySet(symbols);
+    }
 
     public boolean addClass(File file, String name)
     {
-        if (file != null && name != null && !file.equals(classes.put(name, file))) {
-            resolved = false;
-            return true;
+        return addClass(file, name, 0);
+    }
+
+    public boolean addClass(File file, String name, long digest)
+    {
+        if (file == null || name == null) {
+            return false;
         }
-        return false;
+
+        getFileRank(file);
+        File previous = (File) classes.get(name);
+        if (file.equals(previous)) {
+            return false;
+        }
+        if (previous != null) {
+            DuplicateClass duplicate = (DuplicateClass) duplicates.get(name);
+            if (duplicate == null) {
+                duplicate = new DuplicateClass(name, fileOrder);
+                duplicate.addCopy(previous, getDigest(name));
+                duplicates.put(name, duplicate);
+            }
+            duplicate.addCopy(file, digest);
+            if (fileOrder.compare(file, previous) >= 0) {
+                return false;
+            }
+        }
+
+        classes.put(name, file);
+        setDigest(name, digest);
+        if (!rebuild) {
+            if (previous == null && !spilling) {
+                addedClasses.add(name);
+            } else if (spilling || !addedClasses.contains(name)) {
+                // A class already resolved has moved, its dependencies are spread everywhere
+                rebuild = true;
+                addedClasses.clear();
+                addedDeps.clean();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the rank of a file, ranking it in the current tier after the files already seen when it is first seen
+     *
+     * @param file the file
+     * @return the tier of the file, and the order in which it has been seen
+     */
+    private long[] getFileRank(File file)
+    {
+        long[] rank = (long[]) fileRanks.get(file);
+        if (rank == null) {
+            rank = new long[]{tier, fileRanks.size()};
+            fileRanks.put(file, rank);
+        }
+        return rank;
+    }
+
+    /**
+     * Start a new tier of files. The files seen from now on rank below the files already seen, and never provide the
+     * classes already defined by those files. The first tier, holding the analysed libraries, is started implicitly.
+     */
+    public void startTier()
+    {
+        tier++;
+    }
+
+    /**
+     * Returns the digest of the bytecode of a visited class
+     *
+     * @param name the name of the class
+     * @return the digest of the class, 0 if unknown
+     */
+    private long getDigest(String name)
+    {
+        int id = symbols.lookup(name);
+        return (id >= 0 && id < digests.length) ? digests[id] : 0;
+    }
+
+    /**
+     * Set the digest of the bytecode of a visited class
+     *
+     * @param name the name of the class
+     * @param digest the digest of the class, 0 if unknown
+     */
+    private void setDigest(String name, long digest)
+    {
+        int id = symbols.intern(name);
+        if (id >= digests.length) {
+            if (digest == 0) {
+                return;
+            }
+            long[] grown = new long[Math.max(id + 1, digests.length * 2)];
+            System.arraycopy(digests, 0, grown, 0, digests.length);
+            digests = grown;
+        }
+        digests[id] = digest;
     }
 
     public boolean addDependency(String from, String to)
     {
         if (from != null && (to == null || !matchProvidedClass(to)) && classDeps.add(from, to)) {
-            resolved = false;
+            if (spilling) {
+                rebuild = true;
+            } else if (!rebuild) {
+                addedDeps.add(from, to);
+            }
             return true;
         }
         return false;
     }
 
+    public boolean addDependencies(String from, Collection to)
+    {
+        boolean added = false;
+        for (Iterator it = to.iterator(); it.hasNext();) {
+            added |= addDependency(from, (String) it.next());
+        }
+        return added;
+    }
+
+    /**
+     * Create a new analyser sharing the provided class patterns of this analyser. The new analyser could be fed
+     * independently, possibly on another thread, and joined back later into this analyser. Forks intern class names
+     * into the thread safe symbol table of this analyser, so that joining their dependencies does not need to intern
+     * them again. Any number of forks could be fed concurrently without a global lock, while the results only depend on
+     * the order of the joins.
+     *
+     * When this analyser spills its dependencies, the fork spills its own dependencies beyond the fork memory budget.
+     *
+     * @return a new analyser sharing the provided class patterns of this analyser
+     */
+    public ClassDependencyAnalyser fork()
+    {
+        ClassDependencyAnalyser fork = new ClassDependencyAnalyser(symbols);
+        fork.providedClasses = providedClasses;
+        fork.tier = tier;
+        if (spilling) {
+            fork.setMemoryBudget(forkMemoryBudget, spillDirectory);
+        }
+        return fork;
+    }
+
+    /**
+     * Merge the classes and the dependencies collected by a forked analyser into this analyser, as if they had been
+     * added to this analyser at the time of the join. Joining forks in the order the classes has been walked provides
+     * the same results as a sequential analysis, the files of a fork being seen when it is joined. The run files of a
+     * spilling fork are deleted once joined, and the fork should not be used anymore.
+     *
+     * @param fork an analyser previously created by {@link #fork()}
+     */
+    public void join(ClassDependencyAnalyser fork)
+    {
+        File[] files = new File[fork.fileRanks.size()];
+        for (Iterator it = fork.fileRanks.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry) it.next();
+            files[(int) ((long[]) entry.getValue())[1]] = (File) entry.getKey();
+        }
+        for (int i = 0; i < files.length; i++) {
+            getFileRank(files[i]);
+        }
+        for (Iterator it = fork.classes.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry) it.next();
+            String name = (String) entry.getKey();
+            addClass((File) entry.getValue(), name, fork.getDigest(name));
+        }
+        for (Iterator it = fork.duplicates.values().iterator(); it.hasNext();) {
+            DuplicateClass duplicate = (DuplicateClass) it.next();
+            for (Iterator cit = duplicate.copies.entrySet().iterator(); cit.hasNext();) {
+                Map.Entry copy = (Map.Entry) cit.next();
+                addClass((File) copy.getKey(), duplicate.name, ((Long) copy.getValue()).longValue());
+            }
+        }
+        if (classDeps.merge(fork.classDeps, (rebuild || spilling) ? null : addedDeps) && spilling) {
+            rebuild = true;
+        }
+        if (fork.spilling) {
+            fork.classDeps.clean();
+        }
+    }
+
     /**
      * Update the {@link FileDependencySet} and the unresolved {@link ClassDependencySet} from the {@link
-     * ClassDependencySet}. Does nothing if these sets are already up to date.
+     * ClassDependencySet}. Does nothing if these sets are already up to date. Only the classes and the dependencies
+     * added since the last resolution are resolved, unless a class already resolved has moved to another file.
      */
     public void resolveFileDependency()
     {
-        if (!resolved) {
+        if (rebuild) {
             fileDeps.clean();
             unresolvedDeps.clean();
+            unresolvedByClass.clear();
+            pendingByClass.clear();
             for (Iterator it = classDeps.iterator(); it.hasNext();) {
                 ClassDependencySet.ClassPair pair = (ClassDependencySet.ClassPair) it.next();
-                File from = (File) classes.get(pair.getFromName());
-                File to = (File) classes.get(pair.getToName());
-                if (to != null) {
-                    if (!from.equals(to)) {
-                        fileDeps.add(from, to);
-                    }
-                } else {
-                    if (pair.getToName() != null) {
-                        unresolvedDeps.add(new ClassDependencySet.ClassPair(pair.getToName(), pair.getFromName()));
-                    }
+                resolveDependency(pair.getFromName(), pair.getToName());
+            }
+            rebuild = false;
+            return;
+        }
+
+        for (Iterator it = addedClasses.iterator(); it.hasNext();) {
+            String name = (String) it.next();
+            List dependents = (List) unresolvedByClass.remove(name);
+            if (dependents != null) {
+                for (Iterator dit = dependents.iterator(); dit.hasNext();) {
+                    String from = (String) dit.next();
+                    unresolvedDeps.remove(name, from);
+                    resolveDependency(from, name);
                 }
             }
-            resolved = true;
+            List dependencies = (List) pendingByClass.remove(name);
+            if (dependencies != null) {
+                for (Iterator dit = dependencies.iterator(); dit.hasNext();) {
+                    resolveDependency(name, (String) dit.next());
+                }
+            }
+        }
+        addedClasses.clear();
+
+        for (Iterator it = addedDeps.iterator(); it.hasNext();) {
+            ClassDependencySet.ClassPair pair = (ClassDependencySet.ClassPair) it.next();
+            resolveDependency(pair.getFromName(), pair.getToName());
+        }
+        addedDeps.clean();
+    }
+
+    /**
+     * Resolve a class dependency into a file dependency, or record it as unresolved. A dependency from a class not yet
+     * registered is kept pending until that class is registered. Each class dependency is resolved once, and counted in
+     * the file dependency it resolves to.
+     *
+     * @param from name of the depending class
+     * @param to name of the dependency class, or null
+     */
+    private void resolveDependency(String from, String to)
+    {
+        if (to == null) {
+            return;
+        }
+        File fromFile = (File) classes.get(from);
+        if (fromFile == null) {
+            if (!spilling) {
+                addToList(pendingByClass, from, to);
+            }
+            return;
+        }
+        File toFile = (File) classes.get(to);
+        if (toFile != null) {
+            if (!fromFile.equals(toFile)) {
+                fileDeps.add(fromFile, toFile, symbols.intern(from));
+            }
+        } else {
+            unresolvedDeps.add(to, from);
+            if (!spilling) {
+                addToList(unresolvedByClass, to, from);
+            }
         }
     }
 
+    /**
+     * Add a name to a list of names stored in a map
+     *
+     * @param map the map of lists
+     * @param key the key of the list
+     * @param name the name to add
+     */
+    private static void addToList(Map map, String key, String name)
+    {
+        List list = (List) map.get(key);
+        if (list == null) {
+            list = new ArrayList();
+            map.put(key, list);
+        }
+        list.add(name);
+    }
+
     /**
      * Check a class name against the list of provided classes
      *
@@ -114,13 +488,16 @@ public final class ClassDependencyAnalyser implements ClassAnalyser
      */
     private boolean matchProvidedClass(String className)
     {
-        for (Iterator it = providedClasses.iterator(); it.hasNext();) {
-            String s = (String) it.next();
-            if (SelectorUtils.matchPath(s, className, true)) {
-                return true;
-            }
+        if (providedMatchesVersion != providedClasses.getVersion()) {
+            providedMatches.clear();
+            providedMatchesVersion = providedClasses.getVersion();
         }
-        return false;
+        Boolean match = (Boolean) providedMatches.get(className);
+        if (match == null) {
+            match = providedClasses.matches(className) ? Boolean.TRUE : Boolean.FALSE;
+            providedMatches.put(className, match);
+        }
+        return match.booleanValue();
     }
 
     /**
@@ -134,6 +511,16 @@ public final class ClassDependencyAnalyser implements ClassAnalyser
         return Collections.unmodifiableMap(classes);
     }
 
+    /**
+     * The classes defined by more than one file during the analysis
+     *
+     * @return an unmodifiable map of {@link DuplicateClass} keyed by class name, ordered by class name
+     */
+    public Map getDuplicateClasses()
+    {
+        return Collections.unmodifiableMap(duplicates);
+    }
+
     /**
      * Returns the {@link ClassDependencySet} built by the analysis
      *
@@ -169,6 +556,41 @@ public final class ClassDependencyAnalyser implements ClassAnalyser
         return unresolvedDeps;
     }
 
+    /**
+     * Bound the memory used to store the class and the unresolved dependencies. Beyond that budget, dependencies are
+     * spilled to sorted run files, and resolution merges these runs on disk. Class names and the files defining them
+     * are still kept in memory. Should be called before feeding the analyser. Forks get the same budget.
+     *
+     * @param budget the approximate number of bytes used by the dependencies kept in memory
+     * @param directory the directory receiving the run files
+     */
+    public void setMemoryBudget(long budget, File directory)
+    {
+        setMemoryBudget(budget, budget, directory);
+    }
+
+    /**
+     * Bound the memory used to store the class and the unresolved dependencies of this analyser and of each of its
+     * forks. Since forks are fed concurrently, the fork budget should be a share of the budget per walking thread.
+     *
+     * @param budget the approximate number of bytes used by the dependencies kept in memory by this analyser
+     * @param forkBudget the approximate number of bytes used by the dependencies kept in memory by each fork
+     * @param directory the directory receiving the run files
+     */
+    public void setMemoryBudget(long budget, long forkBudget, File directory)
+    {
+        // Each set gets half of the budget, and a hash set uses up to 32 bytes per dependency
+        int limit = (int) Math.max(1024, Math.min(budget / 64, 1 << 28));
+        classDeps.setMemoryLimit(directory, limit);
+        unresolvedDeps.setMemoryLimit(directory, limit);
+        spilling = true;
+        rebuild = true;
+        forkMemoryBudget = forkBudget;
+        spillDirectory = directory;
+        addedClasses.clear();
+        addedDeps.clean();
+    }
+
     /**
      * Add a provided class pattern
      *
@@ -176,6 +598,89 @@ public final class ClassDependencyAnalyser implements ClassAnalyser
      */
     public void addProvidedClasses(String providedClass)
     {
-        this.providedClasses.add(providedClass);
+        providedClasses.addPattern(providedClass);
+    }
+
+    /**
+     * A class defined by more than one file
+     */
+    public static final class DuplicateClass
+    {
+        /**
+         * The name of the class
+         */
+        private final String name;
+
+        /**
+         * Digests of the copies of the class, 0 if unknown, keyed by file and ordered by precedence
+         */
+        private final Map copies;
+
+        /**
+         * Construct a class without copies
+         *
+         * @param name the name of the class
+         * @param fileOrder the order of the files by precedence
+         */
+        private DuplicateClass(String name, Comparator fileOrder)
+        {
+            this.name = name;
+            copies = new TreeMap(fileOrder);
+        }
+
+        /**
+         * Add a copy of the class, or the digest of a copy whose digest was unknown
+         *
+         * @param file the file defining the copy
+         * @param digest the digest of the copy, 0 if unknown
+         */
+        private void addCopy(File file, long digest)
+        {
+            Long previous = (Long) copies.get(file);
+            if (previous == null || previous.longValue() == 0) {
+                copies.put(file, new Long(digest));
+            }
+        }
+
+        /**
+         * Returns the name of the class
+         *
+         * @return the name of the class
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Returns the files defining the class, the first one providing the class to the analysis
+         *
+         * @return the files defining the class, ordered by precedence
+         */
+        public File[] getFiles()
+        {
+            return (File[]) copies.keySet().toArray(new File[copies.size()]);
+        }
+
+        /**
+         * Tell if the copies of the class differ. Copies of unknown digest, like those of classes only inventoried,
+         * are not compared.
+         *
+         * @return true if at least two copies of the class have different bytecode
+         */
+        public boolean isDivergent()
+        {
+            long digest = 0;
+            for (Iterator it = copies.values().iterator(); it.hasNext();) {
+                long copy = ((Long) it.next()).longValue();
+                if (copy != 0) {
+                    if (digest != 0 && digest != copy) {
+                        return true;
+                    }
+                    digest = copy;
+                }
+            }
+            return false;
+        }
     }
 }
@@ -0,0 +1,463 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.dependency;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lu.softec.maven.mavenizer.analyzer.ArchiveEntryFile;
+import lu.softec.maven.mavenizer.analyzer.ClassAnalyser;
+
+/**
+ * On-disk cache of the classes and the class dependencies found in libraries.
+ *
+ * Each library is stored in its own file, named after the SHA-256 digest of the library content, so that a library
+ * is only analysed again when its content changes, whatever its name, its location or its modification time. A same
+ * cache directory could therefore be shared between projects, for example below the local repository. Dependencies
+ * are stored as found in the classes, before any provided class pattern is applied, so that a cache entry remains
+ * valid whatever the configuration of the analyser it is loaded into.
+ *
+ * Cache entries are written to a temporary file renamed once complete, so concurrent builds never read partial
+ * entries. Entries that could not be read are ignored, and replaced when the library has been analysed again.
+ */
+public final class ClassDependencyCache
+{
+    /**
+     * Magic number of cache entries
+     */
+    private static final int MAGIC = 0x4D565A43;
+
+    /**
+     * Version of the format of cache entries, to be increased whenever the format or the analysis changes
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Suffix of the cache entries
+     */
+    private static final String SUFFIX = ".deps";
+
+    /**
+     * Size of the buffer used to digest libraries
+     */
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * Hexadecimal digits
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Directory of the cache entries
+     */
+    private final File directory;
+
+    /**
+     * Construct a cache storing its entries into a given directory, created when the first entry is stored.
+     *
+     * @param directory the directory of the cache entries
+     */
+    public ClassDependencyCache(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the directory of the cache entries
+     *
+     * @return the directory of the cache entries
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Compute the key of a library, which is the SHA-256 digest of its content.
+     *
+     * @param file the library, either an archive or an {@link ArchiveEntryFile}
+     * @return the key of the library, or null if the library could not be cached, like a class tree
+     * @throws IOException if the library could not be read
+     */
+    public static String getKey(File file) throws IOException
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+
+        if (file instanceof ArchiveEntryFile) {
+            ByteBuffer content = ((ArchiveEntryFile) file).getContent();
+            if (content.hasArray()) {
+                digest.update(content.array(), content.arrayOffset() + content.position(), content.remaining());
+            } else {
+                byte[] b = new byte[content.remaining()];
+                content.get(b);
+                digest.update(b);
+            }
+        } else if (file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] b = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = in.read(b)) != -1) {
+                    digest.update(b, 0, len);
+                }
+            } finally {
+                in.close();
+            }
+        } else {
+            return null;
+        }
+
+        byte[] hash = digest.digest();
+        char[] key = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            key[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            key[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(key);
+    }
+
+    /**
+     * Returns the file of a cache entry
+     *
+     * @param key the key of the library
+     * @return the file of the cache entry of the library
+     */
+    private File getEntry(String key)
+    {
+        return new File(directory, key.substring(0, 2) + File.separator + key + SUFFIX);
+    }
+
+    /**
+     * Feed an analyser with the classes and the dependencies of a cached library.
+     *
+     * @param key the key of the library
+     * @param file the library, provided to the analyser as the file of the classes
+     * @param analyser the analyser to feed
+     * @return the number of classes fed, or -1 if the library is not cached
+     */
+    public int load(String key, File file, ClassAnalyser analyser)
+    {
+        File entry = getEntry(key);
+        if (!entry.isFile()) {
+            return -1;
+        }
+
+        // Read the whole entry before feeding the analyser, so that a corrupted entry feeds nothing
+        Recorder recorder = new Recorder(null);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return -1;
+                }
+                int classCount = in.readInt();
+                for (int i = 0; i < classCount; i++) {
+                    String name = in.readUTF();
+                    if (in.readBoolean()) {
+                        recorder.addClass(file, name, in.readLong());
+                    }
+                    int depCount = in.readInt();
+                    for (int j = 0; j < depCount; j++) {
+                        String to = in.readUTF();
+                        recorder.addDependency(name, (to.length() == 0) ? null : to);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+
+        return recorder.replay(file, analyser);
+    }
+
+    /**
+     * Store the classes and the dependencies recorded for a library.
+     *
+     * @param key the key of the library
+     * @param recorder the recorder of the classes and the dependencies of the library
+     * @throws IOException if the cache entry could not be written
+     */
+    public void store(String key, Recorder recorder) throws IOException
+    {
+        File entry = getEntry(key);
+        File parent = entry.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Unable to create cache directory " + parent.getAbsolutePath());
+        }
+
+        File temp = File.createTempFile(key, ".tmp", parent);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(recorder.classes.size());
+                for (Iterator it = recorder.classes.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry clazz = (Map.Entry) it.next();
+                    Recorder.Dependencies deps = (Recorder.Dependencies) clazz.getValue();
+                    out.writeUTF((String) clazz.getKey());
+                    out.writeBoolean(deps.defined);
+                    if (deps.defined) {
+                        out.writeLong(deps.digest);
+                    }
+                    out.writeInt(deps.targets.size());
+                    for (Iterator dit = deps.targets.iterator(); dit.hasNext();) {
+                        String to = (String) dit.next();
+                        out.writeUTF((to == null) ? "" : to);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+
+            // An entry stored concurrently for the same content is equivalent to this one
+            if (!temp.renameTo(entry) && !entry.isFile()) {
+                throw new IOException("Unable to write cache entry " + entry.getAbsolutePath());
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * {@link ClassAnalyser} forwarding classes and dependencies to another analyser, and recording them while
+     * requested, to be stored into a {@link ClassDependencyCache}.
+     */
+    public static final class Recorder implements ClassAnalyser
+    {
+        /**
+         * Dependencies of a recorded class
+         */
+        private static final class Dependencies
+        {
+            /**
+             * True if the class has been added, false if only its dependencies has been found
+             */
+            private boolean defined;
+
+            /**
+             * Digest of the bytecode of the class, 0 if unknown
+             */
+            private long digest;
+
+            /**
+             * Names of the classes on which the dependencies occurs, which may contain null
+             */
+            private final Set targets = new LinkedHashSet();
+        }
+
+        /**
+         * Analyser receiving the classes and dependencies, may be null
+         */
+        private final ClassAnalyser analyser;
+
+        /**
+         * Recorded classes, as {@link Dependencies} keyed by class name
+         */
+        private final Map classes = new LinkedHashMap();
+
+        /**
+         * True while recording
+         */
+        private boolean recording;
+
+        /**
+         * Digest of the bytecode of the class being analysed, given to the classes added without digest
+         */
+        private long classDigest;
+
+        /**
+         * Construct a recorder forwarding to a given analyser
+         *
+         * @param analyser the analyser receiving the classes and dependencies, or null
+         */
+        public Recorder(ClassAnalyser analyser)
+        {
+            this.analyser = analyser;
+            this.recording = (analyser == null);
+        }
+
+        /**
+         * Start recording, discarding previously recorded classes
+         */
+        public void start()
+        {
+            classes.clear();
+            recording = true;
+        }
+
+        /**
+         * Stop recording
+         */
+        public void stop()
+        {
+            recording = false;
+        }
+
+        /**
+         * Set the digest of the bytecode of the class being analysed, given to the classes added without digest until
+         * it is reset.
+         *
+         * @param digest the digest of the class being analysed, 0 to reset it
+         */
+        public void setClassDigest(long digest)
+        {
+            classDigest = digest;
+        }
+
+        /**
+         * Returns true while recording
+         *
+         * @return true while recording
+         */
+        public boolean isRecording()
+        {
+            return recording;
+        }
+
+        /**
+         * Returns the recorded dependencies of a class, recording the class when needed
+         *
+         * @param name name of the class
+         * @return the recorded dependencies of the class
+         */
+        private Dependencies getDependencies(String name)
+        {
+            Dependencies deps = (Dependencies) classes.get(name);
+            if (deps == null) {
+                deps = new Dependencies();
+                classes.put(name, deps);
+            }
+            return deps;
+        }
+
+        public boolean addClass(File file, String name)
+        {
+            return addClass(file, name, classDigest);
+        }
+
+        public boolean addClass(File file, String name, long digest)
+        {
+            if (recording && file != null && name != null) {
+                Dependencies deps = getDependencies(name);
+                deps.defined = true;
+                deps.digest = digest;
+            }
+            return analyser != null && analyser.addClass(file, name, digest);
+        }
+
+        public boolean addDependency(String from, String to)
+        {
+            if (recording && from != null) {
+                getDependencies(from).targets.add(to);
+            }
+            return analyser != null && analyser.addDependency(from, to);
+        }
+
+        public boolean addDependencies(String from, Collection to)
+        {
+            if (recording && from != null) {
+                getDependencies(from).targets.addAll(to);
+            }
+            return analyser != null && analyser.addDependencies(from, to);
+        }
+
+        /**
+         * Returns the names of the classes added while recording
+         *
+         * @return the names of the recorded classes, in the order they have been added
+         */
+        public String[] getClassNames()
+        {
+            List names = new ArrayList();
+            for (Iterator it = classes.entrySet().iterator(); it.hasNext();) {
+                Map.Entry clazz = (Map.Entry) it.next();
+                if (((Dependencies) clazz.getValue()).defined) {
+                    names.add(clazz.getKey());
+                }
+            }
+            return (String[]) names.toArray(new String[names.size()]);
+        }
+
+        /**
+         * Returns the digests of the classes added while recording
+         *
+         * @return the digests of the recorded classes, in the order of {@link #getClassNames()}
+         */
+        public long[] getClassDigests()
+        {
+            long[] result = new long[classes.size()];
+            int count = 0;
+            for (Iterator it = classes.values().iterator(); it.hasNext();) {
+                Dependencies deps = (Dependencies) it.next();
+                if (deps.defined) {
+                    result[count++] = deps.digest;
+                }
+            }
+            long[] digests = new long[count];
+            System.arraycopy(result, 0, digests, 0, count);
+            return digests;
+        }
+
+        /**
+         * Feed an analyser with the recorded classes and dependencies
+         *
+         * @param file the file of the recorded classes
+         * @param target the analyser to feed
+         * @return the number of classes fed
+         */
+        int replay(File file, ClassAnalyser target)
+        {
+            int count = 0;
+            for (Iterator it = classes.entrySet().iterator(); it.hasNext();) {
+                Map.Entry clazz = (Map.Entry) it.next();
+                String name = (String) clazz.getKey();
+                Dependencies deps = (Dependencies) clazz.getValue();
+                if (deps.defined) {
+                    target.addClass(file, name, deps.digest);
+                    count++;
+                }
+                target.addDependencies(name, deps.targets);
+            }
+            return count;
+        }
+    }
+}
@@ -15,16 +15,178 @@
  */
 package lu.softec.maven.mavenizer.analyzer.dependency;
 
+import java.io.File;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Specialized Set to store class dependencies.
  *
- * This class is only mutable in the current package, and is immutable in another package.
+ * Class names are interned in a {@link SymbolTable}, and each dependency is stored as a single long packing the ids
+ * of both class names, in a primitive hash set. The ordered view required for iteration is only built on demand, and
+ * kept until the set is modified. This class is only mutable in the current package, and is immutable in another
+ * package.
+ *
+ * When a limit is set on the number of dependencies kept in memory, the dependencies are spilled to sorted run files
+ * whenever the limit is reached. Spilled dependencies could not be removed, and adding a spilled dependency again
+ * reports a change. Iterating or counting a spilled set merges its runs on disk, and sorts them by name with an
+ * external merge sort, so that the heap used stays bounded by the limit.
  */
 public class ClassDependencySet extends AbstractDependencySet
 {
+    /**
+     * Symbol table interning the class names
+     */
+    private final SymbolTable symbols;
+
+    /**
+     * Packed dependencies
+     */
+    private final LongHashSet dependencies = new LongHashSet();
+
+    /**
+     * Packed dependencies in iteration order, null when not yet built
+     */
+    private long[] sortedDependencies;
+
+    /**
+     * Modification count of the dependencies when the ordered view has been built
+     */
+    private int sortedModCount;
+
+    /**
+     * Maximum number of dependencies kept in memory, 0 for no limit
+     */
+    private int memoryLimit;
+
+    /**
+     * Runs of spilled dependencies, null when spilling is disabled
+     */
+    private SortedLongRuns spilled;
+
+    /**
+     * Construct an empty set with its own symbol table
+     */
+    public ClassDependencySet()
+    {
+        this(new SymbolTable());
+    }
+
+    /**
+     * Construct an empty set sharing a symbol table with other sets
+     *
+     * @param symbols the symbol table interning the class names
+     */
+    ClassDependencySet(SymbolTable symbols)
+    {
+        this.symbols = symbols;
+    }
+
+    /**
+     * Limit the number of dependencies kept in memory, spilling them to run files in a given directory beyond that
+     * limit
+     *
+     * @param directory the directory of the run files
+     * @param memoryLimit the maximum number of dependencies kept in memory
+     */
+    void setMemoryLimit(File directory, int memoryLimit)
+    {
+        this.memoryLimit = memoryLimit;
+        this.spilled = new SortedLongRuns(directory);
+    }
+
+    /**
+     * Returns true if some dependencies have been spilled to disk
+     *
+     * @return true if some dependencies have been spilled to disk
+     */
+    boolean isSpilled()
+    {
+        return spilled != null && !spilled.isEmpty();
+    }
+
+    /**
+     * Add a packed dependency, spilling the dependencies in memory when the memory limit is reached
+     *
+     * @param dependency the packed dependency
+     * @return true if the dependency was not in memory
+     */
+    private boolean add(long dependency)
+    {
+        if (!dependencies.add(dependency)) {
+            return false;
+        }
+        if (memoryLimit > 0 && dependencies.size() >= memoryLimit) {
+            long[] values = dependencies.toArray();
+            Arrays.sort(values);
+            spilled.add(values, values.length);
+            dependencies.clear();
+        }
+        return true;
+    }
+
+    /**
+     * Merge the spilled dependencies and those in memory into a single run without duplicates
+     *
+     * @return the number of dependencies
+     */
+    private long compact()
+    {
+        long[] values = dependencies.toArray();
+        Arrays.sort(values);
+        long count = spilled.compact(values, values.length);
+        dependencies.clear();
+        return count;
+    }
+
+    /**
+     * Returns the id of a class name packed in a dependency
+     *
+     * @param name a class name, or null
+     * @param intern true to intern an unknown name
+     * @return the packed id of the name, 0 for null, or -1 for a unknown name not interned
+     */
+    private long getId(String name, boolean intern)
+    {
+        if (name == null) {
+            return 0;
+        }
+        int id = intern ? symbols.intern(name) : symbols.lookup(name);
+        return (id < 0) ? -1 : id + 1;
+    }
+
+    /**
+     * Returns the packed value of a dependency
+     *
+     * @param fromName name of the depending class
+     * @param toName name of the dependency class
+     * @param intern true to intern unknown names
+     * @return the packed dependency, or -1 if a name is unknown and not interned
+     */
+    private long pack(String fromName, String toName, boolean intern)
+    {
+        long from = getId(fromName, intern);
+        long to = getId(toName, intern);
+        if (from < 0 || to < 0) {
+            return -1;
+        }
+        return (from << 32) | to;
+    }
+
+    /**
+     * Returns the class name for a packed id
+     *
+     * @param id a packed id
+     * @return the class name, or null for id 0
+     */
+    private String getName(long id)
+    {
+        return (id == 0) ? null : symbols.getName((int) id - 1);
+    }
+
     /**
      * Return true if the set already contains a given relation
      *
@@ -34,7 +196,8 @@ public class ClassDependencySet extends AbstractDependencySet
      */
     public boolean contains(String fromName, String toName)
     {
-        return contains(new ClassPair(fromName, toName));
+        long dependency = pack(fromName, toName, false);
+        return dependency != -1 && (dependencies.contains(dependency) || (isSpilled() && spilled.contains(dependency)));
     }
 
     /**
@@ -46,7 +209,7 @@ public class ClassDependencySet extends AbstractDependencySet
      */
     boolean add(String fromName, String toName)
     {
-        return add(new ClassPair(fromName, toName));
+        return add(pack(fromName, toName, true));
     }
 
     /**
@@ -55,10 +218,15 @@ public class ClassDependencySet extends AbstractDependencySet
      * @param fromName name of the depending class
      * @param toName name of the dependency class
      * @return if the set has been changed
+     * @throws UnsupportedOperationException if some dependencies have been spilled
      */
     boolean remove(String fromName, String toName)
     {
-        return remove(new ClassPair(fromName, toName));
+        if (isSpilled()) {
+            throw new UnsupportedOperationException("Spilled dependencies could not be removed");
+        }
+        long dependency = pack(fromName, toName, false);
+        return dependency != -1 && dependencies.remove(dependency);
     }
 
     /**
@@ -73,7 +241,265 @@ public class ClassDependencySet extends AbstractDependencySet
         if (!(pair instanceof ClassPair)) {
             throw new ClassCastException("Cannot cast " + pair.getClass() + " to " + ClassPair.class);
         }
-        return super.add(pair);
+        return add(pair.getFromName(), pair.getToName());
+    }
+
+    /**
+     * Add all dependencies of another set, in no particular order, including its spilled dependencies
+     *
+     * @param set the set of dependencies to add
+     * @param added a set sharing the symbol table of this set, receiving the dependencies actually added to this set,
+     * or null
+     * @return if the set has been changed
+     */
+    boolean merge(ClassDependencySet set, ClassDependencySet added)
+    {
+        long[] merged = set.dependencies.toArray();
+        boolean changed = false;
+        for (int i = 0; i < merged.length; i++) {
+            changed |= merge(set, merged[i], added);
+        }
+        if (set.isSpilled()) {
+            SortedLongRuns.Cursor cursor = set.spilled.cursor();
+            while (cursor.next()) {
+                changed |= merge(set, cursor.getValue(), added);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Add a packed dependency of another set
+     *
+     * @param set the set of the dependency
+     * @param dependency the dependency, packed by the other set
+     * @param added a set sharing the symbol table of this set, receiving the dependency if actually added, or null
+     * @return if the set has been changed
+     */
+    private boolean merge(ClassDependencySet set, long dependency, ClassDependencySet added)
+    {
+        if (set.symbols != symbols) {
+            dependency = pack(set.getName(dependency >>> 32), set.getName(dependency & 0xFFFFFFFFL), true);
+        }
+        if (!add(dependency)) {
+            return false;
+        }
+        if (added != null) {
+            added.dependencies.add(dependency);
+        }
+        return true;
+    }
+
+    /**
+     * Remove a dependency
+     *
+     * @param pair the dependency to remove
+     * @return true if the set has been changed
+     */
+    boolean remove(Pair pair)
+    {
+        return pair instanceof ClassPair && remove(pair.getFromName(), pair.getToName());
+    }
+
+    /**
+     * Clear the dependency Set
+     */
+    void clean()
+    {
+        dependencies.clear();
+        sortedDependencies = null;
+        if (spilled != null) {
+            spilled.clear();
+        }
+    }
+
+    /**
+     * Return true if the set already contains a given dependency
+     *
+     * @param pair the dependency to be checked
+     * @return true if the set already contains a given dependency
+     */
+    public boolean contains(Pair pair)
+    {
+        return pair instanceof ClassPair && contains(pair.getFromName(), pair.getToName());
+    }
+
+    public int size()
+    {
+        if (isSpilled()) {
+            return (int) Math.min(compact(), Integer.MAX_VALUE);
+        }
+        return dependencies.size();
+    }
+
+    /**
+     * Returns the packed dependencies in iteration order. Ids are replaced by the rank of their name, so that sorting
+     * the longs sorts the dependencies by name, then restored.
+     *
+     * @return the packed dependencies in iteration order
+     */
+    private long[] getSortedDependencies()
+    {
+        if (sortedDependencies == null || sortedModCount != dependencies.getModCount()) {
+            long[] sorted = dependencies.toArray();
+            int[] sortedIds = symbols.getSortedIds();
+            int[] ranks = getRanks(sortedIds);
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = (toRank(sorted[i] >>> 32, ranks) << 32) | toRank(sorted[i] & 0xFFFFFFFFL, ranks);
+            }
+            Arrays.sort(sorted);
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = (toId(sorted[i] >>> 32, sortedIds) << 32) | toId(sorted[i] & 0xFFFFFFFFL, sortedIds);
+            }
+            sortedDependencies = sorted;
+            sortedModCount = dependencies.getModCount();
+        }
+        return sortedDependencies;
+    }
+
+    /**
+     * Returns the rank of the name of each id
+     *
+     * @param sortedIds the ids sorted by name
+     * @return the ranks by id
+     */
+    private static int[] getRanks(int[] sortedIds)
+    {
+        int limit = 0;
+        for (int i = 0; i < sortedIds.length; i++) {
+            limit = Math.max(limit, sortedIds[i] + 1);
+        }
+        int[] ranks = new int[limit];
+        for (int i = 0; i < sortedIds.length; i++) {
+            ranks[sortedIds[i]] = i;
+        }
+        return ranks;
+    }
+
+    /**
+     * Convert a packed id to a packed rank
+     *
+     * @param id a packed id
+     * @param ranks the ranks by id
+     * @return the packed rank, 0 for a null name
+     */
+    private static long toRank(long id, int[] ranks)
+    {
+        return (id == 0) ? 0 : ranks[(int) id - 1] + 1;
+    }
+
+    /**
+     * Convert a packed rank to a packed id
+     *
+     * @param rank a packed rank
+     * @param sortedIds the ids by rank
+     * @return the packed id, 0 for a null name
+     */
+    private static long toId(long rank, int[] sortedIds)
+    {
+        return (rank == 0) ? 0 : sortedIds[(int) rank - 1] + 1;
+    }
+
+    /**
+     * @return an iterator over the dependencies, ordered by depending class name, then by dependency class name, null
+     *         names first
+     */
+    public Iterator iterator()
+    {
+        if (isSpilled()) {
+            return spilledIterator();
+        }
+        final long[] sorted = getSortedDependencies();
+        return new Iterator()
+        {
+            private int index;
+
+            private int expectedModCount = dependencies.getModCount();
+
+            private boolean canRemove;
+
+            public boolean hasNext()
+            {
+                return index < sorted.length;
+            }
+
+            public Object next()
+            {
+                if (expectedModCount != dependencies.getModCount()) {
+                    throw new ConcurrentModificationException();
+                }
+                if (index >= sorted.length) {
+                    throw new NoSuchElementException();
+                }
+                long dependency = sorted[index++];
+                canRemove = true;
+                return new ClassPair(getName(dependency >>> 32), getName(dependency & 0xFFFFFFFFL));
+            }
+
+            public void remove()
+            {
+                if (!canRemove) {
+                    throw new IllegalStateException();
+                }
+                if (expectedModCount != dependencies.getModCount()) {
+                    throw new ConcurrentModificationException();
+                }
+                dependencies.remove(sorted[index - 1]);
+                expectedModCount = dependencies.getModCount();
+                canRemove = false;
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over spilled dependencies, sorting them by name with an external merge sort
+     *
+     * @return an iterator over the dependencies, which does not support removal
+     */
+    private Iterator spilledIterator()
+    {
+        compact();
+        final int[] sortedIds = symbols.getSortedIds();
+        final int[] ranks = getRanks(sortedIds);
+        final SortedLongRuns.Cursor cursor = spilled.sort(new SortedLongRuns.Mapping()
+        {
+            public long map(long value)
+            {
+                return (toRank(value >>> 32, ranks) << 32) | toRank(value & 0xFFFFFFFFL, ranks);
+            }
+        }, memoryLimit);
+        final int expectedModCount = dependencies.getModCount();
+        return new Iterator()
+        {
+            private Boolean hasNext;
+
+            public boolean hasNext()
+            {
+                if (hasNext == null) {
+                    hasNext = cursor.next() ? Boolean.TRUE : Boolean.FALSE;
+                }
+                return hasNext.booleanValue();
+            }
+
+            public Object next()
+            {
+                if (expectedModCount != dependencies.getModCount()) {
+                    throw new ConcurrentModificationException();
+                }
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                hasNext = null;
+                long rank = cursor.getValue();
+                return new ClassPair(getName(toId(rank >>> 32, sortedIds)),
+                    getName(toId(rank & 0xFFFFFFFFL, sortedIds)));
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException("Spilled dependencies could not be removed");
+            }
+        };
     }
 
     /**
@@ -82,7 +508,7 @@ public class ClassDependencySet extends AbstractDependencySet
      */
     public boolean contains(Object o)
     {
-        return o instanceof ClassPair && super.contains(o);
+        return o instanceof ClassPair && contains((Pair) o);
     }
 
     public boolean containsAll(Collection c)
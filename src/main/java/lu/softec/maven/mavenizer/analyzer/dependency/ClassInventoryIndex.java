@@ -0,0 +1,214 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.dependency;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import lu.softec.maven.mavenizer.analyzer.ClassFileHeader;
+import lu.softec.maven.mavenizer.analyzer.MappedZipFile;
+
+/**
+ * Index of the classes of archives, stored in a sidecar file next to each archive, like the artifacts of the local
+ * repository.
+ *
+ * The sidecar of an archive records the size, the modification time and the repository checksum of the archive, read
+ * from its .sha1 file when available, and is ignored as soon as any of them changes. Sidecars are built lazily, the
+ * first time an archive is listed, and are written to a temporary file renamed once complete, so that concurrent
+ * builds sharing the same local repository never read partial sidecars.
+ */
+public final class ClassInventoryIndex
+{
+    /**
+     * Magic number of sidecar files
+     */
+    private static final int MAGIC = 0x4D565A49;
+
+    /**
+     * Version of the format of sidecar files
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Suffix appended to the name of an archive to build the name of its sidecar
+     */
+    public static final String SUFFIX = ".mavenizer-classes";
+
+    /**
+     * Returns the sidecar of an archive
+     *
+     * @param archive the archive
+     * @return the sidecar of the archive
+     */
+    public File getIndexFile(File archive)
+    {
+        return new File(archive.getPath() + SUFFIX);
+    }
+
+    /**
+     * Read the checksum of an archive from the .sha1 file stored next to it by the repository.
+     *
+     * @param archive the archive
+     * @return the checksum of the archive, or an empty string if unknown
+     */
+    private static String getChecksum(File archive)
+    {
+        File sha1 = new File(archive.getPath() + ".sha1");
+        if (!sha1.isFile()) {
+            return "";
+        }
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(sha1));
+            try {
+                String line = in.readLine();
+                if (line == null) {
+                    return "";
+                }
+                line = line.trim();
+                int space = line.indexOf(' ');
+                return (space == -1) ? line : line.substring(0, space);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Read the classes of an archive from its sidecar.
+     *
+     * @param archive the archive
+     * @return the internal names of the classes of the archive, or null if the archive has no up to date sidecar
+     */
+    public String[] load(File archive)
+    {
+        File index = getIndexFile(archive);
+        if (!index.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != archive.length()
+                    || in.readLong() != archive.lastModified() || !in.readUTF().equals(getChecksum(archive)))
+                {
+                    return null;
+                }
+                String[] names = new String[in.readInt()];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = in.readUTF();
+                }
+                return names;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the classes of an archive, read from its sidecar when up to date, or listed from the archive and indexed.
+     * Invalid class files are ignored, and failures to write the sidecar, like in a read-only repository, only prevent
+     * the archive from being indexed.
+     *
+     * @param archive the archive
+     * @return the internal names of the classes of the archive
+     * @throws IOException if the archive could not be read
+     */
+    public String[] list(File archive) throws IOException
+    {
+        String[] names = load(archive);
+        if (names != null) {
+            return names;
+        }
+
+        List list = new ArrayList();
+        MappedZipFile zip = new MappedZipFile(archive);
+        try {
+            for (int entry = 0; entry < zip.size(); entry++) {
+                if (zip.isClass(entry)) {
+                    try {
+                        list.add(new ClassFileHeader(zip.read(entry), 0, zip.getSize(entry)).getClassName());
+                    } catch (IllegalArgumentException e) {
+                        // Not a valid class file, ignored
+                    }
+                }
+            }
+        } finally {
+            zip.close();
+        }
+
+        try {
+            store(archive, list);
+        } catch (IOException e) {
+            // The archive will be listed again next time
+        }
+        return (String[]) list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * Write the sidecar of an archive.
+     *
+     * @param archive the archive
+     * @param names the internal names of the classes of the archive
+     * @throws IOException if the sidecar could not be written
+     */
+    public void store(File archive, List names) throws IOException
+    {
+        File index = getIndexFile(archive);
+        File temp = File.createTempFile(archive.getName(), ".tmp", index.getParentFile());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(archive.length());
+                out.writeLong(archive.lastModified());
+                out.writeUTF(getChecksum(archive));
+                out.writeInt(names.size());
+                for (Iterator it = names.iterator(); it.hasNext();) {
+                    out.writeUTF((String) it.next());
+                }
+            } finally {
+                out.close();
+            }
+
+            // Some platforms refuse to rename over an existing file, like an outdated sidecar
+            if (!temp.renameTo(index)) {
+                index.delete();
+                if (!temp.renameTo(index)) {
+                    throw new IOException("Unable to write class index " + index.getAbsolutePath());
+                }
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.dependency;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Matcher of class names against a set of path patterns, providing the same results as {@link
+ * SelectorUtils#matchPath(String, String, boolean)} with case sensitivity.
+ *
+ * Patterns are compiled into a trie of their leading literal path segments. Each node keeps the patterns whose
+ * literal segments lead to it. Trailing segments made only of <code>*</code> and <code>**</code> are reduced to a
+ * condition on the number of remaining segments. Other patterns are evaluated by {@link SelectorUtils} once their
+ * literal prefix has matched. Patterns should all be added before matching from concurrent threads.
+ */
+final class ClassNameMatcher
+{
+    /**
+     * Separator of path segments, as used by {@link SelectorUtils}
+     */
+    private static final String SEPARATOR = File.separator;
+
+    /**
+     * Root of the trie
+     */
+    private final Node root = new Node();
+
+    /**
+     * Number of patterns added so far, allowing users to invalidate memoized results
+     */
+    private int version;
+
+    /**
+     * Add a pattern to this matcher
+     *
+     * @param pattern a path pattern
+     */
+    void addPattern(String pattern)
+    {
+        version++;
+        if (pattern.startsWith("%") || pattern.startsWith(SEPARATOR)) {
+            root.addPattern(pattern);
+            return;
+        }
+
+        String[] segments = split(pattern);
+        Node node = root;
+        int i = 0;
+        while (i < segments.length && segments[i].indexOf('*') < 0 && segments[i].indexOf('?') < 0) {
+            node = node.getChild(segments[i++]);
+        }
+
+        int stars = 0;
+        boolean deep = false;
+        for (int j = i; j < segments.length; j++) {
+            if (segments[j].equals("**")) {
+                deep = true;
+            } else if (segments[j].equals("*")) {
+                stars++;
+            } else {
+                node.addPattern(pattern);
+                return;
+            }
+        }
+        if (deep) {
+            node.minRemaining = Math.min(node.minRemaining, stars);
+        } else if (stars < 32) {
+            node.remainingMask |= 1 << stars;
+        } else {
+            node.addPattern(pattern);
+        }
+    }
+
+    /**
+     * Returns the number of patterns added so far. Results obtained from this matcher stay valid as long as this
+     * number does not change.
+     *
+     * @return the number of patterns added so far
+     */
+    int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Check a class name against the patterns
+     *
+     * @param className the class name to check
+     * @return true if any pattern matches the class name
+     */
+    boolean matches(String className)
+    {
+        String[] segments = split(className);
+        Node node = root;
+        for (int i = 0; node != null; i++) {
+            if (node.matches(className, segments.length - i)) {
+                return true;
+            }
+            if (i == segments.length || node.children == null) {
+                break;
+            }
+            node = (Node) node.children.get(segments[i]);
+        }
+        return false;
+    }
+
+    /**
+     * Split a path into its segments, ignoring empty ones like {@link SelectorUtils} does
+     *
+     * @param path the path to split
+     * @return the segments of the path
+     */
+    private static String[] split(String path)
+    {
+        StringTokenizer st = new StringTokenizer(path, SEPARATOR);
+        String[] segments = new String[st.countTokens()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = st.nextToken();
+        }
+        return segments;
+    }
+
+    /**
+     * Node of the trie, reached by a sequence of literal segments
+     */
+    private static final class Node
+    {
+        /**
+         * Child nodes by literal segment, null if none
+         */
+        private Map children;
+
+        /**
+         * Minimum number of remaining segments matched by a pattern ending with <code>**</code> segments
+         */
+        private int minRemaining = Integer.MAX_VALUE;
+
+        /**
+         * Bit mask of the exact numbers of remaining segments matched by a pattern ending with <code>*</code> segments
+         */
+        private int remainingMask;
+
+        /**
+         * Patterns to evaluate by {@link SelectorUtils}, null if none
+         */
+        private List patterns;
+
+        /**
+         * Return the child node for a literal segment, creating it if needed
+         *
+         * @param segment the literal segment
+         * @return the child node
+         */
+        private Node getChild(String segment)
+        {
+            if (children == null) {
+                children = new HashMap();
+            }
+            Node child = (Node) children.get(segment);
+            if (child == null) {
+                child = new Node();
+                children.put(segment, child);
+            }
+            return child;
+        }
+
+        /**
+         * Add a pattern to be evaluated by {@link SelectorUtils}
+         *
+         * @param pattern the pattern
+         */
+        private void addPattern(String pattern)
+        {
+            if (patterns == null) {
+                patterns = new ArrayList();
+            }
+            patterns.add(pattern);
+        }
+
+        /**
+         * Check a class name against the patterns of this node
+         *
+         * @param className the class name to check
+         * @param remaining the number of segments of the class name following this node
+         * @return true if any pattern of this node matches the class name
+         */
+        private boolean matches(String className, int remaining)
+        {
+            if (remaining >= minRemaining || (remaining < 32 && (remainingMask & (1 << remaining)) != 0)) {
+                return true;
+            }
+            if (patterns != null) {
+                for (Iterator it = patterns.iterator(); it.hasNext();) {
+                    if (SelectorUtils.matchPath((String) it.next(), className, true)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
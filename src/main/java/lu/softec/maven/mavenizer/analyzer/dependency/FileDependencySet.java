@@ -16,16 +16,137 @@
 package lu.softec.maven.mavenizer.analyzer.dependency;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Specialized ordered Set to store file dependencies.
  *
- * This class is only mutable in the current package, and is protected from mutability from another package.
+ * Files are identified by their absolute path, and numbered by consecutive ids. Dependencies are stored as longs
+ * packing the ids of both files. A compressed sparse row graph of the dependencies, ordered by absolute path, is built
+ * once when first queried after a modification. It provides the successors and the predecessors of a file, and the
+ * ordered {@link java.util.Set} view. This class is only mutable in the current package, and is protected from
+ * mutability from another package.
+ *
+ * Each dependency also counts the class dependencies it has been resolved from, and the distinct classes of the
+ * depending file involved. A dependency resting on a few classes only is a candidate for pruning. The depending
+ * classes are kept, so that sets derived by merging files count them again instead of summing their counts.
  */
 public class FileDependencySet extends AbstractDependencySet
 {
+    /**
+     * An empty file array
+     */
+    private static final File[] NO_FILES = new File[0];
+
+    /**
+     * Ids of the files already seen, by identity. This avoids computing absolute path of the same objects repeatedly.
+     */
+    private final Map fileIds = new IdentityHashMap();
+
+    /**
+     * Ids of the files, by absolute path
+     */
+    private final Map pathIds = new HashMap();
+
+    /**
+     * Files by id minus one, since id 0 stands for a null file
+     */
+    private final List files = new ArrayList();
+
+    /**
+     * Absolute paths of the files by id minus one
+     */
+    private final List paths = new ArrayList();
+
+    /**
+     * Counter of the class dependencies of a dependency
+     */
+    private static final int CLASS_DEPENDENCIES = 0;
+
+    /**
+     * Counter of the distinct depending classes of a dependency
+     */
+    private static final int SOURCE_CLASSES = 1;
+
+    /**
+     * Packed dependencies, with their counters
+     */
+    private final LongHashSet dependencies = new LongHashSet(2);
+
+    /**
+     * Depending classes already counted, packed with the id of their dependency file
+     */
+    private final LongHashSet sourceClasses = new LongHashSet();
+
+    /**
+     * Id of the depending file of each depending class already counted
+     */
+    private final LongHashSet sourceFiles = new LongHashSet(1);
+
+    /**
+     * The graph of the dependencies, null when not yet built
+     */
+    private Graph graph;
+
+    /**
+     * Return the id of a file
+     *
+     * @param file a file, or null
+     * @param intern true to assign an id to an unknown file
+     * @return the id of the file, 0 for null, or -1 for an unknown file not interned
+     */
+    private int getId(File file, boolean intern)
+    {
+        if (file == null) {
+            return 0;
+        }
+
+        Integer id = (Integer) fileIds.get(file);
+        if (id == null) {
+            String path = file.getAbsolutePath();
+            id = (Integer) pathIds.get(path);
+            if (id == null) {
+                if (!intern) {
+                    return -1;
+                }
+                files.add(file);
+                paths.add(path);
+                id = new Integer(files.size());
+                pathIds.put(path, id);
+            }
+            fileIds.put(file, id);
+        }
+        return id.intValue();
+    }
+
+    /**
+     * Returns the packed value of a dependency
+     *
+     * @param fromFile the depending file
+     * @param toFile the dependency file
+     * @param intern true to assign ids to unknown files
+     * @return the packed dependency, or -1 if a file is unknown and not interned
+     */
+    private long pack(File fromFile, File toFile, boolean intern)
+    {
+        long from = getId(fromFile, intern);
+        long to = getId(toFile, intern);
+        if (from < 0 || to < 0) {
+            return -1;
+        }
+        return (from << 32) | to;
+    }
+
     /**
      * Return true if the set already contains a given dependency
      *
@@ -35,7 +156,8 @@ public class FileDependencySet extends AbstractDependencySet
      */
     public boolean contains(File fromFile, File toFile)
     {
-        return contains(new FilePair(fromFile, toFile));
+        long dependency = pack(fromFile, toFile, false);
+        return dependency != -1 && dependencies.contains(dependency);
     }
 
     /**
@@ -47,7 +169,57 @@ public class FileDependencySet extends AbstractDependencySet
      */
     boolean add(File fromFile, File toFile)
     {
-        return add(new FilePair(fromFile, toFile));
+        return dependencies.add(pack(fromFile, toFile, true));
+    }
+
+    /**
+     * Add a new dependency resolved from a class dependency, or count that class dependency in an existing one
+     *
+     * @param fromFile the depending file
+     * @param toFile the dependency file
+     * @param sourceClass the id of the depending class, counted once per dependency file
+     * @return true if the set has been changed
+     */
+    boolean add(File fromFile, File toFile, int sourceClass)
+    {
+        long dependency = pack(fromFile, toFile, true);
+        boolean added = dependencies.add(dependency, CLASS_DEPENDENCIES, 1);
+        addSourceClass(dependency, sourceClass);
+        return added;
+    }
+
+    /**
+     * Count a depending class in an existing dependency, unless already counted
+     *
+     * @param dependency the packed dependency
+     * @param sourceClass the id of the depending class
+     */
+    private void addSourceClass(long dependency, int sourceClass)
+    {
+        if (sourceClasses.add(((long) sourceClass << 32) | (dependency & 0xFFFFFFFFL))) {
+            dependencies.add(dependency, SOURCE_CLASSES, 1);
+            if (sourceFiles.add(sourceClass)) {
+                sourceFiles.add(sourceClass, 0, (int) (dependency >>> 32));
+            }
+        }
+    }
+
+    /**
+     * Add a new dependency, or add counts to an existing one. Since the depending classes are unknown, sets derived by
+     * merging files sum the counts of depending classes, which are then an upper bound.
+     *
+     * @param fromFile the depending file
+     * @param toFile the dependency file
+     * @param classDependencies the number of class dependencies to add
+     * @param sourceClasses the number of depending classes to add
+     * @return true if the set has been changed
+     */
+    boolean add(File fromFile, File toFile, int classDependencies, int sourceClasses)
+    {
+        long dependency = pack(fromFile, toFile, true);
+        boolean added = dependencies.add(dependency, CLASS_DEPENDENCIES, classDependencies);
+        dependencies.add(dependency, SOURCE_CLASSES, sourceClasses);
+        return added;
     }
 
     /**
@@ -59,7 +231,8 @@ public class FileDependencySet extends AbstractDependencySet
      */
     boolean remove(File fromFile, File toFile)
     {
-        return remove(new FilePair(fromFile, toFile));
+        long dependency = pack(fromFile, toFile, false);
+        return dependency != -1 && dependencies.remove(dependency);
     }
 
     /**
@@ -73,7 +246,469 @@ public class FileDependencySet extends AbstractDependencySet
         if (!(pair instanceof FilePair)) {
             throw new ClassCastException("Cannot cast " + pair.getClass() + " to " + FilePair.class);
         }
-        return super.add(pair);
+        return add(((FilePair) pair).getFromFile(), ((FilePair) pair).getToFile());
+    }
+
+    /**
+     * Remove a dependency
+     *
+     * @param pair the dependency to remove
+     * @return true if the set has been changed
+     */
+    boolean remove(Pair pair)
+    {
+        return pair instanceof FilePair && remove(((FilePair) pair).getFromFile(), ((FilePair) pair).getToFile());
+    }
+
+    /**
+     * Clear the dependency Set, and forget the files seen so far
+     */
+    void clean()
+    {
+        dependencies.clear();
+        sourceClasses.clear();
+        sourceFiles.clear();
+        fileIds.clear();
+        pathIds.clear();
+        files.clear();
+        paths.clear();
+        graph = null;
+    }
+
+    /**
+     * Return true if the set already contains a given dependency
+     *
+     * @param pair the dependency to be checked
+     * @return true if the set already contains a given dependency
+     */
+    public boolean contains(Pair pair)
+    {
+        return pair instanceof FilePair && contains(((FilePair) pair).getFromFile(), ((FilePair) pair).getToFile());
+    }
+
+    public int size()
+    {
+        return dependencies.size();
+    }
+
+    /**
+     * Return the number of class dependencies a dependency has been resolved from
+     *
+     * @param fromFile the depending file
+     * @param toFile the dependency file
+     * @return the number of class dependencies, 0 if unknown or if the set does not contain the dependency
+     */
+    public int getClassDependencyCount(File fromFile, File toFile)
+    {
+        long dependency = pack(fromFile, toFile, false);
+        return (dependency != -1) ? dependencies.get(dependency, CLASS_DEPENDENCIES) : 0;
+    }
+
+    /**
+     * Return the number of distinct classes of the depending file a dependency has been resolved from
+     *
+     * @param fromFile the depending file
+     * @param toFile the dependency file
+     * @return the number of depending classes, 0 if unknown or if the set does not contain the dependency
+     */
+    public int getSourceClassCount(File fromFile, File toFile)
+    {
+        long dependency = pack(fromFile, toFile, false);
+        return (dependency != -1) ? dependencies.get(dependency, SOURCE_CLASSES) : 0;
+    }
+
+    /**
+     * Return a copy of this set without the dependencies resolved from too few classes or class dependencies.
+     * Dependencies without counts, like those added by merging cycles, and dependencies to a null file are kept.
+     *
+     * @param minSourceClasses the minimum number of depending classes of the kept dependencies
+     * @param minClassDependencies the minimum number of class dependencies of the kept dependencies
+     * @return a new set holding the kept dependencies, with their counts
+     */
+    public FileDependencySet getPrunedDependencies(int minSourceClasses, int minClassDependencies)
+    {
+        Graph graph = getGraph();
+        int[] classDependencies = graph.getCounts(CLASS_DEPENDENCIES);
+        int[] sources = graph.getCounts(SOURCE_CLASSES);
+        int[] summed = getSummedSourceCounts(graph);
+        FileDependencySet result = new FileDependencySet();
+        for (int from = 0; from < graph.files.length; from++) {
+            for (int j = graph.offsets[from]; j < graph.offsets[from + 1]; j++) {
+                boolean counted = classDependencies[j] != 0 || sources[j] != 0;
+                if (graph.targets[j] == 0 || !counted ||
+                    (sources[j] >= minSourceClasses && classDependencies[j] >= minClassDependencies)) {
+                    result.add(graph.files[from], graph.files[graph.targets[j]], classDependencies[j], summed[j]);
+                }
+            }
+        }
+        countSourceClasses(graph, result, graph.files, graph.files);
+        return result;
+    }
+
+    /**
+     * Return a copy of this set where some files are replaced by other files, keeping the dependency counts. Files
+     * replaced by the same file are merged, and the dependencies between them dropped. The depending classes of the
+     * dependencies of merged files are counted once.
+     *
+     * @param replacements a {@link Map} of the replaced {@link File} to their replacing {@link File}
+     * @return the dependencies between the replacing files
+     */
+    public FileDependencySet getReplacedFiles(Map replacements)
+    {
+        Graph graph = getGraph();
+        int[] classDependencies = graph.getCounts(CLASS_DEPENDENCIES);
+        int[] sources = getSummedSourceCounts(graph);
+        File[] replaced = new File[graph.files.length];
+        for (int rank = 0; rank < replaced.length; rank++) {
+            replaced[rank] = getReplacement(replacements, graph.files[rank]);
+        }
+        FileDependencySet result = new FileDependencySet();
+        for (int from = 0; from < graph.files.length; from++) {
+            File fromFile = replaced[from];
+            for (int j = graph.offsets[from]; j < graph.offsets[from + 1]; j++) {
+                File toFile = replaced[graph.targets[j]];
+                if (toFile == null || !toFile.equals(fromFile)) {
+                    result.add(fromFile, toFile, classDependencies[j], sources[j]);
+                } else {
+                    result.add(fromFile, null, 0, 0);
+                }
+            }
+        }
+        countSourceClasses(graph, result, replaced, replaced);
+        return result;
+    }
+
+    /**
+     * Return the replacement of a file
+     *
+     * @param replacements a {@link Map} of the replaced {@link File} to their replacing {@link File}
+     * @param file a file, or null
+     * @return the replacing file, or the file itself when it is not replaced
+     */
+    private static File getReplacement(Map replacements, File file)
+    {
+        File replacement = (file != null) ? (File) replacements.get(file) : null;
+        return (replacement != null) ? replacement : file;
+    }
+
+    /**
+     * Return the files having dependencies or dependents, ordered by absolute path
+     *
+     * @return the files of this set
+     */
+    public File[] getFiles()
+    {
+        Graph graph = getGraph();
+        int[] reverseOffsets = graph.getReverseOffsets();
+        List result = new ArrayList();
+        for (int rank = 1; rank < graph.files.length; rank++) {
+            if (graph.offsets[rank] != graph.offsets[rank + 1] || reverseOffsets[rank] != reverseOffsets[rank + 1]) {
+                result.add(graph.files[rank]);
+            }
+        }
+        return (File[]) result.toArray(new File[result.size()]);
+    }
+
+    /**
+     * Return the files a given file depends on, ordered by absolute path
+     *
+     * @param file the depending file
+     * @return the dependency files, null dependencies excluded
+     */
+    public File[] getDependencies(File file)
+    {
+        Graph graph = getGraph();
+        int rank = graph.getRank(getId(file, false));
+        if (rank <= 0) {
+            return NO_FILES;
+        }
+        return graph.getFiles(graph.offsets, graph.targets, rank);
+    }
+
+    /**
+     * Return the files depending on a given file, ordered by absolute path
+     *
+     * @param file the dependency file
+     * @return the depending files, null depending files excluded
+     */
+    public File[] getDependents(File file)
+    {
+        Graph graph = getGraph();
+        int rank = graph.getRank(getId(file, false));
+        if (rank <= 0) {
+            return NO_FILES;
+        }
+        return graph.getFiles(graph.getReverseOffsets(), graph.getSources(), rank);
+    }
+
+    /**
+     * Return the transitive reduction of this set: the dependencies already implied by other dependencies are removed,
+     * while any file still reaches the same files through the remaining ones. Dependencies to a null file are kept.
+     *
+     * A dependency from u to v is implied when another dependency of u, on w, reaches v while w does not reach u, and v
+     * does not reach w. Reachability is computed with one bit set per file, so the reduction is word parallel.
+     * Requiring w not to reach u ensures that w reaches v without going back through u, and requiring v not to reach
+     * w prevents files depending on each other from justifying the removal of each other. Dependencies between files
+     * depending on each other are therefore always kept.
+     *
+     * @return a new set holding the transitive reduction of this set
+     */
+    public FileDependencySet getTransitiveReduction()
+    {
+        Graph graph = getGraph();
+        int count = graph.files.length;
+
+        // Files reachable from each file, computed in depth first post order until stable, to account for cycles
+        int[] order = graph.getPostOrder();
+        BitSet[] reach = new BitSet[count];
+        for (int rank = 0; rank < count; rank++) {
+            reach[rank] = new BitSet(count);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < order.length; i++) {
+                int from = order[i];
+                int before = reach[from].cardinality();
+                for (int j = graph.offsets[from]; j < graph.offsets[from + 1]; j++) {
+                    int to = graph.targets[j];
+                    if (to != 0) {
+                        reach[from].set(to);
+                        reach[from].or(reach[to]);
+                    }
+                }
+                changed |= reach[from].cardinality() != before;
+            }
+        }
+
+        // Files reachable from each file, excluding those reaching it back
+        BitSet[] strict = new BitSet[count];
+        for (int rank = 0; rank < count; rank++) {
+            strict[rank] = (BitSet) reach[rank].clone();
+            for (int other = reach[rank].nextSetBit(0); other >= 0; other = reach[rank].nextSetBit(other + 1)) {
+                if (reach[other].get(rank)) {
+                    strict[rank].clear(other);
+                }
+            }
+        }
+
+        int[] classDependencies = graph.getCounts(CLASS_DEPENDENCIES);
+        int[] sources = getSummedSourceCounts(graph);
+        FileDependencySet reduction = new FileDependencySet();
+        BitSet implied = new BitSet(count);
+        for (int from = 0; from < count; from++) {
+            implied.clear();
+            for (int j = graph.offsets[from]; j < graph.offsets[from + 1]; j++) {
+                if (!reach[graph.targets[j]].get(from)) {
+                    implied.or(strict[graph.targets[j]]);
+                }
+            }
+            for (int j = graph.offsets[from]; j < graph.offsets[from + 1]; j++) {
+                int to = graph.targets[j];
+                if (to == 0 || !implied.get(to)) {
+                    reduction.add(graph.files[from], graph.files[to], classDependencies[j], sources[j]);
+                }
+            }
+        }
+        countSourceClasses(graph, reduction, graph.files, graph.files);
+        return reduction;
+    }
+
+    /**
+     * Return the groups of files depending on each other, directly or indirectly. Such cycles cannot be expressed by
+     * Maven dependencies.
+     *
+     * @return the strongly connected components having more than one file, each ordered by absolute path, and ordered
+     *         by their first file
+     */
+    public File[][] getCycles()
+    {
+        Graph graph = getGraph();
+        int[] component = graph.getComponents();
+        int count = graph.files.length;
+
+        int[] sizes = new int[count];
+        for (int rank = 0; rank < count; rank++) {
+            sizes[component[rank]]++;
+        }
+
+        List cycles = new ArrayList();
+        List[] members = new List[count];
+        for (int rank = 0; rank < count; rank++) {
+            int c = component[rank];
+            if (sizes[c] > 1) {
+                if (members[c] == null) {
+                    members[c] = new ArrayList(sizes[c]);
+                    cycles.add(members[c]);
+                }
+                members[c].add(graph.files[rank]);
+            }
+        }
+
+        File[][] result = new File[cycles.size()][];
+        for (int i = 0; i < result.length; i++) {
+            List cycle = (List) cycles.get(i);
+            result[i] = (File[]) cycle.toArray(new File[cycle.size()]);
+        }
+        return result;
+    }
+
+    /**
+     * Return a copy of this set without cycles. Dependencies outside of cycles are kept unchanged.
+     *
+     * When breaking cycles, the dependencies closing a cycle during a depth first walk of the files, in path order,
+     * are dropped. When merging cycles, the first file of each cycle stands for the whole cycle: it depends on the
+     * other files of the cycle, dependencies on any file of the cycle are redirected to it, and dependencies inside the
+     * cycle are otherwise dropped. Depending on the first file then still provides all the files of the cycle. Class
+     * dependencies of the redirected dependencies are summed, while their depending classes are counted once.
+     *
+     * @param merge true to merge the files of each cycle, false to break cycles
+     * @return a new acyclic set
+     */
+    public FileDependencySet getAcyclicDependencies(boolean merge)
+    {
+        Graph graph = getGraph();
+        int count = graph.files.length;
+        int[] classDependencies = graph.getCounts(CLASS_DEPENDENCIES);
+        int[] sources = getSummedSourceCounts(graph);
+        FileDependencySet result = new FileDependencySet();
+
+        if (merge) {
+            int[] component = graph.getComponents();
+            int[] first = new int[count];
+            Arrays.fill(first, -1);
+            for (int rank = 0; rank < count; rank++) {
+                if (first[component[rank]] < 0) {
+                    first[component[rank]] = rank;
+                } else {
+                    result.add(graph.files[first[component[rank]]], graph.files[rank]);
+                }
+            }
+            for (int from = 0; from < count; from++) {
+                for (int j = graph.offsets[from]; j < graph.offsets[from + 1]; j++) {
+                    int to = graph.targets[j];
+                    if (component[from] != component[to]) {
+                        result.add(graph.files[from], graph.files[first[component[to]]], classDependencies[j],
+                            sources[j]);
+                    }
+                }
+            }
+            File[] redirected = new File[count];
+            for (int rank = 0; rank < count; rank++) {
+                redirected[rank] = graph.files[first[component[rank]]];
+            }
+            countSourceClasses(graph, result, graph.files, redirected);
+        } else {
+            boolean[] backEdges = graph.getBackEdges();
+            for (int from = 0; from < count; from++) {
+                for (int j = graph.offsets[from]; j < graph.offsets[from + 1]; j++) {
+                    if (!backEdges[j]) {
+                        result.add(graph.files[from], graph.files[graph.targets[j]], classDependencies[j],
+                            sources[j]);
+                    }
+                }
+            }
+            countSourceClasses(graph, result, graph.files, graph.files);
+        }
+        return result;
+    }
+
+    /**
+     * Return the counts of depending classes to be added to the dependencies of a derived set. These counts are only
+     * added when the depending classes are unknown, and are otherwise counted by {@link #countSourceClasses}.
+     *
+     * @param graph the graph of the dependencies
+     * @return the counts of depending classes, by dependency of the graph
+     */
+    private int[] getSummedSourceCounts(Graph graph)
+    {
+        return (sourceClasses.size() == 0) ? graph.getCounts(SOURCE_CLASSES) : new int[graph.targets.length];
+    }
+
+    /**
+     * Count the depending classes of this set into the dependencies of a derived set, so that a depending class is
+     * counted once per dependency of the derived set, even when files have been merged. Depending classes of the
+     * dependencies missing from the derived set are ignored.
+     *
+     * @param graph the graph of the dependencies
+     * @param result the derived set
+     * @param fromFiles the depending files of the derived set, by rank of the depending files of this set
+     * @param toFiles the dependency files of the derived set, by rank of the dependency files of this set
+     */
+    private void countSourceClasses(Graph graph, FileDependencySet result, File[] fromFiles, File[] toFiles)
+    {
+        long[] counted = sourceClasses.toArray();
+        for (int i = 0; i < counted.length; i++) {
+            int sourceClass = (int) (counted[i] >>> 32);
+            int from = graph.ranks[sourceFiles.get(sourceClass, 0)];
+            int to = graph.ranks[(int) counted[i]];
+            long dependency = result.pack(fromFiles[from], toFiles[to], false);
+            if (dependency != -1 && result.dependencies.contains(dependency)) {
+                result.addSourceClass(dependency, sourceClass);
+            }
+        }
+    }
+
+    /**
+     * Return the graph of the dependencies, building it if the set has been modified since it was last built
+     *
+     * @return the graph of the dependencies
+     */
+    private Graph getGraph()
+    {
+        if (graph == null || graph.modCount != dependencies.getModCount()) {
+            graph = new Graph();
+        }
+        return graph;
+    }
+
+    public Iterator iterator()
+    {
+        final Graph graph = getGraph();
+        return new Iterator()
+        {
+            private int from;
+
+            private int index;
+
+            private int expectedModCount = graph.modCount;
+
+            private long last = -1;
+
+            public boolean hasNext()
+            {
+                return index < graph.targets.length;
+            }
+
+            public Object next()
+            {
+                if (expectedModCount != dependencies.getModCount()) {
+                    throw new ConcurrentModificationException();
+                }
+                if (index >= graph.targets.length) {
+                    throw new NoSuchElementException();
+                }
+                while (graph.offsets[from + 1] <= index) {
+                    from++;
+                }
+                int to = graph.targets[index++];
+                last = ((long) graph.ids[from] << 32) | graph.ids[to];
+                return new FilePair(graph.files[from], graph.files[to]);
+            }
+
+            public void remove()
+            {
+                if (last == -1) {
+                    throw new IllegalStateException();
+                }
+                if (expectedModCount != dependencies.getModCount()) {
+                    throw new ConcurrentModificationException();
+                }
+                dependencies.remove(last);
+                expectedModCount = dependencies.getModCount();
+                last = -1;
+            }
+        };
     }
 
     /**
@@ -82,7 +717,7 @@ public class FileDependencySet extends AbstractDependencySet
      */
     public boolean contains(Object o)
     {
-        return o instanceof FilePair && super.contains(o);
+        return o instanceof FilePair && contains((Pair) o);
     }
 
     public boolean containsAll(Collection c)
@@ -95,6 +730,328 @@ public class FileDependencySet extends AbstractDependencySet
         return super.containsAll(c);
     }
 
+    /**
+     * Compressed sparse row graph of the dependencies. Files are numbered by rank of their absolute path, rank 0
+     * standing for a null file. The dependencies of the file of rank r are the ranks stored in targets from
+     * offsets[r] included to offsets[r + 1] excluded, in ascending order. The reverse graph is built on first use.
+     */
+    private final class Graph
+    {
+        /**
+         * Modification count of the dependencies when this graph has been built
+         */
+        private final int modCount = dependencies.getModCount();
+
+        /**
+         * Files by rank
+         */
+        private final File[] files;
+
+        /**
+         * Ids by rank
+         */
+        private final int[] ids;
+
+        /**
+         * Ranks by id
+         */
+        private final int[] ranks;
+
+        /**
+         * Start of the dependencies of each rank in targets, plus the end of the last one
+         */
+        private final int[] offsets;
+
+        /**
+         * Ranks of the dependency files
+         */
+        private final int[] targets;
+
+        /**
+         * Start of the dependents of each rank in sources, plus the end of the last one
+         */
+        private int[] reverseOffsets;
+
+        /**
+         * Ranks of the depending files
+         */
+        private int[] sources;
+
+        /**
+         * Counters of the dependencies in targets, by counter, built on first use
+         */
+        private final int[][] counts = new int[2][];
+
+        /**
+         * Build the graph of the current dependencies
+         */
+        private Graph()
+        {
+            int count = FileDependencySet.this.files.size() + 1;
+            String[] sorted = (String[]) paths.toArray(new String[count - 1]);
+            Arrays.sort(sorted);
+            files = new File[count];
+            ids = new int[count];
+            ranks = new int[count];
+            for (int rank = 1; rank < count; rank++) {
+                int id = ((Integer) pathIds.get(sorted[rank - 1])).intValue();
+                files[rank] = (File) FileDependencySet.this.files.get(id - 1);
+                ids[rank] = id;
+                ranks[id] = rank;
+            }
+
+            long[] edges = dependencies.toArray();
+            for (int i = 0; i < edges.length; i++) {
+                edges[i] = ((long) ranks[(int) (edges[i] >>> 32)] << 32) | ranks[(int) edges[i]];
+            }
+            Arrays.sort(edges);
+
+            offsets = new int[count + 1];
+            targets = new int[edges.length];
+            for (int i = 0; i < edges.length; i++) {
+                offsets[(int) (edges[i] >>> 32) + 1]++;
+                targets[i] = (int) edges[i];
+            }
+            for (int rank = 0; rank < count; rank++) {
+                offsets[rank + 1] += offsets[rank];
+            }
+        }
+
+        /**
+         * Return the rank of an id
+         *
+         * @param id an id, or -1 for an unknown file
+         * @return the rank of the id, or -1 for an unknown file
+         */
+        private int getRank(int id)
+        {
+            return (id < 0) ? -1 : ranks[id];
+        }
+
+        /**
+         * Return the start of the dependents of each rank, building the reverse graph if needed
+         *
+         * @return the start of the dependents of each rank in sources, plus the end of the last one
+         */
+        private int[] getReverseOffsets()
+        {
+            if (reverseOffsets == null) {
+                int[] reverse = new int[offsets.length];
+                for (int i = 0; i < targets.length; i++) {
+                    reverse[targets[i] + 1]++;
+                }
+                for (int rank = 0; rank < files.length; rank++) {
+                    reverse[rank + 1] += reverse[rank];
+                }
+                // Depending files are visited in ascending order, so each row is filled sorted
+                int[] next = new int[files.length];
+                System.arraycopy(reverse, 0, next, 0, files.length);
+                sources = new int[targets.length];
+                for (int from = 0; from < files.length; from++) {
+                    for (int i = offsets[from]; i < offsets[from + 1]; i++) {
+                        sources[next[targets[i]]++] = from;
+                    }
+                }
+                reverseOffsets = reverse;
+            }
+            return reverseOffsets;
+        }
+
+        /**
+         * Return the ranks of the depending files, building the reverse graph if needed
+         *
+         * @return the ranks of the depending files
+         */
+        private int[] getSources()
+        {
+            getReverseOffsets();
+            return sources;
+        }
+
+        /**
+         * Return a counter of the dependencies, building it if needed
+         *
+         * @param column the counter to return
+         * @return the counter of each dependency in targets
+         */
+        private int[] getCounts(int column)
+        {
+            if (counts[column] == null) {
+                int[] result = new int[targets.length];
+                for (int from = 0; from < files.length; from++) {
+                    for (int i = offsets[from]; i < offsets[from + 1]; i++) {
+                        result[i] = dependencies.get(((long) ids[from] << 32) | ids[targets[i]], column);
+                    }
+                }
+                counts[column] = result;
+            }
+            return counts[column];
+        }
+
+        /**
+         * Return the ranks in depth first post order, so that dependencies mostly come before their dependents
+         *
+         * @return all the ranks in post order
+         */
+        private int[] getPostOrder()
+        {
+            int[] order = new int[files.length];
+            int count = 0;
+            boolean[] visited = new boolean[files.length];
+            int[] stack = new int[files.length];
+            int[] next = new int[files.length];
+            for (int root = 0; root < files.length; root++) {
+                if (visited[root]) {
+                    continue;
+                }
+                int depth = 0;
+                stack[depth] = root;
+                next[depth] = offsets[root];
+                visited[root] = true;
+                while (depth >= 0) {
+                    int rank = stack[depth];
+                    if (next[depth] < offsets[rank + 1]) {
+                        int to = targets[next[depth]++];
+                        if (!visited[to]) {
+                            visited[to] = true;
+                            stack[++depth] = to;
+                            next[depth] = offsets[to];
+                        }
+                    } else {
+                        order[count++] = rank;
+                        depth--;
+                    }
+                }
+            }
+            return order;
+        }
+
+        /**
+         * Return the strongly connected component of each rank, using Tarjan's algorithm. The depth first walk is
+         * iterative, so that long dependency chains cannot overflow the call stack.
+         *
+         * @return the component of each rank, components being numbered in reverse topological order
+         */
+        private int[] getComponents()
+        {
+            int count = files.length;
+            int[] component = new int[count];
+            int[] index = new int[count];
+            int[] lowLink = new int[count];
+            boolean[] onStack = new boolean[count];
+            int[] stack = new int[count];
+            int top = 0;
+            int[] path = new int[count];
+            int[] next = new int[count];
+            int visited = 0;
+            int components = 0;
+            for (int root = 0; root < count; root++) {
+                if (index[root] != 0) {
+                    continue;
+                }
+                int depth = 0;
+                path[depth] = root;
+                next[depth] = offsets[root];
+                index[root] = lowLink[root] = ++visited;
+                stack[top++] = root;
+                onStack[root] = true;
+                while (depth >= 0) {
+                    int rank = path[depth];
+                    if (next[depth] < offsets[rank + 1]) {
+                        int to = targets[next[depth]++];
+                        if (index[to] == 0) {
+                            index[to] = lowLink[to] = ++visited;
+                            stack[top++] = to;
+                            onStack[to] = true;
+                            path[++depth] = to;
+                            next[depth] = offsets[to];
+                        } else if (onStack[to] && index[to] < lowLink[rank]) {
+                            lowLink[rank] = index[to];
+                        }
+                    } else {
+                        if (lowLink[rank] == index[rank]) {
+                            int member;
+                            do {
+                                member = stack[--top];
+                                onStack[member] = false;
+                                component[member] = components;
+                            } while (member != rank);
+                            components++;
+                        }
+                        if (--depth >= 0 && lowLink[rank] < lowLink[path[depth]]) {
+                            lowLink[path[depth]] = lowLink[rank];
+                        }
+                    }
+                }
+            }
+            return component;
+        }
+
+        /**
+         * Return the dependencies closing a cycle during a depth first walk of the ranks in ascending order. Without
+         * them, the graph is acyclic.
+         *
+         * @return for each dependency in targets, true if it leads to a file on the current walk path
+         */
+        private boolean[] getBackEdges()
+        {
+            boolean[] backEdges = new boolean[targets.length];
+            boolean[] visited = new boolean[files.length];
+            boolean[] onPath = new boolean[files.length];
+            int[] path = new int[files.length];
+            int[] next = new int[files.length];
+            for (int root = 0; root < files.length; root++) {
+                if (visited[root]) {
+                    continue;
+                }
+                int depth = 0;
+                path[depth] = root;
+                next[depth] = offsets[root];
+                visited[root] = onPath[root] = true;
+                while (depth >= 0) {
+                    int rank = path[depth];
+                    if (next[depth] < offsets[rank + 1]) {
+                        int edge = next[depth]++;
+                        int to = targets[edge];
+                        if (onPath[to]) {
+                            backEdges[edge] = true;
+                        } else if (!visited[to]) {
+                            visited[to] = onPath[to] = true;
+                            path[++depth] = to;
+                            next[depth] = offsets[to];
+                        }
+                    } else {
+                        onPath[rank] = false;
+                        depth--;
+                    }
+                }
+            }
+            return backEdges;
+        }
+
+        /**
+         * Return the files of a row of the graph, null files excluded
+         *
+         * @param rowOffsets the start of each row
+         * @param row the ranks of all rows
+         * @param rank the row to return
+         * @return the files of the row
+         */
+        private File[] getFiles(int[] rowOffsets, int[] row, int rank)
+        {
+            int start = rowOffsets[rank];
+            int end = rowOffsets[rank + 1];
+            if (start < end && row[start] == 0) {
+                start++;
+            }
+            File[] result = new File[end - start];
+            for (int i = start; i < end; i++) {
+                result[i - start] = files[row[i]];
+            }
+            return result;
+        }
+    }
+
     /**
      * Immutable inner Class used to store pairs of class name dependencies
      */
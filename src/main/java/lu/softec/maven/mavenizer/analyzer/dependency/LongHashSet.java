@@ -0,0 +1,308 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.dependency;
+
+/**
+ * Open addressing hash set of primitive long values.
+ *
+ * Each value may carry a fixed number of int counters, stored in columns parallel to the table. Counters start at 0
+ * when a value is added, and are dropped with the value.
+ */
+final class LongHashSet
+{
+    /**
+     * Initial capacity of the set
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Open addressing table of the values, 0 for empty slots
+     */
+    private long[] table = new long[INITIAL_CAPACITY];
+
+    /**
+     * Counters of the values, by column and by slot
+     */
+    private int[][] columns;
+
+    /**
+     * Counters of the value 0, by column
+     */
+    private final int[] zeroColumn;
+
+    /**
+     * True if the set contains 0, which is not stored in the table
+     */
+    private boolean containsZero;
+
+    /**
+     * Number of values in the set
+     */
+    private int size;
+
+    /**
+     * Number of modifications of the set
+     */
+    private int modCount;
+
+    /**
+     * Construct an empty set without counters
+     */
+    LongHashSet()
+    {
+        this(0);
+    }
+
+    /**
+     * Construct an empty set with counters
+     *
+     * @param columnCount the number of counters of each value
+     */
+    LongHashSet(int columnCount)
+    {
+        columns = new int[columnCount][INITIAL_CAPACITY];
+        zeroColumn = new int[columnCount];
+    }
+
+    /**
+     * Returns the preferred slot of a value
+     *
+     * @param value the value
+     * @param mask the mask of the table size
+     * @return the preferred slot of the value
+     */
+    private static int getHash(long value, int mask)
+    {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Returns the slot where a value is stored, or should be stored
+     *
+     * @param value a value other than 0
+     * @return the slot of the value
+     */
+    private int getSlot(long value)
+    {
+        int mask = table.length - 1;
+        int slot = getHash(value, mask);
+        while (table[slot] != 0 && table[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Add a value
+     *
+     * @param value the value to add
+     * @return true if the set has been changed
+     */
+    boolean add(long value)
+    {
+        if (value == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+        } else {
+            int slot = getSlot(value);
+            if (table[slot] != 0) {
+                return false;
+            }
+            table[slot] = value;
+            if (size * 2 >= table.length) {
+                long[] old = table;
+                int[][] oldColumns = columns;
+                table = new long[old.length * 2];
+                columns = new int[oldColumns.length][table.length];
+                for (int i = 0; i < old.length; i++) {
+                    if (old[i] != 0) {
+                        int newSlot = getSlot(old[i]);
+                        table[newSlot] = old[i];
+                        for (int c = 0; c < columns.length; c++) {
+                            columns[c][newSlot] = oldColumns[c][i];
+                        }
+                    }
+                }
+            }
+        }
+        size++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Add a value if needed, and increment one of its counters
+     *
+     * @param value the value
+     * @param column the counter to increment
+     * @param delta the increment
+     * @return true if the value has been added
+     */
+    boolean add(long value, int column, int delta)
+    {
+        boolean added = add(value);
+        if (value == 0) {
+            zeroColumn[column] += delta;
+        } else {
+            columns[column][getSlot(value)] += delta;
+        }
+        return added;
+    }
+
+    /**
+     * Returns a counter of a value
+     *
+     * @param value the value
+     * @param column the counter to return
+     * @return the counter, or 0 if the set does not contain the value
+     */
+    int get(long value, int column)
+    {
+        if (value == 0) {
+            return containsZero ? zeroColumn[column] : 0;
+        }
+        int slot = getSlot(value);
+        return (table[slot] != 0) ? columns[column][slot] : 0;
+    }
+
+    /**
+     * Check if the set contains a value
+     *
+     * @param value the value to check
+     * @return true if the set contains the value
+     */
+    boolean contains(long value)
+    {
+        return (value == 0) ? containsZero : table[getSlot(value)] != 0;
+    }
+
+    /**
+     * Remove a value. The values following the removed one in its probe sequence are shifted back, so that the table
+     * never contains deleted markers.
+     *
+     * @param value the value to remove
+     * @return true if the set has been changed
+     */
+    boolean remove(long value)
+    {
+        if (value == 0) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            for (int c = 0; c < zeroColumn.length; c++) {
+                zeroColumn[c] = 0;
+            }
+        } else {
+            int mask = table.length - 1;
+            int slot = getSlot(value);
+            if (table[slot] == 0) {
+                return false;
+            }
+            int next = slot;
+            while (true) {
+                table[slot] = 0;
+                for (int c = 0; c < columns.length; c++) {
+                    columns[c][slot] = 0;
+                }
+                long moved;
+                do {
+                    next = (next + 1) & mask;
+                    moved = table[next];
+                    if (moved == 0) {
+                        size--;
+                        modCount++;
+                        return true;
+                    }
+                    // Keep values whose preferred slot lies cyclically in (slot, next]
+                    int home = getHash(moved, mask);
+                    if (slot <= next ? (slot < home && home <= next) : (slot < home || home <= next)) {
+                        continue;
+                    }
+                    break;
+                } while (true);
+                table[slot] = moved;
+                for (int c = 0; c < columns.length; c++) {
+                    columns[c][slot] = columns[c][next];
+                }
+                slot = next;
+            }
+        }
+        size--;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Remove all values
+     */
+    void clear()
+    {
+        if (size > 0) {
+            table = new long[INITIAL_CAPACITY];
+            columns = new int[columns.length][INITIAL_CAPACITY];
+            containsZero = false;
+            for (int c = 0; c < zeroColumn.length; c++) {
+                zeroColumn[c] = 0;
+            }
+            size = 0;
+            modCount++;
+        }
+    }
+
+    /**
+     * Returns the number of values
+     *
+     * @return the number of values
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of modifications of the set, to detect changes
+     *
+     * @return the number of modifications of the set
+     */
+    int getModCount()
+    {
+        return modCount;
+    }
+
+    /**
+     * Returns the values of the set
+     *
+     * @return a new array holding the values of the set, in no particular order
+     */
+    long[] toArray()
+    {
+        long[] values = new long[size];
+        int count = 0;
+        if (containsZero) {
+            values[count++] = 0;
+        }
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] != 0) {
+                values[count++] = table[i];
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.dependency;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import lu.softec.maven.mavenizer.analyzer.ClassWalkerRuntimeException;
+
+/**
+ * Set of long values spilled to disk, as runs of sorted distinct values stored in temporary files.
+ *
+ * Runs are read through memory mapped windows, so that they do not use the heap whatever their size. The same value
+ * may occur in several runs, duplicates are only eliminated when runs are merged. I/O failures are reported by
+ * throwing a {@link ClassWalkerRuntimeException} on the failing file.
+ */
+final class SortedLongRuns
+{
+    /**
+     * Number of values mapped at once while reading a run
+     */
+    private static final int WINDOW_SIZE = 1 << 20;
+
+    /**
+     * Mapping of the values, used to sort runs by another key
+     */
+    interface Mapping
+    {
+        /**
+         * Map a value
+         *
+         * @param value the value to map
+         * @return the mapped value
+         */
+        long map(long value);
+    }
+
+    /**
+     * Cursor over sorted values
+     */
+    interface Cursor
+    {
+        /**
+         * Move to the next value
+         *
+         * @return true if there is a next value
+         */
+        boolean next();
+
+        /**
+         * Returns the current value
+         *
+         * @return the current value
+         */
+        long getValue();
+    }
+
+    /**
+     * Directory of the run files
+     */
+    private final File directory;
+
+    /**
+     * Runs, in creation order
+     */
+    private final List runs = new ArrayList();
+
+    /**
+     * Construct an empty set of runs
+     *
+     * @param directory the directory of the run files, created if needed
+     */
+    SortedLongRuns(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns true if no run has been written
+     *
+     * @return true if no run has been written
+     */
+    boolean isEmpty()
+    {
+        return runs.isEmpty();
+    }
+
+    /**
+     * Returns the number of values of the runs, including duplicates between runs
+     *
+     * @return the number of values of the runs
+     */
+    long getCount()
+    {
+        long count = 0;
+        for (Iterator it = runs.iterator(); it.hasNext();) {
+            count += ((Run) it.next()).count;
+        }
+        return count;
+    }
+
+    /**
+     * Write a new run
+     *
+     * @param values buffer of sorted distinct values
+     * @param count number of values of the buffer to write
+     */
+    void add(long[] values, int count)
+    {
+        if (count > 0) {
+            runs.add(write(new ArrayCursor(values, count)));
+        }
+    }
+
+    /**
+     * Check if any run contains a value
+     *
+     * @param value the value to check
+     * @return true if any run contains the value
+     */
+    boolean contains(long value)
+    {
+        for (Iterator it = runs.iterator(); it.hasNext();) {
+            if (((Run) it.next()).contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Merge all the runs and some sorted distinct values into a single run without duplicates
+     *
+     * @param values buffer of sorted distinct values
+     * @param count number of values of the buffer to merge
+     * @return the number of distinct values
+     */
+    long compact(long[] values, int count)
+    {
+        if (runs.size() == 1 && count == 0) {
+            return ((Run) runs.get(0)).count;
+        }
+        List cursors = new ArrayList();
+        for (Iterator it = runs.iterator(); it.hasNext();) {
+            cursors.add(((Run) it.next()).cursor());
+        }
+        cursors.add(new ArrayCursor(values, count));
+        Run run = write(new MergeCursor(cursors));
+        clear();
+        runs.add(run);
+        return run.count;
+    }
+
+    /**
+     * Returns a cursor over the values of all runs, sorted without duplicates
+     *
+     * @return a cursor over the sorted values
+     */
+    Cursor cursor()
+    {
+        List cursors = new ArrayList();
+        for (Iterator it = runs.iterator(); it.hasNext();) {
+            cursors.add(((Run) it.next()).cursor());
+        }
+        return new MergeCursor(cursors);
+    }
+
+    /**
+     * Returns a cursor over the mapped values of all runs, sorted without duplicates. Values are mapped and sorted by
+     * chunks into temporary runs, which are deleted once the cursor is exhausted.
+     *
+     * @param mapping the mapping of the values
+     * @param chunkSize the number of values sorted at once in memory
+     * @return a cursor over the sorted mapped values
+     */
+    Cursor sort(Mapping mapping, int chunkSize)
+    {
+        final SortedLongRuns sorted = new SortedLongRuns(directory);
+        long[] chunk = new long[chunkSize];
+        for (Iterator it = runs.iterator(); it.hasNext();) {
+            Cursor cursor = ((Run) it.next()).cursor();
+            int count = 0;
+            while (true) {
+                boolean more = cursor.next();
+                if (more) {
+                    chunk[count++] = mapping.map(cursor.getValue());
+                }
+                if (count == chunkSize || (!more && count > 0)) {
+                    Arrays.sort(chunk, 0, count);
+                    sorted.add(chunk, distinct(chunk, count));
+                    count = 0;
+                }
+                if (!more) {
+                    break;
+                }
+            }
+        }
+
+        List cursors = new ArrayList();
+        for (Iterator it = sorted.runs.iterator(); it.hasNext();) {
+            cursors.add(((Run) it.next()).cursor());
+        }
+        final Cursor merge = new MergeCursor(cursors);
+        return new Cursor()
+        {
+            public boolean next()
+            {
+                if (merge.next()) {
+                    return true;
+                }
+                sorted.clear();
+                return false;
+            }
+
+            public long getValue()
+            {
+                return merge.getValue();
+            }
+        };
+    }
+
+    /**
+     * Remove duplicates from sorted values
+     *
+     * @param values buffer of sorted values
+     * @param count number of values of the buffer
+     * @return the number of distinct values moved at the start of the buffer
+     */
+    static int distinct(long[] values, int count)
+    {
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || values[distinct - 1] != values[i]) {
+                values[distinct++] = values[i];
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Delete all runs
+     */
+    void clear()
+    {
+        for (Iterator it = runs.iterator(); it.hasNext();) {
+            ((Run) it.next()).file.delete();
+        }
+        runs.clear();
+    }
+
+    /**
+     * Write a run of sorted values
+     *
+     * @param cursor cursor over the sorted distinct values to write
+     * @return the new run
+     */
+    private Run write(Cursor cursor)
+    {
+        File file = null;
+        try {
+            directory.mkdirs();
+            file = File.createTempFile("dependencies", ".run", directory);
+            file.deleteOnExit();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+            long count = 0;
+            try {
+                while (cursor.next()) {
+                    out.writeLong(cursor.getValue());
+                    count++;
+                }
+            } finally {
+                out.close();
+            }
+            return new Run(file, count);
+        } catch (IOException e) {
+            if (file != null) {
+                file.delete();
+            }
+            throw new ClassWalkerRuntimeException(directory, e);
+        }
+    }
+
+    /**
+     * Run of sorted distinct values stored in a file
+     */
+    private static final class Run
+    {
+        /**
+         * File storing the values
+         */
+        private final File file;
+
+        /**
+         * Number of values
+         */
+        private final long count;
+
+        /**
+         * Index of the first value of the currently mapped window
+         */
+        private long windowStart = -1;
+
+        /**
+         * Currently mapped window
+         */
+        private LongBuffer window;
+
+        /**
+         * Construct a run over a file
+         *
+         * @param file the file storing the values
+         * @param count the number of values
+         */
+        private Run(File file, long count)
+        {
+            this.file = file;
+            this.count = count;
+        }
+
+        /**
+         * Returns the value at a given index, mapping the window containing that index when needed
+         *
+         * @param index the index of the value
+         * @return the value
+         */
+        private long get(long index)
+        {
+            long start = index - index % WINDOW_SIZE;
+            if (start != windowStart) {
+                try {
+                    RandomAccessFile raf = new RandomAccessFile(file, "r");
+                    try {
+                        window = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, start * 8,
+                            Math.min(WINDOW_SIZE, count - start) * 8).asLongBuffer();
+                    } finally {
+                        raf.close();
+                    }
+                } catch (IOException e) {
+                    throw new ClassWalkerRuntimeException(file, e);
+                }
+                windowStart = start;
+            }
+            return window.get((int) (index - start));
+        }
+
+        /**
+         * Check if this run contains a value
+         *
+         * @param value the value to check
+         * @return true if this run contains the value
+         */
+        private boolean contains(long value)
+        {
+            long low = 0;
+            long high = count - 1;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                long v = get(mid);
+                if (v < value) {
+                    low = mid + 1;
+                } else if (v > value) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns a cursor over the values of this run, using its own mapped windows
+         *
+         * @return a new cursor over the values of this run
+         */
+        private Cursor cursor()
+        {
+            final Run reader = new Run(file, count);
+            return new Cursor()
+            {
+                /**
+                 * Index of the current value
+                 */
+                private long index = -1;
+
+                public boolean next()
+                {
+                    return ++index < reader.count;
+                }
+
+                public long getValue()
+                {
+                    return reader.get(index);
+                }
+            };
+        }
+    }
+
+    /**
+     * Cursor over a buffer of sorted values
+     */
+    private static final class ArrayCursor implements Cursor
+    {
+        /**
+         * Buffer of sorted values
+         */
+        private final long[] values;
+
+        /**
+         * Number of values of the buffer
+         */
+        private final int count;
+
+        /**
+         * Index of the current value
+         */
+        private int index = -1;
+
+        /**
+         * Construct a cursor over a buffer
+         *
+         * @param values buffer of sorted values
+         * @param count number of values of the buffer
+         */
+        private ArrayCursor(long[] values, int count)
+        {
+            this.values = values;
+            this.count = count;
+        }
+
+        public boolean next()
+        {
+            return ++index < count;
+        }
+
+        public long getValue()
+        {
+            return values[index];
+        }
+    }
+
+    /**
+     * Cursor merging sorted cursors, skipping duplicates
+     */
+    private static final class MergeCursor implements Cursor
+    {
+        /**
+         * Cursors not yet exhausted
+         */
+        private final Cursor[] cursors;
+
+        /**
+         * Current value of each cursor
+         */
+        private final long[] heads;
+
+        /**
+         * Number of cursors not yet exhausted
+         */
+        private int active;
+
+        /**
+         * Current value
+         */
+        private long value;
+
+        /**
+         * True until the first value is returned
+         */
+        private boolean first = true;
+
+        /**
+         * Construct a cursor merging other cursors
+         *
+         * @param cursors the {@link Cursor}s to merge
+         */
+        private MergeCursor(List cursors)
+        {
+            this.cursors = new Cursor[cursors.size()];
+            this.heads = new long[cursors.size()];
+            for (Iterator it = cursors.iterator(); it.hasNext();) {
+                Cursor cursor = (Cursor) it.next();
+                if (cursor.next()) {
+                    this.cursors[active] = cursor;
+                    heads[active++] = cursor.getValue();
+                }
+            }
+        }
+
+        public boolean next()
+        {
+            while (active > 0) {
+                int min = 0;
+                for (int i = 1; i < active; i++) {
+                    if (heads[i] < heads[min]) {
+                        min = i;
+                    }
+                }
+                long head = heads[min];
+                if (cursors[min].next()) {
+                    heads[min] = cursors[min].getValue();
+                } else {
+                    active--;
+                    cursors[min] = cursors[active];
+                    heads[min] = heads[active];
+                    cursors[active] = null;
+                }
+                if (first || head != value) {
+                    first = false;
+                    value = head;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public long getValue()
+        {
+            return value;
+        }
+    }
+}
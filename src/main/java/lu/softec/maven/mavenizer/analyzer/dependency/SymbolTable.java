@@ -0,0 +1,297 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.dependency;
+
+import java.util.Arrays;
+
+/**
+ * Thread safe table interning names to int ids.
+ *
+ * Names are stored once, and could be compared through their ids. This allows storing relations between names as
+ * primitive values instead of objects holding strings. The table is split into stripes selected by the hash code of
+ * the names, each guarded by its own lock, so that several threads could intern names concurrently. Ids are made of
+ * the index of the name in its stripe and the index of the stripe, so they are not consecutive, but stay below
+ * {@link #getIdLimit()}.
+ */
+public final class SymbolTable
+{
+    /**
+     * Number of bits of the ids holding the stripe index
+     */
+    private static final int STRIPE_BITS = 4;
+
+    /**
+     * Mask of the stripe index in the ids
+     */
+    private static final int STRIPE_MASK = (1 << STRIPE_BITS) - 1;
+
+    /**
+     * Stripes of the table
+     */
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+    /**
+     * Ids sorted by name, null when not yet built
+     */
+    private int[] sortedIds;
+
+    /**
+     * Construct an empty table
+     */
+    public SymbolTable()
+    {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Returns the index of the stripe holding a name
+     *
+     * @param hash the hash code of the name
+     * @return the index of the stripe
+     */
+    private static int getStripe(int hash)
+    {
+        return (hash ^ (hash >>> 16)) & STRIPE_MASK;
+    }
+
+    /**
+     * Returns the id of a name, interning it when needed
+     *
+     * @param name the name
+     * @return the id of the name
+     */
+    public int intern(String name)
+    {
+        int hash = name.hashCode();
+        int stripe = getStripe(hash);
+        return (stripes[stripe].intern(name, hash) << STRIPE_BITS) | stripe;
+    }
+
+    /**
+     * Returns the id of a name, without interning it
+     *
+     * @param name the name
+     * @return the id of the name, or -1 if the name has not been interned
+     */
+    public int lookup(String name)
+    {
+        int hash = name.hashCode();
+        int stripe = getStripe(hash);
+        int index = stripes[stripe].lookup(name, hash);
+        return (index < 0) ? -1 : (index << STRIPE_BITS) | stripe;
+    }
+
+    /**
+     * Returns the name of an id
+     *
+     * @param id the id
+     * @return the name interned with that id
+     */
+    public String getName(int id)
+    {
+        return stripes[id & STRIPE_MASK].getName(id >>> STRIPE_BITS);
+    }
+
+    /**
+     * Returns the number of interned names
+     *
+     * @return the number of interned names
+     */
+    public int size()
+    {
+        int size = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            size += stripes[i].size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns an upper bound of the ids interned so far
+     *
+     * @return a value greater than all ids interned so far
+     */
+    public int getIdLimit()
+    {
+        int limit = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            limit = Math.max(limit, stripes[i].size() << STRIPE_BITS);
+        }
+        return limit;
+    }
+
+    /**
+     * Returns the ids sorted by the natural order of their names. The returned array is shared, and should not be
+     * modified. Names interned concurrently may be missing from the result.
+     *
+     * @return the ids sorted by name
+     */
+    public synchronized int[] getSortedIds()
+    {
+        if (sortedIds == null || sortedIds.length != size()) {
+            String[][] names = new String[stripes.length][];
+            int count = 0;
+            for (int i = 0; i < stripes.length; i++) {
+                names[i] = stripes[i].getNames();
+                count += names[i].length;
+            }
+            String[] sorted = new String[count];
+            count = 0;
+            for (int i = 0; i < stripes.length; i++) {
+                System.arraycopy(names[i], 0, sorted, count, names[i].length);
+                count += names[i].length;
+            }
+            Arrays.sort(sorted);
+            sortedIds = new int[count];
+            for (int i = 0; i < count; i++) {
+                sortedIds[i] = lookup(sorted[i]);
+            }
+        }
+        return sortedIds;
+    }
+
+    /**
+     * Stripe of the table, interning names to consecutive indexes
+     */
+    private static final class Stripe
+    {
+        /**
+         * Initial capacity of a stripe
+         */
+        private static final int INITIAL_CAPACITY = 16;
+
+        /**
+         * Interned names, by index
+         */
+        private String[] names = new String[INITIAL_CAPACITY];
+
+        /**
+         * Hash codes of the interned names, by index
+         */
+        private int[] hashes = new int[INITIAL_CAPACITY];
+
+        /**
+         * Open addressing table of the indexes plus one, 0 for empty slots
+         */
+        private int[] table = new int[INITIAL_CAPACITY * 2];
+
+        /**
+         * Number of interned names
+         */
+        private int size;
+
+        /**
+         * Returns the slot of the table where a name is stored, or should be stored
+         *
+         * @param name the name
+         * @param hash the hash code of the name
+         * @return the slot of the name
+         */
+        private int getSlot(String name, int hash)
+        {
+            int mask = table.length - 1;
+            int slot = (hash >>> STRIPE_BITS ^ hash >>> 20) & mask;
+            while (true) {
+                int index = table[slot] - 1;
+                if (index < 0 || (hashes[index] == hash && names[index].equals(name))) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Returns the index of a name, interning it when needed
+         *
+         * @param name the name
+         * @param hash the hash code of the name
+         * @return the index of the name in this stripe
+         */
+        private synchronized int intern(String name, int hash)
+        {
+            int slot = getSlot(name, hash);
+            if (table[slot] != 0) {
+                return table[slot] - 1;
+            }
+
+            if (size == names.length) {
+                String[] newNames = new String[size * 2];
+                System.arraycopy(names, 0, newNames, 0, size);
+                names = newNames;
+                int[] newHashes = new int[size * 2];
+                System.arraycopy(hashes, 0, newHashes, 0, size);
+                hashes = newHashes;
+                table = new int[size * 4];
+                for (int index = 0; index < size; index++) {
+                    table[getSlot(names[index], hashes[index])] = index + 1;
+                }
+                slot = getSlot(name, hash);
+            }
+
+            names[size] = name;
+            hashes[size] = hash;
+            table[slot] = ++size;
+            return size - 1;
+        }
+
+        /**
+         * Returns the index of a name, without interning it
+         *
+         * @param name the name
+         * @param hash the hash code of the name
+         * @return the index of the name in this stripe, or -1 if the name has not been interned
+         */
+        private synchronized int lookup(String name, int hash)
+        {
+            return table[getSlot(name, hash)] - 1;
+        }
+
+        /**
+         * Returns the name interned at an index
+         *
+         * @param index the index in this stripe
+         * @return the name interned at that index
+         */
+        private synchronized String getName(int index)
+        {
+            return names[index];
+        }
+
+        /**
+         * Returns the number of interned names
+         *
+         * @return the number of interned names
+         */
+        private synchronized int size()
+        {
+            return size;
+        }
+
+        /**
+         * Returns the names interned so far
+         *
+         * @return a new array of the names interned so far
+         */
+        private synchronized String[] getNames()
+        {
+            String[] result = new String[size];
+            System.arraycopy(names, 0, result, 0, size);
+            return result;
+        }
+    }
+}
@@ -18,9 +18,11 @@ package lu.softec.maven.mavenizer.analyzer.mavenasm;
 import java.io.IOException;
 import java.io.InputStream;
 
+import org.codehaus.plexus.util.IOUtil;
 import org.objectweb.asm.ClassReader;
 
 import lu.softec.maven.mavenizer.analyzer.AbstractClassWalkListener;
+import lu.softec.maven.mavenizer.analyzer.ClassBytesWalkListener;
 import lu.softec.maven.mavenizer.analyzer.ClassWalkerRuntimeException;
 
 /**
@@ -33,6 +35,7 @@ import lu.softec.maven.mavenizer.analyzer.ClassWalkerRuntimeException;
  * methods or provide accurate values by overriding getCurrentFile, getClassCount and incrementClassCount.
  */
 public abstract class AbstractClassWalkVisitorListener extends AbstractClassWalkListener
+    implements ClassBytesWalkListener
 {
     /**
      * The class analyser visitor linked to this listener.
@@ -50,29 +53,47 @@ public abstract class AbstractClassWalkVisitorListener extends AbstractClassWalk
     }
 
     /**
-     * Implement libraryWalkProcessClass of interface ClassWalkListener to visit class using a {@link
-     * org.objectweb.asm.ClassReader} and the provided {@link FileAwareClassVisitor}. Potential IOException are catched
+     * Implement libraryWalkProcessClass of interface ClassWalkListener by reading the whole class bytecode and
+     * visiting it like {@link #libraryWalkProcessClass(int, byte[], int, int)}. Potential IOException are catched
      * and passed to the listener error method.
      *
-     * Before the visit, the visitor setFile and setClassPosition methods are called with values from getCurrentFile()
-     * and getClassCount(). After the visit, these methods are called again with values null and -1 respectively and
-     * than incrementClassCount is called.
-     *
      * @param progress the approximative percentage of progress in the current walked file. For .class file, always
      * 100%.
      * @param in an input stream to read the class bytecode. This stream SHOULD NEVER be closed.
      */
     public void libraryWalkProcessClass(int progress, InputStream in)
     {
+        byte[] bytecode;
         try {
-            visitor.setFile(getCurrentFile());
-            visitor.setClassPosition(getClassCount());
-            new ClassReader(in).accept(visitor, ClassReader.SKIP_DEBUG ^ ClassReader.EXPAND_FRAMES);
-            visitor.setFile(null);
-            visitor.setClassPosition(-1);
-            incrementClassCount();
+            bytecode = IOUtil.toByteArray(in);
         } catch (IOException e) {
             throw new ClassWalkerRuntimeException(getCurrentFile(), e);
         }
+        libraryWalkProcessClass(progress, bytecode, 0, bytecode.length);
+    }
+
+    /**
+     * Implement libraryWalkProcessClass of interface ClassBytesWalkListener to visit class using a {@link
+     * org.objectweb.asm.ClassReader} and the provided {@link FileAwareClassVisitor}. The class is parsed straight from
+     * the provided buffer, without any copy.
+     *
+     * Before the visit, the visitor setFile and setClassPosition methods are called with values from getCurrentFile()
+     * and getClassCount(). After the visit, these methods are called again with values null and -1 respectively and
+     * than incrementClassCount is called.
+     *
+     * @param progress the approximative percentage of progress in the current walked file. For .class file, always
+     * 100%.
+     * @param bytecode buffer containing the class bytecode. This buffer SHOULD NEVER be modified.
+     * @param offset offset of the class bytecode in the buffer
+     * @param length length of the class bytecode in the buffer
+     */
+    public void libraryWalkProcessClass(int progress, byte[] bytecode, int offset, int length)
+    {
+        visitor.setFile(getCurrentFile());
+        visitor.setClassPosition(getClassCount());
+        new ClassReader(bytecode, offset, length).accept(visitor, ClassReader.SKIP_DEBUG ^ ClassReader.EXPAND_FRAMES);
+        visitor.setFile(null);
+        visitor.setClassPosition(-1);
+        incrementClassCount();
     }
 }
@@ -16,6 +16,8 @@
 package lu.softec.maven.mavenizer.analyzer.mavenasm;
 
 import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import org.objectweb.asm.commons.EmptyVisitor;
 import org.objectweb.asm.commons.Remapper;
@@ -28,11 +30,6 @@ import lu.softec.maven.mavenizer.analyzer.ClassAnalyser;
  */
 public class ClassDependencyVisitor extends RemappingClassAdapter implements FileAwareClassVisitor
 {
-    /**
-     * Internal {@link ClassDependencyVisitor.ClassDependencyRemapper} used to discover dependencies
-     */
-    private static final ClassDependencyRemapper depsRemapper = new ClassDependencyRemapper();
-
     /**
      * Associated ClassAnalyser.
      */
@@ -48,6 +45,11 @@ public class ClassDependencyVisitor extends RemappingClassAdapter implements Fil
      */
     private String currentClass;
 
+    /**
+     * Dependencies of the currently visited class, collected without duplicates until the end of the visit
+     */
+    private final Set dependencies = new LinkedHashSet();
+
     /**
      * Construct an instance associated with the provided analyser.
      *
@@ -55,9 +57,9 @@ public class ClassDependencyVisitor extends RemappingClassAdapter implements Fil
      */
     public ClassDependencyVisitor(ClassAnalyser analyser)
     {
-        super(new EmptyVisitor(), depsRemapper);
+        super(new EmptyVisitor(), new ClassDependencyRemapper());
         this.analyser = analyser;
-        depsRemapper.setVisitor(this);
+        ((ClassDependencyRemapper) remapper).setVisitor(this);
     }
 
     /**
@@ -88,6 +90,7 @@ public class ClassDependencyVisitor extends RemappingClassAdapter implements Fil
     private void setCurrentClass(String name)
     {
         currentClass = name;
+        dependencies.clear();
         if (currentFile != null && analyser != null) {
             analyser.addClass(currentFile, name);
             analyser.addDependency(currentClass, null);
@@ -95,16 +98,14 @@ public class ClassDependencyVisitor extends RemappingClassAdapter implements Fil
     }
 
     /**
-     * Feed the associated analyser with a new dependency between the currently visited class and the provided
-     * dependency name
+     * Collect a new dependency between the currently visited class and the provided dependency name. The associated
+     * analyser is fed once with all the dependencies collected when the visit of the class ends.
      *
      * @param name the name of dependency of the current class
      */
     private void addDependency(String name)
     {
-        if (analyser != null) {
-            analyser.addDependency(currentClass, name);
-        }
+        dependencies.add(name);
     }
 
     /**
@@ -123,6 +124,18 @@ public class ClassDependencyVisitor extends RemappingClassAdapter implements Fil
         super.visit(version, access, name, signature, superName, interfaces);
     }
 
+    /**
+     * Feed the associated analyser with the dependencies collected during the visit of the current class
+     */
+    public void visitEnd()
+    {
+        super.visitEnd();
+        if (analyser != null && !dependencies.isEmpty()) {
+            analyser.addDependencies(currentClass, dependencies);
+        }
+        dependencies.clear();
+    }
+
     /**
      * Internal static inner class extending {@link org.objectweb.asm.commons.Remapper} used to discover dependencies
      */
@@ -16,23 +16,148 @@
 package lu.softec.maven.mavenizer.analyzer.mavenasm;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.maven.plugin.logging.Log;
 
+import lu.softec.maven.mavenizer.analyzer.ArchiveEntryFile;
+import lu.softec.maven.mavenizer.analyzer.ClassNameWalkListener;
+import lu.softec.maven.mavenizer.analyzer.ClassWalkListener;
+import lu.softec.maven.mavenizer.analyzer.ClassWalkerRuntimeException;
+import lu.softec.maven.mavenizer.analyzer.ForkableClassWalkListener;
 import lu.softec.maven.mavenizer.analyzer.dependency.ClassDependencyAnalyser;
+import lu.softec.maven.mavenizer.analyzer.dependency.ClassDependencyCache;
 
 /**
  * Specialized {@link AbstractClassWalkVisitorListener} using a {@link ClassDependencyVisitor} to visit classes and
  * logging informational and error messages into a {@link org.apache.maven.plugin.logging.Log}.
+ *
+ * This listener could be forked to walk libraries concurrently, each fork feeding its own fork of the analyser.
+ *
+ * When requested, classes are not visited with ASM but parsed by a {@link ConstantPoolDependencyExtractor}, which finds
+ * the same dependencies several times faster.
+ *
+ * When a {@link ClassDependencyCache} is set, the classes and the dependencies of libraries found in the cache are
+ * loaded from the cache when the library is opened, and the classes of these libraries are ignored, and even not
+ * inflated from archives. Other libraries are recorded into the cache once completely analysed.
+ *
+ * The bytecode of each class is digested, so that the analyser could tell identical copies of a class from divergent
+ * ones. A library whose content is identical to a library already analysed during the walk is not analysed again: its
+ * classes are added to the analyser with the digests found in the first copy, while its dependencies, being the same
+ * dependencies between the same classes, are already known. Since only libraries having the same name and size could
+ * be identical, the content of a library is only digested when a cache is set, or when a library of the same name
+ * and size has already been analysed.
  */
 public class ClassWalkDependencyVisitorListener extends AbstractClassWalkVisitorListener
+    implements ForkableClassWalkListener, ClassNameWalkListener
 {
     protected final Log logger;
 
+    /**
+     * Analyser fed by this listener
+     */
+    private final ClassDependencyAnalyser analyser;
+
+    /**
+     * True if this listener is a fork, which report walked files when joined instead of when closed
+     */
+    private final boolean forked;
+
+    /**
+     * Messages reporting the files walked by this fork
+     */
+    private final List walkedFiles = new ArrayList();
+
+    /**
+     * Extractor used instead of the visitor, null to visit classes with ASM
+     */
+    private final ConstantPoolDependencyExtractor extractor;
+
+    /**
+     * Recorder of the classes and dependencies found, forwarding them to the analyser
+     */
+    private final ClassDependencyCache.Recorder recorder;
+
+    /**
+     * Cache of analysed libraries, null if libraries are not cached
+     */
+    private ClassDependencyCache cache;
+
+    /**
+     * Key of the current file in the cache, null if the current file is neither cached nor compared to other libraries
+     */
+    private String cacheKey;
+
+    /**
+     * Number of classes of the current file loaded from the cache, -1 if the current file is analysed
+     */
+    private int cachedClasses = -1;
+
+    /**
+     * Libraries analysed during the walk, as {@link List} of {@link WalkedLibrary} keyed by their name and size, shared
+     * with forks
+     */
+    private final Map walkedLibraries;
+
+    /**
+     * Library identical to the current file, null if the current file is not a copy of a library already analysed
+     */
+    private File identicalFile;
+
     public ClassWalkDependencyVisitorListener(ClassDependencyAnalyser analyser, Log logger)
     {
-        super(new ClassDependencyVisitor(analyser));
+        this(analyser, logger, false);
+    }
+
+    /**
+     * Construct a listener feeding an analyser
+     *
+     * @param analyser the analyser to feed
+     * @param logger the logger receiving informational and debug messages
+     * @param constantPoolOnly true to parse classes with a {@link ConstantPoolDependencyExtractor} instead of visiting
+     * them with ASM
+     */
+    public ClassWalkDependencyVisitorListener(ClassDependencyAnalyser analyser, Log logger, boolean constantPoolOnly)
+    {
+        this(analyser, new ClassDependencyCache.Recorder(analyser), logger, constantPoolOnly, new HashMap(), false);
+    }
+
+    private ClassWalkDependencyVisitorListener(ClassDependencyAnalyser analyser,
+        ClassDependencyCache.Recorder recorder, Log logger, boolean constantPoolOnly, Map walkedLibraries,
+        boolean forked)
+    {
+        super(new ClassDependencyVisitor(recorder));
         this.logger = logger;
+        this.analyser = analyser;
+        this.recorder = recorder;
+        this.walkedLibraries = walkedLibraries;
+        this.forked = forked;
+        this.extractor = constantPoolOnly ? new ConstantPoolDependencyExtractor(recorder) : null;
+    }
+
+    /**
+     * Returns the cache of analysed libraries
+     *
+     * @return the cache of analysed libraries, null if libraries are not cached
+     */
+    public ClassDependencyCache getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Set the cache of analysed libraries
+     *
+     * @param cache the cache of analysed libraries, null to analyse all libraries
+     */
+    public void setCache(ClassDependencyCache cache)
+    {
+        this.cache = cache;
     }
 
     public void libraryWalkStarted(File file)
@@ -40,12 +165,189 @@ public class ClassWalkDependencyVisitorListener extends AbstractClassWalkVisitor
         logger.info("Analysing dependencies in classes from " + file.getAbsolutePath());
     }
 
+    /**
+     * Add the classes of the file from an identical library already analysed, or load the classes and the
+     * dependencies of the file from the cache when available, or start recording them.
+     *
+     * @param progress the approximative percentage of progress in the whole walk.
+     * @param file the library file
+     */
+    public void libraryWalkFileOpened(int progress, File file)
+    {
+        super.libraryWalkFileOpened(progress, file);
+        recorder.stop();
+        cacheKey = null;
+        cachedClasses = -1;
+        identicalFile = null;
+
+        if (!(file instanceof ArchiveEntryFile) && !file.isFile()) {
+            // Class trees are neither cached nor compared
+            return;
+        }
+
+        WalkedLibrary[] candidates;
+        synchronized (walkedLibraries) {
+            List walked = (List) walkedLibraries.get(getSignature(file));
+            candidates = (walked != null) ? (WalkedLibrary[]) walked.toArray(new WalkedLibrary[walked.size()]) : null;
+        }
+        if (cache != null || candidates != null) {
+            try {
+                cacheKey = ClassDependencyCache.getKey(file);
+            } catch (IOException e) {
+                logger.warn("Unable to compute the digest of " + file.getAbsolutePath() + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        WalkedLibrary walked = null;
+        for (int i = 0; cacheKey != null && candidates != null && i < candidates.length; i++) {
+            if (cacheKey.equals(candidates[i].getKey())) {
+                walked = candidates[i];
+                break;
+            }
+        }
+        if (walked != null) {
+            for (int i = 0; i < walked.names.length; i++) {
+                analyser.addClass(file, walked.names[i], walked.digests[i]);
+            }
+            cachedClasses = walked.names.length;
+            identicalFile = walked.file;
+            return;
+        }
+
+        if (cache != null && cacheKey != null) {
+            cachedClasses = cache.load(cacheKey, file, analyser);
+        }
+        if (cachedClasses == -1) {
+            recorder.start();
+        }
+    }
+
+    /**
+     * Ignore the classes of files loaded from the cache, without reading them.
+     *
+     * @param progress the approximative percentage of progress in the current walked file.
+     * @param entryName the name of the entry of the class in the archive
+     * @return true if the current file has been loaded from the cache
+     */
+    public boolean libraryWalkProcessClassName(int progress, String entryName)
+    {
+        return cachedClasses != -1;
+    }
+
+    /**
+     * Tell if the current file has been loaded from the cache.
+     *
+     * @return true if the current file has been loaded from the cache
+     */
+    public boolean isLibraryWalkFileProcessed()
+    {
+        return cachedClasses != -1;
+    }
+
     public void libraryWalkFileClosed()
     {
-        logger.info("Analysed " + getClassCount() + " classes in file " + getCurrentFile().getAbsolutePath());
+        String message;
+        if (identicalFile != null) {
+            message = "Skipped " + cachedClasses + " classes of file " + getCurrentFile().getAbsolutePath() +
+                ", identical to " + identicalFile.getAbsolutePath();
+        } else if (cachedClasses != -1) {
+            message = "Loaded " + cachedClasses + " classes of file " + getCurrentFile().getAbsolutePath() +
+                " from cache";
+        } else {
+            message = "Analysed " + getClassCount() + " classes in file " + getCurrentFile().getAbsolutePath();
+        }
+        if (recorder.isRecording()) {
+            recorder.stop();
+            String signature = getSignature(getCurrentFile());
+            synchronized (walkedLibraries) {
+                List walked = (List) walkedLibraries.get(signature);
+                if (walked == null) {
+                    walked = new ArrayList();
+                    walkedLibraries.put(signature, walked);
+                }
+                walked.add(new WalkedLibrary(getCurrentFile(), cacheKey, recorder.getClassNames(),
+                    recorder.getClassDigests()));
+            }
+            if (cache != null && cacheKey != null) {
+                try {
+                    cache.store(cacheKey, recorder);
+                } catch (IOException e) {
+                    logger.warn("Unable to cache the analysis of " + getCurrentFile().getAbsolutePath() + ": " +
+                        e.getMessage());
+                }
+            }
+        }
+        if (forked) {
+            walkedFiles.add(message);
+        } else {
+            logger.info(message);
+        }
         super.libraryWalkFileClosed();
     }
 
+    /**
+     * Ignore the class if the current file has been loaded from the cache. Otherwise, extract the dependencies of the
+     * class using the {@link ConstantPoolDependencyExtractor} when requested, or visit the class with ASM.
+     *
+     * @param progress the approximative percentage of progress in the current walked file.
+     * @param bytecode buffer containing the class bytecode. This buffer SHOULD NEVER be modified.
+     * @param offset offset of the class bytecode in the buffer
+     * @param length length of the class bytecode in the buffer
+     */
+    public void libraryWalkProcessClass(int progress, byte[] bytecode, int offset, int length)
+    {
+        if (cachedClasses != -1) {
+            return;
+        }
+        recorder.setClassDigest(getDigest(bytecode, offset, length));
+        try {
+            if (extractor == null) {
+                super.libraryWalkProcessClass(progress, bytecode, offset, length);
+                return;
+            }
+
+            try {
+                extractor.setFile(getCurrentFile());
+                extractor.extract(bytecode, offset, length);
+                extractor.setFile(null);
+                incrementClassCount();
+            } catch (IllegalArgumentException e) {
+                throw new ClassWalkerRuntimeException(getCurrentFile(), e);
+            }
+        } finally {
+            recorder.setClassDigest(0);
+        }
+    }
+
+    /**
+     * Returns the signature of a library, shared by all identical libraries
+     *
+     * @param file the library file
+     * @return the name and the size of the library, the size of a nested archive being unknown
+     */
+    private static String getSignature(File file)
+    {
+        return file.getName() + ":" + ((file instanceof ArchiveEntryFile) ? 0 : file.length());
+    }
+
+    /**
+     * Compute a 64 bits FNV-1a digest of a class bytecode
+     *
+     * @param bytecode buffer containing the class bytecode
+     * @param offset offset of the class bytecode in the buffer
+     * @param length length of the class bytecode in the buffer
+     * @return the digest of the class, never 0 which stands for an unknown digest
+     */
+    private static long getDigest(byte[] bytecode, int offset, int length)
+    {
+        long digest = 0xCBF29CE484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            digest = (digest ^ (bytecode[i] & 0xFF)) * 0x100000001B3L;
+        }
+        return (digest == 0) ? 1 : digest;
+    }
+
     public void libraryWalkFinished()
     {
         logger.info("Dependency analysis done.");
@@ -55,4 +357,97 @@ public class ClassWalkDependencyVisitorListener extends AbstractClassWalkVisitor
     {
         logger.debug(s);
     }
+
+    /**
+     * Create a listener feeding a fork of the analyser of this listener.
+     *
+     * @return a new listener feeding a fork of the analyser of this listener.
+     */
+    public ClassWalkListener fork()
+    {
+        ClassDependencyAnalyser fork = analyser.fork();
+        ClassWalkDependencyVisitorListener listener = new ClassWalkDependencyVisitorListener(fork,
+            new ClassDependencyCache.Recorder(fork), logger, extractor != null, walkedLibraries, true);
+        listener.cache = cache;
+        return listener;
+    }
+
+    /**
+     * Join the analyser of a forked listener into the analyser of this listener, and report the walked files.
+     *
+     * @param fork the forked listener to be joined
+     */
+    public void join(ClassWalkListener fork)
+    {
+        ClassWalkDependencyVisitorListener listener = (ClassWalkDependencyVisitorListener) fork;
+        analyser.join(listener.analyser);
+        for (Iterator it = listener.walkedFiles.iterator(); it.hasNext();) {
+            logger.info((String) it.next());
+        }
+    }
+
+    /**
+     * Classes of a library analysed during the walk
+     */
+    private static final class WalkedLibrary
+    {
+        /**
+         * The library file
+         */
+        private final File file;
+
+        /**
+         * Key of the library in the cache, null until computed
+         */
+        private String key;
+
+        /**
+         * True if the key of the library could not be computed
+         */
+        private boolean keyFailed;
+
+        /**
+         * Names of the classes of the library
+         */
+        private final String[] names;
+
+        /**
+         * Digests of the classes of the library, in the order of their names
+         */
+        private final long[] digests;
+
+        /**
+         * Construct the classes of a library
+         *
+         * @param file the library file
+         * @param key the key of the library in the cache, null if not yet computed
+         * @param names the names of the classes of the library
+         * @param digests the digests of the classes of the library, in the order of their names
+         */
+        private WalkedLibrary(File file, String key, String[] names, long[] digests)
+        {
+            this.file = file;
+            this.key = key;
+            this.names = names;
+            this.digests = digests;
+        }
+
+        /**
+         * Returns the key of the library in the cache, computing it when first needed
+         *
+         * @return the key of the library, null if it could not be computed
+         */
+        private synchronized String getKey()
+        {
+            if (key == null && !keyFailed) {
+                try {
+                    key = ClassDependencyCache.getKey(file);
+                } catch (IOException e) {
+                    // The library is then considered different from any other one
+                }
+                keyFailed = (key == null);
+            }
+            return key;
+        }
+    }
 }
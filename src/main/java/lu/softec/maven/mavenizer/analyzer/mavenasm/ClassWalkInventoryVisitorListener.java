@@ -16,23 +16,151 @@
 package lu.softec.maven.mavenizer.analyzer.mavenasm;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.maven.plugin.logging.Log;
 
+import lu.softec.maven.mavenizer.analyzer.ClassFileHeader;
+import lu.softec.maven.mavenizer.analyzer.ClassNameWalkListener;
+import lu.softec.maven.mavenizer.analyzer.ClassWalkListener;
+import lu.softec.maven.mavenizer.analyzer.ClassWalkerRuntimeException;
+import lu.softec.maven.mavenizer.analyzer.ForkableClassWalkListener;
 import lu.softec.maven.mavenizer.analyzer.dependency.ClassDependencyAnalyser;
+import lu.softec.maven.mavenizer.analyzer.dependency.ClassInventoryIndex;
 
 /**
- * Specialized {@link AbstractClassWalkVisitorListener} using a {@link ClassInventoryVisitor} to visit classes and
- * logging informational and error messages into a {@link org.apache.maven.plugin.logging.Log}.
+ * Specialized {@link AbstractClassWalkVisitorListener} listing classes and logging informational and error messages
+ * into a {@link org.apache.maven.plugin.logging.Log}.
+ *
+ * Only the name of the classes is needed, so instead of visiting classes with a {@link ClassInventoryVisitor}, this
+ * listener only reads their header, up to the this_class item following the constant pool.
+ *
+ * Optionally, the name of the classes found in archives could be derived from their entry name, avoiding inflating
+ * them at all. Derived names are verified by sampling: the first class found in each directory of an archive and one
+ * class out of {@link #SAMPLING_RATE} are read anyway. The location of the sampled class tells the prefix of the
+ * directory, like WEB-INF/classes/, which is removed from the entry names. When a sampled class does not match its
+ * entry name, all remaining classes of its directory are read.
+ *
+ * When a {@link ClassInventoryIndex} is set, the classes of archives having an up to date index are loaded from the
+ * index when the archive is opened, and the classes of other archives are indexed once listed.
+ *
+ * When a set of required classes is set, only the classes of that set are listed, and each of them is only listed
+ * from the first file providing it, in walk order. The classes of archives whose entry name does not end with the
+ * simple name of some required class are not even read, and files are skipped as soon as all required classes have
+ * been found.
+ *
+ * This listener could be forked to walk libraries concurrently, each fork feeding its own fork of the analyser.
  */
 public class ClassWalkInventoryVisitorListener extends AbstractClassWalkVisitorListener
+    implements ForkableClassWalkListener, ClassNameWalkListener
 {
+    /**
+     * Number of classes of a directory derived from their entry name between two verified classes
+     */
+    public static final int SAMPLING_RATE = 32;
+
+    /**
+     * Marker of directories where entry names does not match class names
+     */
+    private static final Object UNRELIABLE = new Object();
+
     protected final Log logger;
 
+    /**
+     * Analyser fed by this listener
+     */
+    private final ClassDependencyAnalyser analyser;
+
+    /**
+     * True if this listener is a fork, which report walked files when joined instead of when closed
+     */
+    private final boolean forked;
+
+    /**
+     * Messages reporting the files walked by this fork
+     */
+    private final List walkedFiles = new ArrayList();
+
+    /**
+     * True to derive class names from entry names
+     */
+    private final boolean entryNames;
+
+    /**
+     * Prefix of each directory of the current file where class names are derived from entry names, or {@link
+     * #UNRELIABLE}, keyed by directory
+     */
+    private final Map directories = new HashMap();
+
+    /**
+     * Number of classes derived from their entry name in each directory of the current file, as int[] keyed
+     * by directory
+     */
+    private final Map derived = new HashMap();
+
+    /**
+     * Entry name of the class which bytecode has been requested for verification, null if none
+     */
+    private String sampledEntry;
+
+    /**
+     * Index of the classes of archives, null if archives are not indexed
+     */
+    private ClassInventoryIndex index;
+
+    /**
+     * Number of classes of the current file loaded from the index, -1 if the current file is listed
+     */
+    private int indexedClasses = -1;
+
+    /**
+     * Names of the classes of the current file to be indexed, null if the current file is not indexed
+     */
+    private List indexedNames;
+
+    /**
+     * Classes still to be found, shared with the forks of this listener, null to list all classes
+     */
+    private Set requiredClasses;
+
+    /**
+     * Simple names of the required classes, used to filter archive entries
+     */
+    private Set requiredNames;
+
     public ClassWalkInventoryVisitorListener(ClassDependencyAnalyser analyser, Log logger)
+    {
+        this(analyser, logger, false);
+    }
+
+    /**
+     * Construct a listener feeding an analyser
+     *
+     * @param analyser the analyser to feed
+     * @param logger the logger receiving informational and debug messages
+     * @param entryNames true to derive the name of the classes found in archives from their entry name, verified by
+     * sampling
+     */
+    public ClassWalkInventoryVisitorListener(ClassDependencyAnalyser analyser, Log logger, boolean entryNames)
+    {
+        this(analyser, logger, entryNames, false);
+    }
+
+    private ClassWalkInventoryVisitorListener(ClassDependencyAnalyser analyser, Log logger, boolean entryNames,
+        boolean forked)
     {
         super(new ClassInventoryVisitor(analyser));
         this.logger = logger;
+        this.analyser = analyser;
+        this.entryNames = entryNames;
+        this.forked = forked;
     }
 
     public void libraryWalkStarted(File file)
@@ -40,9 +168,259 @@ public class ClassWalkInventoryVisitorListener extends AbstractClassWalkVisitorL
         logger.info("Listing classes from " + file.getAbsolutePath());
     }
 
+    /**
+     * Returns the index of the classes of archives
+     *
+     * @return the index of the classes of archives, null if archives are not indexed
+     */
+    public ClassInventoryIndex getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Set the index of the classes of archives. Archives should not be located in a read-only location.
+     *
+     * @param index the index of the classes of archives, null to list all archives
+     */
+    public void setIndex(ClassInventoryIndex index)
+    {
+        this.index = index;
+    }
+
+    /**
+     * Returns the classes still to be found
+     *
+     * @return the classes still to be found, or null if all classes are listed
+     */
+    public Set getRequiredClasses()
+    {
+        return requiredClasses;
+    }
+
+    /**
+     * Restrict the listing to a set of required classes. The set is updated as classes are found, and is shared with
+     * the forks of this listener, so it should not be modified during the walk. Archives are not indexed while the
+     * listing is restricted.
+     *
+     * @param requiredClasses the internal names of the required classes, or null to list all classes
+     */
+    public void setRequiredClasses(Set requiredClasses)
+    {
+        this.requiredClasses = requiredClasses;
+        if (requiredClasses == null) {
+            requiredNames = null;
+            return;
+        }
+
+        requiredNames = new HashSet();
+        synchronized (requiredClasses) {
+            for (Iterator it = requiredClasses.iterator(); it.hasNext();) {
+                String name = (String) it.next();
+                requiredNames.add(name.substring(name.lastIndexOf('/') + 1));
+            }
+        }
+    }
+
+    /**
+     * Check if all required classes have been found
+     *
+     * @return true if the listing is restricted to required classes, and all of them have been found
+     */
+    private boolean isRequirementSatisfied()
+    {
+        if (requiredClasses == null) {
+            return false;
+        }
+        synchronized (requiredClasses) {
+            return requiredClasses.isEmpty();
+        }
+    }
+
+    public void libraryWalkFileOpened(int progress, File file)
+    {
+        super.libraryWalkFileOpened(progress, file);
+        directories.clear();
+        derived.clear();
+        indexedClasses = -1;
+        indexedNames = null;
+
+        if (index != null && file.isFile() && !isRequirementSatisfied()) {
+            String[] names = index.load(file);
+            if (names != null) {
+                for (int i = 0; i < names.length; i++) {
+                    addClass(names[i]);
+                }
+                indexedClasses = names.length;
+            } else if (requiredClasses == null) {
+                indexedNames = new ArrayList();
+            }
+        }
+    }
+
+    /**
+     * Tell if the current file has been loaded from the index, or does not need to be walked since all required
+     * classes have been found.
+     *
+     * @return true if the classes of the current file do not need to be walked
+     */
+    public boolean isLibraryWalkFileProcessed()
+    {
+        return indexedClasses != -1 || isRequirementSatisfied();
+    }
+
+    /**
+     * Derive the name of the class from its entry name when allowed and verified for the directory of the entry.
+     *
+     * @param progress the approximative percentage of progress in the current walked file.
+     * @param entryName the name of the entry of the class in the archive
+     * @return true if the class has been added to the analyser, false if its bytecode should be read
+     */
+    public boolean libraryWalkProcessClassName(int progress, String entryName)
+    {
+        if (indexedClasses != -1) {
+            return true;
+        }
+        if (requiredNames != null) {
+            String simpleName = entryName.substring(entryName.lastIndexOf('/') + 1,
+                entryName.length() - ".class".length());
+            if (!requiredNames.contains(simpleName) || isRequirementSatisfied()) {
+                return true;
+            }
+        }
+        if (!entryNames) {
+            return false;
+        }
+
+        String directory = entryName.substring(0, entryName.lastIndexOf('/') + 1);
+        Object prefix = directories.get(directory);
+        if (prefix == null || prefix == UNRELIABLE) {
+            sampledEntry = entryName;
+            return false;
+        }
+
+        int[] count = (int[]) derived.get(directory);
+        if (++count[0] % SAMPLING_RATE == 0) {
+            sampledEntry = entryName;
+            return false;
+        }
+
+        addClass(entryName.substring(((String) prefix).length(), entryName.length() - ".class".length()));
+        return true;
+    }
+
+    /**
+     * Read the name of the class from its header, and verify the entry name of sampled classes.
+     *
+     * @param progress the approximative percentage of progress in the current walked file.
+     * @param bytecode buffer containing the class bytecode. This buffer SHOULD NEVER be modified.
+     * @param offset offset of the class bytecode in the buffer
+     * @param length length of the class bytecode in the buffer
+     */
+    public void libraryWalkProcessClass(int progress, byte[] bytecode, int offset, int length)
+    {
+        if (indexedClasses != -1) {
+            return;
+        }
+
+        String name;
+        try {
+            name = new ClassFileHeader(bytecode, offset, length).getClassName();
+        } catch (IllegalArgumentException e) {
+            throw new ClassWalkerRuntimeException(getCurrentFile(), e);
+        }
+
+        if (sampledEntry != null) {
+            verifyEntryName(sampledEntry, name);
+            sampledEntry = null;
+        }
+        addClass(name);
+    }
+
+    /**
+     * Verify that the name of a sampled class matches its entry name, and record the prefix of its directory.
+     *
+     * @param entryName the entry name of the class
+     * @param name the name of the class read from its bytecode
+     */
+    private void verifyEntryName(String entryName, String name)
+    {
+        String directory = entryName.substring(0, entryName.lastIndexOf('/') + 1);
+        Object known = directories.get(directory);
+        if (known == UNRELIABLE) {
+            return;
+        }
+
+        String suffix = name + ".class";
+        String prefix = entryName.endsWith(suffix) ? entryName.substring(0, entryName.length() - suffix.length()) : null;
+        if (prefix != null && (prefix.length() == 0 || prefix.endsWith("/")) && (known == null || known.equals(prefix)))
+        {
+            if (known == null) {
+                directories.put(directory, prefix);
+                derived.put(directory, new int[1]);
+            }
+            return;
+        }
+
+        directories.put(directory, UNRELIABLE);
+        if (known != null) {
+            logger.warn("Class " + name + " does not match its entry " + entryName + " in file " +
+                getCurrentFile().getAbsolutePath() + ", the names of " + ((int[]) derived.get(directory))[0] +
+                " classes derived from their entries in the same directory may be inaccurate.");
+        } else {
+            logger.debug("Class " + name + " does not match its entry " + entryName + " in file " +
+                getCurrentFile().getAbsolutePath() + ", classes of the same directory are read.");
+        }
+    }
+
+    /**
+     * Add a class of the current file to the analyser
+     *
+     * @param name the name of the class
+     */
+    private void addClass(String name)
+    {
+        if (requiredClasses != null) {
+            // Forks only collect candidates, required classes are removed when joined in walk order
+            synchronized (requiredClasses) {
+                if (forked ? !requiredClasses.contains(name) : !requiredClasses.remove(name)) {
+                    return;
+                }
+            }
+        }
+        if (getCurrentFile() != null && analyser != null) {
+            analyser.addClass(getCurrentFile(), name);
+        }
+        if (indexedNames != null) {
+            indexedNames.add(name);
+        }
+        incrementClassCount();
+    }
+
     public void libraryWalkFileClosed()
     {
-        logger.info("Found " + getClassCount() + " classes in file " + getCurrentFile().getAbsolutePath());
+        String message;
+        if (requiredClasses != null) {
+            message = "Found " + getClassCount() + " required classes in file " + getCurrentFile().getAbsolutePath();
+        } else if (indexedClasses != -1) {
+            message = "Found " + indexedClasses + " indexed classes in file " + getCurrentFile().getAbsolutePath();
+        } else {
+            message = "Found " + getClassCount() + " classes in file " + getCurrentFile().getAbsolutePath();
+        }
+        if (indexedNames != null) {
+            try {
+                index.store(getCurrentFile(), indexedNames);
+            } catch (IOException e) {
+                logger.warn("Unable to index the classes of " + getCurrentFile().getAbsolutePath() + ": " +
+                    e.getMessage());
+            }
+            indexedNames = null;
+        }
+        if (forked) {
+            walkedFiles.add(message);
+        } else {
+            logger.info(message);
+        }
         super.libraryWalkFileClosed();
     }
 
@@ -55,4 +433,46 @@ public class ClassWalkInventoryVisitorListener extends AbstractClassWalkVisitorL
     {
         logger.debug(s);
     }
+
+    /**
+     * Create a listener feeding a fork of the analyser of this listener.
+     *
+     * @return a new listener feeding a fork of the analyser of this listener.
+     */
+    public ClassWalkListener fork()
+    {
+        ClassWalkInventoryVisitorListener listener =
+            new ClassWalkInventoryVisitorListener(analyser.fork(), logger, entryNames, true);
+        listener.index = index;
+        listener.requiredClasses = requiredClasses;
+        listener.requiredNames = requiredNames;
+        return listener;
+    }
+
+    /**
+     * Join the analyser of a forked listener into the analyser of this listener, and report the walked files.
+     *
+     * @param fork the forked listener to be joined
+     */
+    public void join(ClassWalkListener fork)
+    {
+        ClassWalkInventoryVisitorListener listener = (ClassWalkInventoryVisitorListener) fork;
+        if (requiredClasses == null) {
+            analyser.join(listener.analyser);
+        } else {
+            for (Iterator it = listener.analyser.getProcessedClasses().entrySet().iterator(); it.hasNext();) {
+                Map.Entry entry = (Map.Entry) it.next();
+                boolean required;
+                synchronized (requiredClasses) {
+                    required = requiredClasses.remove(entry.getKey());
+                }
+                if (required) {
+                    analyser.addClass((File) entry.getValue(), (String) entry.getKey());
+                }
+            }
+        }
+        for (Iterator it = listener.walkedFiles.iterator(); it.hasNext();) {
+            logger.info((String) it.next());
+        }
+    }
 }
@@ -0,0 +1,619 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.mavenasm;
+
+import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import lu.softec.maven.mavenizer.analyzer.ClassAnalyser;
+import lu.softec.maven.mavenizer.analyzer.ClassFileHeader;
+
+/**
+ * Lightweight alternative to {@link ClassDependencyVisitor}, that agregate the same dependencies in a ClassAnalyser
+ * without visiting the class with ASM.
+ *
+ * Class references used by the bytecode instructions are all found in the constant pool, through CONSTANT_Class
+ * entries and the descriptors of the CONSTANT_NameAndType entries of the referenced fields and methods. Old compilers
+ * leave unused entries in the constant pool, so the instructions are only scanned for the constant pool entries they
+ * reference, and each referenced entry is decoded once. The remaining references are found in the descriptors, the
+ * signatures, the exceptions, the stack map frames and the annotations of the class, its fields and its methods, while
+ * debug information are skipped, like the {@link ClassDependencyVisitor} does.
+ */
+public class ConstantPoolDependencyExtractor
+{
+    private static final int CLASS = 7;
+
+    private static final int FIELDREF = 9;
+
+    private static final int METHODREF = 10;
+
+    private static final int INTERFACE_METHODREF = 11;
+
+    private static final int NAME_AND_TYPE = 12;
+
+    private static final int METHOD_TYPE = 16;
+
+    /**
+     * Length of each instruction, 0 for variable length instructions, negated when the instruction references the
+     * constant pool with an operand of two bytes, or -1 for ldc which use an operand of one byte.
+     */
+    private static final int[] INSTRUCTIONS = new int[256];
+
+    static {
+        for (int i = 0; i < INSTRUCTIONS.length; i++) {
+            INSTRUCTIONS[i] = 1;
+        }
+        setInstructions(16, 16, 2); // bipush
+        setInstructions(17, 17, 3); // sipush
+        setInstructions(18, 18, -1); // ldc
+        setInstructions(19, 20, -3); // ldc_w, ldc2_w
+        setInstructions(21, 25, 2); // loads
+        setInstructions(54, 58, 2); // stores
+        setInstructions(132, 132, 3); // iinc
+        setInstructions(153, 168, 3); // branches, goto, jsr
+        setInstructions(169, 169, 2); // ret
+        setInstructions(170, 171, 0); // tableswitch, lookupswitch
+        setInstructions(178, 184, -3); // field and method instructions
+        setInstructions(185, 186, -5); // invokeinterface, invokedynamic
+        setInstructions(187, 187, -3); // new
+        setInstructions(188, 188, 2); // newarray
+        setInstructions(189, 189, -3); // anewarray
+        setInstructions(192, 193, -3); // checkcast, instanceof
+        setInstructions(196, 196, 0); // wide
+        setInstructions(197, 197, -4); // multianewarray
+        setInstructions(198, 199, 3); // ifnull, ifnonnull
+        setInstructions(200, 201, 5); // goto_w, jsr_w
+    }
+
+    private static void setInstructions(int from, int to, int length)
+    {
+        for (int i = from; i <= to; i++) {
+            INSTRUCTIONS[i] = length;
+        }
+    }
+
+    /**
+     * Associated ClassAnalyser.
+     */
+    private final ClassAnalyser analyser;
+
+    /**
+     * Currently processed file.
+     */
+    private File currentFile;
+
+    /**
+     * Currently extracted class
+     */
+    private String currentClass;
+
+    /**
+     * Dependencies of the currently extracted class, collected without duplicates until the end of the extraction
+     */
+    private final Set dependencies = new LinkedHashSet();
+
+    /**
+     * Buffer containing the currently extracted class
+     */
+    private byte[] b;
+
+    /**
+     * Constant pool of the currently extracted class
+     */
+    private ClassFileHeader header;
+
+    /**
+     * Constant pool entries of the currently extracted class already decoded
+     */
+    private boolean[] decoded;
+
+    /**
+     * Construct an instance associated with the provided analyser.
+     *
+     * @param analyser the class analyser to feed
+     */
+    public ConstantPoolDependencyExtractor(ClassAnalyser analyser)
+    {
+        this.analyser = analyser;
+    }
+
+    /**
+     * Set the File containing the currently extracted class.
+     *
+     * @param file the File containing the currently extracted class
+     */
+    public void setFile(File file)
+    {
+        currentFile = file;
+    }
+
+    /**
+     * Extract the dependencies of a class, feeding the associated analyser.
+     *
+     * @param bytecode buffer containing the class bytecode
+     * @param offset offset of the class bytecode in the buffer
+     * @param length length of the class bytecode in the buffer
+     * @throws IllegalArgumentException if the buffer does not contain a valid class file
+     */
+    public void extract(byte[] bytecode, int offset, int length)
+    {
+        b = bytecode;
+        header = new ClassFileHeader(bytecode, offset, length);
+        decoded = new boolean[header.getItemCount()];
+        try {
+            setCurrentClass(header.getClassName());
+
+            // This class, super class and interfaces
+            int pos = header.getHeader() + 2;
+            addConstant(header.readUnsignedShort(pos));
+            addConstant(header.readUnsignedShort(pos + 2));
+            int interfaces = header.readUnsignedShort(pos + 4);
+            pos += 6;
+            for (int i = 0; i < interfaces; i++) {
+                addConstant(header.readUnsignedShort(pos));
+                pos += 2;
+            }
+
+            // Fields and methods
+            for (int m = 0; m < 2; m++) {
+                int members = header.readUnsignedShort(pos);
+                pos += 2;
+                for (int i = 0; i < members; i++) {
+                    addDescriptor(header.getUtf8(header.readUnsignedShort(pos + 4)));
+                    pos = readAttributes(pos + 6, false);
+                }
+            }
+
+            // Class attributes
+            readAttributes(pos, true);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated class file");
+        } finally {
+            b = null;
+            header = null;
+            decoded = null;
+            if (analyser != null && !dependencies.isEmpty()) {
+                analyser.addDependencies(currentClass, dependencies);
+            }
+            dependencies.clear();
+        }
+    }
+
+    /**
+     * Set the currently extracted class name
+     *
+     * @param name the currently extracted class name
+     */
+    private void setCurrentClass(String name)
+    {
+        currentClass = name;
+        if (currentFile != null && analyser != null) {
+            analyser.addClass(currentFile, name);
+            analyser.addDependency(currentClass, null);
+        }
+    }
+
+    /**
+     * Collect a new dependency between the currently extracted class and the provided dependency name. The associated
+     * analyser is fed once with all the dependencies collected when the extraction of the class ends.
+     *
+     * @param name the name of dependency of the current class
+     */
+    private void addDependency(String name)
+    {
+        dependencies.add(name);
+    }
+
+    /**
+     * Add dependencies on the classes referenced by a constant pool entry, unless it has already been decoded
+     *
+     * @param index index of a constant pool entry, 0 for none
+     */
+    private void addConstant(int index)
+    {
+        if (index == 0 || decoded[index]) {
+            return;
+        }
+        decoded[index] = true;
+
+        int item = header.getItem(index);
+        switch (b[item]) {
+            case CLASS:
+                addType(header.getUtf8(header.readUnsignedShort(item + 1)));
+                break;
+            case FIELDREF:
+            case METHODREF:
+            case INTERFACE_METHODREF:
+                addConstant(header.readUnsignedShort(item + 1));
+                addConstant(header.readUnsignedShort(item + 3));
+                break;
+            case NAME_AND_TYPE:
+                addDescriptor(header.getUtf8(header.readUnsignedShort(item + 3)));
+                break;
+            case METHOD_TYPE:
+                addDescriptor(header.getUtf8(header.readUnsignedShort(item + 1)));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Add a dependency on a type given by its internal name, or by its descriptor for arrays
+     *
+     * @param type an internal name or an array descriptor
+     */
+    private void addType(String type)
+    {
+        if (type.charAt(0) == '[') {
+            addDescriptor(type);
+        } else {
+            addDependency(type);
+        }
+    }
+
+    /**
+     * Add dependencies on all the classes of a field or method descriptor
+     *
+     * @param desc a field or method descriptor
+     */
+    private void addDescriptor(String desc)
+    {
+        int start = desc.indexOf('L');
+        while (start != -1) {
+            int end = desc.indexOf(';', start);
+            addDependency(desc.substring(start + 1, end));
+            start = desc.indexOf('L', end);
+        }
+    }
+
+    /**
+     * Read the attributes of the class or of a member, extracting dependencies from signatures and annotations.
+     *
+     * The {@link ClassDependencyVisitor} only remap the type of the annotations of the class, while only the values of
+     * the annotations of fields, methods and parameters are remapped, so these annotation types are ignored to provide
+     * the same dependencies.
+     *
+     * @param pos offset of the attributes_count
+     * @param annotationTypes true if the type of the annotations are dependencies
+     * @return the offset following the attributes
+     */
+    private int readAttributes(int pos, boolean annotationTypes)
+    {
+        int count = header.readUnsignedShort(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            String name = header.getUtf8(header.readUnsignedShort(pos));
+            int length = header.readInt(pos + 2);
+            pos += 6;
+            if ("Code".equals(name)) {
+                readCode(pos);
+            } else if ("Signature".equals(name)) {
+                addSignature(header.getUtf8(header.readUnsignedShort(pos)));
+            } else if ("Exceptions".equals(name)) {
+                int exceptions = header.readUnsignedShort(pos);
+                for (int j = 0; j < exceptions; j++) {
+                    addConstant(header.readUnsignedShort(pos + 2 + j * 2));
+                }
+            } else if ("EnclosingMethod".equals(name)) {
+                addConstant(header.readUnsignedShort(pos));
+                addConstant(header.readUnsignedShort(pos + 2));
+            } else if ("InnerClasses".equals(name)) {
+                int classes = header.readUnsignedShort(pos);
+                for (int j = 0; j < classes; j++) {
+                    addConstant(header.readUnsignedShort(pos + 2 + j * 8));
+                    addConstant(header.readUnsignedShort(pos + 4 + j * 8));
+                }
+            } else if ("StackMapTable".equals(name)) {
+                readStackMapTable(pos);
+            } else if ("StackMap".equals(name)) {
+                readStackMap(pos);
+            } else if ("RuntimeVisibleAnnotations".equals(name) || "RuntimeInvisibleAnnotations".equals(name)) {
+                readAnnotations(pos, annotationTypes);
+            } else if ("RuntimeVisibleParameterAnnotations".equals(name)
+                || "RuntimeInvisibleParameterAnnotations".equals(name))
+            {
+                int parameters = b[pos] & 0xFF;
+                int annotationsPos = pos + 1;
+                for (int j = 0; j < parameters; j++) {
+                    annotationsPos = readAnnotations(annotationsPos, false);
+                }
+            } else if ("AnnotationDefault".equals(name)) {
+                readElementValue(pos);
+            }
+            pos += length;
+        }
+        return pos;
+    }
+
+    /**
+     * Read a Code attribute, scanning its instructions for referenced constants
+     *
+     * @param pos offset of the content of the attribute
+     */
+    private void readCode(int pos)
+    {
+        int start = pos + 8;
+        int end = start + header.readInt(pos + 4);
+        pos = start;
+        while (pos < end) {
+            int opcode = b[pos] & 0xFF;
+            int length = INSTRUCTIONS[opcode];
+            if (length == -1) {
+                addConstant(b[pos + 1] & 0xFF);
+                pos += 2;
+            } else if (length < 0) {
+                addConstant(header.readUnsignedShort(pos + 1));
+                pos -= length;
+            } else if (length > 0) {
+                pos += length;
+            } else if (opcode == 196) {
+                // wide
+                pos += ((b[pos + 1] & 0xFF) == 132) ? 6 : 4;
+            } else {
+                // tableswitch or lookupswitch, aligned on a four bytes boundary from the start of the code
+                pos += 4 - ((pos - start) & 3);
+                if (opcode == 170) {
+                    pos += 12 + (header.readInt(pos + 8) - header.readInt(pos + 4) + 1) * 4;
+                } else {
+                    pos += 8 + header.readInt(pos + 4) * 8;
+                }
+            }
+        }
+
+        // Exception handlers
+        int handlers = header.readUnsignedShort(pos);
+        pos += 2;
+        for (int i = 0; i < handlers; i++) {
+            addConstant(header.readUnsignedShort(pos + 6));
+            pos += 8;
+        }
+
+        // Code attributes, only stack map frames are of interest
+        readAttributes(pos, false);
+    }
+
+    /**
+     * Read a StackMapTable attribute, introduced by Java 6
+     *
+     * @param pos offset of the content of the attribute
+     */
+    private void readStackMapTable(int pos)
+    {
+        int count = header.readUnsignedShort(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            int type = b[pos++] & 0xFF;
+            if (type < 64) {
+                // same_frame
+            } else if (type < 128) {
+                // same_locals_1_stack_item_frame
+                pos = readVerificationTypes(pos, 1);
+            } else if (type == 247) {
+                // same_locals_1_stack_item_frame_extended
+                pos = readVerificationTypes(pos + 2, 1);
+            } else if (type < 252) {
+                // chop_frame and same_frame_extended
+                pos += 2;
+            } else if (type < 255) {
+                // append_frame
+                pos = readVerificationTypes(pos + 2, type - 251);
+            } else {
+                // full_frame
+                pos = readVerificationTypes(pos + 4, header.readUnsignedShort(pos + 2));
+                pos = readVerificationTypes(pos + 2, header.readUnsignedShort(pos));
+            }
+        }
+    }
+
+    /**
+     * Read a StackMap attribute, used by the CLDC preverifier
+     *
+     * @param pos offset of the content of the attribute
+     */
+    private void readStackMap(int pos)
+    {
+        int count = header.readUnsignedShort(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            pos = readVerificationTypes(pos + 4, header.readUnsignedShort(pos + 2));
+            pos = readVerificationTypes(pos + 2, header.readUnsignedShort(pos));
+        }
+    }
+
+    /**
+     * Read verification types of a stack map frame
+     *
+     * @param pos offset of the first verification type
+     * @param count number of verification types
+     * @return the offset following the verification types
+     */
+    private int readVerificationTypes(int pos, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            int tag = b[pos++];
+            if (tag == 7) {
+                // Object_variable_info
+                addConstant(header.readUnsignedShort(pos));
+                pos += 2;
+            } else if (tag == 8) {
+                // Uninitialized_variable_info
+                pos += 2;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Read a list of annotations
+     *
+     * @param pos offset of the num_annotations
+     * @param annotationTypes true if the type of the annotations are dependencies
+     * @return the offset following the annotations
+     */
+    private int readAnnotations(int pos, boolean annotationTypes)
+    {
+        int count = header.readUnsignedShort(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            pos = readAnnotation(pos, annotationTypes);
+        }
+        return pos;
+    }
+
+    /**
+     * Read an annotation
+     *
+     * @param pos offset of the type_index of the annotation
+     * @param annotationType true if the type of the annotation is a dependency
+     * @return the offset following the annotation
+     */
+    private int readAnnotation(int pos, boolean annotationType)
+    {
+        if (annotationType) {
+            addDescriptor(header.getUtf8(header.readUnsignedShort(pos)));
+        }
+        int count = header.readUnsignedShort(pos + 2);
+        pos += 4;
+        for (int i = 0; i < count; i++) {
+            pos = readElementValue(pos + 2);
+        }
+        return pos;
+    }
+
+    /**
+     * Read an element value of an annotation
+     *
+     * @param pos offset of the tag of the element value
+     * @return the offset following the element value
+     */
+    private int readElementValue(int pos)
+    {
+        switch (b[pos]) {
+            case 'e':
+                addDescriptor(header.getUtf8(header.readUnsignedShort(pos + 1)));
+                return pos + 5;
+            case 'c':
+                addDescriptor(header.getUtf8(header.readUnsignedShort(pos + 1)));
+                return pos + 3;
+            case '@':
+                return readAnnotation(pos + 1, true);
+            case '[':
+                int count = header.readUnsignedShort(pos + 1);
+                pos += 3;
+                for (int i = 0; i < count; i++) {
+                    pos = readElementValue(pos);
+                }
+                return pos;
+            default:
+                return pos + 3;
+        }
+    }
+
+    /**
+     * Add dependencies on all the classes of a class, field or method signature
+     *
+     * @param signature a generic signature
+     */
+    private void addSignature(String signature)
+    {
+        int pos = 0;
+        if (signature.charAt(0) == '<') {
+            // Formal type parameters: an identifier, followed by an optional class bound and interface bounds
+            pos++;
+            while (signature.charAt(pos) != '>') {
+                pos = signature.indexOf(':', pos);
+                while (signature.charAt(pos) == ':') {
+                    pos++;
+                    if (signature.charAt(pos) != ':') {
+                        pos = addSignatureType(signature, pos);
+                    }
+                }
+            }
+            pos++;
+        }
+        while (pos < signature.length()) {
+            char c = signature.charAt(pos);
+            if (c == '(' || c == ')' || c == '^') {
+                pos++;
+            } else {
+                pos = addSignatureType(signature, pos);
+            }
+        }
+    }
+
+    /**
+     * Add dependencies on all the classes of a type signature
+     *
+     * @param signature a generic signature
+     * @param pos offset of the type in the signature
+     * @return the offset following the type
+     */
+    private int addSignatureType(String signature, int pos)
+    {
+        switch (signature.charAt(pos)) {
+            case 'L':
+                String name = null;
+                int start = pos + 1;
+                while (true) {
+                    char c = signature.charAt(++pos);
+                    if (c == '.' || c == ';' || c == '<') {
+                        // Inner classes are named after their outer class
+                        String simpleName = signature.substring(start, pos);
+                        name = (name == null) ? simpleName : name + '$' + simpleName;
+                        addDependency(name);
+                        if (c == '<') {
+                            pos = addSignatureTypeArguments(signature, pos + 1);
+                            c = signature.charAt(pos);
+                        }
+                        if (c == ';') {
+                            return pos + 1;
+                        }
+                        start = pos + 1;
+                    }
+                }
+            case 'T':
+                return signature.indexOf(';', pos) + 1;
+            case '[':
+                return addSignatureType(signature, pos + 1);
+            default:
+                return pos + 1;
+        }
+    }
+
+    /**
+     * Add dependencies on all the classes of type arguments
+     *
+     * @param signature a generic signature
+     * @param pos offset following the opening bracket of the type arguments
+     * @return the offset following the closing bracket of the type arguments
+     */
+    private int addSignatureTypeArguments(String signature, int pos)
+    {
+        while (signature.charAt(pos) != '>') {
+            char c = signature.charAt(pos);
+            if (c == '*') {
+                pos++;
+            } else if (c == '+' || c == '-') {
+                pos = addSignatureType(signature, pos + 1);
+            } else {
+                pos = addSignatureType(signature, pos);
+            }
+        }
+        return pos + 1;
+    }
+}
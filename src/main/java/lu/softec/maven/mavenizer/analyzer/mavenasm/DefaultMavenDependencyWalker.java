@@ -17,30 +17,32 @@ package lu.softec.maven.mavenizer.analyzer.mavenasm;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
-import java.util.Iterator;
 import java.util.List;
-import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
 import org.apache.maven.artifact.resolver.ArtifactResolutionException;
 import org.apache.maven.model.Dependency;
 
+import lu.softec.maven.mavenizer.analyzer.AbstractClassWalker;
+import lu.softec.maven.mavenizer.analyzer.BufferedClassWalkListener;
 import lu.softec.maven.mavenizer.analyzer.ClassWalkListener;
 import lu.softec.maven.mavenizer.analyzer.ClassWalkerExecutionException;
 import lu.softec.maven.mavenizer.analyzer.ClassWalkerRuntimeException;
+import lu.softec.maven.mavenizer.analyzer.ForkJoinExecutor;
+import lu.softec.maven.mavenizer.analyzer.ForkableClassWalkListener;
+import lu.softec.maven.mavenizer.analyzer.MappedZipFile;
 import lu.softec.maven.mavenizer.mavenfile.InvalidMavenCoordinatesException;
 import lu.softec.maven.mavenizer.mavenfile.MavenFile;
 import lu.softec.maven.mavenizer.mavenfile.MavenFileFactory;
 
 /**
  * Default implementation of {@link MavenDependencyWalker} Dependencies are resolved as needed.
+ *
+ * When more than one thread is used, dependencies are resolved and walked concurrently into forks of the registered
+ * listeners, which are joined back in dependency order on the thread calling {@link #scan()}.
  */
 public class DefaultMavenDependencyWalker implements MavenDependencyWalker
 {
@@ -74,6 +76,11 @@ public class DefaultMavenDependencyWalker implements MavenDependencyWalker
      */
     private boolean debugMode = false;
 
+    /**
+     * Number of threads used to resolve and walk dependencies, 1 for a sequential walk.
+     */
+    private int threads = 1;
+
     public List getDependencies()
     {
         return Collections.unmodifiableList(dependencies);
@@ -109,40 +116,32 @@ public class DefaultMavenDependencyWalker implements MavenDependencyWalker
         listeners.add(listener);
     }
 
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = ForkJoinExecutor.getThreadCount(threads);
+    }
+
     public void scan() throws ClassWalkerExecutionException
     {
+        ClassWalkListener[] targets = (ClassWalkListener[]) listeners.toArray(new ClassWalkListener[listeners.size()]);
+
         if (dependencies == null) {
-            fireDebug(".No dependency to process.");
+            fireDebug(targets, ".No dependency to process.");
             return;
         }
 
         try {
-            int i = 1;
-            for (Iterator it = dependencies.iterator(); it.hasNext(); i++) {
-                Dependency dep = (Dependency) it.next();
-
-                fireDebug(
-                    ".Processing dependency " + dep.getGroupId() + ":" + dep.getArtifactId() + ":" + dep.getVersion() +
-                        ":" + dep.getClassifier());
-                MavenFile mvnFile;
-                try {
-                    mvnFile = mavenFileFactory
-                        .getMavenFile(null, dep.getGroupId(), dep.getArtifactId(), dep.getVersion(),
-                            dep.getClassifier(),
-                            null, repository, remoteRepositories);
-                } catch (InvalidMavenCoordinatesException e) {
-                    // Should never happen
-                    throw new ClassWalkerRuntimeException(e);
-                } catch (ArtifactNotFoundException e) {
-                    throw new ClassWalkerRuntimeException(e);
-                } catch (ArtifactResolutionException e) {
-                    throw new ClassWalkerRuntimeException(e);
+            if (threads > 1) {
+                new ForkJoinExecutor(threads).execute(dependencies.size(), new DependencyWalkTask(targets));
+            } else {
+                for (int i = 0; i < dependencies.size(); i++) {
+                    processDependency(i, targets);
                 }
-
-                fireDebug("..Analysing file " + mvnFile.getFile().getAbsolutePath());
-                processJarFile(i * 100 / dependencies.size(), mvnFile.getFile());
-                fireDebug("..File analysed.");
-                fireDebug(".Dependency processed.");
             }
         } catch (ClassWalkerRuntimeException e) {
             throw new ClassWalkerExecutionException(e.getFile(), e.getCause());
@@ -155,89 +154,173 @@ public class DefaultMavenDependencyWalker implements MavenDependencyWalker
     }
 
     /**
-     * Process a JarFile, firing listener events as needed.
+     * Resolve a dependency and process its file, firing listener events as needed. This method could be called
+     * concurrently for distinct dependencies.
+     *
+     * @param index index of the dependency
+     * @param targets listeners receiving the events
+     */
+    private void processDependency(int index, ClassWalkListener[] targets)
+    {
+        Dependency dep = (Dependency) dependencies.get(index);
+
+        fireDebug(targets,
+            ".Processing dependency " + dep.getGroupId() + ":" + dep.getArtifactId() + ":" + dep.getVersion() +
+                ":" + dep.getClassifier());
+        MavenFile mvnFile;
+        try {
+            mvnFile = mavenFileFactory
+                .getMavenFile(null, dep.getGroupId(), dep.getArtifactId(), dep.getVersion(),
+                    dep.getClassifier(),
+                    null, repository, remoteRepositories);
+        } catch (InvalidMavenCoordinatesException e) {
+            // Should never happen
+            throw new ClassWalkerRuntimeException(e);
+        } catch (ArtifactNotFoundException e) {
+            throw new ClassWalkerRuntimeException(e);
+        } catch (ArtifactResolutionException e) {
+            throw new ClassWalkerRuntimeException(e);
+        }
+
+        fireDebug(targets, "..Analysing file " + mvnFile.getFile().getAbsolutePath());
+        processJarFile((index + 1) * 100 / dependencies.size(), mvnFile.getFile(), targets);
+        fireDebug(targets, "..File analysed.");
+        fireDebug(targets, ".Dependency processed.");
+    }
+
+    /**
+     * Process a JarFile, firing listener events as needed. The jar is mapped in memory and each class is inflated once
+     * into a reused buffer, unless all listeners have processed it from its entry name. The jar is not even opened when
+     * all listeners have processed its classes when the file was opened, like from an index.
      *
      * @param i current progress indicator
      * @param file file to process
+     * @param targets listeners receiving the events
      */
-    private void processJarFile(int i, File file)
+    private void processJarFile(int i, File file, ClassWalkListener[] targets)
     {
-        ZipFile zip = null;
+        MappedZipFile zip = null;
         try {
-            zip = new JarFile(file);
-            Enumeration entries = zip.entries();
+            fireLibraryWalkFileOpened(targets, i, file);
+
+            if (AbstractClassWalker.isLibraryWalkFileProcessed(targets)) {
+                fireLibraryWalkFileClosed(targets);
+                return;
+            }
+
+            zip = new MappedZipFile(file);
             int nbEntries = zip.size();
             int curEntry = 0;
 
-            fireLibraryWalkFileOpened(i, file);
-
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = (ZipEntry) entries.nextElement();
-                if (entry.getName().endsWith(".class")) {
-                    fireLibraryWalkProcessClass((++curEntry * 100 / nbEntries), zip.getInputStream(entry));
+            for (int entry = 0; entry < nbEntries; entry++) {
+                if (zip.isClass(entry)) {
+                    AbstractClassWalker.fireLibraryWalkProcessClass(targets, (++curEntry * 100 / nbEntries), zip, entry);
                 }
             }
-            zip.close();
 
-            fireLibraryWalkFileClosed();
+            fireLibraryWalkFileClosed(targets);
         } catch (IOException e) {
             throw new ClassWalkerRuntimeException(file, e);
         } finally {
             if (zip != null) {
-                try {
-                    zip.close();
-                } catch (IOException e) {  /* ignored */ }
+                zip.close();
             }
         }
     }
 
     /**
-     * Fire debug events in all registered listener.
+     * Fire debug events in the given listeners.
      *
+     * @param targets listeners receiving the events
      * @param message the debug message
      */
-    private void fireDebug(String message)
+    private void fireDebug(ClassWalkListener[] targets, String message)
     {
         if (debugMode && message != null) {
-            for (Iterator it = listeners.iterator(); it.hasNext();) {
-                ((ClassWalkListener) it.next()).debug(message);
+            for (int i = 0; i < targets.length; i++) {
+                targets[i].debug(message);
             }
         }
     }
 
     /**
-     * Fire LibraryWalkProcessClass events in all registered listener.
+     * Fire LibraryWalkFileOpened events in the given listeners.
      *
+     * @param targets listeners receiving the events
      * @param i current progress indicator
-     * @param in input stream to be processed
+     * @param file file currently processed
      */
-    private void fireLibraryWalkProcessClass(int i, InputStream in)
+    private static void fireLibraryWalkFileOpened(ClassWalkListener[] targets, int i, File file)
     {
-        for (Iterator it = listeners.iterator(); it.hasNext();) {
-            ((ClassWalkListener) it.next()).libraryWalkProcessClass(i, in);
+        for (int j = 0; j < targets.length; j++) {
+            targets[j].libraryWalkFileOpened(i, file);
         }
     }
 
     /**
-     * Fire LibraryWalkFileOpened events in all registered listener.
+     * Fire LibraryWalkFileClosed events in the given listeners.
      *
-     * @param i current progress indicator
-     * @param file file currently processed
+     * @param targets listeners receiving the events
      */
-    private void fireLibraryWalkFileOpened(int i, File file)
+    private static void fireLibraryWalkFileClosed(ClassWalkListener[] targets)
     {
-        for (Iterator it = listeners.iterator(); it.hasNext();) {
-            ((ClassWalkListener) it.next()).libraryWalkFileOpened(i, file);
+        for (int j = 0; j < targets.length; j++) {
+            targets[j].libraryWalkFileClosed();
         }
     }
 
     /**
-     * Fire LibraryWalkFileClosed events in all registered listener.
+     * Task resolving and walking dependencies concurrently, each into its own forks of the registered listeners.
      */
-    private void fireLibraryWalkFileClosed()
+    private class DependencyWalkTask implements ForkJoinExecutor.Task
     {
-        for (Iterator it = listeners.iterator(); it.hasNext();) {
-            ((ClassWalkListener) it.next()).libraryWalkFileClosed();
+        /**
+         * Registered listeners
+         */
+        private final ClassWalkListener[] targets;
+
+        DependencyWalkTask(ClassWalkListener[] targets)
+        {
+            this.targets = targets;
+        }
+
+        /**
+         * Resolve and walk a dependency into forks of the registered listeners. Listeners that are not {@link
+         * ForkableClassWalkListener} receive a {@link BufferedClassWalkListener} instead.
+         *
+         * @param index index of the dependency
+         * @return an array of forked listeners
+         */
+        public Object fork(int index)
+        {
+            ClassWalkListener[] forks = new ClassWalkListener[targets.length];
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] instanceof ForkableClassWalkListener) {
+                    forks[i] = ((ForkableClassWalkListener) targets[i]).fork();
+                } else {
+                    forks[i] = new BufferedClassWalkListener();
+                }
+            }
+            processDependency(index, forks);
+            return forks;
+        }
+
+        /**
+         * Join forked listeners back into the registered listeners.
+         *
+         * @param index index of the dependency
+         * @param result an array of forked listeners
+         */
+        public void join(int index, Object result)
+        {
+            ClassWalkListener[] forks = (ClassWalkListener[]) result;
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] instanceof ForkableClassWalkListener) {
+                    ((ForkableClassWalkListener) targets[i]).join(forks[i]);
+                } else {
+                    ((BufferedClassWalkListener) forks[i]).replay(targets[i]);
+                }
+            }
         }
     }
 }
@@ -67,4 +67,20 @@ public interface MavenDependencyWalker extends ClassWalker
      * @param remoteArtifactRepositories the list of remote repositories where dependencies could be downloaded
      */
     void setRemoteRepositories(List remoteArtifactRepositories);
+
+    /**
+     * Returns the number of threads used to resolve and walk dependencies
+     *
+     * @return the number of threads used to resolve and walk dependencies
+     */
+    int getThreads();
+
+    /**
+     * Set the number of threads used to resolve and walk dependencies. Events are always delivered to listeners from
+     * the thread calling scan, in dependency order.
+     *
+     * @param threads the number of threads, 1 for a sequential walk, or lower than 1 to use one thread per
+     * available processor
+     */
+    void setThreads(int threads);
 }
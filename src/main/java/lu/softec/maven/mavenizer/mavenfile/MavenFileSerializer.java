@@ -21,6 +21,8 @@ import java.io.IOException;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.codehaus.plexus.util.xml.pull.XmlSerializer;
 
+import lu.softec.maven.mavenizer.analyzer.dependency.FileDependencySet;
+
 /**
  * Generic interface for a serializer serializing {@link MavenFile} and {@link MavenFileSet} to XML
  */
@@ -62,6 +64,16 @@ public interface MavenFileSerializer
      */
     void SerializeMavenFile(MavenFile mvnFile) throws IOException;
 
+    /**
+     * Write a {@link MavenFile} to the serializer, with the number of classes and class dependencies of each of its
+     * dependencies
+     *
+     * @param mvnFile the {@link MavenFile} to be serialized
+     * @param fileDependencies the file dependencies providing the counts, or null to write no counts
+     * @throws IOException when an I/O error occurs during serialization
+     */
+    void SerializeMavenFile(MavenFile mvnFile, FileDependencySet fileDependencies) throws IOException;
+
     /**
      * Write a {@link MavenFileSet} to the serializer
      *
@@ -70,6 +82,16 @@ public interface MavenFileSerializer
      */
     void SerializeMavenFileSet(MavenFileSet set) throws IOException;
 
+    /**
+     * Write a {@link MavenFileSet} to the serializer, with the number of classes and class dependencies of each
+     * dependency
+     *
+     * @param set the set to be serialized
+     * @param fileDependencies the file dependencies providing the counts, or null to write no counts
+     * @throws IOException when an I/O error occurs during serialization
+     */
+    void SerializeMavenFileSet(MavenFileSet set, FileDependencySet fileDependencies) throws IOException;
+
     /**
      * Returns the local repository used for local artifacts
      *
@@ -37,6 +37,7 @@ import org.apache.maven.shared.jar.identification.JarIdentificationAnalysis;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.StringUtils;
 
+import lu.softec.maven.mavenizer.analyzer.ArchiveEntryFile;
 import lu.softec.maven.mavenizer.analyzer.dependency.FileDependencySet;
 import lu.softec.maven.mavenizer.mavenfile.FileMavenInfo;
 import lu.softec.maven.mavenizer.mavenfile.InvalidMavenCoordinatesException;
@@ -50,6 +51,9 @@ import lu.softec.maven.mavenizer.mavenfile.MavenFileSet;
  * This implementation is a singleton and keep hard references to all created instances of {@link MavenFile}. It ensure
  * only one {@link MavenFile} instance is created for a given {@link File}, and that any subsequent request matches the
  * initially created instance.
+ *
+ * Instances could be requested concurrently. Artifacts are resolved and identified without holding any lock, while
+ * the registry of existing instances is only accessed while synchronized on itself.
  */
 public class DefaultMavenFileFactory implements MavenFileFactory
 {
@@ -116,8 +120,15 @@ public class DefaultMavenFileFactory implements MavenFileFactory
     public MavenFile getMavenFile(File file)
         throws IOException, InvalidMavenCoordinatesException, ArtifactResolutionException, ArtifactNotFoundException
     {
-        if (mavenFiles.containsKey(file)) {
-            return (MavenFile) mavenFiles.get(file);
+        synchronized (mavenFiles) {
+            if (mavenFiles.containsKey(file)) {
+                return (MavenFile) mavenFiles.get(file);
+            }
+        }
+
+        // Nested archives are only written to disk when they need to be identified
+        if (file instanceof ArchiveEntryFile) {
+            ((ArchiveEntryFile) file).materialize();
         }
 
         JarIdentification id = getJarIdentification(file);
@@ -159,38 +170,41 @@ public class DefaultMavenFileFactory implements MavenFileFactory
             }
         }
 
-        // If maven file already exists, than check it for consistencies and return the existing one
-        if (mavenFiles.containsKey(file)) {
-            InternalMavenFile mvnFile = (InternalMavenFile) mavenFiles.get(file);
-            if (!StringUtils.equals(mvnFile.getGroupId(), groupId)
-                || !StringUtils.equals(mvnFile.getArtifactId(), artifactId)
-                || !StringUtils.equals(mvnFile.getVersion(), version)
-                || !StringUtils.equals(mvnFile.getClassifier(), classifier)
-                || (deps != null && mvnFile.getDependencies().size() != 0 && !deps.equals(mvnFile.getDependencies())))
-            {
-                throw new IllegalArgumentException(
-                    "The instance requested mismatch with a previously existing instance for file " +
-                        file.getAbsolutePath());
-            }
+        synchronized (mavenFiles) {
+            // If maven file already exists, than check it for consistencies and return the existing one
+            if (mavenFiles.containsKey(file)) {
+                InternalMavenFile mvnFile = (InternalMavenFile) mavenFiles.get(file);
+                if (!StringUtils.equals(mvnFile.getGroupId(), groupId)
+                    || !StringUtils.equals(mvnFile.getArtifactId(), artifactId)
+                    || !StringUtils.equals(mvnFile.getVersion(), version)
+                    || !StringUtils.equals(mvnFile.getClassifier(), classifier)
+                    || (deps != null && mvnFile.getDependencies().size() != 0
+                        && !deps.equals(mvnFile.getDependencies())))
+                {
+                    throw new IllegalArgumentException(
+                        "The instance requested mismatch with a previously existing instance for file " +
+                            file.getAbsolutePath());
+                }
 
-            if (deps != null && mvnFile.getDependencies().size() == 0) {
-                mvnFile.setDependencies(deps);
+                if (deps != null && mvnFile.getDependencies().size() == 0) {
+                    mvnFile.setDependencies(deps);
+                }
+
+                return mvnFile;
             }
 
-            return mvnFile;
-        }
+            // Create a new maven file instance
+            MavenFile mvnFile = new InternalMavenFile(file, groupId, artifactId, version, classifier, deps);
 
-        // Create a new maven file instance
-        MavenFile mvnFile = new InternalMavenFile(file, groupId, artifactId, version, classifier, deps);
+            // If the file has been provided, ensure proper maven coordinates has been used
+            if (libfile != null) {
+                validateArtifactInformation(mvnFile);
+            }
 
-        // If the file has been provided, ensure proper maven coordinates has been used
-        if (libfile != null) {
-            validateArtifactInformation(mvnFile);
+            // Remember this new instance for future request
+            mavenFiles.put(file, mvnFile);
+            return mvnFile;
         }
-
-        // Remember this new instance for future request
-        mavenFiles.put(file, mvnFile);
-        return mvnFile;
     }
 
     /**
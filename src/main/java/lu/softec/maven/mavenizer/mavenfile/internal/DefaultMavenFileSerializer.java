@@ -22,6 +22,7 @@ import java.util.Iterator;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.codehaus.plexus.util.xml.pull.XmlSerializer;
 
+import lu.softec.maven.mavenizer.analyzer.dependency.FileDependencySet;
 import lu.softec.maven.mavenizer.mavenfile.MavenFile;
 import lu.softec.maven.mavenizer.mavenfile.MavenFileSerializer;
 import lu.softec.maven.mavenizer.mavenfile.MavenFileSet;
@@ -70,16 +71,26 @@ public class DefaultMavenFileSerializer implements MavenFileSerializer
     }
 
     public void SerializeMavenFileSet(MavenFileSet set) throws IOException
+    {
+        SerializeMavenFileSet(set, null);
+    }
+
+    public void SerializeMavenFileSet(MavenFileSet set, FileDependencySet fileDependencies) throws IOException
     {
         serializer.startTag(null, MavenFileXmlMarkup.ARTIFACTS_TAG);
         for (Iterator it = set.iterator(); it.hasNext();) {
             MavenFile mvnFile = (MavenFile) it.next();
-            SerializeMavenFile(mvnFile);
+            SerializeMavenFile(mvnFile, fileDependencies);
         }
         serializer.endTag(null, MavenFileXmlMarkup.ARTIFACTS_TAG);
     }
 
     public void SerializeMavenFile(MavenFile mvnFile) throws IOException
+    {
+        SerializeMavenFile(mvnFile, null);
+    }
+
+    public void SerializeMavenFile(MavenFile mvnFile, FileDependencySet fileDependencies) throws IOException
     {
         serializer.startTag(null, MavenFileXmlMarkup.ARTIFACT_TAG);
         writeNameAttribute(mvnFile);
@@ -92,6 +103,7 @@ public class DefaultMavenFileSerializer implements MavenFileSerializer
 
                 serializer.startTag(null, MavenFileXmlMarkup.DEPENDENCY_TAG);
                 writeNameAttribute(file);
+                writeCountAttributes(fileDependencies, mvnFile, file);
                 writeCoordinates(file);
                 serializer.endTag(null, MavenFileXmlMarkup.DEPENDENCY_TAG);
             }
@@ -108,6 +120,21 @@ public class DefaultMavenFileSerializer implements MavenFileSerializer
         }
     }
 
+    private void writeCountAttributes(FileDependencySet fileDependencies, MavenFile mvnFile, MavenFile dependency)
+        throws IOException
+    {
+        if (fileDependencies == null) {
+            return;
+        }
+        int sourceClasses = fileDependencies.getSourceClassCount(mvnFile.getFile(), dependency.getFile());
+        int classDependencies = fileDependencies.getClassDependencyCount(mvnFile.getFile(), dependency.getFile());
+        if (sourceClasses != 0 || classDependencies != 0) {
+            serializer.attribute(null, MavenFileXmlMarkup.SOURCE_CLASSES_ATTRIBUTE, Integer.toString(sourceClasses));
+            serializer.attribute(null, MavenFileXmlMarkup.CLASS_DEPENDENCIES_ATTRIBUTE,
+                Integer.toString(classDependencies));
+        }
+    }
+
     private void writeCoordinates(MavenFile mvnFile) throws IOException
     {
         writeTag(MavenFileXmlMarkup.GROUPID_TAG, mvnFile.getGroupId());
@@ -30,6 +30,10 @@ class MavenFileXmlMarkup
 
     static final String NAME_ATTRIBUTE = "name";
 
+    static final String SOURCE_CLASSES_ATTRIBUTE = "sourceclasses";
+
+    static final String CLASS_DEPENDENCIES_ATTRIBUTE = "classdependencies";
+
     static final String GROUPID_TAG = "groupid";
 
     static final String ARTIFACTID_TAG = "artifactid";
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Walk a war holding a class tree and a jar, both mapped in memory and, when too large to be mapped, as a stream.
+ */
+public class ArchiveClassWalkerTest extends TestCase
+{
+    /**
+     * Temporary directory holding the archive
+     */
+    private File tmpDir;
+
+    /**
+     * Archive to walk
+     */
+    private File archive;
+
+    /**
+     * Directory where the archive would be extracted
+     */
+    private File baseDir;
+
+    /**
+     * Records the walked libraries and the number of classes walked in each of them
+     */
+    private static class Recorder extends AbstractClassWalkListener
+    {
+        private final List libraries = new ArrayList();
+
+        private int classes;
+
+        public void libraryWalkFileOpened(int progress, File file)
+        {
+            libraries.add(file);
+            classes = 0;
+        }
+
+        public void libraryWalkProcessClass(int progress, InputStream in)
+        {
+            classes++;
+        }
+
+        public void libraryWalkFileClosed()
+        {
+            libraries.add(new Integer(classes));
+        }
+    }
+
+    protected void setUp() throws Exception
+    {
+        tmpDir = File.createTempFile("mavenizer", "");
+        tmpDir.delete();
+        tmpDir.mkdirs();
+        archive = new File(tmpDir, "project.war");
+        baseDir = new File(tmpDir, "bin");
+
+        ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(jar);
+        try {
+            addClass(out, "junit/framework/TestResult");
+        } finally {
+            out.close();
+        }
+
+        out = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            addClass(out, "WEB-INF/classes/", "junit/framework/TestCase");
+            addClass(out, "WEB-INF/classes/", "junit/framework/Assert");
+            out.putNextEntry(new ZipEntry("WEB-INF/lib/junit-result.jar"));
+            out.write(jar.toByteArray());
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("index.html"));
+            out.write("<html/>".getBytes("ISO-8859-1"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+
+    protected void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    public void testMappedArchive() throws Exception
+    {
+        assertLibraries(walk());
+    }
+
+    public void testArchiveTooLargeToBeMapped() throws Exception
+    {
+        // Padding after the central directory keeps the archive readable as a stream, and the file sparse
+        RandomAccessFile raf = new RandomAccessFile(archive, "rw");
+        try {
+            raf.setLength(MappedZipFile.MAX_MAPPED_SIZE + 1);
+        } finally {
+            raf.close();
+        }
+        try {
+            new MappedZipFile(archive).close();
+            fail("Archive should be too large to be mapped");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertLibraries(walk());
+    }
+
+    /**
+     * Walk the archive
+     *
+     * @return the walked libraries, each followed by its number of classes
+     * @throws ClassWalkerExecutionException if the walk fails
+     */
+    private List walk() throws ClassWalkerExecutionException
+    {
+        Recorder recorder = new Recorder();
+        ArchiveClassWalker walker = new ArchiveClassWalker();
+        walker.setArchiveFile(archive);
+        walker.setBaseDir(baseDir);
+        walker.addClassWalkListener(recorder);
+        walker.scan();
+        return recorder.libraries;
+    }
+
+    /**
+     * Check that the jar and the class tree have been walked, whatever their order
+     *
+     * @param libraries the walked libraries, each followed by its number of classes
+     */
+    private void assertLibraries(List libraries)
+    {
+        assertEquals(4, libraries.size());
+        int jar = libraries.indexOf(new File(baseDir, "WEB-INF/lib/junit-result.jar"));
+        int tree = libraries.indexOf(new File(baseDir, "WEB-INF/classes"));
+        assertTrue(jar >= 0 && tree >= 0);
+        assertEquals(new Integer(1), libraries.get(jar + 1));
+        assertEquals(new Integer(2), libraries.get(tree + 1));
+    }
+
+    /**
+     * Add a class of the test class path to a zip archive
+     *
+     * @param out the zip archive
+     * @param name the internal name of the class
+     * @throws IOException if the class could not be added
+     */
+    private void addClass(ZipOutputStream out, String name) throws IOException
+    {
+        addClass(out, "", name);
+    }
+
+    /**
+     * Add a class of the test class path to a zip archive, below a directory
+     *
+     * @param out the zip archive
+     * @param dir the directory of the class tree, ending with a slash
+     * @param name the internal name of the class
+     * @throws IOException if the class could not be added
+     */
+    private void addClass(ZipOutputStream out, String dir, String name) throws IOException
+    {
+        out.putNextEntry(new ZipEntry(dir + name + ".class"));
+        InputStream in = getClass().getResourceAsStream("/" + name + ".class");
+        try {
+            IOUtil.copy(in, (OutputStream) out);
+        } finally {
+            in.close();
+        }
+        out.closeEntry();
+    }
+}
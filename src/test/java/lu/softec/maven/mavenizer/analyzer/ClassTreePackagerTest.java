@@ -0,0 +1,186 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.shared.jar.JarAnalyzer;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+import lu.softec.maven.mavenizer.analyzer.dependency.ClassDependencyAnalyser;
+import lu.softec.maven.mavenizer.analyzer.dependency.FileDependencySet;
+import lu.softec.maven.mavenizer.analyzer.mavenasm.ClassWalkDependencyVisitorListener;
+
+/**
+ * Analyse a directory holding a class tree and a jar, and package the class tree to identify it.
+ */
+public class ClassTreePackagerTest extends TestCase
+{
+    /**
+     * Temporary directory holding the binaries and the packaged jars
+     */
+    private File tmpDir;
+
+    /**
+     * Binaries base directory
+     */
+    private File baseDir;
+
+    /**
+     * Root of the class tree
+     */
+    private File classes;
+
+    /**
+     * Library used by the class tree
+     */
+    private File lib;
+
+    protected void setUp() throws Exception
+    {
+        tmpDir = File.createTempFile("mavenizer", "");
+        tmpDir.delete();
+        baseDir = new File(tmpDir, "bin");
+        classes = new File(baseDir, "WEB-INF/classes");
+        lib = new File(baseDir, "WEB-INF/lib/junit-result.jar");
+
+        copyClass("junit/framework/TestCase", new File(classes, "junit/framework/TestCase.class"));
+        copyClass("junit/framework/Assert", new File(classes, "junit/framework/Assert.class"));
+        FileUtils.fileWrite(new File(classes, "junit/framework/test.properties").getPath(), "test=true");
+
+        lib.getParentFile().mkdirs();
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(lib));
+        try {
+            out.putNextEntry(new JarEntry("junit/framework/TestResult.class"));
+            copyClass("junit/framework/TestResult", out);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+
+    protected void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    public void testAnalyseClassTree() throws Exception
+    {
+        ClassDependencyAnalyser analyser = new ClassDependencyAnalyser();
+        ClassDirectoryWalker walker = new ClassDirectoryWalker();
+        walker.setBaseDir(baseDir);
+        walker.addClassWalkListener(new ClassWalkDependencyVisitorListener(analyser, new SystemStreamLog()));
+        walker.scan();
+
+        FileDependencySet fileDeps = analyser.getFileDependencies();
+        assertTrue(fileDeps.contains(classes, lib));
+
+        Map jars = new ClassTreePackager(baseDir, new File(tmpDir, "classes")).packageClassTrees(fileDeps.getFiles());
+        assertEquals(1, jars.size());
+        File jar = (File) jars.get(classes);
+        assertEquals(new File(tmpDir, "classes/WEB-INF-classes.jar"), jar);
+
+        FileDependencySet packaged = fileDeps.getReplacedFiles(jars);
+        assertTrue(packaged.contains(jar, lib));
+        assertFalse(packaged.contains(classes, lib));
+        assertEquals(fileDeps.getClassDependencyCount(classes, lib), packaged.getClassDependencyCount(jar, lib));
+
+        JarFile jarFile = new JarFile(jar);
+        try {
+            assertNotNull(jarFile.getManifest());
+            assertNotNull(jarFile.getEntry("junit/framework/TestCase.class"));
+            assertNotNull(jarFile.getEntry("junit/framework/Assert.class"));
+            assertNotNull(jarFile.getEntry("junit/framework/test.properties"));
+        } finally {
+            jarFile.close();
+        }
+
+        // The jar could be identified, unlike the class tree
+        new JarAnalyzer(jar).closeQuietly();
+        try {
+            new JarAnalyzer(classes).closeQuietly();
+            fail("A class tree could not be identified");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testNestedClassTree() throws Exception
+    {
+        File nested = new File(classes, "nested");
+        copyClass("junit/framework/Test", new File(nested, "junit/framework/Test.class"));
+
+        Map jars = new ClassTreePackager(baseDir, new File(tmpDir, "classes")).packageClassTrees(
+            new File[]{classes, nested, lib});
+        assertEquals(2, jars.size());
+        assertEquals(new File(tmpDir, "classes/WEB-INF-classes-nested.jar"), jars.get(nested));
+
+        JarFile jarFile = new JarFile((File) jars.get(classes));
+        try {
+            assertNotNull(jarFile.getEntry("junit/framework/TestCase.class"));
+            assertNull(jarFile.getEntry("nested/junit/framework/Test.class"));
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    /**
+     * Copy a class of the test class path to a file
+     *
+     * @param name the internal name of the class
+     * @param file the file to write
+     * @throws IOException if the class could not be copied
+     */
+    private void copyClass(String name, File file) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            copyClass(name, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Copy a class of the test class path to a stream
+     *
+     * @param name the internal name of the class
+     * @param out the stream to write
+     * @throws IOException if the class could not be copied
+     */
+    private void copyClass(String name, OutputStream out) throws IOException
+    {
+        InputStream in = getClass().getResourceAsStream("/" + name + ".class");
+        try {
+            IOUtil.copy(in, out);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Ordered joins and failure propagation of the {@link ForkJoinExecutor}
+ */
+public class ForkJoinExecutorTest extends TestCase
+{
+    /**
+     * Task checking that results are joined in index order on the calling thread
+     */
+    private static class OrderedTask implements ForkJoinExecutor.Task
+    {
+        /**
+         * Index of the task failing when forked, -1 for none
+         */
+        private final int failingFork;
+
+        /**
+         * Index of the task failing when joined, -1 for none
+         */
+        private final int failingJoin;
+
+        /**
+         * Thread executing the tasks
+         */
+        private final Thread caller = Thread.currentThread();
+
+        /**
+         * Indexes of the joined tasks
+         */
+        private final List joined = new ArrayList();
+
+        /**
+         * Indexes of the forked tasks
+         */
+        private final List forked = Collections.synchronizedList(new ArrayList());
+
+        OrderedTask(int failingFork, int failingJoin)
+        {
+            this.failingFork = failingFork;
+            this.failingJoin = failingJoin;
+        }
+
+        public Object fork(int index)
+        {
+            forked.add(new Integer(index));
+            sleep(index);
+            if (index == failingFork) {
+                throw new IllegalStateException("fork " + index);
+            }
+            return new Integer(index * 2);
+        }
+
+        public void join(int index, Object result)
+        {
+            assertSame(caller, Thread.currentThread());
+            assertEquals(joined.size(), index);
+            assertEquals(new Integer(index * 2), result);
+            if (index == failingJoin) {
+                throw new IllegalArgumentException("join " + index);
+            }
+            joined.add(new Integer(index));
+        }
+    }
+
+    public void testOrderedJoin()
+    {
+        ForkJoinExecutor executor = new ForkJoinExecutor(4);
+        OrderedTask task = new OrderedTask(-1, -1);
+        executor.execute(200, task);
+        assertEquals(200, task.joined.size());
+        assertEquals(200, task.forked.size());
+    }
+
+    public void testSingleThread()
+    {
+        ForkJoinExecutor executor = new ForkJoinExecutor(1);
+        OrderedTask task = new OrderedTask(-1, -1);
+        executor.execute(20, task);
+        assertEquals(20, task.joined.size());
+    }
+
+    public void testForkFailure()
+    {
+        ForkJoinExecutor executor = new ForkJoinExecutor(4, 8);
+        OrderedTask task = new OrderedTask(50, -1);
+        try {
+            executor.execute(200, task);
+            fail("Fork failure not propagated");
+        } catch (IllegalStateException e) {
+            assertEquals("fork 50", e.getMessage());
+        }
+        assertEquals(50, task.joined.size());
+        // Forks are abandoned beyond the window
+        assertTrue(task.forked.size() <= 50 + 8 + 4);
+
+        // The executor could be reused after a failure
+        task = new OrderedTask(-1, -1);
+        executor.execute(100, task);
+        assertEquals(100, task.joined.size());
+    }
+
+    public void testJoinFailure()
+    {
+        ForkJoinExecutor executor = new ForkJoinExecutor(4);
+        OrderedTask task = new OrderedTask(-1, 30);
+        try {
+            executor.execute(200, task);
+            fail("Join failure not propagated");
+        } catch (IllegalArgumentException e) {
+            assertEquals("join 30", e.getMessage());
+        }
+        assertEquals(30, task.joined.size());
+    }
+
+    public void testErrorPropagation()
+    {
+        ForkJoinExecutor executor = new ForkJoinExecutor(3);
+        try {
+            executor.execute(10, new ForkJoinExecutor.Task()
+            {
+                public Object fork(int index)
+                {
+                    if (index == 5) {
+                        throw new OutOfMemoryError("fork " + index);
+                    }
+                    return null;
+                }
+
+                public void join(int index, Object result)
+                {
+                    assertTrue(index < 5);
+                }
+            });
+            fail("Error not propagated");
+        } catch (OutOfMemoryError e) {
+            assertEquals("fork 5", e.getMessage());
+        }
+    }
+
+    /**
+     * Delay a task, so that tasks complete out of order
+     *
+     * @param index the index of the task
+     */
+    static void sleep(int index)
+    {
+        try {
+            Thread.sleep((index * 7) % 5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Compare a {@link MappedZipFile} with a {@link ZipFile} on generated archives
+ */
+public class MappedZipFileTest extends TestCase
+{
+    /**
+     * Number of entries beyond which the end of central directory needs zip64 records
+     */
+    private static final int ZIP64_ENTRIES = 0xFFFF;
+
+    /**
+     * Generated archive
+     */
+    private File file;
+
+    protected void setUp() throws Exception
+    {
+        file = File.createTempFile("mapped", ".jar");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        file.delete();
+    }
+
+    public void testStoredAndDeflatedEntries() throws IOException
+    {
+        writeArchive(file, 100, null);
+        compare(file, 1);
+    }
+
+    public void testZip64() throws IOException
+    {
+        writeArchive(file, ZIP64_ENTRIES + 100, null);
+        compare(file, 97);
+    }
+
+    public void testNestedArchive() throws IOException
+    {
+        File nested = File.createTempFile("nested", ".jar");
+        try {
+            writeArchive(nested, 10, null);
+            writeArchive(file, 10, nested);
+        } finally {
+            nested.delete();
+        }
+
+        MappedZipFile zip = new MappedZipFile(file);
+        try {
+            int index = zip.indexOf("lib/nested.jar");
+            assertTrue(index >= 0);
+            MappedZipFile inner = new MappedZipFile(zip.readEntry(index), file.getPath() + "!/lib/nested.jar");
+            try {
+                assertEquals(10, inner.size());
+                assertEquals(getContent(3), new String(inner.read(inner.indexOf(getName(3))), 0,
+                    inner.getSize(inner.indexOf(getName(3))), "UTF-8"));
+            } finally {
+                inner.close();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    public void testEncryptedEntry() throws IOException
+    {
+        writeArchive(file, 3, null);
+
+        // Set the encryption flag of the first entry in the central directory, located by the end record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() - 22 + 16);
+            int central = Integer.reverseBytes(raf.readInt());
+            raf.seek(central + 8);
+            int flags = raf.read();
+            raf.seek(central + 8);
+            raf.write(flags | 1);
+        } finally {
+            raf.close();
+        }
+
+        MappedZipFile zip = new MappedZipFile(file);
+        try {
+            assertEquals(3, zip.size());
+            assertEquals(getName(0), zip.getEntryName(0));
+            try {
+                zip.read(0);
+                fail("Encrypted entry read");
+            } catch (ZipException e) {
+                // expected
+            }
+            assertEquals(getContent(1), new String(zip.read(1), 0, zip.getSize(1), "UTF-8"));
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Compare the entries of an archive read by {@link MappedZipFile} and by {@link ZipFile}
+     *
+     * @param archive the archive
+     * @param step the interval between the entries whose content is compared
+     * @throws IOException if the archive could not be read
+     */
+    private static void compare(File archive, int step) throws IOException
+    {
+        ZipFile reference = new ZipFile(archive);
+        MappedZipFile zip = new MappedZipFile(archive);
+        try {
+            assertEquals(reference.size(), zip.size());
+            for (int i = 0; i < zip.size(); i++) {
+                String name = zip.getEntryName(i);
+                ZipEntry entry = reference.getEntry(name);
+                assertNotNull(name, entry);
+                assertEquals(name, entry.getSize(), zip.getSize(i));
+                assertEquals(name, name.endsWith(".class"), zip.isClass(i));
+                if (i % step == 0) {
+                    InputStream in = reference.getInputStream(entry);
+                    byte[] expected;
+                    try {
+                        expected = IOUtil.toByteArray(in);
+                    } finally {
+                        in.close();
+                    }
+                    byte[] read = zip.read(i);
+                    for (int j = 0; j < expected.length; j++) {
+                        assertEquals(name, expected[j], read[j]);
+                    }
+                    ByteBuffer buffer = zip.readEntry(i);
+                    assertEquals(name, expected.length, buffer.remaining());
+                    for (int j = 0; j < expected.length; j++) {
+                        assertEquals(name, expected[j], buffer.get());
+                    }
+                }
+            }
+        } finally {
+            zip.close();
+            reference.close();
+        }
+    }
+
+    /**
+     * Write an archive mixing stored and deflated entries
+     *
+     * @param archive the archive to write
+     * @param count the number of entries
+     * @param nested an archive stored as lib/nested.jar, or null
+     * @throws IOException if the archive could not be written
+     */
+    private static void writeArchive(File archive, int count, File nested) throws IOException
+    {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            for (int i = 0; i < count; i++) {
+                byte[] content = getContent(i).getBytes("UTF-8");
+                ZipEntry entry = new ZipEntry(getName(i));
+                if (i % 3 == 0) {
+                    setStored(entry, content);
+                }
+                out.putNextEntry(entry);
+                out.write(content);
+                out.closeEntry();
+            }
+            if (nested != null) {
+                byte[] content;
+                InputStream in = new FileInputStream(nested);
+                try {
+                    content = IOUtil.toByteArray(in);
+                } finally {
+                    in.close();
+                }
+                ZipEntry entry = new ZipEntry("lib/nested.jar");
+                setStored(entry, content);
+                out.putNextEntry(entry);
+                out.write(content);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Set up a stored entry
+     *
+     * @param entry the entry
+     * @param content the content of the entry
+     */
+    private static void setStored(ZipEntry entry, byte[] content)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        entry.setCrc(crc.getValue());
+    }
+
+    /**
+     * Returns the name of a generated entry
+     *
+     * @param i the index of the entry
+     * @return the name of the entry
+     */
+    private static String getName(int i)
+    {
+        return "p" + (i % 10) + "/E" + i + ((i % 2 == 0) ? ".class" : ".txt");
+    }
+
+    /**
+     * Returns the content of a generated entry
+     *
+     * @param i the index of the entry
+     * @return the content of the entry
+     */
+    private static String getContent(int i)
+    {
+        StringBuffer content = new StringBuffer();
+        for (int j = 0; j <= i % 50; j++) {
+            content.append("entry ").append(i).append(' ');
+        }
+        return content.toString();
+    }
+}
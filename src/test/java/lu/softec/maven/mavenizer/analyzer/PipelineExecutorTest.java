@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Ordered joins and failure propagation of the {@link PipelineExecutor}
+ */
+public class PipelineExecutorTest extends TestCase
+{
+    /**
+     * Task checking that results flow through both stages and are joined in index order on the calling thread
+     */
+    private static class OrderedTask implements PipelineExecutor.Task
+    {
+        /**
+         * Index of the task failing when read, -1 for none
+         */
+        private final int failingRead;
+
+        /**
+         * Index of the task failing when parsed, -1 for none
+         */
+        private final int failingParse;
+
+        /**
+         * Thread executing the tasks
+         */
+        private final Thread caller = Thread.currentThread();
+
+        /**
+         * Indexes of the joined tasks
+         */
+        private final List joined = new ArrayList();
+
+        OrderedTask(int failingRead, int failingParse)
+        {
+            this.failingRead = failingRead;
+            this.failingParse = failingParse;
+        }
+
+        public Object read(int index)
+        {
+            ForkJoinExecutorTest.sleep(index);
+            if (index == failingRead) {
+                throw new IllegalStateException("read " + index);
+            }
+            return new Integer(index);
+        }
+
+        public Object parse(int index, Object data)
+        {
+            assertEquals(new Integer(index), data);
+            ForkJoinExecutorTest.sleep(index + 1);
+            if (index == failingParse) {
+                throw new IllegalArgumentException("parse " + index);
+            }
+            return "parsed " + index;
+        }
+
+        public void join(int index, Object result)
+        {
+            assertSame(caller, Thread.currentThread());
+            assertEquals(joined.size(), index);
+            assertEquals("parsed " + index, result);
+            joined.add(new Integer(index));
+        }
+    }
+
+    public void testOrderedJoin()
+    {
+        PipelineExecutor executor = new PipelineExecutor(2, 3, 2);
+        OrderedTask task = new OrderedTask(-1, -1);
+        executor.execute(200, task);
+        assertEquals(200, task.joined.size());
+        assertTrue(executor.getElapsedTime() >= 0);
+    }
+
+    public void testSingleTask()
+    {
+        PipelineExecutor executor = new PipelineExecutor(4, 4);
+        OrderedTask task = new OrderedTask(-1, -1);
+        executor.execute(1, task);
+        assertEquals(1, task.joined.size());
+        executor.execute(0, task);
+        assertEquals(1, task.joined.size());
+    }
+
+    public void testReadFailure()
+    {
+        PipelineExecutor executor = new PipelineExecutor(2, 2);
+        OrderedTask task = new OrderedTask(40, -1);
+        try {
+            executor.execute(200, task);
+            fail("Read failure not propagated");
+        } catch (IllegalStateException e) {
+            assertEquals("read 40", e.getMessage());
+        }
+        assertEquals(40, task.joined.size());
+
+        // The executor could be reused after a failure
+        task = new OrderedTask(-1, -1);
+        executor.execute(50, task);
+        assertEquals(50, task.joined.size());
+    }
+
+    public void testParseFailure()
+    {
+        PipelineExecutor executor = new PipelineExecutor(3, 2);
+        OrderedTask task = new OrderedTask(-1, 70);
+        try {
+            executor.execute(200, task);
+            fail("Parse failure not propagated");
+        } catch (IllegalArgumentException e) {
+            assertEquals("parse 70", e.getMessage());
+        }
+        assertEquals(70, task.joined.size());
+    }
+}
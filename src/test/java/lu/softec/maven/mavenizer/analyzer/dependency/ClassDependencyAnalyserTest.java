@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.dependency;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Resolution of the classes defined by several files
+ */
+public class ClassDependencyAnalyserTest extends TestCase
+{
+    private static final File LIB_A = new File("/bin/a.jar");
+
+    private static final File LIB_B = new File("/bin/b.jar");
+
+    private static final File DEP_A = new File("/repo/a.jar");
+
+    private static final File DEP_B = new File("/repo/b.jar");
+
+    public void testLibrariesOrderedByPath()
+    {
+        ClassDependencyAnalyser analyser = new ClassDependencyAnalyser();
+        analyser.addClass(LIB_B, "x/X", 1);
+        analyser.addClass(LIB_A, "x/X", 2);
+        analyser.addClass(LIB_B, "x/Y", 3);
+
+        assertEquals(LIB_A, analyser.getProcessedClasses().get("x/X"));
+        assertEquals(LIB_B, analyser.getProcessedClasses().get("x/Y"));
+        ClassDependencyAnalyser.DuplicateClass duplicate =
+            (ClassDependencyAnalyser.DuplicateClass) analyser.getDuplicateClasses().get("x/X");
+        assertEquals(Arrays.asList(new File[]{LIB_A, LIB_B}), Arrays.asList(duplicate.getFiles()));
+        assertTrue(duplicate.isDivergent());
+    }
+
+    public void testTiersOrderedByWalk()
+    {
+        ClassDependencyAnalyser analyser = new ClassDependencyAnalyser();
+        analyser.addClass(LIB_B, "x/X", 1);
+        analyser.startTier();
+        analyser.addClass(DEP_B, "x/X", 1);
+        analyser.addClass(DEP_B, "x/Y", 0);
+        analyser.addClass(DEP_A, "x/Y", 0);
+        analyser.addClass(DEP_A, "x/X", 1);
+
+        assertEquals(LIB_B, analyser.getProcessedClasses().get("x/X"));
+        assertEquals(DEP_B, analyser.getProcessedClasses().get("x/Y"));
+        ClassDependencyAnalyser.DuplicateClass duplicate =
+            (ClassDependencyAnalyser.DuplicateClass) analyser.getDuplicateClasses().get("x/X");
+        assertEquals(Arrays.asList(new File[]{LIB_B, DEP_B, DEP_A}), Arrays.asList(duplicate.getFiles()));
+        assertFalse(duplicate.isDivergent());
+    }
+
+    public void testForksJoinedInWalkOrder()
+    {
+        ClassDependencyAnalyser analyser = new ClassDependencyAnalyser();
+        analyser.addClass(LIB_A, "x/X", 1);
+        analyser.startTier();
+        ClassDependencyAnalyser first = analyser.fork();
+        ClassDependencyAnalyser second = analyser.fork();
+        second.addClass(DEP_A, "x/Y", 0);
+        second.addClass(DEP_A, "x/X", 0);
+        first.addClass(DEP_B, "x/Y", 0);
+        analyser.join(first);
+        analyser.join(second);
+
+        assertEquals(LIB_A, analyser.getProcessedClasses().get("x/X"));
+        assertEquals(DEP_B, analyser.getProcessedClasses().get("x/Y"));
+        ClassDependencyAnalyser.DuplicateClass duplicate =
+            (ClassDependencyAnalyser.DuplicateClass) analyser.getDuplicateClasses().get("x/Y");
+        assertEquals(Arrays.asList(new File[]{DEP_B, DEP_A}), Arrays.asList(duplicate.getFiles()));
+    }
+
+    public void testMovedClassResolution()
+    {
+        ClassDependencyAnalyser analyser = new ClassDependencyAnalyser();
+        analyser.addClass(LIB_B, "x/X", 0);
+        analyser.addClass(LIB_B, "x/Y", 0);
+        analyser.addDependency("x/X", "x/Y");
+        assertEquals(0, analyser.getFileDependencies().getDependencies(LIB_B).length);
+
+        analyser.addClass(LIB_A, "x/Y", 0);
+        assertTrue(analyser.getFileDependencies().contains(LIB_B, LIB_A));
+        assertFalse(analyser.getFileDependencies().contains(LIB_B, LIB_B));
+    }
+
+    public void testForkedWalkSpills() throws Exception
+    {
+        File spillDir = File.createTempFile("mavenizer", "");
+        spillDir.delete();
+        spillDir.mkdirs();
+        try {
+            ClassDependencyAnalyser analyser = new ClassDependencyAnalyser();
+            analyser.setMemoryBudget(0, spillDir);
+            ClassDependencyAnalyser fork = analyser.fork();
+            for (int i = 0; i < 3000; i++) {
+                fork.addClass(LIB_A, "a/A" + i, 0);
+                fork.addDependency("a/A" + i, "b/B" + (i % 10));
+            }
+            assertTrue(fork.getClassDependencies().isSpilled());
+            fork.addClass(LIB_B, "b/B0", 0);
+            analyser.join(fork);
+
+            assertFalse(fork.getClassDependencies().isSpilled());
+            assertEquals(3000, analyser.getClassDependencies().size());
+            assertTrue(analyser.getClassDependencies().contains("a/A2999", "b/B9"));
+            assertTrue(analyser.getFileDependencies().contains(LIB_A, LIB_B));
+            assertEquals(300, analyser.getFileDependencies().getClassDependencyCount(LIB_A, LIB_B));
+        } finally {
+            FileUtils.deleteDirectory(spillDir);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.dependency;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Interning of class names and ordering of class dependencies
+ */
+public class ClassDependencySetTest extends TestCase
+{
+    public void testSymbolTable()
+    {
+        SymbolTable symbols = new SymbolTable();
+        int b = symbols.intern("b/B");
+        int a = symbols.intern("a/A");
+        assertEquals(b, symbols.intern("b/B"));
+        assertEquals(a, symbols.lookup("a/A"));
+        assertEquals(-1, symbols.lookup("c/C"));
+        assertEquals("b/B", symbols.getName(b));
+        assertEquals(2, symbols.size());
+        assertTrue(symbols.getIdLimit() > Math.max(a, b));
+        assertEquals(Arrays.asList(new Integer[]{new Integer(a), new Integer(b)}), toList(symbols.getSortedIds()));
+    }
+
+    public void testOrderedByName()
+    {
+        ClassDependencySet set = new ClassDependencySet();
+        assertTrue(set.add("b/B", "a/A"));
+        assertTrue(set.add("a/A", "c/C"));
+        assertTrue(set.add("a/A", "b/B"));
+        assertTrue(set.add("a/A", null));
+        assertFalse(set.add("a/A", "b/B"));
+        assertEquals(4, set.size());
+        assertTrue(set.contains("a/A", null));
+        assertFalse(set.contains("b/B", "c/C"));
+        assertFalse(set.contains("d/D", "a/A"));
+
+        assertEquals(Arrays.asList(new String[]{"a/A>null", "a/A>b/B", "a/A>c/C", "b/B>a/A"}), toList(set));
+
+        assertTrue(set.remove("a/A", "b/B"));
+        assertFalse(set.remove("a/A", "b/B"));
+        assertFalse(set.remove("d/D", "a/A"));
+        assertEquals(Arrays.asList(new String[]{"a/A>null", "a/A>c/C", "b/B>a/A"}), toList(set));
+    }
+
+    public void testMergeSharedSymbols()
+    {
+        SymbolTable symbols = new SymbolTable();
+        ClassDependencySet set = new ClassDependencySet(symbols);
+        set.add("a/A", "b/B");
+        ClassDependencySet other = new ClassDependencySet(symbols);
+        other.add("a/A", "b/B");
+        other.add("b/B", "c/C");
+        ClassDependencySet foreign = new ClassDependencySet();
+        foreign.add("c/C", "d/D");
+
+        ClassDependencySet added = new ClassDependencySet(symbols);
+        assertTrue(set.merge(other, added));
+        assertTrue(set.merge(foreign, null));
+        assertFalse(set.merge(other, null));
+        assertEquals(Arrays.asList(new String[]{"b/B>c/C"}), toList(added));
+        assertEquals(Arrays.asList(new String[]{"a/A>b/B", "b/B>c/C", "c/C>d/D"}), toList(set));
+    }
+
+    /**
+     * Convert ids to a list
+     *
+     * @param ids the ids
+     * @return a {@link List} of {@link Integer}
+     */
+    private static List toList(int[] ids)
+    {
+        List list = new ArrayList();
+        for (int i = 0; i < ids.length; i++) {
+            list.add(new Integer(ids[i]));
+        }
+        return list;
+    }
+
+    /**
+     * Convert the dependencies of a set to strings, in iteration order
+     *
+     * @param set the dependencies
+     * @return a {@link List} of dependencies formatted as from>to
+     */
+    private static List toList(ClassDependencySet set)
+    {
+        List list = new ArrayList();
+        for (Iterator it = set.iterator(); it.hasNext();) {
+            ClassDependencySet.ClassPair pair = (ClassDependencySet.ClassPair) it.next();
+            list.add(pair.getFromName() + ">" + pair.getToName());
+        }
+        return list;
+    }
+}
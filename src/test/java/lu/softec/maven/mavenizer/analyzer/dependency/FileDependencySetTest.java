@@ -0,0 +1,256 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.dependency;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Compressed sparse row graph of file dependencies, and the sets derived from it
+ */
+public class FileDependencySetTest extends TestCase
+{
+    private static final File A = new File("/lib/a.jar");
+
+    private static final File B = new File("/lib/b.jar");
+
+    private static final File C = new File("/lib/c.jar");
+
+    private static final File D = new File("/lib/d.jar");
+
+    private static final File E = new File("/lib/e.jar");
+
+    private static final File F = new File("/lib/f.jar");
+
+    public void testGraph()
+    {
+        FileDependencySet set = new FileDependencySet();
+        assertTrue(set.add(C, A));
+        assertTrue(set.add(A, C));
+        assertTrue(set.add(A, B));
+        assertTrue(set.add(new File("/lib/b.jar"), C));
+        assertTrue(set.add(D, null));
+        assertFalse(set.add(new File("/lib/a.jar"), B));
+        assertEquals(5, set.size());
+
+        assertEquals(Arrays.asList(new File[]{A, B, C, D}), Arrays.asList(set.getFiles()));
+        assertEquals(Arrays.asList(new File[]{B, C}), Arrays.asList(set.getDependencies(A)));
+        assertEquals(Arrays.asList(new File[]{A, B}), Arrays.asList(set.getDependents(C)));
+        assertEquals(0, set.getDependencies(D).length);
+        assertEquals(0, set.getDependents(E).length);
+
+        Iterator it = set.iterator();
+        assertEquals(new FileDependencySet.FilePair(A, B), it.next());
+        it.remove();
+        assertEquals(new FileDependencySet.FilePair(A, C), it.next());
+        assertFalse(set.contains(A, B));
+        assertEquals(Arrays.asList(new File[]{C}), Arrays.asList(set.getDependencies(A)));
+        assertEquals(4, set.size());
+    }
+
+    public void testCycles()
+    {
+        FileDependencySet set = new FileDependencySet();
+        set.add(B, C);
+        set.add(C, A);
+        set.add(A, B);
+        set.add(C, D);
+        set.add(D, E);
+        set.add(E, D);
+        set.add(F, null);
+
+        File[][] cycles = set.getCycles();
+        assertEquals(2, cycles.length);
+        assertEquals(Arrays.asList(new File[]{A, B, C}), Arrays.asList(cycles[0]));
+        assertEquals(Arrays.asList(new File[]{D, E}), Arrays.asList(cycles[1]));
+
+        FileDependencySet broken = set.getAcyclicDependencies(false);
+        assertEquals(0, broken.getCycles().length);
+        for (Iterator it = broken.iterator(); it.hasNext();) {
+            assertTrue(set.contains((AbstractDependencySet.Pair) it.next()));
+        }
+        assertTrue(broken.contains(C, D));
+        assertTrue(broken.contains(F, null));
+        assertEquals(5, broken.size());
+
+        FileDependencySet merged = set.getAcyclicDependencies(true);
+        assertEquals(0, merged.getCycles().length);
+        assertTrue(merged.contains(A, B));
+        assertTrue(merged.contains(A, C));
+        assertTrue(merged.contains(D, E));
+        assertTrue(merged.contains(C, D));
+        assertTrue(merged.contains(F, null));
+        assertFalse(merged.contains(C, A));
+        assertFalse(merged.contains(E, D));
+        assertEquals(5, merged.size());
+    }
+
+    public void testTransitiveReduction()
+    {
+        FileDependencySet set = new FileDependencySet();
+        set.add(A, B);
+        set.add(B, C);
+        set.add(A, C);
+        set.add(A, null);
+        // Files depending on each other never justify the removal of each other
+        set.add(D, E);
+        set.add(E, D);
+        set.add(D, F);
+        set.add(E, F);
+
+        FileDependencySet reduction = set.getTransitiveReduction();
+        assertFalse(reduction.contains(A, C));
+        assertTrue(reduction.contains(A, B));
+        assertTrue(reduction.contains(B, C));
+        assertTrue(reduction.contains(A, null));
+        assertTrue(reduction.contains(D, E));
+        assertTrue(reduction.contains(E, D));
+        assertTrue(reduction.contains(D, F));
+        assertTrue(reduction.contains(E, F));
+        assertEquals(set.size() - 1, reduction.size());
+    }
+
+    public void testTransitiveReductionKeepsReachability()
+    {
+        Random random = new Random(11);
+        for (int round = 0; round < 100; round++) {
+            int count = 2 + random.nextInt(30);
+            File[] files = new File[count];
+            for (int i = 0; i < count; i++) {
+                files[i] = new File("/lib/f" + i + ".jar");
+            }
+            FileDependencySet set = new FileDependencySet();
+            for (int i = random.nextInt(count * 4); i > 0; i--) {
+                int from = random.nextInt(count);
+                int to = random.nextInt(count);
+                if (from != to && (round % 2 == 0 || from < to)) {
+                    set.add(files[from], files[to]);
+                }
+            }
+
+            FileDependencySet reduction = set.getTransitiveReduction();
+            for (Iterator it = reduction.iterator(); it.hasNext();) {
+                assertTrue(set.contains((AbstractDependencySet.Pair) it.next()));
+            }
+            assertEquals(getReach(set, files), getReach(reduction, files));
+        }
+    }
+
+    public void testPruning()
+    {
+        FileDependencySet set = new FileDependencySet();
+        set.add(A, B, 1, 1);
+        set.add(A, C, 5, 3);
+        set.add(A, D, 4, 1);
+        set.add(A, null, 0, 0);
+        set.add(E, F);
+        assertEquals(5, set.getClassDependencyCount(A, C));
+        assertEquals(3, set.getSourceClassCount(A, C));
+
+        FileDependencySet pruned = set.getPrunedDependencies(2, 2);
+        assertFalse(pruned.contains(A, B));
+        assertTrue(pruned.contains(A, C));
+        assertFalse(pruned.contains(A, D));
+        assertTrue(pruned.contains(A, null));
+        // Dependencies without counts are not pruned
+        assertTrue(pruned.contains(E, F));
+        assertEquals(5, pruned.getClassDependencyCount(A, C));
+
+        pruned = set.getPrunedDependencies(1, 4);
+        assertFalse(pruned.contains(A, B));
+        assertTrue(pruned.contains(A, D));
+    }
+
+    public void testReplacedFiles()
+    {
+        FileDependencySet set = new FileDependencySet();
+        set.add(A, B, 2, 1);
+        set.add(B, C, 3, 2);
+        set.add(A, C, 4, 3);
+
+        Map replacements = new HashMap();
+        replacements.put(B, D);
+        replacements.put(C, D);
+        FileDependencySet replaced = set.getReplacedFiles(replacements);
+        assertEquals(2, replaced.size());
+        assertTrue(replaced.contains(A, D));
+        assertTrue(replaced.contains(D, null));
+        assertEquals(6, replaced.getClassDependencyCount(A, D));
+        assertEquals(4, replaced.getSourceClassCount(A, D));
+    }
+
+    public void testMergedSourceClasses()
+    {
+        FileDependencySet set = new FileDependencySet();
+        set.add(A, B, 10);
+        set.add(B, A, 11);
+        set.add(F, A, 1);
+        set.add(F, B, 1);
+        set.add(F, B, 2);
+        assertEquals(2, set.getSourceClassCount(F, B));
+
+        // The class depending on both files of the cycle is counted once
+        FileDependencySet merged = set.getPrunedDependencies(1, 1).getAcyclicDependencies(true);
+        assertTrue(merged.contains(F, A));
+        assertFalse(merged.contains(F, B));
+        assertEquals(3, merged.getClassDependencyCount(F, A));
+        assertEquals(2, merged.getSourceClassCount(F, A));
+        assertEquals(0, merged.getSourceClassCount(A, B));
+
+        Map replacements = new HashMap();
+        replacements.put(A, D);
+        replacements.put(B, D);
+        FileDependencySet replaced = set.getReplacedFiles(replacements);
+        assertEquals(3, replaced.getClassDependencyCount(F, D));
+        assertEquals(2, replaced.getSourceClassCount(F, D));
+    }
+
+    /**
+     * Compute the files reached from each file
+     *
+     * @param set the file dependencies
+     * @param files the files
+     * @return a {@link Map} of the {@link Set} of files reached from each file
+     */
+    private static Map getReach(FileDependencySet set, File[] files)
+    {
+        Map reach = new HashMap();
+        for (int i = 0; i < files.length; i++) {
+            Set seen = new HashSet();
+            LinkedList queue = new LinkedList();
+            queue.add(files[i]);
+            while (!queue.isEmpty()) {
+                File[] dependencies = set.getDependencies((File) queue.removeFirst());
+                for (int j = 0; j < dependencies.length; j++) {
+                    if (seen.add(dependencies[j])) {
+                        queue.add(dependencies[j]);
+                    }
+                }
+            }
+            reach.put(files[i], seen);
+        }
+        return reach;
+    }
+}
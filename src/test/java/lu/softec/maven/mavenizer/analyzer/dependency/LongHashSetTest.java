@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.dependency;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Compare a {@link LongHashSet} with a {@link HashSet} of {@link Long}
+ */
+public class LongHashSetTest extends TestCase
+{
+    public void testAddRemove()
+    {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(0));
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertFalse(set.contains(0));
+        assertTrue(set.contains(-1));
+        assertEquals(2, set.size());
+
+        long[] values = set.toArray();
+        Arrays.sort(values);
+        assertEquals(Long.MIN_VALUE, values[0]);
+        assertEquals(-1, values[1]);
+
+        int modCount = set.getModCount();
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(-1));
+        assertTrue(set.getModCount() != modCount);
+    }
+
+    public void testResize()
+    {
+        LongHashSet set = new LongHashSet();
+        for (long i = 1; i <= 100000; i++) {
+            assertTrue(set.add(i << 32));
+        }
+        assertEquals(100000, set.size());
+        for (long i = 1; i <= 100000; i += 2) {
+            assertTrue(set.remove(i << 32));
+        }
+        assertEquals(50000, set.size());
+        for (long i = 1; i <= 100000; i++) {
+            assertEquals(i % 2 == 0, set.contains(i << 32));
+        }
+        assertEquals(50000, set.toArray().length);
+    }
+
+    public void testRandomOperations()
+    {
+        Random random = new Random(1);
+        LongHashSet set = new LongHashSet();
+        Set reference = new HashSet();
+        for (int i = 0; i < 300000; i++) {
+            // Clustered values, to exercise the backward shift of removals
+            long value = random.nextInt(5000) * (random.nextBoolean() ? 1L : 0x100000000L);
+            Long key = new Long(value);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(reference.add(key), set.add(value));
+                    break;
+                case 1:
+                    assertEquals(reference.remove(key), set.remove(value));
+                    break;
+                default:
+                    assertEquals(reference.contains(key), set.contains(value));
+            }
+            assertEquals(reference.size(), set.size());
+        }
+
+        long[] values = set.toArray();
+        assertEquals(reference.size(), values.length);
+        for (int i = 0; i < values.length; i++) {
+            assertTrue(reference.contains(new Long(values[i])));
+        }
+    }
+
+    public void testCounters()
+    {
+        Random random = new Random(3);
+        LongHashSet set = new LongHashSet(2);
+        Map reference = new HashMap();
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextInt(3000) - 10;
+            Long key = new Long(value);
+            int operation = random.nextInt(3);
+            if (operation < 2) {
+                int column = random.nextInt(2);
+                int delta = random.nextInt(5);
+                set.add(value, column, delta);
+                int[] counters = (int[]) reference.get(key);
+                if (counters == null) {
+                    counters = new int[2];
+                    reference.put(key, counters);
+                }
+                counters[column] += delta;
+            } else {
+                set.remove(value);
+                reference.remove(key);
+            }
+
+            int[] counters = (int[]) reference.get(key);
+            for (int column = 0; column < 2; column++) {
+                assertEquals((counters == null) ? 0 : counters[column], set.get(value, column));
+            }
+            assertEquals(reference.size(), set.size());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.dependency;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Merge and sort runs of sorted long values
+ */
+public class SortedLongRunsTest extends TestCase
+{
+    /**
+     * Directory of the run files
+     */
+    private File directory;
+
+    protected void setUp() throws Exception
+    {
+        directory = File.createTempFile("runs", "");
+        directory.delete();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testCompact()
+    {
+        SortedLongRuns runs = new SortedLongRuns(directory);
+        assertTrue(runs.isEmpty());
+        runs.add(new long[]{1, 3, 5, 7}, 4);
+        runs.add(new long[]{-2, 3, 4, 99}, 3);
+        runs.add(new long[0], 0);
+        assertEquals(7, runs.getCount());
+        assertTrue(runs.contains(-2));
+        assertFalse(runs.contains(99));
+
+        assertEquals(8, runs.compact(new long[]{0, 5, 8}, 3));
+        assertEquals(8, runs.getCount());
+        assertTrue(runs.contains(0));
+        assertTrue(runs.contains(8));
+        assertFalse(runs.contains(2));
+        assertEquals(1, directory.list().length);
+
+        assertEquals(8, runs.compact(new long[0], 0));
+        runs.clear();
+        assertTrue(runs.isEmpty());
+        assertEquals(0, directory.list().length);
+    }
+
+    public void testMergeRandomRuns()
+    {
+        Random random = new Random(5);
+        SortedLongRuns runs = new SortedLongRuns(directory);
+        TreeSet reference = new TreeSet();
+        for (int run = 0; run < 10; run++) {
+            long[] values = new long[1 + random.nextInt(20000)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextInt(100000) - 50000L;
+                reference.add(new Long(values[i]));
+            }
+            Arrays.sort(values);
+            runs.add(values, SortedLongRuns.distinct(values, values.length));
+        }
+
+        long[] buffer = {-100000, 100000};
+        reference.add(new Long(-100000));
+        reference.add(new Long(100000));
+        assertEquals(reference.size(), runs.compact(buffer, 2));
+        for (int i = 0; i < 1000; i++) {
+            long value = random.nextInt(200002) - 100001L;
+            assertEquals(reference.contains(new Long(value)), runs.contains(value));
+        }
+    }
+
+    public void testSort()
+    {
+        SortedLongRuns runs = new SortedLongRuns(directory);
+        runs.add(new long[]{1, 2, 3, 4, 5, 6}, 6);
+        runs.add(new long[]{2, 10}, 2);
+
+        SortedLongRuns.Cursor cursor = runs.sort(new SortedLongRuns.Mapping()
+        {
+            public long map(long value)
+            {
+                return -(value / 2);
+            }
+        }, 3);
+
+        long[] expected = {-5, -3, -2, -1, 0};
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(cursor.next());
+            assertEquals(expected[i], cursor.getValue());
+        }
+        assertFalse(cursor.next());
+        assertEquals(2, directory.list().length);
+    }
+
+    public void testDistinct()
+    {
+        long[] values = {1, 1, 2, 3, 3, 3, 4};
+        assertEquals(4, SortedLongRuns.distinct(values, values.length));
+        assertEquals(4, values[3]);
+        assertEquals(0, SortedLongRuns.distinct(values, 0));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2010 SOFTEC sa. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package lu.softec.maven.mavenizer.analyzer.mavenasm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.objectweb.asm.ClassReader;
+
+import lu.softec.maven.mavenizer.analyzer.ClassAnalyser;
+
+/**
+ * Compare the dependencies extracted from the constant pool with those found by visiting classes with ASM
+ */
+public class ConstantPoolDependencyExtractorTest extends TestCase
+{
+    /**
+     * Classes compared, with generic signatures, annotations, inner classes and anonymous classes
+     */
+    private static final String[] CLASSES = {
+        "junit/framework/TestCase",
+        "junit/framework/TestSuite",
+        "junit/framework/TestSuite$1",
+        "org/objectweb/asm/ClassReader",
+        "lu/softec/maven/mavenizer/analyzer/dependency/ClassDependencyAnalyser",
+        "lu/softec/maven/mavenizer/analyzer/dependency/ClassDependencyAnalyser$DuplicateClass",
+        "lu/softec/maven/mavenizer/analyzer/MappedZipFile",
+        "java/lang/Thread",
+        "java/util/HashMap",
+        "java/lang/annotation/Retention"
+    };
+
+    /**
+     * Library file of the compared classes
+     */
+    private static final File FILE = new File("test.jar");
+
+    /**
+     * Analyser recording the classes and the dependencies found
+     */
+    private static final class Recorder implements ClassAnalyser
+    {
+        /**
+         * Classes and dependencies found, as strings
+         */
+        private final Set found = new TreeSet();
+
+        public boolean addClass(File file, String name)
+        {
+            return found.add("class " + name + " in " + file.getName());
+        }
+
+        public boolean addClass(File file, String name, long digest)
+        {
+            return addClass(file, name);
+        }
+
+        public boolean addDependency(String from, String to)
+        {
+            return found.add(from + " -> " + to);
+        }
+
+        public boolean addDependencies(String from, Collection to)
+        {
+            boolean added = false;
+            for (Iterator it = to.iterator(); it.hasNext();) {
+                added |= addDependency(from, (String) it.next());
+            }
+            return added;
+        }
+    }
+
+    public void testSameDependencies() throws IOException
+    {
+        for (int i = 0; i < CLASSES.length; i++) {
+            byte[] bytecode = getBytecode(CLASSES[i]);
+
+            Recorder visited = new Recorder();
+            ClassDependencyVisitor visitor = new ClassDependencyVisitor(visited);
+            visitor.setFile(FILE);
+            new ClassReader(bytecode).accept(visitor, ClassReader.SKIP_DEBUG ^ ClassReader.EXPAND_FRAMES);
+
+            Recorder extracted = new Recorder();
+            ConstantPoolDependencyExtractor extractor = new ConstantPoolDependencyExtractor(extracted);
+            extractor.setFile(FILE);
+            extractor.extract(bytecode, 0, bytecode.length);
+
+            assertTrue(CLASSES[i], visited.found.contains("class " + CLASSES[i] + " in " + FILE.getName()));
+            assertEquals(CLASSES[i], visited.found, extracted.found);
+        }
+    }
+
+    public void testOffsetBytecode() throws IOException
+    {
+        byte[] bytecode = getBytecode(CLASSES[0]);
+        byte[] buffer = new byte[bytecode.length + 20];
+        System.arraycopy(bytecode, 0, buffer, 10, bytecode.length);
+
+        Recorder direct = new Recorder();
+        ConstantPoolDependencyExtractor extractor = new ConstantPoolDependencyExtractor(direct);
+        extractor.setFile(FILE);
+        extractor.extract(bytecode, 0, bytecode.length);
+
+        Recorder offset = new Recorder();
+        extractor = new ConstantPoolDependencyExtractor(offset);
+        extractor.setFile(FILE);
+        extractor.extract(buffer, 10, bytecode.length);
+
+        assertEquals(direct.found, offset.found);
+    }
+
+    public void testInvalidClass()
+    {
+        ConstantPoolDependencyExtractor extractor = new ConstantPoolDependencyExtractor(new Recorder());
+        extractor.setFile(FILE);
+        try {
+            extractor.extract(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 0, 8);
+            fail("Invalid class accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Read the bytecode of a class of the test class path
+     *
+     * @param name the internal name of the class
+     * @return the bytecode of the class
+     * @throws IOException if the class could not be read
+     */
+    private byte[] getBytecode(String name) throws IOException
+    {
+        InputStream in = getClass().getResourceAsStream("/" + name + ".class");
+        assertNotNull(name, in);
+        try {
+            return IOUtil.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+}